@@ -34,6 +34,13 @@
 package org.noise_planet.noisemodelling.emission;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.noise_planet.noisemodelling.propagation.ComputeRays;
 
@@ -54,6 +61,24 @@ public class EvaluateRoadSourceCnossos {
 
     private static JsonNode cnossosData = parse(EvaluateRoadSourceCnossos.class.getResourceAsStream("coefficients_cnossos.json"));
     private static JsonNode cnossosData2019 = parse(EvaluateRoadSourceCnossos.class.getResourceAsStream("coefficients_cnossos2019.json"));
+    /** Vehicle categories, light, medium, heavy, two wheels a and b */
+    public static final List<String> VEHICLE_CATEGORIES = Collections.unmodifiableList(Arrays.asList("1", "2", "3", "4a", "4b"));
+    /** Vehicle coefficients */
+    public static final List<String> VEHICLE_COEFFICIENTS = Collections.unmodifiableList(Arrays.asList("ar", "br", "ap", "bp", "a", "b"));
+    private static final int BAND_COUNT = 8;
+    private static final int LV = 0;
+    private static final int MV = 1;
+    private static final int HGV = 2;
+    private static final int WAV = 3;
+    private static final int WBV = 4;
+    private static final int AR = 0;
+    private static final int BR = 1;
+    private static final int AP = 2;
+    private static final int BP = 3;
+    private static final int A = 4;
+    private static final int B = 5;
+    private static final CoefficientTable cnossosTable = new CoefficientTable(cnossosData);
+    private static final CoefficientTable cnossosTable2019 = new CoefficientTable(cnossosData2019);
 
     private static JsonNode parse(InputStream inputStream) {
         try {
@@ -73,53 +98,65 @@ public class EvaluateRoadSourceCnossos {
         }
     }
 
-    /** Get a Road Coeff by Freq **/
-    public static Double getA_Roadcoeff(int Freq, String vehCat, String RoadSurface, int coeffVer) { //CNOSSOS-EU_Road_Catalogue_Final - 01April2014.xlsx - https://circabc.europa.eu/webdav/CircaBC/env/noisedir/Library/Public/cnossos-eu/Final_methods%26software
-        int Freq_ind;
-        int VehCat_ind;
-        double out_value;
-        switch (Freq) {
+    /**
+     * @param freq Frequency in Hz
+     * @return Frequency band index, 0 = 63 Hz, 1 = 125 Hz, etc. 0 if the frequency is unknown
+     */
+    public static int getFrequencyIndex(int freq) {
+        switch (freq) {
             case 63:
-                Freq_ind=0;
-                break;
+                return 0;
             case 125:
-                Freq_ind=1;
-                break;
+                return 1;
             case 250:
-                Freq_ind=2;
-                break;
+                return 2;
             case 500:
-                Freq_ind=3;
-                break;
+                return 3;
             case 1000:
-                Freq_ind=4;
-                break;
+                return 4;
             case 2000:
-                Freq_ind=5;
-                break;
+                return 5;
             case 4000:
-                Freq_ind=6;
-                break;
+                return 6;
             case 8000:
-                Freq_ind=7;
-                break;
+                return 7;
             default:
-                Freq_ind=0;
+                return 0;
+        }
+    }
+
+    /**
+     * @param coeffVer Coefficients version, 1 for CNOSSOS 2015 else 2019
+     * @return Coefficients of this version compiled into primitive tables
+     */
+    public static CoefficientTable getCoefficientTable(int coeffVer) {
+        if (coeffVer==1){
+            return cnossosTable;
+        }
+        else {
+            return cnossosTable2019;
         }
-        return getCnossosData(coeffVer).get("roads").get(RoadSurface).get("ref").get(vehCat).get("spectrum").get(Freq_ind).doubleValue();
+    }
+
+    /** Get a Road Coeff by Freq **/
+    public static Double getA_Roadcoeff(int Freq, String vehCat, String RoadSurface, int coeffVer) { //CNOSSOS-EU_Road_Catalogue_Final - 01April2014.xlsx - https://circabc.europa.eu/webdav/CircaBC/env/noisedir/Library/Public/cnossos-eu/Final_methods%26software
+        CoefficientTable table = getCoefficientTable(coeffVer);
+        return table.getRoadSpectrum(table.getSurfaceIndex(RoadSurface), getVehicleCategoryIndex(vehCat),
+                getFrequencyIndex(Freq));
     }
 
     /** Get b Road Coeff by Freq **/
     public static Double getB_Roadcoeff(String vehCat, String roadSurface, int coeffVer) { //CNOSSOS-EU_Road_Catalogue_Final - 01April2014.xlsx - https://circabc.europa.eu/webdav/CircaBC/env/noisedir/Library/Public/cnossos-eu/Final_methods%26software
-        return getCnossosData(coeffVer).get("roads").get(roadSurface).get("ref").get(vehCat).get("ßm").doubleValue();
+        CoefficientTable table = getCoefficientTable(coeffVer);
+        return table.getRoadBeta(table.getSurfaceIndex(roadSurface), getVehicleCategoryIndex(vehCat));
     }
 
     public static double getCr(String vehCat, int k, int coeffVer) {
-        return getCnossosData(coeffVer).get("vehicles").get(vehCat).get(k == 1 ? "crossing" : "roundabout").get("cr").doubleValue();
+        return getCoefficientTable(coeffVer).getCr(getVehicleCategoryIndex(vehCat), k);
     }
 
     public static double getCp(String vehCat, int k, int coeffVer) {
-        return getCnossosData(coeffVer).get("vehicles").get(vehCat).get(k == 1 ? "crossing" : "roundabout").get("cp").doubleValue();
+        return getCoefficientTable(coeffVer).getCp(getVehicleCategoryIndex(vehCat), k);
     }
 
     /**
@@ -130,46 +167,159 @@ public class EvaluateRoadSourceCnossos {
      * @return
      */
     public static Double getCoeff(String coeff, int freq, String vehicleCategory, int coeffVer) {
-        int Freq_ind;
-        switch (freq) {
-            case 63:
-                Freq_ind=0;
-                break;
-            case 125:
-                Freq_ind=1;
-                break;
-            case 250:
-                Freq_ind=2;
-                break;
-            case 500:
-                Freq_ind=3;
-                break;
-            case 1000:
-                Freq_ind=4;
-                break;
-            case 2000:
-                Freq_ind=5;
-                break;
-            case 4000:
-                Freq_ind=6;
-                break;
-            case 8000:
-                Freq_ind=7;
-                break;
-            default:
-                Freq_ind=0;
+        int coeffIndex = VEHICLE_COEFFICIENTS.indexOf(coeff);
+        if (coeffIndex < 0) {
+            throw new IllegalArgumentException("Unknown vehicle coefficient " + coeff);
+        }
+        return getCoefficientTable(coeffVer).getVehicleCoeff(coeffIndex, getVehicleCategoryIndex(vehicleCategory),
+                getFrequencyIndex(freq));
+    }
+
+    /**
+     * @param vehCat 1,2,3,4a,4b
+     * @return Index of the vehicle category in {@link #VEHICLE_CATEGORIES}
+     */
+    public static int getVehicleCategoryIndex(String vehCat) {
+        int index = VEHICLE_CATEGORIES.indexOf(vehCat);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown vehicle category " + vehCat);
+        }
+        return index;
+    }
+
+    /**
+     * CNOSSOS coefficients json compiled into flat primitive tables
+     * indexed by (surface, vehicle category, frequency band). Missing values are stored as NaN, the getters throw
+     * {@link IllegalArgumentException} when they are read.
+     */
+    public static final class CoefficientTable {
+        private final Map<String, Integer> surfaceIndex = new HashMap<>();
+        // [(coefficient * vehicle count + vehicle) * band count + band]
+        private final double[] vehicleCoeff;
+        // [vehicle], crossing and roundabout
+        private final double[] crCrossing;
+        private final double[] crRoundabout;
+        private final double[] cpCrossing;
+        private final double[] cpRoundabout;
+        // [(surface * vehicle count + vehicle) * band count + band]
+        private final double[] roadSpectrum;
+        // [surface * vehicle count + vehicle]
+        private final double[] roadBeta;
+
+        CoefficientTable(JsonNode data) {
+            int vehicleCount = VEHICLE_CATEGORIES.size();
+            vehicleCoeff = new double[VEHICLE_COEFFICIENTS.size() * vehicleCount * BAND_COUNT];
+            crCrossing = new double[vehicleCount];
+            crRoundabout = new double[vehicleCount];
+            cpCrossing = new double[vehicleCount];
+            cpRoundabout = new double[vehicleCount];
+            JsonNode vehicles = data.path("vehicles");
+            for (int veh = 0; veh < vehicleCount; veh++) {
+                JsonNode vehicle = vehicles.path(VEHICLE_CATEGORIES.get(veh));
+                for (int coeff = 0; coeff < VEHICLE_COEFFICIENTS.size(); coeff++) {
+                    JsonNode values = vehicle.path(VEHICLE_COEFFICIENTS.get(coeff));
+                    for (int band = 0; band < BAND_COUNT; band++) {
+                        vehicleCoeff[(coeff * vehicleCount + veh) * BAND_COUNT + band] = toDouble(values.path(band));
+                    }
+                }
+                crCrossing[veh] = toDouble(vehicle.path("crossing").path("cr"));
+                crRoundabout[veh] = toDouble(vehicle.path("roundabout").path("cr"));
+                cpCrossing[veh] = toDouble(vehicle.path("crossing").path("cp"));
+                cpRoundabout[veh] = toDouble(vehicle.path("roundabout").path("cp"));
+            }
+            JsonNode roads = data.path("roads");
+            List<String> surfaces = new ArrayList<>();
+            Iterator<String> fieldNames = roads.fieldNames();
+            while (fieldNames.hasNext()) {
+                surfaces.add(fieldNames.next());
+            }
+            roadSpectrum = new double[surfaces.size() * vehicleCount * BAND_COUNT];
+            roadBeta = new double[surfaces.size() * vehicleCount];
+            for (int surface = 0; surface < surfaces.size(); surface++) {
+                surfaceIndex.put(surfaces.get(surface), surface);
+                JsonNode ref = roads.path(surfaces.get(surface)).path("ref");
+                for (int veh = 0; veh < vehicleCount; veh++) {
+                    JsonNode vehicle = ref.path(VEHICLE_CATEGORIES.get(veh));
+                    JsonNode spectrum = vehicle.path("spectrum");
+                    for (int band = 0; band < BAND_COUNT; band++) {
+                        roadSpectrum[(surface * vehicleCount + veh) * BAND_COUNT + band] = toDouble(spectrum.path(band));
+                    }
+                    roadBeta[surface * vehicleCount + veh] = toDouble(vehicle.path("ßm"));
+                }
+            }
+        }
+
+        private static double toDouble(JsonNode node) {
+            return node.isMissingNode() ? Double.NaN : node.doubleValue();
+        }
+
+        private static double checkDefined(double value, String coefficient, int veh) {
+            if (Double.isNaN(value)) {
+                throw new IllegalArgumentException("Missing coefficient " + coefficient + " of vehicle category " +
+                        VEHICLE_CATEGORIES.get(veh));
+            }
+            return value;
+        }
+
+        /**
+         * @param roadSurface Road surface name, NL01 FR01 ..
+         * @return Surface index
+         * @throws IllegalArgumentException If the surface is not in the coefficients
+         */
+        public int getSurfaceIndex(String roadSurface) {
+            Integer index = surfaceIndex.get(roadSurface);
+            if (index == null) {
+                throw new IllegalArgumentException("Unknown road surface " + roadSurface);
+            }
+            return index;
+        }
+
+        /**
+         * @param coeff Index in {@link #VEHICLE_COEFFICIENTS}
+         * @param veh Index in {@link #VEHICLE_CATEGORIES}
+         * @param band Frequency band index
+         */
+        public double getVehicleCoeff(int coeff, int veh, int band) {
+            return checkDefined(vehicleCoeff[(coeff * VEHICLE_CATEGORIES.size() + veh) * BAND_COUNT + band],
+                    VEHICLE_COEFFICIENTS.get(coeff), veh);
+        }
+
+        /**
+         * @param veh Index in {@link #VEHICLE_CATEGORIES}
+         * @param k 1 for a crossing with traffic lights, roundabout otherwise
+         */
+        public double getCr(int veh, int k) {
+            return k == 1 ? checkDefined(crCrossing[veh], "crossing cr", veh) :
+                    checkDefined(crRoundabout[veh], "roundabout cr", veh);
+        }
+
+        /**
+         * @param veh Index in {@link #VEHICLE_CATEGORIES}
+         * @param k 1 for a crossing with traffic lights, roundabout otherwise
+         */
+        public double getCp(int veh, int k) {
+            return k == 1 ? checkDefined(cpCrossing[veh], "crossing cp", veh) :
+                    checkDefined(cpRoundabout[veh], "roundabout cp", veh);
+        }
+
+        public double getRoadSpectrum(int surface, int veh, int band) {
+            return checkDefined(roadSpectrum[(surface * VEHICLE_CATEGORIES.size() + veh) * BAND_COUNT + band],
+                    "road spectrum", veh);
+        }
+
+        public double getRoadBeta(int surface, int veh) {
+            return checkDefined(roadBeta[surface * VEHICLE_CATEGORIES.size() + veh], "road ßm", veh);
         }
-        return getCnossosData(coeffVer).get("vehicles").get(vehicleCategory).get(coeff).get(Freq_ind).doubleValue();
     }
 
     /** get noise level from speed **/
-    private static Double getNoiseLvl(double base, double adj, double speed,
+    private static double getNoiseLvl(double base, double adj, double speed,
                                       double speedBase) {
         return base + adj * Math.log10(speed / speedBase);
     }
 
     /** compute Noise Level from flow_rate and speed **/
-    private static Double Vperhour2NoiseLevel(double NoiseLevel, double vperhour, double speed) {
+    private static double Vperhour2NoiseLevel(double NoiseLevel, double vperhour, double speed) {
         if (speed > 0) {
             return NoiseLevel + 10 * Math.log10(vperhour / (1000 * speed));
         }else{
@@ -180,11 +330,11 @@ public class EvaluateRoadSourceCnossos {
 
 
     /** get sum dBa **/
-    private static Double sumDba(Double dBA1, Double dBA2) {
+    private static double sumDba(double dBA1, double dBA2) {
         return ComputeRays.wToDba(ComputeRays.dbaToW(dBA1) + ComputeRays.dbaToW(dBA2));
     }
 
-    private static Double sumDba_5(Double dBA1, Double dBA2, Double dBA3, Double dBA4, Double dBA5) {
+    private static double sumDba_5(double dBA1, double dBA2, double dBA3, double dBA4, double dBA5) {
         return ComputeRays.wToDba(ComputeRays.dbaToW(dBA1) + ComputeRays.dbaToW(dBA2) + ComputeRays.dbaToW(dBA3) + ComputeRays.dbaToW(dBA4) + ComputeRays.dbaToW(dBA5));
     }
 
@@ -194,14 +344,46 @@ public class EvaluateRoadSourceCnossos {
      * @return Noise level in dB
      */
     public static double evaluate(RSParametersCnossos parameters) {
-        final int freqParam = parameters.getFreqParam();
+        CoefficientTable table = getCoefficientTable(parameters.getCoeffVer());
+        return evaluate(parameters, table, table.getSurfaceIndex(parameters.getRoadSurface()),
+                getFrequencyIndex(parameters.getFreqParam()));
+    }
+
+    /**
+     * Road noise evaluation of many road segments. Coefficient tables and road surface indices are resolved once
+     * for consecutive segments sharing the same coefficients version and road surface.
+     * @param parameters Noise emission parameters of each road segment
+     * @param levels Output noise level in dB of each road segment, same length as parameters
+     */
+    public static void evaluate(RSParametersCnossos[] parameters, double[] levels) {
+        if (levels.length < parameters.length) {
+            throw new IllegalArgumentException("Output array is smaller than parameters array");
+        }
+        CoefficientTable table = null;
+        int coeffVer = 0;
+        String roadSurface = null;
+        int surface = -1;
+        for (int i = 0; i < parameters.length; i++) {
+            RSParametersCnossos segment = parameters[i];
+            if (table == null || segment.getCoeffVer() != coeffVer) {
+                coeffVer = segment.getCoeffVer();
+                table = getCoefficientTable(coeffVer);
+                roadSurface = null;
+            }
+            if (roadSurface == null || !roadSurface.equals(segment.getRoadSurface())) {
+                roadSurface = segment.getRoadSurface();
+                surface = table.getSurfaceIndex(roadSurface);
+            }
+            levels[i] = evaluate(segment, table, surface, getFrequencyIndex(segment.getFreqParam()));
+        }
+    }
+
+    private static double evaluate(RSParametersCnossos parameters, CoefficientTable table, int surface, int band) {
         final double Temperature = parameters.getTemperature();
         final double Ts_stud = parameters.getTs_stud();
         final double Pm_stud = parameters.getPm_stud();
         final double Junc_dist = parameters.getJunc_dist();
         final int Junc_type = parameters.getJunc_type();
-        final String roadSurface = parameters.getRoadSurface();
-        final int coeffVer = parameters.getCoeffVer();
 
         // ///////////////////////
         // Noise road/tire CNOSSOS
@@ -212,11 +394,11 @@ public class EvaluateRoadSourceCnossos {
         double wheelbRoadLvl;// Lw/m (1 veh/h)
 
         // Noise level
-        lvRoadLvl = getNoiseLvl(getCoeff("ar", freqParam , "1"  ,coeffVer), getCoeff("br", freqParam , "1"  ,coeffVer), parameters.getSpeedLv(), 70.);
-        medRoadLvl = getNoiseLvl(getCoeff("ar", freqParam , "2" ,coeffVer ), getCoeff("br", freqParam , "2" ,coeffVer ), parameters.getSpeedMv(), 70.);
-        hgvRoadLvl = getNoiseLvl(getCoeff("ar", freqParam , "3"  ,coeffVer), getCoeff("br", freqParam , "3" ,coeffVer ), parameters.getSpeedHgv(), 70.);
-        wheelaRoadLvl = getNoiseLvl(getCoeff("ar", freqParam , "4a" ,coeffVer ), getCoeff("br", freqParam , "4a" ,coeffVer ), parameters.getSpeedWav(), 70.);
-        wheelbRoadLvl = getNoiseLvl(getCoeff("ar", freqParam , "4b"  ,coeffVer), getCoeff("br", freqParam , "4b" ,coeffVer ), parameters.getSpeedWbv(), 70.);
+        lvRoadLvl = getNoiseLvl(table.getVehicleCoeff(AR, LV, band), table.getVehicleCoeff(BR, LV, band), parameters.getSpeedLv(), 70.);
+        medRoadLvl = getNoiseLvl(table.getVehicleCoeff(AR, MV, band), table.getVehicleCoeff(BR, MV, band), parameters.getSpeedMv(), 70.);
+        hgvRoadLvl = getNoiseLvl(table.getVehicleCoeff(AR, HGV, band), table.getVehicleCoeff(BR, HGV, band), parameters.getSpeedHgv(), 70.);
+        wheelaRoadLvl = getNoiseLvl(table.getVehicleCoeff(AR, WAV, band), table.getVehicleCoeff(BR, WAV, band), parameters.getSpeedWav(), 70.);
+        wheelbRoadLvl = getNoiseLvl(table.getVehicleCoeff(AR, WBV, band), table.getVehicleCoeff(BR, WBV, band), parameters.getSpeedWbv(), 70.);
 
         // Correction by temperature p. 36
         lvRoadLvl = lvRoadLvl+ 0.08*(20-Temperature); // K = 0.08  p. 36
@@ -225,9 +407,9 @@ public class EvaluateRoadSourceCnossos {
 
 
         // Rolling noise acceleration correction
-        lvRoadLvl = lvRoadLvl + getCr("1", Junc_type,coeffVer) * Math.max(1-Math.abs(Junc_dist)/100,0) ;
-        medRoadLvl = medRoadLvl + getCr("2", Junc_type,coeffVer)  * Math.max(1-Math.abs(Junc_dist)/100,0);
-        hgvRoadLvl = hgvRoadLvl + getCr("3", Junc_type,coeffVer)  * Math.max(1-Math.abs(Junc_dist)/100,0);
+        lvRoadLvl = lvRoadLvl + table.getCr(LV, Junc_type) * Math.max(1-Math.abs(Junc_dist)/100,0) ;
+        medRoadLvl = medRoadLvl + table.getCr(MV, Junc_type)  * Math.max(1-Math.abs(Junc_dist)/100,0);
+        hgvRoadLvl = hgvRoadLvl + table.getCr(HGV, Junc_type)  * Math.max(1-Math.abs(Junc_dist)/100,0);
 
         //Studied tyres
         if (Pm_stud >0 && Ts_stud > 0) {
@@ -236,34 +418,34 @@ public class EvaluateRoadSourceCnossos {
             double ps = Pm_stud * Ts_stud / 12; //yearly average proportion of vehicles equipped with studded tyres
             speed = (speed >= 90) ? 90 : speed;
             speed = (speed <= 50) ? 50 : speed;
-            deltastud = getNoiseLvl(getCoeff("a", freqParam, "1",coeffVer), getCoeff("b", freqParam, "1",coeffVer), speed, 70.);
+            deltastud = getNoiseLvl(table.getVehicleCoeff(A, LV, band), table.getVehicleCoeff(B, LV, band), speed, 70.);
             lvRoadLvl = lvRoadLvl + 10 * Math.log10((1 - ps) + ps * Math.pow(10, deltastud / 10));
         }
 
         //Road surface correction on rolling noise
-        lvRoadLvl = lvRoadLvl+ getNoiseLvl(getA_Roadcoeff(freqParam,"1", parameters.getRoadSurface(),coeffVer), getB_Roadcoeff("1",roadSurface,coeffVer), parameters.getSpeedLv(), 70.);
-        medRoadLvl = medRoadLvl + getNoiseLvl(getA_Roadcoeff(freqParam,"2", parameters.getRoadSurface(),coeffVer), getB_Roadcoeff("2",roadSurface,coeffVer), parameters.getSpeedMv(), 70.);
-        hgvRoadLvl = hgvRoadLvl + getNoiseLvl(getA_Roadcoeff(freqParam,"3", parameters.getRoadSurface(),coeffVer), getB_Roadcoeff("3",roadSurface,coeffVer), parameters.getSpeedHgv(), 70.);
-        wheelaRoadLvl = wheelaRoadLvl + getNoiseLvl(getA_Roadcoeff(freqParam,"4a", parameters.getRoadSurface(),coeffVer), getB_Roadcoeff("4a",roadSurface,coeffVer), parameters.getSpeedWav(), 70.);
-        wheelbRoadLvl = wheelbRoadLvl + getNoiseLvl(getA_Roadcoeff(freqParam,"4b", parameters.getRoadSurface(),coeffVer), getB_Roadcoeff("4b",roadSurface,coeffVer), parameters.getSpeedWbv(), 70.);
+        lvRoadLvl = lvRoadLvl+ getNoiseLvl(table.getRoadSpectrum(surface, LV, band), table.getRoadBeta(surface, LV), parameters.getSpeedLv(), 70.);
+        medRoadLvl = medRoadLvl + getNoiseLvl(table.getRoadSpectrum(surface, MV, band), table.getRoadBeta(surface, MV), parameters.getSpeedMv(), 70.);
+        hgvRoadLvl = hgvRoadLvl + getNoiseLvl(table.getRoadSpectrum(surface, HGV, band), table.getRoadBeta(surface, HGV), parameters.getSpeedHgv(), 70.);
+        wheelaRoadLvl = wheelaRoadLvl + getNoiseLvl(table.getRoadSpectrum(surface, WAV, band), table.getRoadBeta(surface, WAV), parameters.getSpeedWav(), 70.);
+        wheelbRoadLvl = wheelbRoadLvl + getNoiseLvl(table.getRoadSpectrum(surface, WBV, band), table.getRoadBeta(surface, WBV), parameters.getSpeedWbv(), 70.);
 
         // ///////////////////////
         // Noise motor
         // Calculate the emission powers of motors lights vehicles and heavies goods vehicles.
 
         // default or steady speed.
-        double lvMotorLvl = getCoeff("ap", freqParam , "1" ,coeffVer ) + getCoeff("bp", freqParam , "1" ,coeffVer ) * (parameters.getSpeedLv()-70)/70 ;
-        double medMotorLvl =  getCoeff("ap", freqParam , "2" ,coeffVer ) + getCoeff("bp", freqParam , "2" ,coeffVer ) * (parameters.getSpeedMv()-70)/70 ;
-        double hgvMotorLvl =  getCoeff("ap", freqParam , "3" ,coeffVer ) + getCoeff("bp", freqParam , "3" ,coeffVer ) * (parameters.getSpeedHgv()-70)/70 ;
-        double wheelaMotorLvl =  getCoeff("ap", freqParam , "4a" ,coeffVer ) + getCoeff("bp", freqParam , "4a" ,coeffVer ) * (parameters.getSpeedWav()-70)/70 ;
-        double wheelbMotorLvl =  getCoeff("ap", freqParam , "4b" ,coeffVer ) + getCoeff("bp", freqParam , "4b" ,coeffVer ) * (parameters.getSpeedWbv()-70)/70 ;
+        double lvMotorLvl = table.getVehicleCoeff(AP, LV, band) + table.getVehicleCoeff(BP, LV, band) * (parameters.getSpeedLv()-70)/70 ;
+        double medMotorLvl =  table.getVehicleCoeff(AP, MV, band) + table.getVehicleCoeff(BP, MV, band) * (parameters.getSpeedMv()-70)/70 ;
+        double hgvMotorLvl =  table.getVehicleCoeff(AP, HGV, band) + table.getVehicleCoeff(BP, HGV, band) * (parameters.getSpeedHgv()-70)/70 ;
+        double wheelaMotorLvl =  table.getVehicleCoeff(AP, WAV, band) + table.getVehicleCoeff(BP, WAV, band) * (parameters.getSpeedWav()-70)/70 ;
+        double wheelbMotorLvl =  table.getVehicleCoeff(AP, WBV, band) + table.getVehicleCoeff(BP, WBV, band) * (parameters.getSpeedWbv()-70)/70 ;
 
 
         // Propulsion noise acceleration correction
 
-        lvMotorLvl = lvMotorLvl + getCp("1", Junc_type,coeffVer) * Math.max(1-Math.abs(Junc_dist)/100,0) ;
-        medMotorLvl = medMotorLvl + getCp("2", Junc_type,coeffVer)  * Math.max(1-Math.abs(Junc_dist)/100,0);
-        hgvMotorLvl = hgvMotorLvl + getCp("3", Junc_type,coeffVer)  * Math.max(1-Math.abs(Junc_dist)/100,0);
+        lvMotorLvl = lvMotorLvl + table.getCp(LV, Junc_type) * Math.max(1-Math.abs(Junc_dist)/100,0) ;
+        medMotorLvl = medMotorLvl + table.getCp(MV, Junc_type)  * Math.max(1-Math.abs(Junc_dist)/100,0);
+        hgvMotorLvl = hgvMotorLvl + table.getCp(HGV, Junc_type)  * Math.max(1-Math.abs(Junc_dist)/100,0);
 
 
         // Correction gradient for light vehicle
@@ -294,11 +476,11 @@ public class EvaluateRoadSourceCnossos {
         }
 
         // Correction road on propulsion noise
-        lvMotorLvl = lvMotorLvl+ Math.min(getA_Roadcoeff(freqParam ,"1",roadSurface,coeffVer), 0.);
-        medMotorLvl = medMotorLvl + Math.min(getA_Roadcoeff(freqParam ,"2",roadSurface,coeffVer), 0.);
-        hgvMotorLvl = hgvMotorLvl + Math.min(getA_Roadcoeff(freqParam ,"3",roadSurface,coeffVer), 0.);
-        wheelaMotorLvl = wheelaMotorLvl + Math.min(getA_Roadcoeff(freqParam ,"4a",roadSurface,coeffVer), 0.);
-        wheelbMotorLvl = wheelbMotorLvl + Math.min(getA_Roadcoeff(freqParam ,"4b",roadSurface,coeffVer), 0.);
+        lvMotorLvl = lvMotorLvl+ Math.min(table.getRoadSpectrum(surface, LV, band), 0.);
+        medMotorLvl = medMotorLvl + Math.min(table.getRoadSpectrum(surface, MV, band), 0.);
+        hgvMotorLvl = hgvMotorLvl + Math.min(table.getRoadSpectrum(surface, HGV, band), 0.);
+        wheelaMotorLvl = wheelaMotorLvl + Math.min(table.getRoadSpectrum(surface, WAV, band), 0.);
+        wheelbMotorLvl = wheelbMotorLvl + Math.min(table.getRoadSpectrum(surface, WBV, band), 0.);
 
 
         final double lvCompound = sumDba(lvRoadLvl, lvMotorLvl);
@@ -33,6 +33,8 @@
  */
 package org.noise_planet.noisemodelling.emission;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.noise_planet.noisemodelling.propagation.ComputeRays;
 
@@ -396,225 +398,101 @@ public class EvaluateRoadSourceDynamic {
             {0., 0., 0., 0., 0., 0.},
             {0., 0., 0., 0., 0., 0.},
             {0., 0., 0., 0., 0., 0.}};
+    /** Frequency bands evaluated by the columnar entry points */
+    private static final int[] FREQUENCIES = {63, 125, 250, 500, 1000, 2000, 4000, 8000};
+    public static final int BAND_COUNT = FREQUENCIES.length;
+
+    /** Road surface coefficients, index is the RoadSurface parameter, 0 for unknown surfaces */
+    private static final double[][][] ROAD_SURFACES = {null, RoadCoeff_NL01, RoadCoeff_NL02, RoadCoeff_NL03,
+            RoadCoeff_NL04, RoadCoeff_NL05, RoadCoeff_NL06, RoadCoeff_NL07, RoadCoeff_NL08, RoadCoeff_NL09,
+            RoadCoeff_NL10, RoadCoeff_NL11, RoadCoeff_NL12, RoadCoeff_NL13, RoadCoeff_NL14, RoadCoeff_FR1,
+            RoadCoeff_FR2, RoadCoeff_FR3, RoadCoeff_FR4, RoadCoeff_FR5, RoadCoeff_FR6};
+
+    /** Vehicle coefficients [vehicle index][band][coefficient]. Category 5 uses light vehicles coefficients. **/
+    private static final double[][][] VEHICLE_COEFF = {VehCat1, VehCat2, VehCat3, VehCat41, VehCat42, VehCat1};
+
+    /** Road surface A coefficient [surface][vehicle index][band] */
+    private static final double[][][] ROAD_A = new double[ROAD_SURFACES.length][VEHICLE_COEFF.length][BAND_COUNT];
+
+    /** Road surface B coefficient [surface][vehicle index] */
+    private static final double[][] ROAD_B = new double[ROAD_SURFACES.length][VEHICLE_COEFF.length];
+
+    static {
+        // Unknown surface (index 0) keeps null coefficients
+        for (int surface = 1; surface < ROAD_SURFACES.length; surface++) {
+            for (int veh = 0; veh < VEHICLE_COEFF.length; veh++) {
+                for (int band = 0; band < BAND_COUNT; band++) {
+                    ROAD_A[surface][veh][band] = ROAD_SURFACES[surface][band][veh];
+                }
+                ROAD_B[surface][veh] = ROAD_SURFACES[surface][8][veh];
+            }
+        }
+    }
 
-
-    /** Get a Road Coeff by Freq **/
-    public static Double getA_Roadcoeff(int Freq, int VehCat, int RoadSurface) { //CNOSSOS-EU_Road_Catalogue_Final - 01April2014.xlsx - https://circabc.europa.eu/webdav/CircaBC/env/noisedir/Library/Public/cnossos-eu/Final_methods%26software
-        int Freq_ind;
-        int VehCat_ind;
-        double out_value;
-        switch (Freq) {
+    /**
+     * @param freq Frequency in Hz
+     * @return Frequency band index, 0 = 63 Hz, 1 = 125 Hz, etc. 0 if the frequency is unknown
+     */
+    public static int getFrequencyIndex(int freq) {
+        switch (freq) {
             case 63:
-                Freq_ind = 0;
-                break;
+                return 0;
             case 125:
-                Freq_ind = 1;
-                break;
+                return 1;
             case 250:
-                Freq_ind = 2;
-                break;
+                return 2;
             case 500:
-                Freq_ind = 3;
-                break;
+                return 3;
             case 1000:
-                Freq_ind = 4;
-                break;
+                return 4;
             case 2000:
-                Freq_ind = 5;
-                break;
+                return 5;
             case 4000:
-                Freq_ind = 6;
-                break;
+                return 6;
             case 8000:
-                Freq_ind = 7;
-                break;
+                return 7;
             default:
-                Freq_ind = 0;
+                return 0;
         }
+    }
+
+    /**
+     * @param VehCat Vehicle category 1, 2, 3, 41, 42 or 5
+     * @return Index in the coefficient tables, 0 (light vehicles) if the category is unknown
+     */
+    private static int getVehicleIndex(int VehCat) {
         switch (VehCat) {
-            case 1:
-                VehCat_ind = 0;
-                break;
             case 2:
-                VehCat_ind = 1;
-                break;
+                return 1;
             case 3:
-                VehCat_ind = 2;
-                break;
+                return 2;
             case 41:
-                VehCat_ind = 3;
-                break;
+                return 3;
             case 42:
-                VehCat_ind = 4;
-                break;
+                return 4;
             case 5:
-                VehCat_ind = 5;
-                break;
+                return 5;
             default:
-                VehCat_ind = 0;
+                return 0;
         }
+    }
 
-        switch (RoadSurface) {
-            case 1:
-                out_value = RoadCoeff_NL01[Freq_ind][VehCat_ind];
-                break;
-            case 2:
-                out_value = RoadCoeff_NL02[Freq_ind][VehCat_ind];
-                break;
-            case 3:
-                out_value = RoadCoeff_NL03[Freq_ind][VehCat_ind];
-                break;
-            case 4:
-                out_value = RoadCoeff_NL04[Freq_ind][VehCat_ind];
-                break;
-            case 5:
-                out_value = RoadCoeff_NL05[Freq_ind][VehCat_ind];
-                break;
-            case 6:
-                out_value = RoadCoeff_NL06[Freq_ind][VehCat_ind];
-                break;
-            case 7:
-                out_value = RoadCoeff_NL07[Freq_ind][VehCat_ind];
-                break;
-            case 8:
-                out_value = RoadCoeff_NL08[Freq_ind][VehCat_ind];
-                break;
-            case 9:
-                out_value = RoadCoeff_NL09[Freq_ind][VehCat_ind];
-                break;
-            case 10:
-                out_value = RoadCoeff_NL10[Freq_ind][VehCat_ind];
-                break;
-            case 11:
-                out_value = RoadCoeff_NL11[Freq_ind][VehCat_ind];
-                break;
-            case 12:
-                out_value = RoadCoeff_NL12[Freq_ind][VehCat_ind];
-                break;
-            case 13:
-                out_value = RoadCoeff_NL13[Freq_ind][VehCat_ind];
-                break;
-            case 14:
-                out_value = RoadCoeff_NL14[Freq_ind][VehCat_ind];
-                break;
-            case 15:
-                out_value = RoadCoeff_FR1[Freq_ind][VehCat_ind];
-                break;
-            case 16:
-                out_value = RoadCoeff_FR2[Freq_ind][VehCat_ind];
-                break;
-            case 17:
-                out_value = RoadCoeff_FR3[Freq_ind][VehCat_ind];
-                break;
-            case 18:
-                out_value = RoadCoeff_FR4[Freq_ind][VehCat_ind];
-                break;
-            case 19:
-                out_value = RoadCoeff_FR5[Freq_ind][VehCat_ind];
-                break;
-            case 20:
-                out_value = RoadCoeff_FR6[Freq_ind][VehCat_ind];
-                break;
-            default:
-                out_value = 0;
-                break;
-        }
-        return out_value;
+    /**
+     * @param RoadSurface Road surface from 1 to 20
+     * @return Index in the road tables, 0 if the surface is unknown
+     */
+    private static int getRoadSurfaceIndex(int RoadSurface) {
+        return RoadSurface >= 1 && RoadSurface < ROAD_SURFACES.length ? RoadSurface : 0;
+    }
+
+    /** Get a Road Coeff by Freq **/
+    public static Double getA_Roadcoeff(int Freq, int VehCat, int RoadSurface) { //CNOSSOS-EU_Road_Catalogue_Final - 01April2014.xlsx - https://circabc.europa.eu/webdav/CircaBC/env/noisedir/Library/Public/cnossos-eu/Final_methods%26software
+        return ROAD_A[getRoadSurfaceIndex(RoadSurface)][getVehicleIndex(VehCat)][getFrequencyIndex(Freq)];
     }
 
     /** Get b Road Coeff by Freq **/
     public static Double getB_Roadcoeff(int VehCat, int RoadSurface) { //CNOSSOS-EU_Road_Catalogue_Final - 01April2014.xlsx - https://circabc.europa.eu/webdav/CircaBC/env/noisedir/Library/Public/cnossos-eu/Final_methods%26software
-        double out_value;
-        int VehCat_ind;
-        switch (VehCat) {
-            case 1:
-                VehCat_ind = 0;
-                break;
-            case 2:
-                VehCat_ind = 1;
-                break;
-            case 3:
-                VehCat_ind = 2;
-                break;
-            case 41:
-                VehCat_ind = 3;
-                break;
-            case 42:
-                VehCat_ind = 4;
-                break;
-            case 5:
-                VehCat_ind = 5;
-                break;
-            default:
-                VehCat_ind = 0;
-        }
-
-        switch (RoadSurface) {
-            case 1:
-                out_value = RoadCoeff_NL01[8][VehCat_ind];
-                break;
-            case 2:
-                out_value = RoadCoeff_NL02[8][VehCat_ind];
-                break;
-            case 3:
-                out_value = RoadCoeff_NL03[8][VehCat_ind];
-                break;
-            case 4:
-                out_value = RoadCoeff_NL04[8][VehCat_ind];
-                break;
-            case 5:
-                out_value = RoadCoeff_NL05[8][VehCat_ind];
-                break;
-            case 6:
-                out_value = RoadCoeff_NL06[8][VehCat_ind];
-                break;
-            case 7:
-                out_value = RoadCoeff_NL07[8][VehCat_ind];
-                break;
-            case 8:
-                out_value = RoadCoeff_NL08[8][VehCat_ind];
-                break;
-            case 9:
-                out_value = RoadCoeff_NL09[8][VehCat_ind];
-                break;
-            case 10:
-                out_value = RoadCoeff_NL10[8][VehCat_ind];
-                break;
-            case 11:
-                out_value = RoadCoeff_NL11[8][VehCat_ind];
-                break;
-            case 12:
-                out_value = RoadCoeff_NL12[8][VehCat_ind];
-                break;
-            case 13:
-                out_value = RoadCoeff_NL13[8][VehCat_ind];
-                break;
-            case 14:
-                out_value = RoadCoeff_NL14[8][VehCat_ind];
-                break;
-            case 15:
-                out_value = RoadCoeff_FR1[8][VehCat_ind];
-                break;
-            case 16:
-                out_value = RoadCoeff_FR2[8][VehCat_ind];
-                break;
-            case 17:
-                out_value = RoadCoeff_FR3[8][VehCat_ind];
-                break;
-            case 18:
-                out_value = RoadCoeff_FR4[8][VehCat_ind];
-                break;
-            case 19:
-                out_value = RoadCoeff_FR5[8][VehCat_ind];
-                break;
-            case 20:
-                out_value = RoadCoeff_FR6[8][VehCat_ind];
-                break;
-            default:
-                out_value = 0;
-                break;
-        }
-        return out_value;
+        return ROAD_B[getRoadSurfaceIndex(RoadSurface)][getVehicleIndex(VehCat)];
     }
 
     /** Get Road Speed min **/
@@ -765,64 +643,22 @@ public class EvaluateRoadSourceDynamic {
         // VehCat, 1=passenger cars, etc. Table III.A.1
         // VehCat, 3=heavy trucks, etc. Table III.A.1
         // Freq, 0 = 63 Hz, 1 = 125 Hz, etc.
-        int Freq_ind;
-        switch (Freq) {
-            case 63:
-                Freq_ind = 0;
-                break;
-            case 125:
-                Freq_ind = 1;
-                break;
-            case 250:
-                Freq_ind = 2;
-                break;
-            case 500:
-                Freq_ind = 3;
-                break;
-            case 1000:
-                Freq_ind = 4;
-                break;
-            case 2000:
-                Freq_ind = 5;
-                break;
-            case 4000:
-                Freq_ind = 6;
-                break;
-            case 8000:
-                Freq_ind = 7;
-                break;
-            default:
-                Freq_ind = 0;
-        }
-
-        if (VehCat == 1) {
-            return VehCat1[Freq_ind][Coeff];
-        } else if (VehCat == 3) {
-            return VehCat3[Freq_ind][Coeff];
-        } else if (VehCat == 41) {
-            return VehCat41[Freq_ind][Coeff];
-        } else if (VehCat == 42) {
-            return VehCat42[Freq_ind][Coeff];
-        } else if (VehCat == 2) {
-            return VehCat2[Freq_ind][Coeff];
-        } else {
-            return VehCat1[Freq_ind][Coeff];
-        }
+        return VEHICLE_COEFF[getVehicleIndex(VehCat)][getFrequencyIndex(Freq)][Coeff];
     }
 
     /** get noise level from speed **/
-    private static Double getNoiseLvl(Double base, Double adj, Double speed,
-                                      Double speedBase) {
+    private static double getNoiseLvl(double base, double adj, double speed,
+                                      double speedBase) {
         return base + adj * Math.log10(speed / speedBase);
     }
 
 
     /** get sum dBa **/
-    private static Double sumDba(Double dBA1, Double dBA2) {
+    private static double sumDba(double dBA1, double dBA2) {
         return ComputeRays.wToDba(ComputeRays.dbaToW(dBA1) + ComputeRays.dbaToW(dBA2));
     }
 
-    private static Double sumDba_5(Double dBA1, Double dBA2, Double dBA3, Double dBA4, Double dBA5) {
+    private static double sumDba_5(double dBA1, double dBA2, double dBA3, double dBA4, double dBA5) {
         return ComputeRays.wToDba(ComputeRays.dbaToW(dBA1) + ComputeRays.dbaToW(dBA2) + ComputeRays.dbaToW(dBA3) + ComputeRays.dbaToW(dBA4) + ComputeRays.dbaToW(dBA5));
     }
 
@@ -832,26 +668,108 @@ public class EvaluateRoadSourceDynamic {
      * @return Noise level in dB
      */
     public static double evaluate(RSParametersDynamic parameters) {
-        double Compound;
-        int FreqParam = parameters.getFreqParam();
-        double Temperature = parameters.getTemperature();
-        int RoadSurface = parameters.getRoadSurface();
-        boolean Stud = parameters.getStud();
-        double Junc_dist = parameters.getJunc_dist();
-        int Junc_type = parameters.getJunc_type();
-        int acc_type = parameters.getAcc_type();
         int veh_type = parameters.getVeh_type();
-        int VehId = parameters.getVehId();
-        double acceleration = parameters.getAcceleration();
-        double speed = parameters.getSpeed();
+        int FreqParam = parameters.getFreqParam();
+        double LwStd = parameters.getLwStd();
+        Random r = new Random(parameters.getVehId());
+        double deltaLwdistrib = 0.115*Math.pow(LwStd,2.0); // Ask Arnaud and Pierre !
+        return evaluate(veh_type, getVehicleIndex(veh_type), FreqParam, getFrequencyIndex(FreqParam),
+                parameters.getTemperature(), getRoadSurfaceIndex(parameters.getRoadSurface()), parameters.getStud(),
+                parameters.getJunc_dist(), parameters.getJunc_type(), parameters.getAcc_type(),
+                parameters.getAcceleration(), parameters.getSpeed(), parameters.getSlopePercentage())
+                - deltaLwdistrib +  r.nextGaussian()*LwStd;
+    }
 
+    /**
+     * Road noise evaluation of all frequency bands of a range of vehicles.
+     * @param parameters Noise emission parameters, one entry per vehicle
+     * @param start First vehicle (included)
+     * @param end Last vehicle (excluded)
+     * @param levels Output noise levels in dB, [vehicle * {@link #BAND_COUNT} + band] with band 0 = 63 Hz
+     */
+    public static void evaluate(RSParametersDynamicColumns parameters, int start, int end, double[] levels) {
+        if (start < 0 || end > parameters.size() || start > end) {
+            throw new IndexOutOfBoundsException("Vehicle range [" + start + ", " + end + "[ out of [0, " +
+                    parameters.size() + "[");
+        }
+        if (levels.length < end * BAND_COUNT) {
+            throw new IllegalArgumentException("Output levels array too small, expected at least " +
+                    end * BAND_COUNT + " values");
+        }
+        final double[] speed = parameters.getSpeed();
+        final double[] acceleration = parameters.getAcceleration();
+        final int[] vehType = parameters.getVehType();
+        final int[] accType = parameters.getAccType();
+        final int[] roadSurface = parameters.getRoadSurface();
+        final boolean[] stud = parameters.getStud();
+        final double[] juncDist = parameters.getJuncDist();
+        final int[] juncType = parameters.getJuncType();
+        final double[] lwStd = parameters.getLwStd();
+        final int[] vehId = parameters.getVehId();
+        final double[] slopePercentage = parameters.getSlopePercentage();
+        final double[] temperature = parameters.getTemperature();
+        for (int i = start; i < end; i++) {
+            int vehIndex = getVehicleIndex(vehType[i]);
+            int surfaceIndex = getRoadSurfaceIndex(roadSurface[i]);
+            // Same seed for all bands, as a new generator is created by each single band evaluation
+            double deviation = new Random(vehId[i]).nextGaussian() * lwStd[i];
+            double deltaLwdistrib = 0.115 * Math.pow(lwStd[i], 2.0);
+            int offset = i * BAND_COUNT;
+            for (int band = 0; band < BAND_COUNT; band++) {
+                levels[offset + band] = evaluate(vehType[i], vehIndex, FREQUENCIES[band], band, temperature[i],
+                        surfaceIndex, stud[i], juncDist[i], juncType[i], accType[i], acceleration[i], speed[i],
+                        slopePercentage[i]) - deltaLwdistrib + deviation;
+            }
+        }
+    }
+
+    /**
+     * Road noise evaluation of all frequency bands of all vehicles.
+     * @param parameters Noise emission parameters, one entry per vehicle
+     * @param levels Output noise levels in dB, [vehicle * {@link #BAND_COUNT} + band] with band 0 = 63 Hz
+     */
+    public static void evaluate(RSParametersDynamicColumns parameters, double[] levels) {
+        evaluate(parameters, 0, parameters.size(), levels);
+    }
+
+    /**
+     * Road noise evaluation of all frequency bands of all vehicles. Vehicles are split into chunks evaluated by
+     * the given pool.
+     * @param parameters Noise emission parameters, one entry per vehicle
+     * @param levels Output noise levels in dB, [vehicle * {@link #BAND_COUNT} + band] with band 0 = 63 Hz
+     * @param pool Fork/join pool
+     * @param chunkSize Maximum number of vehicles evaluated by a single task
+     */
+    public static void evaluate(RSParametersDynamicColumns parameters, double[] levels, ForkJoinPool pool,
+                                int chunkSize) {
+        if (parameters.size() <= chunkSize) {
+            evaluate(parameters, 0, parameters.size(), levels);
+        } else {
+            pool.invoke(new EvaluateChunkTask(parameters, 0, parameters.size(), Math.max(1, chunkSize), levels));
+        }
+    }
+
+    /**
+     * Evaluation of one frequency band of a vehicle, without the Lw distribution terms.
+     * @param veh_type Vehicle category
+     * @param vehIndex Vehicle index in the coefficient tables
+     * @param FreqParam Frequency in Hz
+     * @param freqIndex Frequency band index
+     * @param surfaceIndex Road surface index in the road tables
+     * @return Sum of rolling and propulsion noise levels in dB
+     */
+    private static double evaluate(int veh_type, int vehIndex, int FreqParam, int freqIndex, double Temperature,
+                                   int surfaceIndex, boolean Stud, double Junc_dist, int Junc_type, int acc_type,
+                                   double acceleration, double speed, double slopePercentage) {
+        final double[] vehCoeff = VEHICLE_COEFF[vehIndex][freqIndex];
+        final double roadA = ROAD_A[surfaceIndex][vehIndex][freqIndex];
 
         // ///////////////////////
         // Noise road/tire CNOSSOS
         double RoadLvl; // Lw/m (1 veh/h)
 
         // Noise level
-        RoadLvl = getNoiseLvl(getCoeff(0, FreqParam, veh_type), getCoeff(1, FreqParam, veh_type), parameters.getSpeed(), 70.);
+        RoadLvl = getNoiseLvl(vehCoeff[0], vehCoeff[1], speed, 70.);
 
         // Correction by temperature p. 36
         switch (veh_type) {
@@ -870,14 +788,8 @@ public class EvaluateRoadSourceDynamic {
 
         // Rolling noise acceleration correction
         int indJunc = (Junc_type == 2) ? 2 : 0; // because my table is not very smart
-        switch (acc_type) {
-            case 1:
-                if (veh_type <= 3) {
-                    RoadLvl = RoadLvl + Coeff_Acc[veh_type - 1][0 + indJunc] * Math.max(1 - Math.abs(Junc_dist) / 100, 0);
-                }
-                break;
-            default:
-                break;
+        if (acc_type == 1 && veh_type <= 3) {
+            RoadLvl = RoadLvl + Coeff_Acc[veh_type - 1][0 + indJunc] * Math.max(1 - Math.abs(Junc_dist) / 100, 0);
         }
 
         //Studied tyres
@@ -886,13 +798,13 @@ public class EvaluateRoadSourceDynamic {
                 double deltastud = 0;
                 double speedstud  = (speed >= 90) ? 90 : speed;
                 speedstud = (speedstud <= 50) ? 50 : speedstud;
-                deltastud = getNoiseLvl(getCoeff(4, FreqParam, 1), getCoeff(5, FreqParam, 1), speedstud, 70.);
+                deltastud = getNoiseLvl(VehCat1[freqIndex][4], VehCat1[freqIndex][5], speedstud, 70.);
                 RoadLvl = RoadLvl + Math.pow(10, deltastud / 10);
             }
         }
 
         //Road surface correction on rolling noise
-        RoadLvl = RoadLvl + getNoiseLvl(getA_Roadcoeff(FreqParam, veh_type, RoadSurface), getB_Roadcoeff(veh_type, RoadSurface), parameters.getSpeed(), 70.);
+        RoadLvl = RoadLvl + getNoiseLvl(roadA, ROAD_B[surfaceIndex][vehIndex], speed, 70.);
 
         // ///////////////////////
         // Noise motor
@@ -901,137 +813,78 @@ public class EvaluateRoadSourceDynamic {
         RoadLvl = (speed <= 20) ? 0 : RoadLvl;
         speed = (speed <= 20) ? 20 : speed; // Because when vehicles are stopped they still emit motor sounds.
         // default or steady speed.
-        MotorLvl = getCoeff(2, FreqParam, veh_type) + getCoeff(3, FreqParam, veh_type) * (speed - 70) / 70;
+        MotorLvl = vehCoeff[2] + vehCoeff[3] * (speed - 70) / 70;
 
         // Propulsion noise acceleration correction
-        double amax=0;
-        switch (acc_type) {
-            case 1:
-                if (veh_type <= 3) {
-                    MotorLvl = MotorLvl + Coeff_Acc[veh_type - 1][1 + indJunc] * Math.max(1 - Math.abs(Junc_dist) / 100, 0);
-                }
-                break;
-            case 2:
-                switch (veh_type) {
-                    case 1:
-                        amax = 2;
-                        if (acceleration >= -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 5.0;}
-                        if (acceleration >= -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 2.0;}
-                        if (acceleration < -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  -1 * 5.0;}
-                        if (acceleration < -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  -1 * 2.0;}
-                        break;
-                    case 2:
-                        amax = 1;
-                        if (acceleration >= -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 7.0;}
-                        if (acceleration >= -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 3.0;}
-                        if (acceleration < -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  -1 * 7.0;}
-                        if (acceleration < -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  -1 * 3.0;}
-                        break;
-                    case 3:
-                        amax = 1;
-                        if (acceleration >= -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 7.0;}
-                        if (acceleration >= -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 3.0;}
-                        if (acceleration < -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  -1 * 7.0;}
-                        if (acceleration < -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  -1 * 3.0;}
-                        break;
-                    case 41:
-                        amax = 4;
-                        if (acceleration >= -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 5.0;}
-                        if (acceleration >= -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 2.0;}
-                        if (acceleration < -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  -1 * 5.0;}
-                        if (acceleration < -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  -1 * 2.0;}
-                        break;
-                    case 42:
-                        amax = 4;
-                        if (acceleration >= -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 5.0;}
-                        if (acceleration >= -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 2.0;}
-                        if (acceleration < -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  -1 * 5.0;}
-                        if (acceleration < -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  -1 * 2.0;}
-                        break;
-                    default:
-                        break;
-                }
-                break;
-            case 3:
-                switch (veh_type) {
-                    case 1:
-                        amax = 10;
-                        if (acceleration >= -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 5.0;}
-                        if (acceleration >= -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 2.0;}
-                        if (acceleration < -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  -1 * 5.0;}
-                        if (acceleration < -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  -1 * 2.0;}
-                        break;
-                    case 2:
-                        amax = 10;
-                        if (acceleration >= -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 7.0;}
-                        if (acceleration >= -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 3.0;}
-                        if (acceleration < -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  -1 * 7.0;}
-                        if (acceleration < -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  -1 * 3.0;}
-                        break;
-                    case 3:
-                        amax = 10;
-                        if (acceleration >= -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 7.0;}
-                        if (acceleration >= -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 3.0;}
-                        if (acceleration < -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  -1 * 7.0;}
-                        if (acceleration < -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  -1 * 3.0;}
-                        break;
-                    case 41:
-                        amax = 10;
-                        if (acceleration >= -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 5.0;}
-                        if (acceleration >= -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 2.0;}
-                        if (acceleration < -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  -1 * 5.0;}
-                        if (acceleration < -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  -1 * 2.0;}
-                        break;
-                    case 42:
-                        amax = 10;
-                        if (acceleration >= -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 5.0;}
-                        if (acceleration >= -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  Math.min(acceleration,amax) * 2.0;}
-                        if (acceleration < -1 & FreqParam < 250 ){ MotorLvl = MotorLvl +  -1 * 5.0;}
-                        if (acceleration < -1 & FreqParam >= 250 ){ MotorLvl = MotorLvl +  -1 * 2.0;}
-                        break;
-                    default:
-                        break;
-                }
-                break;
-            default:
-                break;
+        if (acc_type == 1) {
+            if (veh_type <= 3) {
+                MotorLvl = MotorLvl + Coeff_Acc[veh_type - 1][1 + indJunc] * Math.max(1 - Math.abs(Junc_dist) / 100, 0);
+            }
+        } else if (acc_type == 2 || acc_type == 3) {
+            // Correction from IMAGINE, with bounds (2) or without bounds (3)
+            double amax;
+            double factor;
+            switch (veh_type) {
+                case 1:
+                    amax = 2;
+                    factor = FreqParam < 250 ? 5.0 : 2.0;
+                    break;
+                case 2:
+                case 3:
+                    amax = 1;
+                    factor = FreqParam < 250 ? 7.0 : 3.0;
+                    break;
+                case 41:
+                case 42:
+                    amax = 4;
+                    factor = FreqParam < 250 ? 5.0 : 2.0;
+                    break;
+                default:
+                    amax = 0;
+                    factor = 0;
+                    break;
+            }
+            if (factor != 0) {
+                amax = acc_type == 3 ? 10 : amax;
+                MotorLvl = MotorLvl + (acceleration >= -1 ? Math.min(acceleration, amax) : -1) * factor;
+            }
         }
 
 
         // Correction gradient
         switch (veh_type) {
             case 1:
-                if (parameters.getSlopePercentage() < -6) {
-                    // downwards 2% <= p <= 6%
+                if (slopePercentage < -6) {
+                    // downwards 2% <= p <= 6%
                     // Steady and deceleration, the same formulae
-                    MotorLvl = MotorLvl + (Math.min(12, -parameters.getSlopePercentage()) - 6) / 1;
-                } else if (parameters.getSlopePercentage() <= 2) {
-                    // 0% <= p <= 2%
+                    MotorLvl = MotorLvl + (Math.min(12, -slopePercentage) - 6) / 1;
+                } else if (slopePercentage <= 2) {
+                    // 0% <= p <= 2%
                     MotorLvl = MotorLvl + 0.;
                 } else {
-                    // upwards 2% <= p <= 6%
-                    MotorLvl = MotorLvl + ((speed / 100) * ((Math.min(12, parameters.getSlopePercentage()) - 2) / 1.5));
+                    // upwards 2% <= p <= 6%
+                    MotorLvl = MotorLvl + ((speed / 100) * ((Math.min(12, slopePercentage) - 2) / 1.5));
                 }
                 break;
             case 2:
-                if (parameters.getSlopePercentage() < -4) {
+                if (slopePercentage < -4) {
                     // Steady and deceleration, the same formulae
-                    MotorLvl = MotorLvl + ((speed - 20) / 100) * (Math.min(12, -1 * parameters.getSlopePercentage()) - 4) / 0.7;
-                } else if (parameters.getSlopePercentage() <= 0) {
+                    MotorLvl = MotorLvl + ((speed - 20) / 100) * (Math.min(12, -1 * slopePercentage) - 4) / 0.7;
+                } else if (slopePercentage <= 0) {
                     MotorLvl = MotorLvl + 0.;
 
                 } else {
-                    MotorLvl = MotorLvl + (speed / 100) * (Math.min(12, parameters.getSlopePercentage())) / 1;
+                    MotorLvl = MotorLvl + (speed / 100) * (Math.min(12, slopePercentage)) / 1;
                 }
                 break;
             case 3:
-                if (parameters.getSlopePercentage() < -4) {
+                if (slopePercentage < -4) {
                     // Steady and deceleration, the same formulae
-                    MotorLvl = MotorLvl + ((speed - 10) / 100) * (Math.min(12, -1 * parameters.getSlopePercentage()) - 4) / 0.5;
-                } else if (parameters.getSlopePercentage() <= 0) {
+                    MotorLvl = MotorLvl + ((speed - 10) / 100) * (Math.min(12, -1 * slopePercentage) - 4) / 0.5;
+                } else if (slopePercentage <= 0) {
                     MotorLvl = MotorLvl + 0.;
                 } else {
-                    MotorLvl = MotorLvl + (speed / 100) * (Math.min(12, parameters.getSlopePercentage())) / 0.8;
+                    MotorLvl = MotorLvl + (speed / 100) * (Math.min(12, slopePercentage)) / 0.8;
                 }
                 break;
             default:
@@ -1040,11 +893,39 @@ public class EvaluateRoadSourceDynamic {
 
 
         // Correction road on propulsion noise
-        MotorLvl = MotorLvl + Math.min(getA_Roadcoeff(FreqParam, veh_type, RoadSurface), 0.);
-        Random r = new Random(VehId);
-        double deltaLwdistrib = 0.115*Math.pow(parameters.getLwStd(),2.0); // Ask Arnaud and Pierre !
-        Compound = sumDba(RoadLvl, MotorLvl) - deltaLwdistrib +  r.nextGaussian()*parameters.getLwStd();
+        MotorLvl = MotorLvl + Math.min(roadA, 0.);
+
+        return sumDba(RoadLvl, MotorLvl);
+    }
 
-        return Compound;
+    /**
+     * Evaluate a range of vehicles, split the range while it is larger than the chunk size.
+     */
+    private static final class EvaluateChunkTask extends RecursiveAction {
+        private final RSParametersDynamicColumns parameters;
+        private final int start; // Included
+        private final int end; // Excluded
+        private final int chunkSize;
+        private final double[] levels;
+
+        EvaluateChunkTask(RSParametersDynamicColumns parameters, int start, int end, int chunkSize,
+                          double[] levels) {
+            this.parameters = parameters;
+            this.start = start;
+            this.end = end;
+            this.chunkSize = chunkSize;
+            this.levels = levels;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= chunkSize) {
+                evaluate(parameters, start, end, levels);
+            } else {
+                int middle = start + (end - start) / 2;
+                invokeAll(new EvaluateChunkTask(parameters, start, middle, chunkSize, levels),
+                        new EvaluateChunkTask(parameters, middle, end, chunkSize, levels));
+            }
+        }
     }
 }
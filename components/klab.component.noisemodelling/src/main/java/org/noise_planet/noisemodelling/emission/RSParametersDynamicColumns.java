@@ -0,0 +1,185 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.emission;
+
+/**
+ * Parameters of {@link EvaluateRoadSourceDynamic} stored by column, one entry per vehicle. Columns are allocated by
+ * the constructor and filled in place by the caller. The frequency is not part of the parameters as all frequency
+ * bands are evaluated.
+ */
+public class RSParametersDynamicColumns {
+    private final int size;
+    private final double[] speed;
+    private final double[] acceleration;
+    private final int[] vehType;
+    private final int[] accType;
+    private final int[] roadSurface;
+    private final boolean[] stud;
+    private final double[] juncDist;
+    private final int[] juncType;
+    private final double[] lwStd;
+    private final int[] vehId;
+    private final double[] slopePercentage;
+    private final double[] temperature;
+
+    /**
+     * @param size Number of vehicles
+     */
+    public RSParametersDynamicColumns(int size) {
+        this.size = size;
+        speed = new double[size];
+        acceleration = new double[size];
+        vehType = new int[size];
+        accType = new int[size];
+        roadSurface = new int[size];
+        stud = new boolean[size];
+        juncDist = new double[size];
+        juncType = new int[size];
+        lwStd = new double[size];
+        vehId = new int[size];
+        slopePercentage = new double[size];
+        temperature = new double[size];
+    }
+
+    /**
+     * Copy the parameters of a vehicle, the frequency of the parameters is ignored
+     * @param index Vehicle index
+     * @param parameters Vehicle parameters
+     */
+    public void set(int index, RSParametersDynamic parameters) {
+        speed[index] = parameters.getSpeed();
+        acceleration[index] = parameters.getAcceleration();
+        vehType[index] = parameters.getVeh_type();
+        accType[index] = parameters.getAcc_type();
+        roadSurface[index] = parameters.getRoadSurface();
+        stud[index] = parameters.getStud();
+        juncDist[index] = parameters.getJunc_dist();
+        juncType[index] = parameters.getJunc_type();
+        lwStd[index] = parameters.getLwStd();
+        vehId[index] = parameters.getVehId();
+        slopePercentage[index] = parameters.getSlopePercentage();
+        temperature[index] = parameters.getTemperature();
+    }
+
+    /**
+     * @return Number of vehicles
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Vehicle speed
+     */
+    public double[] getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return Vehicle acceleration
+     */
+    public double[] getAcceleration() {
+        return acceleration;
+    }
+
+    /**
+     * @return Vehicle type (CNOSSOS categories 1, 2, 3, 41, 42)
+     */
+    public int[] getVehType() {
+        return vehType;
+    }
+
+    /**
+     * @return Acceleration mode (1 = Distance to Junction (CNOSSOS), 2= Correction from IMAGINE with bounds , 3 = Correction from IMAGINE without bounds)
+     */
+    public int[] getAccType() {
+        return accType;
+    }
+
+    /**
+     * @return Road surface between 1 and 20
+     */
+    public int[] getRoadSurface() {
+        return roadSurface;
+    }
+
+    /**
+     * @return True = equipped with studded tyres
+     */
+    public boolean[] getStud() {
+        return stud;
+    }
+
+    /**
+     * @return Distance to junction
+     */
+    public double[] getJuncDist() {
+        return juncDist;
+    }
+
+    /**
+     * @return Type of junction (k = 1 for a crossing with traffic lights ; k = 2 for a roundabout)
+     */
+    public int[] getJuncType() {
+        return juncType;
+    }
+
+    /**
+     * @return Standard Deviation of Lw
+     */
+    public double[] getLwStd() {
+        return lwStd;
+    }
+
+    /**
+     * @return Vehicle ID used as a seed for LwStd
+     */
+    public int[] getVehId() {
+        return vehId;
+    }
+
+    /**
+     * @return Gradient percentage of road
+     */
+    public double[] getSlopePercentage() {
+        return slopePercentage;
+    }
+
+    /**
+     * @return Temperature (Celsius)
+     */
+    public double[] getTemperature() {
+        return temperature;
+    }
+}
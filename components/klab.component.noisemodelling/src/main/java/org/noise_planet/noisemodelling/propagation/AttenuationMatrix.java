@@ -0,0 +1,449 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Sparse source to receiver attenuation of a cell, stored by receiver rows (compressed sparse rows). Each entry is
+ * the energetic attenuation factor (W/W, line source length included) of each frequency band. The attenuation does
+ * not depend on the source power so the receiver levels of any emission scenario are obtained by a sparse
+ * matrix product, without propagation computation.
+ *
+ * Emissions and receiver energies are given as power (W) arrays of layout
+ * [(index * bandCount + band) * scenarioCount + scenario], so the scenarios of a frequency band are contiguous.
+ *
+ * File layout of {@link #save(File)} (big endian), with the columns of {@link CellMeshCache}: magic, version, band
+ * count, source count, receiver count, source primary keys, receiver primary keys, row count, rows receiver, rows
+ * start, entry count, entries source, entries attenuation, CRC32 of the previous bytes.
+ */
+public final class AttenuationMatrix {
+    private static final int MAGIC = 0x4E4D414D; // NMAM
+    private static final int VERSION = 1;
+    private final int bandCount;
+    private final int sourceCount;
+    private final int receiverCount;
+    private final long[] sourcesPk;
+    private final long[] receiversPk;
+    // Receiver index of each row
+    private final int[] rowReceiver;
+    // First entry of each row, rowCount + 1 values
+    private final int[] rowStart;
+    // Source index of each entry
+    private final int[] entrySource;
+    // Attenuation factor, entry * bandCount + band
+    private final double[] entryAttenuation;
+
+    AttenuationMatrix(int bandCount, int sourceCount, int receiverCount, long[] sourcesPk, long[] receiversPk,
+                      int[] rowReceiver, int[] rowStart, int[] entrySource, double[] entryAttenuation) {
+        this.bandCount = bandCount;
+        this.sourceCount = sourceCount;
+        this.receiverCount = receiverCount;
+        this.sourcesPk = sourcesPk;
+        this.receiversPk = receiversPk;
+        this.rowReceiver = rowReceiver;
+        this.rowStart = rowStart;
+        this.entrySource = entrySource;
+        this.entryAttenuation = entryAttenuation;
+    }
+
+    /**
+     * @return Number of frequency bands
+     */
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    /**
+     * @return Number of sources of the cell
+     */
+    public int getSourceCount() {
+        return sourceCount;
+    }
+
+    /**
+     * @return Number of receivers of the cell
+     */
+    public int getReceiverCount() {
+        return receiverCount;
+    }
+
+    /**
+     * @return Number of receivers having at least one source
+     */
+    public int getRowCount() {
+        return rowReceiver.length;
+    }
+
+    /**
+     * @return Number of non null source/receiver couples
+     */
+    public int getEntryCount() {
+        return entrySource.length;
+    }
+
+    /**
+     * @param sourceIndex Source index in the cell
+     * @return Source primary key, or the index if primary keys are not available
+     */
+    public long getSourcePk(int sourceIndex) {
+        return sourceIndex < sourcesPk.length ? sourcesPk[sourceIndex] : sourceIndex;
+    }
+
+    /**
+     * @param receiverIndex Receiver index in the cell
+     * @return Receiver primary key, or the index if primary keys are not available
+     */
+    public long getReceiverPk(int receiverIndex) {
+        return receiverIndex < receiversPk.length ? receiversPk[receiverIndex] : receiverIndex;
+    }
+
+    /**
+     * @param sourceIndex Source index in the cell
+     * @param receiverIndex Receiver index in the cell
+     * @return Attenuation factor of each frequency band, null if the source does not reach the receiver
+     */
+    public double[] getAttenuation(int sourceIndex, int receiverIndex) {
+        int row = Arrays.binarySearch(rowReceiver, receiverIndex);
+        if (row < 0) {
+            return null;
+        }
+        int entry = Arrays.binarySearch(entrySource, rowStart[row], rowStart[row + 1], sourceIndex);
+        if (entry < 0) {
+            return null;
+        }
+        return Arrays.copyOfRange(entryAttenuation, entry * bandCount, (entry + 1) * bandCount);
+    }
+
+    /**
+     * Compute receivers energy of a single scenario
+     * @param sourcePower Source power (W), source index * bandCount + band
+     * @return Receiver energy (W), receiver index * bandCount + band
+     */
+    public double[] multiply(double[] sourcePower) {
+        double[] receiverEnergy = new double[receiverCount * bandCount];
+        multiply(sourcePower, 1, receiverEnergy);
+        return receiverEnergy;
+    }
+
+    /**
+     * Compute receivers energy of multiple scenarios (ex. hours of a year)
+     * @param sourcePower Source power (W), (source index * bandCount + band) * scenarioCount + scenario
+     * @param scenarioCount Number of scenarios
+     * @param receiverEnergy Output receiver energy (W), (receiver index * bandCount + band) * scenarioCount +
+     *                       scenario
+     */
+    public void multiply(double[] sourcePower, int scenarioCount, double[] receiverEnergy) {
+        checkLength(sourcePower, scenarioCount, receiverEnergy);
+        Arrays.fill(receiverEnergy, 0);
+        multiply(sourcePower, scenarioCount, receiverEnergy, 0, rowReceiver.length);
+    }
+
+    /**
+     * Compute receivers energy of multiple scenarios, receiver rows are split into tasks of the given pool
+     * @param sourcePower Source power (W), (source index * bandCount + band) * scenarioCount + scenario
+     * @param scenarioCount Number of scenarios
+     * @param receiverEnergy Output receiver energy (W), (receiver index * bandCount + band) * scenarioCount +
+     *                       scenario
+     * @param pool Fork/join pool
+     * @param rowsPerTask Maximum number of receiver rows computed by a single task
+     */
+    public void multiply(double[] sourcePower, int scenarioCount, double[] receiverEnergy, ForkJoinPool pool,
+                         int rowsPerTask) {
+        checkLength(sourcePower, scenarioCount, receiverEnergy);
+        Arrays.fill(receiverEnergy, 0);
+        if (rowReceiver.length <= rowsPerTask) {
+            multiply(sourcePower, scenarioCount, receiverEnergy, 0, rowReceiver.length);
+        } else {
+            pool.invoke(new MultiplyTask(this, sourcePower, scenarioCount, receiverEnergy, 0, rowReceiver.length,
+                    Math.max(1, rowsPerTask)));
+        }
+    }
+
+    private void checkLength(double[] sourcePower, int scenarioCount, double[] receiverEnergy) {
+        if (sourcePower.length < sourceCount * bandCount * scenarioCount) {
+            throw new IllegalArgumentException("Expected " + sourceCount * bandCount * scenarioCount +
+                    " source power values, got " + sourcePower.length);
+        }
+        if (receiverEnergy.length < receiverCount * bandCount * scenarioCount) {
+            throw new IllegalArgumentException("Expected " + receiverCount * bandCount * scenarioCount +
+                    " receiver energy values, got " + receiverEnergy.length);
+        }
+    }
+
+    private void multiply(double[] sourcePower, int scenarioCount, double[] receiverEnergy, int rowFrom, int rowTo) {
+        final int stride = bandCount * scenarioCount;
+        for (int row = rowFrom; row < rowTo; row++) {
+            final int receiverOffset = rowReceiver[row] * stride;
+            for (int entry = rowStart[row]; entry < rowStart[row + 1]; entry++) {
+                final int sourceOffset = entrySource[entry] * stride;
+                final int attenuationOffset = entry * bandCount;
+                for (int band = 0; band < bandCount; band++) {
+                    final double attenuation = entryAttenuation[attenuationOffset + band];
+                    final int sourceBand = sourceOffset + band * scenarioCount;
+                    final int receiverBand = receiverOffset + band * scenarioCount;
+                    for (int scenario = 0; scenario < scenarioCount; scenario++) {
+                        receiverEnergy[receiverBand + scenario] += attenuation * sourcePower[sourceBand + scenario];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Store the matrix, so the levels of other emission scenarios can be evaluated later without propagation
+     * @param file Destination file, replaced if it exists
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        CRC32 checksum = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)), checksum))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(bandCount);
+            out.writeInt(sourceCount);
+            out.writeInt(receiverCount);
+            writeLongs(out, sourcesPk);
+            writeLongs(out, receiversPk);
+            out.writeInt(rowReceiver.length);
+            CellMeshCache.writeInts(out, rowReceiver);
+            CellMeshCache.writeInts(out, rowStart);
+            out.writeInt(entrySource.length);
+            CellMeshCache.writeInts(out, entrySource);
+            CellMeshCache.writeDoubles(out, entryAttenuation);
+            out.writeInt((int) checksum.getValue());
+        }
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static long[] readLongs(ByteBuffer buffer) {
+        long[] values = new long[CellMeshCache.readCount(buffer, Long.BYTES)];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Long.BYTES);
+        return values;
+    }
+
+    /**
+     * @param file File written by {@link #save(File)}
+     * @return Stored matrix
+     * @throws IOException If the file is corrupted or not readable
+     */
+    public static AttenuationMatrix load(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < 3 * Integer.BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unsupported attenuation matrix file " + file.getAbsolutePath());
+            }
+            int contentLength = buffer.limit() - Integer.BYTES;
+            CRC32 checksum = new CRC32();
+            ByteBuffer content = buffer.duplicate();
+            content.position(0).limit(contentLength);
+            checksum.update(content);
+            if (buffer.getInt(contentLength) != (int) checksum.getValue()) {
+                throw new IOException("Corrupted attenuation matrix file " + file.getAbsolutePath());
+            }
+            buffer.limit(contentLength);
+            int bandCount = buffer.getInt();
+            int sourceCount = buffer.getInt();
+            int receiverCount = buffer.getInt();
+            if (bandCount <= 0 || sourceCount < 0 || receiverCount < 0) {
+                throw new IOException("Corrupted attenuation matrix file " + file.getAbsolutePath());
+            }
+            long[] sourcesPk = readLongs(buffer);
+            long[] receiversPk = readLongs(buffer);
+            int rowCount = CellMeshCache.readCount(buffer, 2 * Integer.BYTES);
+            int[] rowReceiver = CellMeshCache.readInts(buffer, rowCount);
+            int[] rowStart = CellMeshCache.readInts(buffer, rowCount + 1);
+            int entryCount = CellMeshCache.readCount(buffer, Integer.BYTES + bandCount * Double.BYTES);
+            int[] entrySource = CellMeshCache.readInts(buffer, entryCount);
+            double[] entryAttenuation = CellMeshCache.readDoubles(buffer, entryCount * bandCount);
+            // Indexes are used without bounds check by the product
+            if (rowStart[0] != 0 || rowStart[rowCount] != entryCount) {
+                throw new IOException("Corrupted attenuation matrix file " + file.getAbsolutePath());
+            }
+            for (int row = 0; row < rowCount; row++) {
+                if (rowReceiver[row] < 0 || rowReceiver[row] >= receiverCount || rowStart[row] > rowStart[row + 1]) {
+                    throw new IOException("Corrupted attenuation matrix file " + file.getAbsolutePath());
+                }
+            }
+            for (int source : entrySource) {
+                if (source < 0 || source >= sourceCount) {
+                    throw new IOException("Corrupted attenuation matrix file " + file.getAbsolutePath());
+                }
+            }
+            return new AttenuationMatrix(bandCount, sourceCount, receiverCount, sourcesPk, receiversPk, rowReceiver,
+                    rowStart, entrySource, entryAttenuation);
+        } catch (RuntimeException ex) {
+            throw new IOException("Corrupted attenuation matrix file " + file.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * Compute a range of receiver rows, split the range while it is larger than the task size.
+     */
+    private static final class MultiplyTask extends RecursiveAction {
+        private final AttenuationMatrix matrix;
+        private final double[] sourcePower;
+        private final int scenarioCount;
+        private final double[] receiverEnergy;
+        private final int rowFrom; // Included
+        private final int rowTo; // Excluded
+        private final int rowsPerTask;
+
+        MultiplyTask(AttenuationMatrix matrix, double[] sourcePower, int scenarioCount, double[] receiverEnergy,
+                     int rowFrom, int rowTo, int rowsPerTask) {
+            this.matrix = matrix;
+            this.sourcePower = sourcePower;
+            this.scenarioCount = scenarioCount;
+            this.receiverEnergy = receiverEnergy;
+            this.rowFrom = rowFrom;
+            this.rowTo = rowTo;
+            this.rowsPerTask = rowsPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (rowTo - rowFrom <= rowsPerTask) {
+                matrix.multiply(sourcePower, scenarioCount, receiverEnergy, rowFrom, rowTo);
+            } else {
+                int middle = rowFrom + (rowTo - rowFrom) / 2;
+                invokeAll(new MultiplyTask(matrix, sourcePower, scenarioCount, receiverEnergy, rowFrom, middle,
+                                rowsPerTask),
+                        new MultiplyTask(matrix, sourcePower, scenarioCount, receiverEnergy, middle, rowTo,
+                                rowsPerTask));
+            }
+        }
+    }
+
+    /**
+     * Collect the receiver rows, possibly from multiple threads, then build the compressed matrix.
+     */
+    public static final class Builder {
+        private final int bandCount;
+        private final int sourceCount;
+        private final int receiverCount;
+        private final long[] sourcesPk;
+        private final long[] receiversPk;
+        // Entries of each receiver, null if the receiver has no source
+        private final int[][] receiverSources;
+        private final double[][] receiverAttenuation;
+
+        /**
+         * @param bandCount Number of frequency bands
+         * @param sourceCount Number of sources of the cell
+         * @param receiverCount Number of receivers of the cell
+         * @param sourcesPk Source primary keys, may be empty
+         * @param receiversPk Receiver primary keys, may be empty
+         */
+        public Builder(int bandCount, int sourceCount, int receiverCount, long[] sourcesPk, long[] receiversPk) {
+            this.bandCount = bandCount;
+            this.sourceCount = sourceCount;
+            this.receiverCount = receiverCount;
+            this.sourcesPk = sourcesPk;
+            this.receiversPk = receiversPk;
+            receiverSources = new int[receiverCount][];
+            receiverAttenuation = new double[receiverCount][];
+        }
+
+        /**
+         * Set the row of a receiver. Rows of distinct receivers can be set concurrently.
+         * @param receiverIndex Receiver index in the cell
+         * @param sources Source indexes sorted by ascending order
+         * @param attenuation Attenuation factor, entry * bandCount + band
+         */
+        public void setRow(int receiverIndex, int[] sources, double[] attenuation) {
+            if (attenuation.length != sources.length * bandCount) {
+                throw new IllegalArgumentException("Expected " + sources.length * bandCount +
+                        " attenuation values, got " + attenuation.length);
+            }
+            receiverSources[receiverIndex] = sources;
+            receiverAttenuation[receiverIndex] = attenuation;
+        }
+
+        /**
+         * @return Compressed matrix
+         */
+        public synchronized AttenuationMatrix build() {
+            int rowCount = 0;
+            int entryCount = 0;
+            for (int[] sources : receiverSources) {
+                if (sources != null && sources.length > 0) {
+                    rowCount++;
+                    entryCount += sources.length;
+                }
+            }
+            int[] rowReceiver = new int[rowCount];
+            int[] rowStart = new int[rowCount + 1];
+            int[] entrySource = new int[entryCount];
+            double[] entryAttenuation = new double[entryCount * bandCount];
+            int row = 0;
+            int entry = 0;
+            for (int receiver = 0; receiver < receiverCount; receiver++) {
+                int[] sources = receiverSources[receiver];
+                if (sources != null && sources.length > 0) {
+                    rowReceiver[row] = receiver;
+                    rowStart[row] = entry;
+                    System.arraycopy(sources, 0, entrySource, entry, sources.length);
+                    System.arraycopy(receiverAttenuation[receiver], 0, entryAttenuation, entry * bandCount,
+                            sources.length * bandCount);
+                    entry += sources.length;
+                    row++;
+                }
+            }
+            rowStart[rowCount] = entry;
+            return new AttenuationMatrix(bandCount, sourceCount, receiverCount, sourcesPk, receiversPk, rowReceiver,
+                    rowStart, entrySource, entryAttenuation);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Output that keeps the source/receiver attenuation of the cell into an {@link AttenuationMatrix} instead of
+ * levels. The propagation is computed once, then levels of any number of emission scenarios are evaluated with
+ * {@link AttenuationMatrix#multiply(double[], int, double[])}.
+ *
+ * Sources must not be skipped using their power, {@link PropagationProcessData#maximumError} must be disabled
+ * (0 or negative) as the matrix is used with other emissions.
+ */
+public class AttenuationMatrixRaysOut extends ComputeRaysOut {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AttenuationMatrixRaysOut.class);
+    private final AttenuationMatrix.Builder matrixBuilder;
+
+    /**
+     * @param pathData Atmospheric parameters
+     * @param inputData Cell data
+     */
+    public AttenuationMatrixRaysOut(PropagationProcessPathData pathData, PropagationProcessData inputData) {
+        super(false, pathData, inputData);
+        if (inputData.maximumError > 0) {
+            LOGGER.warn("Maximum error is enabled, the attenuation matrix will miss the sources skipped using" +
+                    " the current emission");
+        }
+        matrixBuilder = new AttenuationMatrix.Builder(PropagationProcessPathData.freq_lvl.size(),
+                inputData.sourceGeometries.size(), inputData.receivers.size(), toArray(inputData.sourcesPk),
+                toArray(inputData.receiversPk));
+    }
+
+    private static long[] toArray(List<Long> values) {
+        long[] array = new long[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    @Override
+    public IComputeRaysOut subProcess(int receiverStart, int receiverEnd) {
+        return new MatrixThreadRaysOut(this);
+    }
+
+    /**
+     * @return Attenuation of all the receivers processed so far
+     */
+    public AttenuationMatrix getAttenuationMatrix() {
+        return matrixBuilder.build();
+    }
+
+    /**
+     * Merge the attenuation of the sources of a receiver into a matrix row
+     */
+    public static class MatrixThreadRaysOut extends ThreadRaysOut {
+        private final AttenuationMatrixRaysOut matrixParent;
+
+        public MatrixThreadRaysOut(AttenuationMatrixRaysOut matrixParent) {
+            super(matrixParent);
+            this.matrixParent = matrixParent;
+        }
+
+        @Override
+        public void finalizeReceiver(long receiverId) {
+            if (!receiverAttenuationLevels.isEmpty()) {
+                // Line sources push one attenuation per segment, sum them by source index
+                Map<Integer, double[]> sourceEnergy = new TreeMap<>();
+                for (ComputeRaysOut.verticeSL lvl : receiverAttenuationLevels) {
+                    double[] energy = sourceEnergy.get((int) lvl.sourceId);
+                    if (energy == null) {
+                        energy = new double[lvl.value.length];
+                        sourceEnergy.put((int) lvl.sourceId, energy);
+                    }
+                    for (int idf = 0; idf < energy.length; idf++) {
+                        energy[idf] += ComputeRays.dbaToW(lvl.value[idf]);
+                    }
+                }
+                int bandCount = PropagationProcessPathData.freq_lvl.size();
+                int[] sources = new int[sourceEnergy.size()];
+                double[] attenuation = new double[sources.length * bandCount];
+                int entry = 0;
+                for (Map.Entry<Integer, double[]> source : sourceEnergy.entrySet()) {
+                    sources[entry] = source.getKey();
+                    System.arraycopy(source.getValue(), 0, attenuation, entry * bandCount, bandCount);
+                    entry++;
+                }
+                matrixParent.matrixBuilder.setRow((int) receiverId, sources, attenuation);
+                receiverAttenuationLevels.clear();
+            }
+        }
+    }
+}
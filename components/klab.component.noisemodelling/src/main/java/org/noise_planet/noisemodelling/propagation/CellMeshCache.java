@@ -0,0 +1,252 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+
+/**
+ * On-disk cache of triangulated cell meshes. Entries are keyed by {@link MeshBuilder#computeInputFingerprint(Geometry)}
+ * and read back through a memory mapped file, so that {@link FastObstructionTest} can be rebuilt without running the
+ * Delaunay triangulation again.
+ *
+ * File layout (big endian): magic, version, vertex count, all x, all y, all z, triangle count, triangles vertices
+ * (a, b, c), triangles attribute, optional neighbors (a, b, c), merged buildings (height, primary key, alpha, WKB
+ * geometry), CRC32 of the previous bytes. Columns are copied in bulk into a {@link TriangleMesh}.
+ */
+public class CellMeshCache {
+    private static final int MAGIC = 0x4E4D4D43; // NMMC
+    private static final int VERSION = 3;
+    private static final String FILE_EXTENSION = ".mesh";
+    private final File directory;
+
+    /**
+     * @param directory Folder of cache files, created if it does not exist
+     */
+    public CellMeshCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private File getCacheFile(String fingerprint) {
+        return new File(directory, fingerprint + FILE_EXTENSION);
+    }
+
+    /**
+     * @param fingerprint Mesh input fingerprint
+     * @return True if a mesh is stored for this fingerprint
+     */
+    public boolean contains(String fingerprint) {
+        return getCacheFile(fingerprint).isFile();
+    }
+
+    /**
+     * Store the triangulated mesh. The file is written aside then moved, so concurrent readers never see a
+     * partial entry.
+     * @param fingerprint Fingerprint computed before {@link MeshBuilder#finishPolygonFeeding(Geometry)}
+     * @param mesh Triangulated mesh
+     * @throws IOException
+     */
+    public void save(String fingerprint, MeshBuilder mesh) throws IOException {
+        if(!directory.exists() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Cannot create mesh cache directory " + directory.getAbsolutePath());
+        }
+        File tmpFile = File.createTempFile(fingerprint, ".tmp", directory);
+        try {
+            CRC32 checksum = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmpFile)), checksum))) {
+                write(out, mesh);
+                out.writeInt((int) checksum.getValue());
+            }
+            Files.move(tmpFile.toPath(), getCacheFile(fingerprint).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    private static void write(DataOutputStream out, MeshBuilder mesh) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        TriangleMesh triangleMesh = mesh.getTriangleMesh();
+        out.writeInt(triangleMesh.getVertexCount());
+        writeDoubles(out, triangleMesh.getXArray());
+        writeDoubles(out, triangleMesh.getYArray());
+        writeDoubles(out, triangleMesh.getZArray());
+        out.writeInt(triangleMesh.getTriangleCount());
+        writeInts(out, triangleMesh.getTriVerticesArray());
+        writeInts(out, triangleMesh.getTriAttributeArray());
+        out.writeBoolean(triangleMesh.hasNeighbors());
+        if(triangleMesh.hasNeighbors()) {
+            writeInts(out, triangleMesh.getTriNeighborsArray());
+        }
+        WKBWriter wkbWriter = new WKBWriter(3);
+        List<MeshBuilder.PolygonWithHeight> buildings = mesh.getPolygonWithHeight();
+        out.writeInt(buildings.size());
+        for(MeshBuilder.PolygonWithHeight building : buildings) {
+            out.writeDouble(building.getHeight());
+            out.writeInt(building.getPrimaryKey());
+            List<Double> alpha = building.getAlpha();
+            out.writeInt(alpha.size());
+            for(Double value : alpha) {
+                out.writeDouble(value);
+            }
+            byte[] wkb = wkbWriter.write(building.getGeometry());
+            out.writeInt(wkb.length);
+            out.write(wkb);
+        }
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        for(double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for(int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Read a count and check that the buffer holds at least this number of items, so that a corrupted count does
+     * not allocate huge arrays
+     * @param itemBytes Minimal size of an item
+     */
+    static int readCount(ByteBuffer buffer, int itemBytes) {
+        int count = buffer.getInt();
+        if(count < 0 || (long) count * itemBytes > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    static double[] readDoubles(ByteBuffer buffer, int count) {
+        double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + count * Double.BYTES);
+        return values;
+    }
+
+    static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    /**
+     * @param fingerprint Mesh input fingerprint
+     * @return The mesh structure or null if there is no entry for this fingerprint
+     * @throws IOException If the entry is corrupted or not readable
+     */
+    public FastObstructionTest load(String fingerprint) throws IOException {
+        File cacheFile = getCacheFile(fingerprint);
+        if(!cacheFile.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.limit() < 3 * Integer.BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unsupported mesh cache file " + cacheFile.getAbsolutePath());
+            }
+            int contentLength = buffer.limit() - Integer.BYTES;
+            CRC32 checksum = new CRC32();
+            ByteBuffer content = buffer.duplicate();
+            content.position(0).limit(contentLength);
+            checksum.update(content);
+            if(buffer.getInt(contentLength) != (int) checksum.getValue()) {
+                throw new IOException("Corrupted mesh cache file " + cacheFile.getAbsolutePath());
+            }
+            buffer.limit(contentLength);
+            int vertexCount = readCount(buffer, 3 * Double.BYTES);
+            double[] x = readDoubles(buffer, vertexCount);
+            double[] y = readDoubles(buffer, vertexCount);
+            double[] z = readDoubles(buffer, vertexCount);
+            int triangleCount = readCount(buffer, 4 * Integer.BYTES);
+            int[] triVertices = readInts(buffer, triangleCount * 3);
+            int[] triAttribute = readInts(buffer, triangleCount);
+            int[] triNeighbors = null;
+            if(buffer.get() != 0) {
+                triNeighbors = readInts(buffer, triangleCount * 3);
+            }
+            WKBReader wkbReader = new WKBReader();
+            int buildingCount = readCount(buffer, Double.BYTES + 3 * Integer.BYTES);
+            List<MeshBuilder.PolygonWithHeight> buildings = new ArrayList<>(buildingCount);
+            for(int i = 0; i < buildingCount; i++) {
+                double height = buffer.getDouble();
+                int primaryKey = buffer.getInt();
+                int alphaCount = readCount(buffer, Double.BYTES);
+                List<Double> alpha = new ArrayList<>(alphaCount);
+                for(int idAlpha = 0; idAlpha < alphaCount; idAlpha++) {
+                    alpha.add(buffer.getDouble());
+                }
+                byte[] wkb = new byte[readCount(buffer, 1)];
+                buffer.get(wkb);
+                MeshBuilder.PolygonWithHeight building = new MeshBuilder.PolygonWithHeight(wkbReader.read(wkb),
+                        height, alpha);
+                building.setPrimaryKey(primaryKey);
+                buildings.add(building);
+            }
+            return new FastObstructionTest(buildings, new TriangleMesh(x, y, z, triVertices, triNeighbors,
+                    triAttribute));
+        } catch (ParseException | RuntimeException ex) {
+            throw new IOException("Corrupted mesh cache file " + cacheFile.getAbsolutePath(), ex);
+        }
+    }
+}
@@ -40,6 +40,8 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -50,7 +52,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.locationtech.jts.algorithm.CGAlgorithms3D;
-import org.locationtech.jts.algorithm.ConvexHull;
 import org.locationtech.jts.algorithm.LineIntersector;
 import org.locationtech.jts.algorithm.RectangleLineIntersector;
 import org.locationtech.jts.algorithm.RobustLineIntersector;
@@ -80,7 +81,25 @@ public class ComputeRays {
     // because 20 * LOG10(4) = 12 dB, so small contribution in comparison with diffraction on horizontal edge
     // in order to reduce computational cost
     private final static double MAX_RATIO_HULL_DIRECT_PATH = 4;
+    // Work-stealing mode: a task stops splitting its receiver range under this receiver count
+    private final static int MINIMAL_RECEIVER_BATCH = 4;
+    // Work-stealing mode: a task keeps splitting while its worker queue holds less tasks than this value
+    private final static int MAXIMAL_SURPLUS_QUEUED_TASKS = 2;
+    // Maximum number of grid cells kept by the wall query cache
+    public final static int DEFAULT_WALL_CACHE_SIZE = 4096;
+    // Maximum number of hull sides kept by the side hull cache
+    public final static int DEFAULT_SIDE_HULL_CACHE_SIZE = 16384;
     private int threadCount;
+    private boolean workStealing = false;
+    private boolean spatialReceiverOrder = false;
+    // Receiver index at each processing position, null to process receivers in the input order
+    private int[] receiverOrder = null;
+    private double wallCacheCellSize = 0;
+    private int wallCacheSize = DEFAULT_WALL_CACHE_SIZE;
+    private WallQueryCache wallQueryCache;
+    private int sideHullCacheSize = DEFAULT_SIDE_HULL_CACHE_SIZE;
+    private volatile SideHullCache sideHullCache;
+    private ConvergenceStatistics convergenceStatistics = null;
     private PropagationProcessData data;
 
     private STRtree rTreeOfGeoSoil;
@@ -161,6 +180,144 @@ public class ComputeRays {
         this.threadCount = threadCount;
     }
 
+    /**
+     * @return True if receivers are scheduled by small adaptive chunks on a work-stealing pool
+     */
+    public boolean isWorkStealing() {
+        return workStealing;
+    }
+
+    /**
+     * @param workStealing True to schedule receivers by small adaptive chunks on a work-stealing pool, so idle
+     *                     threads take over the remaining receivers of the busy ones. False to split receivers into
+     *                     one contiguous range per thread.
+     */
+    public void setWorkStealing(boolean workStealing) {
+        this.workStealing = workStealing;
+    }
+
+    /**
+     * @return True if receivers are processed along a Hilbert curve instead of the input order
+     */
+    public boolean isSpatialReceiverOrder() {
+        return spatialReceiverOrder;
+    }
+
+    /**
+     * @param spatialReceiverOrder True to process receivers along a Hilbert curve, see {@link HilbertCurve}.
+     *                             Consecutive receivers are close to each other so they reuse the same mesh, index
+     *                             and walls cache regions. Receivers are still identified by their index in
+     *                             {@link PropagationProcessData#receivers}, only the processing order changes.
+     */
+    public void setSpatialReceiverOrder(boolean spatialReceiverOrder) {
+        this.spatialReceiverOrder = spatialReceiverOrder;
+    }
+
+    /**
+     * @param position Processing position, from 0 to the receiver count
+     * @return Receiver index in {@link PropagationProcessData#receivers}
+     */
+    private int getReceiverIndex(int position) {
+        return receiverOrder == null ? position : receiverOrder[position];
+    }
+
+    /**
+     * @return Grid size in meters of the reflection walls cache, 0 if disabled
+     */
+    public double getWallCacheCellSize() {
+        return wallCacheCellSize;
+    }
+
+    /**
+     * @param wallCacheCellSize Grid size in meters of the reflection walls cache, 0 to disable. Walls near the
+     *                          receiver and the sources are queried once by grid cell, see {@link WallQueryCache}
+     */
+    public void setWallCacheCellSize(double wallCacheCellSize) {
+        this.wallCacheCellSize = wallCacheCellSize;
+    }
+
+    /**
+     * @return Maximum number of grid cells kept by the reflection walls cache
+     */
+    public int getWallCacheSize() {
+        return wallCacheSize;
+    }
+
+    /**
+     * @param wallCacheSize Maximum number of grid cells kept by the reflection walls cache, least recently used
+     *                      cells are evicted first
+     */
+    public void setWallCacheSize(int wallCacheSize) {
+        this.wallCacheSize = wallCacheSize;
+    }
+
+    /**
+     * @return Maximum number of hull sides, and of cluster hulls, kept by the horizontal diffraction cache
+     */
+    public int getSideHullCacheSize() {
+        return sideHullCacheSize;
+    }
+
+    /**
+     * @param sideHullCacheSize Maximum number of hull sides, and of cluster hulls, kept by the horizontal diffraction
+     *                          cache, 0 to only keep the building corners
+     */
+    public void setSideHullCacheSize(int sideHullCacheSize) {
+        this.sideHullCacheSize = sideHullCacheSize;
+    }
+
+    /**
+     * @return Early termination statistics, null if disabled
+     */
+    public ConvergenceStatistics getConvergenceStatistics() {
+        return convergenceStatistics;
+    }
+
+    /**
+     * @param convergenceStatistics Early termination statistics, may be shared with other instances. When its error
+     *                              budget is set and {@link PropagationProcessData#maximumError} is enabled, the
+     *                              cutoff of the sources loop is given by the statistics. Null to disable.
+     */
+    public void setConvergenceStatistics(ConvergenceStatistics convergenceStatistics) {
+        this.convergenceStatistics = convergenceStatistics;
+    }
+
+    /**
+     * @return Reflection walls cache of the cell, null if disabled or not initialised
+     */
+    public WallQueryCache getWallQueryCache() {
+        return wallQueryCache;
+    }
+
+    /**
+     * @return Horizontal diffraction cache of the cell
+     */
+    public SideHullCache getSideHullCache() {
+        SideHullCache cache = sideHullCache;
+        if(cache == null) {
+            synchronized (this) {
+                cache = sideHullCache;
+                if(cache == null) {
+                    cache = new SideHullCache(data.freeFieldFinder, sideHullCacheSize);
+                    sideHullCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @param position Receiver or source position
+     * @return Reflection walls near the position
+     */
+    private List<FastObstructionTest.Wall> getWallsInRange(Coordinate position) {
+        if(wallQueryCache != null) {
+            return wallQueryCache.getLimitsInRange(position);
+        } else {
+            return data.freeFieldFinder.getLimitsInRange(data.maxRefDist, position, false);
+        }
+    }
+
     /**
      * Update ground Z coordinates of sound sources absolute to sea levels
      */
@@ -319,15 +476,30 @@ public class ComputeRays {
 
     public List<PropagationPath> computeReflexion(Coordinate receiverCoord,
                                             Coordinate srcCoord, boolean favorable, List<FastObstructionTest.Wall> nearBuildingsWalls) {
+        return computeReflexion(receiverCoord, srcCoord, favorable,
+                new ImageSourceTree(receiverCoord, nearBuildingsWalls, data.reflexionOrder), null);
+    }
+
+    /**
+     * Compute reflection paths using the receiver images of a tree shared by the sources of the receiver
+     * @param receiverCoord Receiver position
+     * @param srcCoord Source position
+     * @param favorable Favorable condition
+     * @param imageSourceTree Receiver images
+     * @param enabledWalls Walls of the tree to use, null to use all the walls
+     * @return Reflection propagation paths
+     */
+    public List<PropagationPath> computeReflexion(Coordinate receiverCoord, Coordinate srcCoord, boolean favorable,
+                                                  ImageSourceTree imageSourceTree, boolean[] enabledWalls) {
         // Compute receiver mirror
         LineSegment srcReceiver = new LineSegment(srcCoord, receiverCoord);
         LineIntersector linters = new RobustLineIntersector();
 
         List<PropagationPath> reflexionPropagationPaths = new ArrayList<>();
 
-
-        MirrorReceiverIterator.It mirroredReceivers = new MirrorReceiverIterator.It(receiverCoord, nearBuildingsWalls,
-                srcReceiver, data.maxRefDist, data.reflexionOrder, data.maxSrcDist);
+        List<FastObstructionTest.Wall> nearBuildingsWalls = imageSourceTree.getWalls();
+        List<MirrorReceiverResult> mirroredReceivers = imageSourceTree.getImages(srcReceiver, data.maxRefDist,
+                data.maxSrcDist, enabledWalls);
 
         for (MirrorReceiverResult receiverReflection : mirroredReceivers) {
 
@@ -655,14 +827,57 @@ public class ComputeRays {
                 polyCut.add(new Coordinate(i.getX(), i.getY(), i.getZ()));
             }
             if(offset >= 0) {
-                org.apache.commons.math3.geometry.euclidean.threed.Vector3D i = plane.intersection(new Line(new org.apache.commons.math3.geometry.euclidean.threed.Vector3D(roofPts.get(idp).x,roofPts.get(idp).y,Double.MIN_VALUE),CoordinateToVector(roofPts.get(idp)),FastObstructionTest.epsilon));
-                polyCut.add(new Coordinate(i.getX(), i.getY(), i.getZ()));
+                polyCut.add(projectOnPlane(plane, roofPts.get(idp)));
             }
             lastOffset = offset;
         }
         return polyCut;
     }
 
+    /**
+     * @param plane Plane
+     * @param p Point
+     * @return Vertical projection of the point on the plane
+     */
+    private static Coordinate projectOnPlane(Plane plane, Coordinate p) {
+        org.apache.commons.math3.geometry.euclidean.threed.Vector3D i = plane.intersection(new Line(new org.apache.commons.math3.geometry.euclidean.threed.Vector3D(p.x,p.y,Double.MIN_VALUE),CoordinateToVector(p),FastObstructionTest.epsilon));
+        return new Coordinate(i.getX(), i.getY(), i.getZ());
+    }
+
+    /**
+     * Add the building cut by the plane into the hull points. If the building is entirely over the plane only the
+     * convex corners of the building are added, as the other corners cannot be part of the hull.
+     * @param cache Side hull cache of the cell
+     * @param buildingId Building identifier
+     * @param cutPlane Plane of the propagation path
+     * @param points Hull points
+     * @return True if points have been added, false if the building is under the plane
+     */
+    private static boolean addBuildingCut(SideHullCache cache, int buildingId, Plane cutPlane,
+                                          List<Coordinate> points) {
+        Coordinate[] roofPoints = cache.getRoofPoints(buildingId);
+        boolean overPlane = true;
+        for(Coordinate roofPoint : roofPoints) {
+            if(cutPlane.getOffset(CoordinateToVector(roofPoint)) < 0) {
+                overPlane = false;
+                break;
+            }
+        }
+        if(overPlane) {
+            for(Coordinate hullPoint : cache.getRoofHull(buildingId)) {
+                points.add(projectOnPlane(cutPlane, hullPoint));
+            }
+            return true;
+        }
+        // Create a cut of the building volume
+        List<Coordinate> cut = cutRoofPointsWithPlane(cutPlane, Arrays.asList(roofPoints));
+        if (!cut.isEmpty()) {
+            points.addAll(cut.subList(0, cut.size() - 1));
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Compute Side Hull
      * Create a line between p1 and p2. Find the first intersection of this line with a building then create a ConvexHull
@@ -678,18 +893,10 @@ public class ComputeRays {
             return new ArrayList<>();
         }
 
-        // Intersection test cache
-        Set<LineSegment> freeFieldSegments = new HashSet<>();
-        GeometryFactory geometryFactory = new GeometryFactory();
+        SideHullCache cache = getSideHullCache();
 
         List<Coordinate> input = new ArrayList<>();
 
-        Coordinate[] coordinates = new Coordinate[0];
-        int indexp1 = 0;
-        int indexp2 = 0;
-
-        boolean convexHullIntersects = true;
-
         input.add(p1);
         input.add(p2);
 
@@ -698,85 +905,90 @@ public class ComputeRays {
         Plane cutPlane = ComputeZeroRadPlane(p1, p2);
 
         IntersectionRayVisitor intersectionRayVisitor = new IntersectionRayVisitor(
-                data.freeFieldFinder.getPolygonWithHeight(), p1, p2, data.freeFieldFinder, input, buildingInHull, cutPlane);
+                data.freeFieldFinder.getPolygonWithHeight(), p1, p2, cache, input, buildingInHull, cutPlane);
 
         data.freeFieldFinder.getBuildingsOnPath(p1, p2, intersectionRayVisitor);
 
-        int k;
+        // The hull of the buildings crossed by the direct path is shared by the left and right sides
+        SideHullCache.ClusterHull clusterHull = cache.getClusterHull(p1, p2, buildingInHull);
+        if(clusterHull == null) {
+            clusterHull = cache.putClusterHull(p1, p2, buildingInHull, new IncrementalConvexHull(input));
+        }
+        IncrementalConvexHull convexHull = clusterHull.copyHull();
+        double directPathLength = p1.distance(p2);
+        int indexp1 = -1;
+        int indexp2 = -1;
+        boolean convexHullIntersects = true;
         while (convexHullIntersects) {
-            ConvexHull convexHull = new ConvexHull(input.toArray(new Coordinate[0]), geometryFactory);
-            Geometry convexhull = convexHull.getConvexHull();
-
-            if (convexhull.getLength() / p1.distance(p2) > MAX_RATIO_HULL_DIRECT_PATH) {
+            if (convexHull.getLength() / directPathLength > MAX_RATIO_HULL_DIRECT_PATH) {
                 return new ArrayList<>();
             }
 
             convexHullIntersects = false;
-            coordinates = convexhull.getCoordinates();
-
-            input.clear();
-            input.addAll(Arrays.asList(coordinates));
-
-            indexp1 = -1;
-            for (int i = 0; i < coordinates.length - 1; i++) {
-                if (coordinates[i].equals(p1)) {
-                    indexp1 = i;
-                    break;
-                }
-            }
-            if (indexp1 == -1) {
+            int hullSize = convexHull.size();
+            indexp1 = convexHull.indexOf(p1);
+            if (indexp1 == -1 || hullSize < 3) {
                 // P1 does not belong to convex vertices, cannot compute diffraction
+                // A segment hull (no building on the way) has no diffraction path either, as with the JTS line string
                 // TODO handle concave path
                 return new ArrayList<>();
             }
-            // Transform array to set p1 at index=0
-            Coordinate[] coordinatesShifted = new Coordinate[coordinates.length];
-            // Copy from P1 to end in beginning of new array
-            int len = (coordinates.length - 1) - indexp1;
-            System.arraycopy(coordinates, indexp1, coordinatesShifted, 0, len);
-            // Copy from 0 to P1 in the end of array
-            System.arraycopy(coordinates, 0, coordinatesShifted, len, coordinates.length - len - 1);
-            coordinatesShifted[coordinatesShifted.length - 1] = coordinatesShifted[0];
-            coordinates = coordinatesShifted;
-            indexp1 = 0;
-            indexp2 = -1;
-            for (int i = 1; i < coordinates.length - 1; i++) {
-                if (coordinates[i].equals(p2)) {
-                    indexp2 = i;
-                    break;
-                }
-            }
+            // Index of p2 from p1
+            indexp2 = convexHull.indexOf(p2);
             if (indexp2 == -1) {
                 // P2 does not belong to convex vertices, cannot compute diffraction
                 // TODO handle concave path
                 return new ArrayList<>();
             }
-            for (k = 0; k < coordinates.length - 1; k++) {
-                LineSegment freeFieldTestSegment = new LineSegment(coordinates[k], coordinates[k + 1]);
+            indexp2 = (indexp2 - indexp1 + hullSize) % hullSize;
+            for (int k = 0; k < hullSize; k++) {
                 // Ignore intersection if iterating over other side (not parts of what is returned)
                 if (left && k < indexp2 || !left && k >= indexp2) {
-                    if (!freeFieldSegments.contains(freeFieldTestSegment)) {
+                    Coordinate segmentStart = convexHull.get((indexp1 + k) % hullSize);
+                    Coordinate segmentEnd = convexHull.get((indexp1 + k + 1) % hullSize);
+                    LineSegment freeFieldTestSegment = new LineSegment(segmentStart, segmentEnd);
+                    if (!clusterHull.isFreeSide(freeFieldTestSegment)) {
                         // Check if we still are in the propagation domain
-                        if(!data.freeFieldFinder.getMeshEnvelope().contains(coordinates[k]) ||
-                                !data.freeFieldFinder.getMeshEnvelope().contains(coordinates[k+1])) {
+                        if(!data.freeFieldFinder.getMeshEnvelope().contains(segmentStart) ||
+                                !data.freeFieldFinder.getMeshEnvelope().contains(segmentEnd)) {
                             // This side goes over propagation path
                             return new ArrayList<>();
                         }
-                        intersectionRayVisitor = new IntersectionRayVisitor(data.freeFieldFinder.getPolygonWithHeight(),
-                                coordinates[k], coordinates[k + 1], data.freeFieldFinder, input, buildingInHull, cutPlane);
-                        data.freeFieldFinder.getBuildingsOnPath(coordinates[k], coordinates[k + 1], intersectionRayVisitor);
-                        if(!intersectionRayVisitor.doContinue()) {
-                            convexHullIntersects = true;
+                        input.clear();
+                        for(int buildingId : cache.getBuildingsOnPath(segmentStart, segmentEnd)) {
+                            if(!buildingInHull.contains(buildingId) &&
+                                    addBuildingCut(cache, buildingId, cutPlane, input)) {
+                                buildingInHull.add(buildingId);
+                                convexHullIntersects = true;
+                                break;
+                            }
                         }
                         if (!convexHullIntersects) {
-                            freeFieldSegments.add(freeFieldTestSegment);
+                            clusterHull.addFreeSide(freeFieldTestSegment);
                         } else {
+                            SideHullCache.ClusterHull grownHull = cache.getClusterHull(p1, p2, buildingInHull);
+                            if(grownHull == null) {
+                                for(Coordinate point : input) {
+                                    convexHull.add(point);
+                                }
+                                grownHull = cache.putClusterHull(p1, p2, buildingInHull,
+                                        new IncrementalConvexHull(convexHull));
+                            }
+                            clusterHull = grownHull;
+                            convexHull = clusterHull.copyHull();
                             break;
                         }
                     }
                 }
             }
         }
+        // Hull vertices from p1, closed
+        int hullSize = convexHull.size();
+        Coordinate[] coordinates = new Coordinate[hullSize + 1];
+        for(int i = 0; i < hullSize; i++) {
+            coordinates[i] = convexHull.get((indexp1 + i) % hullSize);
+        }
+        coordinates[hullSize] = coordinates[0];
         // Check for invalid coordinates
         for(Coordinate p : coordinates) {
             if(p.z < 0) {
@@ -785,7 +997,7 @@ public class ComputeRays {
         }
 
         if(left) {
-            return Arrays.asList(Arrays.copyOfRange(coordinates,indexp1, indexp2 + 1));
+            return Arrays.asList(Arrays.copyOfRange(coordinates, 0, indexp2 + 1));
         } else {
             ArrayList<Coordinate> inversePath = new ArrayList<>();
             inversePath.addAll(Arrays.asList(Arrays.copyOfRange(coordinates,indexp2, coordinates.length)));
@@ -904,14 +1116,16 @@ public class ComputeRays {
      * @param sourceLi Coefficient of power per meter for this point source
      * @param receiverCoord coordinate of receiver
      * @param rcvId receiver identifier
-     * @param nearBuildingsWalls Walls to use in reflection
+     * @param imageSourceTree Receiver images, null if reflections are disabled
+     * @param enabledWalls Walls of the tree near the receiver or the source
      * @param debugInfo
      * @param dataOut
      * @return Minimal power level (dB) or maximum attenuation (dB)
      */
     private double[] receiverSourcePropa(Coordinate srcCoord, int srcId, double sourceLi,
                                      Coordinate receiverCoord, int rcvId,
-                                     List<FastObstructionTest.Wall> nearBuildingsWalls, List<PropagationDebugInfo> debugInfo, IComputeRaysOut dataOut) {
+                                     ImageSourceTree imageSourceTree, boolean[] enabledWalls,
+                                     List<PropagationDebugInfo> debugInfo, IComputeRaysOut dataOut) {
 
         List<PropagationPath> propagationPaths;
         // Build mirrored receiver list from wall list
@@ -924,7 +1138,8 @@ public class ComputeRays {
 
             // Process specular reflection
             if (data.reflexionOrder > 0) {
-                List<PropagationPath> propagationPaths_all = computeReflexion(receiverCoord, srcCoord, false, nearBuildingsWalls);
+                List<PropagationPath> propagationPaths_all = computeReflexion(receiverCoord, srcCoord, false,
+                        imageSourceTree, enabledWalls);
                 propagationPaths.addAll(propagationPaths_all);
             }
 
@@ -977,10 +1192,20 @@ public class ComputeRays {
     public void computeRaysAtPosition(Coordinate receiverCoord, int idReceiver, List<PropagationDebugInfo> debugInfo, IComputeRaysOut dataOut, ProgressVisitor progressVisitor) {
         // List of walls within maxReceiverSource distance
         HashSet<Integer> processedLineSources = new HashSet<Integer>(); //Already processed Raw source (line and/or points)
-        Set<FastObstructionTest.Wall> wallsReceiver = new HashSet<>();
+        // Receiver images are computed once and shared by all the sources of this receiver
+        ImageSourceTree imageSourceTree = null;
+        int receiverWallCount = 0;
+        // Walls enabled for the current source, the receiver walls stay enabled for all the sources
+        boolean[] enabledWalls = null;
+        // Identifier of the walls enabled for the current source only
+        int[] sourceWallIds = null;
         if (data.reflexionOrder > 0) {
-            wallsReceiver.addAll(data.freeFieldFinder.getLimitsInRange(
-                    data.maxRefDist, receiverCoord, false));
+            imageSourceTree = new ImageSourceTree(receiverCoord, getWallsInRange(receiverCoord),
+                    data.reflexionOrder);
+            receiverWallCount = imageSourceTree.getWalls().size();
+            enabledWalls = new boolean[Math.max(16, receiverWallCount * 2)];
+            Arrays.fill(enabledWalls, 0, receiverWallCount, true);
+            sourceWallIds = new int[16];
         }
         double searchSourceDistance = data.maxSrcDist;
         Envelope receiverSourceRegion = new Envelope(receiverCoord.x
@@ -1024,18 +1249,38 @@ public class ComputeRays {
         // Sort sources by power contribution descending
         Collections.sort(sourceList);
         double powerAtSource = 0;
+        double maximumError = convergenceStatistics != null ? convergenceStatistics.getCutoff(data.maximumError) :
+                data.maximumError;
+        int visitedSources = 0;
+        double residualError = 0;
         //Iterate over source point sorted by maximal power by descending order
         for (SourcePointInfo src : sourceList) {
             // For each Pt Source - Pt Receiver
             Coordinate srcCoord = src.position;
 
-            Set<FastObstructionTest.Wall> wallsSource = new HashSet<>(wallsReceiver);
-            if (data.reflexionOrder > 0) {
-                wallsSource.addAll(data.freeFieldFinder.getLimitsInRange(
-                        data.maxRefDist, srcCoord, false));
+            // Use the receiver walls and the walls near this source
+            int sourceWallCount = 0;
+            if (imageSourceTree != null) {
+                for (FastObstructionTest.Wall wall : getWallsInRange(srcCoord)) {
+                    int wallId = imageSourceTree.addWall(wall);
+                    if (wallId >= receiverWallCount) {
+                        if (wallId >= enabledWalls.length) {
+                            enabledWalls = Arrays.copyOf(enabledWalls, Math.max(enabledWalls.length * 2, wallId + 1));
+                        }
+                        if (sourceWallCount == sourceWallIds.length) {
+                            sourceWallIds = Arrays.copyOf(sourceWallIds, sourceWallCount * 2);
+                        }
+                        enabledWalls[wallId] = true;
+                        sourceWallIds[sourceWallCount++] = wallId;
+                    }
+                }
             }
             double[] power = receiverSourcePropa(srcCoord, src.sourcePrimaryKey, src.li, receiverCoord, idReceiver,
-                    new ArrayList<>(wallsSource), debugInfo, dataOut);
+                    imageSourceTree, enabledWalls, debugInfo, dataOut);
+            // Disable the walls of this source for the next source
+            for (int i = 0; i < sourceWallCount; i++) {
+                enabledWalls[sourceWallIds[i]] = false;
+            }
             double global = ComputeRays.sumArray(power.length, ComputeRays.dbaToW(power));
             totalPowerRemaining -= src.globalWj;
             if(power.length > 0) {
@@ -1044,11 +1289,26 @@ public class ComputeRays {
                 powerAtSource += src.globalWj;
             }
             totalPowerRemaining = Math.max(0, totalPowerRemaining);
+            visitedSources++;
+            if (progressVisitor != null && progressVisitor.isCanceled()) {
+                break;
+            }
             // If the delta between already received power and maximal potential power received is inferior than than data.maximumError
-            if ((progressVisitor != null && progressVisitor.isCanceled()) || (data.maximumError > 0 && wToDba(powerAtSource + totalPowerRemaining) - wToDba(powerAtSource) < data.maximumError)) {
-                break; //Stop looking for more rays
+            if (maximumError > 0) {
+                double errorBound = wToDba(powerAtSource + totalPowerRemaining) - wToDba(powerAtSource);
+                if (errorBound < maximumError) {
+                    if (visitedSources < sourceList.size()) {
+                        residualError = errorBound;
+                    }
+                    break; //Stop looking for more rays
+                }
             }
         }
+        if (convergenceStatistics != null && (progressVisitor == null || !progressVisitor.isCanceled())) {
+            long receiverPk = idReceiver < data.receiversPk.size() ? data.receiversPk.get(idReceiver) : idReceiver;
+            convergenceStatistics.addReceiver(receiverPk, visitedSources, sourceList.size() - visitedSources,
+                    residualError);
+        }
         // No more rays for this receiver
         dataOut.finalizeReceiver(idReceiver);
     }
@@ -1057,6 +1317,17 @@ public class ComputeRays {
      * Must be called before computeSoundLevelAtPosition
      */
     public void initStructures() {
+        if(data.reflexionOrder > 0 && wallCacheCellSize > 0) {
+            wallQueryCache = new WallQueryCache(data.freeFieldFinder, data.maxRefDist, wallCacheCellSize,
+                    wallCacheSize);
+        } else {
+            wallQueryCache = null;
+        }
+        if(data.computeHorizontalDiffraction) {
+            sideHullCache = new SideHullCache(data.freeFieldFinder, sideHullCacheSize);
+        } else {
+            sideHullCache = null;
+        }
         //Build R-tree for soil geometry and soil type
         rTreeOfGeoSoil = new STRtree();
         List<GeoWithSoilType> soilTypeList = data.getSoilList();
@@ -1073,6 +1344,8 @@ public class ComputeRays {
 
         initStructures();
 
+        receiverOrder = spatialReceiverOrder ? HilbertCurve.sort(data.receivers) : null;
+
         // Computed sound level of vertices
         //dataOut.setVerticesSoundLevel(new double[data.receivers.size()]);
 
@@ -1080,33 +1353,66 @@ public class ComputeRays {
         // maxSrcDist meters
         ProgressVisitor propaProcessProgression = data.cellProg;
 
+        if(workStealing && threadCount != 1) {
+            runWorkStealing(computeRaysOut, debugInfo, propaProcessProgression);
+            return;
+        }
+
         int splitCount = threadCount;
         ThreadPool threadManager = new ThreadPool(
                 splitCount,
                 splitCount + 1, Long.MAX_VALUE,
                 TimeUnit.SECONDS);
-        int maximumReceiverBatch = (int) Math.ceil(data.receivers.size() / (double) splitCount);
-        int endReceiverRange = 0;
-        while (endReceiverRange < data.receivers.size()) {
-            if(propaProcessProgression != null && propaProcessProgression.isCanceled()) {
-                break;
+        threadManager.setProgressVisitor(propaProcessProgression);
+        try {
+            int maximumReceiverBatch = (int) Math.ceil(data.receivers.size() / (double) splitCount);
+            int endReceiverRange = 0;
+            while (endReceiverRange < data.receivers.size()) {
+                if(propaProcessProgression != null && propaProcessProgression.isCanceled()) {
+                    break;
+                }
+                int newEndReceiver = Math.min(endReceiverRange + maximumReceiverBatch, data.receivers.size());
+                RangeReceiversComputation batchThread = new RangeReceiversComputation(endReceiverRange,
+                        newEndReceiver, this, debugInfo, propaProcessProgression,
+                        computeRaysOut.subProcess(endReceiverRange ,newEndReceiver));
+                if(threadCount != 1) {
+                    threadManager.executeBlocking(batchThread);
+                } else {
+                    batchThread.run();
+                }
+                endReceiverRange = newEndReceiver;
             }
-            int newEndReceiver = Math.min(endReceiverRange + maximumReceiverBatch, data.receivers.size());
-            RangeReceiversComputation batchThread = new RangeReceiversComputation(endReceiverRange,
-                    newEndReceiver, this, debugInfo, propaProcessProgression,
-                    computeRaysOut.subProcess(endReceiverRange ,newEndReceiver));
-            if(threadCount != 1) {
-                threadManager.executeBlocking(batchThread);
-            } else {
-                batchThread.run();
+            threadManager.shutdown();
+            try {
+                threadManager.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                LOGGER.error(ex.getLocalizedMessage(), ex);
             }
-            endReceiverRange = newEndReceiver;
+        } finally {
+            threadManager.shutdown();
+            // The cell progress visitor outlives the pool, remove the cancel listener
+            threadManager.setProgressVisitor(null);
+        }
+    }
+
+    /**
+     * Compute all receivers using a fork/join pool. The receiver range is split in halves while the worker
+     * has no queued work that could be stolen, so expensive areas are shared between all threads.
+     */
+    private void runWorkStealing(IComputeRaysOut computeRaysOut, List<PropagationDebugInfo> debugInfo,
+                                 ProgressVisitor propaProcessProgression) {
+        int receiverCount = data.receivers.size();
+        if(receiverCount == 0) {
+            return;
         }
-        threadManager.shutdown();
+        // Do not make chunks smaller than necessary when there is a lot of receivers per thread
+        int minimalBatch = Math.max(MINIMAL_RECEIVER_BATCH, receiverCount / (threadCount * 64));
+        ForkJoinPool forkJoinPool = new ForkJoinPool(Math.max(1, threadCount));
         try {
-            threadManager.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException ex) {
-            LOGGER.error(ex.getLocalizedMessage(), ex);
+            forkJoinPool.invoke(new ReceiversForkJoinTask(0, receiverCount, minimalBatch, this, debugInfo,
+                    propaProcessProgression, computeRaysOut));
+        } finally {
+            forkJoinPool.shutdown();
         }
     }
 
@@ -1128,6 +1434,9 @@ public class ComputeRays {
 
     }
 
+    /**
+     * Compute a range of processing positions, see {@link #setSpatialReceiverOrder(boolean)}
+     */
     private static final class RangeReceiversComputation implements Runnable {
         private final int startReceiver; // Included
         private final int endReceiver; // Excluded
@@ -1150,12 +1459,13 @@ public class ComputeRays {
         @Override
         public void run() {
             try {
-                for (int idReceiver = startReceiver; idReceiver < endReceiver; idReceiver++) {
+                for (int position = startReceiver; position < endReceiver; position++) {
                     if (progressVisitor != null) {
                         if(progressVisitor.isCanceled()) {
                             break;
                         }
                     }
+                    int idReceiver = propagationProcess.getReceiverIndex(position);
                     Coordinate receiverCoord = propagationProcess.data.receivers.get(idReceiver);
 
                     propagationProcess.computeRaysAtPosition(receiverCoord, idReceiver, debugInfo, dataOut, progressVisitor);
@@ -1164,6 +1474,7 @@ public class ComputeRays {
                         progressVisitor.endStep();
                     }
                 }
+                dataOut.finalizeRange();
             } catch (Exception ex) {
                 if(progressVisitor != null) {
                     progressVisitor.cancel();
@@ -1173,6 +1484,55 @@ public class ComputeRays {
         }
     }
 
+    /**
+     * Work-stealing receiver range computation.
+     * Split the range while the current worker does not have enough queued tasks for the idle workers.
+     */
+    private static final class ReceiversForkJoinTask extends RecursiveAction {
+        private final int startReceiver; // Included
+        private final int endReceiver; // Excluded
+        private final int minimalBatch;
+        private final ComputeRays propagationProcess;
+        private final List<PropagationDebugInfo> debugInfo;
+        private final ProgressVisitor progressVisitor;
+        private final IComputeRaysOut dataOut;
+
+        public ReceiversForkJoinTask(int startReceiver, int endReceiver, int minimalBatch,
+                                     ComputeRays propagationProcess, List<PropagationDebugInfo> debugInfo,
+                                     ProgressVisitor progressVisitor, IComputeRaysOut dataOut) {
+            this.startReceiver = startReceiver;
+            this.endReceiver = endReceiver;
+            this.minimalBatch = minimalBatch;
+            this.propagationProcess = propagationProcess;
+            this.debugInfo = debugInfo;
+            this.progressVisitor = progressVisitor;
+            this.dataOut = dataOut;
+        }
+
+        @Override
+        protected void compute() {
+            if (progressVisitor != null && progressVisitor.isCanceled()) {
+                return;
+            }
+            List<ReceiversForkJoinTask> forkedTasks = new ArrayList<>();
+            int end = endReceiver;
+            while (end - startReceiver > minimalBatch && getSurplusQueuedTaskCount() < MAXIMAL_SURPLUS_QUEUED_TASKS) {
+                int middle = (startReceiver + end) >>> 1;
+                ReceiversForkJoinTask rightPart = new ReceiversForkJoinTask(middle, end, minimalBatch,
+                        propagationProcess, debugInfo, progressVisitor, dataOut);
+                rightPart.fork();
+                forkedTasks.add(rightPart);
+                end = middle;
+            }
+            new RangeReceiversComputation(startReceiver, end, propagationProcess, debugInfo, progressVisitor,
+                    dataOut.subProcess(startReceiver, end)).run();
+            // Join in reverse order, the last forked task is the most likely to still be in the local queue
+            for (int i = forkedTasks.size() - 1; i >= 0; i--) {
+                forkedTasks.get(i).join();
+            }
+        }
+    }
+
     /**
      * Offset de Z coordinates by the height of the ground
      */
@@ -1269,15 +1629,15 @@ public class ComputeRays {
 
     private static final class IntersectionRayVisitor extends FastObstructionTest.IntersectionRayVisitor {
         Set<Integer> buildingsInIntersection;
-        FastObstructionTest freeFieldFinder;
+        SideHullCache cache;
         Plane cutPlane;
         List<Coordinate> input;
         boolean foundIntersection = false;
 
         public IntersectionRayVisitor(List<MeshBuilder.PolygonWithHeight> polygonWithHeight, Coordinate p1,
-                                      Coordinate p2, FastObstructionTest freeFieldFinde, List<Coordinate> input, Set<Integer> buildingsInIntersection, Plane cutPlane) {
+                                      Coordinate p2, SideHullCache cache, List<Coordinate> input, Set<Integer> buildingsInIntersection, Plane cutPlane) {
             super(polygonWithHeight, p1, p2);
-            this.freeFieldFinder = freeFieldFinde;
+            this.cache = cache;
             this.input = input;
             this.buildingsInIntersection = buildingsInIntersection;
             this.cutPlane = cutPlane;
@@ -1288,11 +1648,7 @@ public class ComputeRays {
             if(buildingsInIntersection.contains(buildingId)) {
                 return;
             }
-            List<Coordinate> roofPoints = freeFieldFinder.getWideAnglePointsByBuilding(buildingId, 0, 2 * Math.PI);
-            // Create a cut of the building volume
-            roofPoints = cutRoofPointsWithPlane(cutPlane, roofPoints);
-            if (!roofPoints.isEmpty()) {
-                    input.addAll(roofPoints.subList(0, roofPoints.size() - 1));
+            if (addBuildingCut(cache, buildingId, cutPlane, input)) {
                     buildingsInIntersection.add(buildingId);
                     foundIntersection = true;
                     // Stop iterating bounding boxes
@@ -34,6 +34,7 @@
 package org.noise_planet.noisemodelling.propagation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -79,6 +80,10 @@ public class ComputeRaysOut implements IComputeRaysOut {
     public AtomicLong nb_diffraction_path = new AtomicLong();
     public AtomicInteger cellComputed = new AtomicInteger();
     private static final double angle_section = (2 * Math.PI) / PropagationProcessPathData.DEFAULT_WIND_ROSE.length;
+    // Energetic sum (W) of the sources power with their attenuation for each receiver and frequency band, null if
+    // attenuation levels are kept per couple
+    private double[] receiversEnergy;
+    private final int bandCount = PropagationProcessPathData.freq_lvl.size();
 
 
     public static int getRoseIndex(Coordinate receiver, Coordinate source) {
@@ -107,6 +112,76 @@ public class ComputeRaysOut implements IComputeRaysOut {
 
     }
 
+    /**
+     * Keep only the energetic sum of all sources for each receiver and frequency band instead of one
+     * {@link verticeSL} per source/receiver couple. Memory use then grows with the number of receivers only.
+     * The attenuation of each couple is weighted by the power spectrum (W) of the source given by
+     * {@link PropagationProcessData#getSourceEmission(int)}.
+     * @param receiverCount Number of receivers, receiver identifiers given to
+     * {@link #addPropagationPaths(long, double, long, List)} must be lower than this value.
+     * @throws IllegalStateException If this instance has no input data
+     */
+    public void enableReceiverLevelsAggregation(int receiverCount) {
+        if(inputData == null) {
+            throw new IllegalStateException("Receiver levels aggregation requires the input data");
+        }
+        receiversEnergy = new double[receiverCount * bandCount];
+    }
+
+    /**
+     * @return True if the levels of sources are summed for each receiver
+     */
+    public boolean isReceiverLevelsAggregated() {
+        return receiversEnergy != null;
+    }
+
+    /**
+     * @return Energetic sum (W) of all sources at the receivers, receiver index * frequency band count + frequency
+     * band index
+     */
+    public double[] getReceiversEnergy() {
+        return receiversEnergy;
+    }
+
+    /**
+     * @param receiverId Receiver index
+     * @return Sound level (dB) for each frequency band of all sources at this receiver
+     */
+    public double[] getReceiverLevel(int receiverId) {
+        double[] level = new double[bandCount];
+        for (int idf = 0; idf < bandCount; idf++) {
+            level[idf] = ComputeRays.wToDba(receiversEnergy[receiverId * bandCount + idf]);
+        }
+        return level;
+    }
+
+    /**
+     * @param sourceId Source index
+     * @return Power spectrum (W) of the source
+     * @throws IllegalStateException If the input data does not provide the power spectrum of the source
+     */
+    protected double[] getSourcePower(long sourceId) {
+        double[] power = inputData.getSourceEmission((int) sourceId);
+        if(power.length != bandCount) {
+            throw new IllegalStateException("Receiver levels aggregation requires the power spectrum of the " +
+                    "sources, see PropagationProcessData#getSourceEmission");
+        }
+        return power;
+    }
+
+    /**
+     * Add energy to the receiver sum. A receiver is processed by one thread only so the slices of the array are
+     * never written concurrently.
+     * @param receiverId Receiver index
+     * @param energy Energy (W) for each frequency band
+     */
+    protected void addReceiverEnergy(long receiverId, double[] energy) {
+        int offset = (int) receiverId * bandCount;
+        for (int idf = 0; idf < bandCount; idf++) {
+            receiversEnergy[offset + idf] += energy[idf];
+        }
+    }
+
     public PropagationProcessData getInputData() {
         return inputData;
     }
@@ -119,6 +194,14 @@ public class ComputeRaysOut implements IComputeRaysOut {
         }
         double[] aGlobalMeteo = computeAttenuation(genericMeteoData, sourceId, sourceLi, receiverId, propagationPath);
         if (aGlobalMeteo != null && aGlobalMeteo.length > 0) {
+            if(receiversEnergy != null) {
+                double[] power = getSourcePower(sourceId);
+                int offset = (int) receiverId * bandCount;
+                for (int idf = 0; idf < bandCount; idf++) {
+                    receiversEnergy[offset + idf] += ComputeRays.dbaToW(aGlobalMeteo[idf]) * power[idf];
+                }
+                return aGlobalMeteo;
+            }
             if(inputData != null) {
                 if(sourceId < inputData.sourcesPk.size()) {
                     sourceId = inputData.sourcesPk.get((int)sourceId);
@@ -139,19 +222,19 @@ public class ComputeRaysOut implements IComputeRaysOut {
             // Compute receiver/source attenuation
             EvaluateAttenuationCnossos evaluateAttenuationCnossos = new EvaluateAttenuationCnossos();
             double[] aGlobalMeteo = null;
+            double[] aGlobalMeteoHom = new double[PropagationProcessPathData.freq_lvl.size()];
+            double[] aGlobalMeteoFav = new double[PropagationProcessPathData.freq_lvl.size()];
             for (PropagationPath propath : propagationPath) {
                 List<PointPath> ptList = propath.getPointList();
                 int roseindex = getRoseIndex(ptList.get(0).coordinate, ptList.get(ptList.size() - 1).coordinate);
 
                 // Compute homogeneous conditions attenuation
                 propath.setFavorable(false);
-                evaluateAttenuationCnossos.evaluate(propath, pathData);
-                double[] aGlobalMeteoHom = evaluateAttenuationCnossos.getaGlobal();
+                evaluateAttenuationCnossos.evaluate(propath, pathData, aGlobalMeteoHom);
 
                 // Compute favorable conditions attenuation
                 propath.setFavorable(true);
-                evaluateAttenuationCnossos.evaluate(propath, pathData);
-                double[] aGlobalMeteoFav = evaluateAttenuationCnossos.getaGlobal();
+                evaluateAttenuationCnossos.evaluate(propath, pathData, aGlobalMeteoFav);
 
                 // Compute attenuation under the wind conditions using the ray direction
                 double[] aGlobalMeteoRay = ComputeRays.sumArrayWithPonderation(aGlobalMeteoFav, aGlobalMeteoHom, pathData.getWindRose()[roseindex]);
@@ -246,6 +329,12 @@ public class ComputeRaysOut implements IComputeRaysOut {
     public static class ThreadRaysOut implements IComputeRaysOut {
         private ComputeRaysOut multiThreadParent;
         protected List<ComputeRaysOut.verticeSL> receiverAttenuationLevels = new ArrayList<>();
+        // Energetic sum of the current receiver when levels are aggregated
+        private double[] receiverEnergy;
+        // Thread private buffers and counters, merged into the parent by finalizeRange
+        private long rayCount = 0;
+        private final List<PropagationPath> propagationPaths = new ArrayList<>();
+        private final List<ComputeRaysOut.verticeSL> pendingLevels = new ArrayList<>();
 
         public ThreadRaysOut(ComputeRaysOut multiThreadParent) {
             this.multiThreadParent = multiThreadParent;
@@ -254,7 +343,7 @@ public class ComputeRaysOut implements IComputeRaysOut {
         @Override
         public double[] addPropagationPaths(long sourceId, double sourceLi, long receiverId, List<PropagationPath> propagationPath) {
             double[] aGlobalMeteo = multiThreadParent.computeAttenuation(multiThreadParent.genericMeteoData, sourceId, sourceLi, receiverId, propagationPath);
-            multiThreadParent.rayCount.addAndGet(propagationPath.size());
+            rayCount += propagationPath.size();
             if(multiThreadParent.keepRays) {
                 if(multiThreadParent.inputData != null && sourceId < multiThreadParent.inputData.sourcesPk.size() &&
                       receiverId < multiThreadParent.inputData.receiversPk.size()) {
@@ -264,13 +353,24 @@ public class ComputeRaysOut implements IComputeRaysOut {
                                 path.getSegmentList(), path.getSRList());
                         pathPk.idReceiver = multiThreadParent.inputData.receiversPk.get((int)receiverId).intValue();
                         pathPk.idSource = multiThreadParent.inputData.sourcesPk.get((int)sourceId).intValue();
-                        multiThreadParent.propagationPaths.add(pathPk);
+                        propagationPaths.add(pathPk);
                     }
                 } else {
-                    multiThreadParent.propagationPaths.addAll(propagationPath);
+                    propagationPaths.addAll(propagationPath);
                 }
             }
-            if (aGlobalMeteo != null) {
+            if (aGlobalMeteo != null && multiThreadParent.isReceiverLevelsAggregated()) {
+                if(aGlobalMeteo.length > 0) {
+                    double[] power = multiThreadParent.getSourcePower(sourceId);
+                    if (receiverEnergy == null) {
+                        receiverEnergy = new double[aGlobalMeteo.length];
+                    }
+                    for (int idf = 0; idf < aGlobalMeteo.length; idf++) {
+                        receiverEnergy[idf] += ComputeRays.dbaToW(aGlobalMeteo[idf]) * power[idf];
+                    }
+                }
+                return aGlobalMeteo;
+            } else if (aGlobalMeteo != null) {
                 receiverAttenuationLevels.add(new ComputeRaysOut.verticeSL(receiverId, sourceId, aGlobalMeteo));
                 return aGlobalMeteo;
             } else {
@@ -279,7 +379,21 @@ public class ComputeRaysOut implements IComputeRaysOut {
         }
 
         protected void pushResult(long receiverId, long sourceId, double[] level) {
-            multiThreadParent.receiversAttenuationLevels.add(new verticeSL(receiverId, sourceId, level));
+            pendingLevels.add(new verticeSL(receiverId, sourceId, level));
+        }
+
+        @Override
+        public void finalizeRange() {
+            multiThreadParent.rayCount.addAndGet(rayCount);
+            rayCount = 0;
+            if(!propagationPaths.isEmpty()) {
+                multiThreadParent.propagationPaths.addAll(propagationPaths);
+                propagationPaths.clear();
+            }
+            if(!pendingLevels.isEmpty()) {
+                multiThreadParent.receiversAttenuationLevels.addAll(pendingLevels);
+                pendingLevels.clear();
+            }
         }
 
         @Override
@@ -291,7 +405,12 @@ public class ComputeRaysOut implements IComputeRaysOut {
                 }
             }
             multiThreadParent.finalizeReceiver(receiverId);
-            if(multiThreadParent.receiversAttenuationLevels != null) {
+            if(multiThreadParent.isReceiverLevelsAggregated()) {
+                if(receiverEnergy != null) {
+                    multiThreadParent.addReceiverEnergy(receiverId, receiverEnergy);
+                    Arrays.fill(receiverEnergy, 0);
+                }
+            } else if(multiThreadParent.receiversAttenuationLevels != null) {
                 // Push merged sources into multi-thread parent
                 // Merge levels for each receiver for lines sources
                 Map<Long, double[]> levelsPerSourceLines = new HashMap<>();
@@ -0,0 +1,248 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Early termination statistics of the sources loop of {@link ComputeRays#computeRaysAtPosition}. Sources of a
+ * receiver are sorted by descending maximal power, the loop stops when the remaining power could not raise the
+ * received level by more than the cutoff (dB). The residual error of a receiver is this upper bound at the end of the
+ * loop, 0 if all sources have been computed.
+ *
+ * In adaptive mode the cutoff is tuned so that the mean residual error of the receivers matches an error budget.
+ * As the residual error of a receiver never exceeds the cutoff, the cutoff starts at the budget and is only relaxed,
+ * up to a maximal cutoff, while the observed mean residual error stays below the budget.
+ *
+ * One instance can be shared by all the threads and cells of a computation.
+ */
+public class ConvergenceStatistics {
+    /** Upper bounds (dB) of the residual error histogram classes, the last class contains greater values */
+    public static final double[] RESIDUAL_ERROR_CLASSES = {0, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2, 5};
+    /** Number of receivers between two cutoff updates in adaptive mode */
+    public static final int ADAPTATION_PERIOD = 64;
+    // Maximal cutoff change ratio of a single update
+    private static final double MAXIMAL_ADAPTATION_RATIO = 2;
+
+    private long receiverCount = 0;
+    private long earlyTerminatedReceiverCount = 0;
+    private long visitedSourceCount = 0;
+    private long skippedSourceCount = 0;
+    private double residualErrorSum = 0;
+    private double residualErrorMax = 0;
+    private final long[] residualErrorHistogram = new long[RESIDUAL_ERROR_CLASSES.length + 1];
+    // Adaptive mode, disabled if the budget is 0
+    private volatile double errorBudget = 0;
+    private double maximumCutoff = 0;
+    private volatile double cutoff = 0;
+    private int receiversSinceAdaptation = 0;
+    // Optional statistics of each receiver
+    private List<ReceiverStatistics> receiverStatistics = null;
+
+    /**
+     * Enable the adaptive mode
+     * @param errorBudget Target mean residual error (dB) of all receivers, 0 to disable the adaptive mode
+     * @param maximumCutoff Maximal cutoff (dB), upper bound of the residual error of a single receiver
+     */
+    public synchronized void setErrorBudget(double errorBudget, double maximumCutoff) {
+        this.errorBudget = errorBudget;
+        this.maximumCutoff = Math.max(errorBudget, maximumCutoff);
+        this.cutoff = errorBudget;
+        this.receiversSinceAdaptation = 0;
+    }
+
+    /**
+     * @return Target mean residual error (dB) of all receivers, 0 if the adaptive mode is disabled
+     */
+    public double getErrorBudget() {
+        return errorBudget;
+    }
+
+    /**
+     * The adaptive cutoff only replaces an enabled cutoff, so that the outputs that require all the sources
+     * ({@link PropagationProcessData#maximumError} disabled) are not pruned.
+     * @param maximumError Cutoff (dB) used if the adaptive mode is disabled, 0 or negative to disable the early
+     *                     termination
+     * @return Cutoff (dB) to use for the next receiver
+     */
+    public double getCutoff(double maximumError) {
+        return errorBudget > 0 && maximumError > 0 ? cutoff : maximumError;
+    }
+
+    /**
+     * Keep the statistics of each receiver, see {@link #writeReceiverStatistics(Writer)}
+     */
+    public synchronized void enableReceiverStatistics() {
+        if(receiverStatistics == null) {
+            receiverStatistics = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Called when all the sources of a receiver have been processed
+     * @param receiverId Receiver identifier
+     * @param visitedSources Number of computed sources
+     * @param skippedSources Number of sources skipped by the early termination
+     * @param residualError Upper bound (dB) of the level increase that the skipped sources could have brought
+     */
+    public synchronized void addReceiver(long receiverId, int visitedSources, int skippedSources,
+                                         double residualError) {
+        receiverCount++;
+        visitedSourceCount += visitedSources;
+        skippedSourceCount += skippedSources;
+        if(skippedSources > 0) {
+            earlyTerminatedReceiverCount++;
+        }
+        residualErrorSum += residualError;
+        residualErrorMax = Math.max(residualErrorMax, residualError);
+        int errorClass = 0;
+        while (errorClass < RESIDUAL_ERROR_CLASSES.length && residualError > RESIDUAL_ERROR_CLASSES[errorClass]) {
+            errorClass++;
+        }
+        residualErrorHistogram[errorClass]++;
+        if(receiverStatistics != null) {
+            receiverStatistics.add(new ReceiverStatistics(receiverId, visitedSources, skippedSources,
+                    residualError));
+        }
+        if(errorBudget > 0 && ++receiversSinceAdaptation >= ADAPTATION_PERIOD) {
+            receiversSinceAdaptation = 0;
+            double meanError = residualErrorSum / receiverCount;
+            double ratio = meanError > 0 ? errorBudget / meanError : MAXIMAL_ADAPTATION_RATIO;
+            ratio = Math.max(1 / MAXIMAL_ADAPTATION_RATIO, Math.min(MAXIMAL_ADAPTATION_RATIO, ratio));
+            cutoff = Math.max(errorBudget, Math.min(maximumCutoff, cutoff * ratio));
+        }
+    }
+
+    public synchronized long getReceiverCount() {
+        return receiverCount;
+    }
+
+    public synchronized long getEarlyTerminatedReceiverCount() {
+        return earlyTerminatedReceiverCount;
+    }
+
+    public synchronized long getVisitedSourceCount() {
+        return visitedSourceCount;
+    }
+
+    public synchronized long getSkippedSourceCount() {
+        return skippedSourceCount;
+    }
+
+    /**
+     * @return Mean residual error (dB) of the receivers
+     */
+    public synchronized double getMeanResidualError() {
+        return receiverCount > 0 ? residualErrorSum / receiverCount : 0;
+    }
+
+    /**
+     * @return Maximal residual error (dB) of the receivers
+     */
+    public synchronized double getMaximumResidualError() {
+        return residualErrorMax;
+    }
+
+    /**
+     * @return Number of receivers of each residual error class, see {@link #RESIDUAL_ERROR_CLASSES}
+     */
+    public synchronized long[] getResidualErrorHistogram() {
+        return residualErrorHistogram.clone();
+    }
+
+    /**
+     * @return Statistics by name, in order to be logged or stored
+     */
+    public synchronized Map<String, Number> getSummary() {
+        Map<String, Number> summary = new LinkedHashMap<>();
+        summary.put("receivers", receiverCount);
+        summary.put("early_terminated_receivers", earlyTerminatedReceiverCount);
+        summary.put("visited_sources", visitedSourceCount);
+        summary.put("skipped_sources", skippedSourceCount);
+        long sourceCount = visitedSourceCount + skippedSourceCount;
+        summary.put("skipped_sources_ratio", sourceCount > 0 ? skippedSourceCount / (double) sourceCount : 0);
+        summary.put("mean_residual_error", getMeanResidualError());
+        summary.put("max_residual_error", residualErrorMax);
+        summary.put("cutoff", errorBudget > 0 ? cutoff : Double.NaN);
+        for (int i = 0; i < residualErrorHistogram.length; i++) {
+            String name = i < RESIDUAL_ERROR_CLASSES.length ?
+                    String.format(Locale.ROOT, "residual_error_le_%s", RESIDUAL_ERROR_CLASSES[i]) :
+                    String.format(Locale.ROOT, "residual_error_gt_%s",
+                            RESIDUAL_ERROR_CLASSES[RESIDUAL_ERROR_CLASSES.length - 1]);
+            summary.put(name, residualErrorHistogram[i]);
+        }
+        return summary;
+    }
+
+    /**
+     * Write the statistics of each receiver as CSV (IDRECEIVER, VISITED_SOURCES, SKIPPED_SOURCES, RESIDUAL_ERROR)
+     * @param writer Output
+     * @throws IOException
+     */
+    public synchronized void writeReceiverStatistics(Writer writer) throws IOException {
+        writer.write("IDRECEIVER,VISITED_SOURCES,SKIPPED_SOURCES,RESIDUAL_ERROR\n");
+        if(receiverStatistics != null) {
+            for (ReceiverStatistics statistics : receiverStatistics) {
+                writer.write(String.format(Locale.ROOT, "%d,%d,%d,%g\n", statistics.receiverId,
+                        statistics.visitedSources, statistics.skippedSources, statistics.residualError));
+            }
+        }
+        writer.flush();
+    }
+
+    @Override
+    public String toString() {
+        return getSummary().toString();
+    }
+
+    private static final class ReceiverStatistics {
+        private final long receiverId;
+        private final int visitedSources;
+        private final int skippedSources;
+        private final double residualError;
+
+        ReceiverStatistics(long receiverId, int visitedSources, int skippedSources, double residualError) {
+            this.receiverId = receiverId;
+            this.visitedSources = visitedSources;
+            this.skippedSources = skippedSources;
+            this.residualError = residualError;
+        }
+    }
+}
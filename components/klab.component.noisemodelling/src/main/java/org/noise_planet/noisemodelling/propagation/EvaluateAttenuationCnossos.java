@@ -43,9 +43,18 @@ import java.util.List;
 
 public class EvaluateAttenuationCnossos {
     private final static double ONETHIRD = 1. / 3.;
+    // Constants of the last evaluated sound celerity, shared by all instances as they are never modified
+    private static volatile BandConstants lastBands = null;
     private int nbfreq;
-    private double[] freq_lambda;
-    private double[] aGlobal;
+    private BandConstants bands;
+    // Working arrays, reused between paths
+    private double[] aBoundary;
+    private double[] aRef;
+    private double[] aGroundSO;
+    private double[] aGroundOR;
+    private double[] deltaDifSR;
+    private double[] deltaDifSpR;
+    private double[] deltaDifSRp;
     boolean gToSigma = false; // Todo publish parameter issue #13
 
     public static double dbaToW(double dBA) {
@@ -56,10 +65,6 @@ public class EvaluateAttenuationCnossos {
         return 10 * Math.log10(w);
     }
 
-    double[] getaGlobal() {
-        return aGlobal;
-    }
-
     public boolean isgToSigma() {
         return gToSigma;
     }
@@ -68,16 +73,82 @@ public class EvaluateAttenuationCnossos {
         this.gToSigma = gToSigma;
     }
 
-    private double[] getDeltaDif(SegmentPath srpath, PropagationProcessPathData data) {
-        double[] DeltaDif = new double[data.freq_lvl.size()];
-        double cprime;
+    /**
+     * Frequency dependent constants, computed once for a sound celerity
+     */
+    static final class BandConstants {
+        final double celerity;
+        final double[] freq_lambda;
+        final double[] waveNumber;
+        final double[] freqPow2_5;
+        final double[] freqPow1_5;
+        final double[] freqPow0_75;
+
+        BandConstants(PropagationProcessPathData data) {
+            int nbfreq = PropagationProcessPathData.freq_lvl.size();
+            celerity = data.getCelerity();
+            freq_lambda = new double[nbfreq];
+            waveNumber = new double[nbfreq];
+            freqPow2_5 = new double[nbfreq];
+            freqPow1_5 = new double[nbfreq];
+            freqPow0_75 = new double[nbfreq];
+            for (int idf = 0; idf < nbfreq; idf++) {
+                double freq = PropagationProcessPathData.freq_lvl.get(idf);
+                // wave length for each frequency
+                if (freq > 0) {
+                    freq_lambda[idf] = celerity / freq;
+                } else {
+                    freq_lambda[idf] = 1;
+                }
+                //NF S 31-133 page 41 c
+                waveNumber[idf] = 2 * Math.PI * freq / celerity;
+                freqPow2_5[idf] = Math.pow(freq, 2.5);
+                freqPow1_5[idf] = Math.pow(freq, 1.5);
+                freqPow0_75[idf] = Math.pow(freq, 0.75);
+            }
+        }
+    }
 
-        for (int idfreq = 0; idfreq < data.freq_lvl.size(); idfreq++) {
+    /**
+     * @param data Atmospheric parameters
+     * @return Frequency constants of the sound celerity of data
+     */
+    static BandConstants getBandConstants(PropagationProcessPathData data) {
+        BandConstants cached = lastBands;
+        if (cached == null || cached.celerity != data.getCelerity()) {
+            cached = new BandConstants(data);
+            lastBands = cached;
+        }
+        return cached;
+    }
 
-            double Ch = 1;// Math.min(h0 * (data.celerity / freq_lambda[idfreq]) / 250, 1);
+    private void initBands(PropagationProcessPathData data) {
+        nbfreq = PropagationProcessPathData.freq_lvl.size();
+        if (bands == null || bands.celerity != data.getCelerity()) {
+            bands = getBandConstants(data);
+        }
+        if (aBoundary == null || aBoundary.length != nbfreq) {
+            aBoundary = new double[nbfreq];
+            aRef = new double[nbfreq];
+            aGroundSO = new double[nbfreq];
+            aGroundOR = new double[nbfreq];
+            deltaDifSR = new double[nbfreq];
+            deltaDifSpR = new double[nbfreq];
+            deltaDifSRp = new double[nbfreq];
+        }
+    }
 
-            if (srpath.eLength > 0.3) {
-                double gammaPart = Math.pow((5 * freq_lambda[idfreq]) / srpath.eLength, 2);
+    private void getDeltaDif(SegmentPath srpath, double[] deltaDif) {
+        double[] freq_lambda = bands.freq_lambda;
+        double eLength = srpath.eLength;
+        double delta = srpath.delta;
+        for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
+
+            double Ch = 1;// Math.min(h0 * (data.celerity / freq_lambda[idfreq]) / 250, 1);
+            double cprime;
+            if (eLength > 0.3) {
+                double gamma = (5 * freq_lambda[idfreq]) / eLength;
+                double gammaPart = gamma * gamma;
                 cprime = (1. + gammaPart) / (ONETHIRD + gammaPart);
             } else {
                 cprime = 1.;
@@ -85,20 +156,17 @@ public class EvaluateAttenuationCnossos {
 
             //(7.11) NMP2008 P.32
             double testForm = (40 / freq_lambda[idfreq])
-                    * cprime * srpath.delta;
+                    * cprime * delta;
 
-            double deltaDif= 0.;
+            double deltaDifFreq = 0.;
 
             if (testForm >= -2.) {
-                deltaDif = 10 * Ch * Math
+                deltaDifFreq = 10 * Ch * Math
                         .log10(Math.max(0, 3 + testForm));
             }
 
-            DeltaDif[idfreq] = Math.max(0,deltaDif);
-
+            deltaDif[idfreq] = Math.max(0, deltaDifFreq);
         }
-        return  DeltaDif;
-
     }
 
 
@@ -128,54 +196,55 @@ public class EvaluateAttenuationCnossos {
      * @return
      */
     public static double[] getAGroundCore(PropagationPath path, SegmentPath segmentPath, PropagationProcessPathData data) {
+        double[] aGround = new double[PropagationProcessPathData.freq_lvl.size()];
+        getAGroundCore(path, segmentPath, data, getBandConstants(data), aGround);
+        return aGround;
+    }
 
-        double[] aGround = new double[data.freq_lvl.size()];
+    /**
+     * Ground attenuation for all frequency bands
+     * @param bands Frequency constants
+     * @param aGround Output ground attenuation for each frequency band
+     */
+    static void getAGroundCore(PropagationPath path, SegmentPath segmentPath, PropagationProcessPathData data,
+                               BandConstants bands, double[] aGround) {
         double aGroundmin;
-        double AGround;
-
-        for (int idfreq = 0; idfreq < data.freq_lvl.size(); idfreq++) {
-            //NF S 31-133 page 41 c
-            double k = 2 * Math.PI *  data.freq_lvl.get(idfreq) / data.getCelerity();
+        double zs;
+        double zr;
+        if (path.isFavorable()){
+            double testForm = data.isPrime2520() ? segmentPath.testFormPrime : segmentPath.testForm;
+            if (testForm <= 1) {
+                aGroundmin = -3 * (1 - segmentPath.gm);
+            } else {
+                aGroundmin = -3 * (1 - segmentPath.gm) * (1 + 2 * (1 - (1 / testForm)));
+            }
+            zs = segmentPath.zsPrime;
+            zr = segmentPath.zrPrime;
+        } else {
+            /** eq. 2.5.18**/
+            aGroundmin = -3 * (1 - segmentPath.gm);
+            zs = segmentPath.zs;
+            zr = segmentPath.zr;
+        }
+        double dp = segmentPath.dp;
+        double gwPow2_6 = Math.pow(segmentPath.gw, 2.6);
+        double gwPow1_3 = Math.pow(segmentPath.gw, 1.3);
+        for (int idfreq = 0; idfreq < aGround.length; idfreq++) {
+            double k = bands.waveNumber[idfreq];
             //NF S 31-113 page 41 w
-            double w = 0.0185 * Math.pow(data.freq_lvl.get(idfreq), 2.5) * Math.pow(segmentPath.gw, 2.6) /
-                    (Math.pow(data.freq_lvl.get(idfreq), 1.5) * Math.pow(segmentPath.gw, 2.6) + 1.3 * Math.pow(10, 3) * Math.pow(data.freq_lvl.get(idfreq), 0.75) * Math.pow(segmentPath.gw, 1.3) + 1.16 * Math.pow(10, 6));
+            double w = 0.0185 * bands.freqPow2_5[idfreq] * gwPow2_6 /
+                    (bands.freqPow1_5[idfreq] * gwPow2_6 + 1.3e3 * bands.freqPow0_75[idfreq] * gwPow1_3 + 1.16e6);
             //NF S 31-113 page 41 Cf
-            double cf = segmentPath.dp * (1 + 3 * w * segmentPath.dp * Math.pow(Math.E, -Math.sqrt(w * segmentPath.dp))) / (1 + w * segmentPath.dp);
+            double cf = dp * (1 + 3 * w * dp * Math.exp(-Math.sqrt(w * dp))) / (1 + w * dp);
             //NF S 31-113 page 41 A sol
-
-            if (path.isFavorable()){
-                if (data.isPrime2520()) {
-                    if (segmentPath.testFormPrime <= 1) {
-                        aGroundmin = -3 * (1 - segmentPath.gm);
-                    } else {
-                        aGroundmin = -3 * (1 - segmentPath.gm) * (1 + 2 * (1 - (1 / segmentPath.testFormPrime)));
-                    }
-                }
-                else{
-                    if (segmentPath.testForm <= 1) {
-                        aGroundmin = -3 * (1 - segmentPath.gm);
-                    } else {
-                        aGroundmin = -3 * (1 - segmentPath.gm) * (1 + 2 * (1 - (1 / segmentPath.testForm)));
-                    }
-                }
-                /** eq. 2.5.19**/
-                AGround = -10 * Math.log10(4 * Math.pow(k, 2) / Math.pow(segmentPath.dp, 2) *
-                        (Math.pow(segmentPath.zsPrime, 2) - Math.sqrt(2 * cf / k) * segmentPath.zsPrime + cf / k) *
-                        (Math.pow(segmentPath.zrPrime, 2) - Math.sqrt(2 * cf / k) * segmentPath.zrPrime + cf / k));
-            }
-            else
-                {
-                 /** eq. 2.5.15**/
-                AGround = -10 * Math.log10(4 * Math.pow(k, 2) / Math.pow(segmentPath.dp, 2) *
-                            (Math.pow(segmentPath.zs, 2) - Math.sqrt(2 * cf / k) * segmentPath.zs + cf / k) *
-                            (Math.pow(segmentPath.zr, 2) - Math.sqrt(2 * cf / k) * segmentPath.zr + cf / k));
-                /** eq. 2.5.18**/
-                aGroundmin = -3 * (1 - segmentPath.gm);
-            }
+            double cfk = cf / k;
+            double sqrtCfk = Math.sqrt(2 * cfk);
+            /** eq. 2.5.15 (homogeneous) or eq. 2.5.19 (favorable) **/
+            double AGround = -10 * Math.log10(4 * k * k / (dp * dp) *
+                    (zs * zs - sqrtCfk * zs + cfk) *
+                    (zr * zr - sqrtCfk * zr + cfk));
             aGround[idfreq] =  Math.max(AGround, aGroundmin);
-
         }
-        return aGround;
     }
 
     /**
@@ -194,23 +263,22 @@ public class EvaluateAttenuationCnossos {
     }
 
 
-    private double[] getARef(PropagationPath path, PropagationProcessPathData data) {
-        double[] aRef = new double[data.freq_lvl.size()];
-        for (int idf = 0; idf < nbfreq; idf++) {
-            for (int idRef = 0; idRef < path.refPoints.size(); idRef++) {
-                List<Double> alpha = path.getPointList().get(path.refPoints.get(idRef)).alphaWall;
-                /*if (gToSigma || alphaUniqueValue > 1){
-                    PropagationProcessData.getWallAlpha(alphaUniqueValue, data.freq_lvl.get(idf));
-                }*/
+    private void getARef(PropagationPath path, double[] aRef) {
+        java.util.Arrays.fill(aRef, 0);
+        for (int idRef = 0; idRef < path.refPoints.size(); idRef++) {
+            List<Double> alpha = path.getPointList().get(path.refPoints.get(idRef)).alphaWall;
+            /*if (gToSigma || alphaUniqueValue > 1){
+                PropagationProcessData.getWallAlpha(alphaUniqueValue, data.freq_lvl.get(idf));
+            }*/
+            for (int idf = 0; idf < nbfreq; idf++) {
                 aRef[idf] += - 10 * Math.log10(1 - alpha.get(idf));
             }
         }
-        return aRef ;
     }
 
 
-    private double[] getAGround(SegmentPath segmentPath,PropagationPath path, PropagationProcessPathData data) {
-        double[] aGround = new double[data.freq_lvl.size()];
+    private void getAGround(SegmentPath segmentPath,PropagationPath path, PropagationProcessPathData data,
+                            double[] aGround) {
         double aGroundmin;
 
         // Here there is a debate if use this condition or not
@@ -226,25 +294,20 @@ public class EvaluateAttenuationCnossos {
             }
             java.util.Arrays.fill(aGround, aGroundmin);
         } else {
-            aGround = getAGroundCore(path, segmentPath, data);
+            getAGroundCore(path, segmentPath, data, bands, aGround);
         }
-        return aGround;
     }
 
     /**
-     *
+     * Ground and diffraction attenuation
      * @param path
      * @param data
-     * @return
+     * @param aBoundary Output attenuation for each frequency band
      */
-    private double[] getABoundary(PropagationPath path, PropagationProcessPathData data) {
+    private void getABoundary(PropagationPath path, PropagationProcessPathData data, double[] aBoundary) {
 
         List<SegmentPath> srPath = path.getSRList();
 
-        double[] aGround;
-        double[] aBoundary ;
-        double[] aDif = new double[data.freq_lvl.size()];
-
         // Set Gm and Gw for AGround SR - Table 2.5.b
         if (path.isFavorable()) {
             srPath.get(0).setGw(srPath.get(0).gPath);
@@ -254,31 +317,21 @@ public class EvaluateAttenuationCnossos {
             srPath.get(0).setGm(srPath.get(0).gPathPrime);
         }
 
-        aGround = getAGround(srPath.get(0), path,data);
-        aBoundary = aGround;
+        getAGround(srPath.get(0), path, data, aBoundary);
         if (path.difVPoints.size() > 0) {
-            List<SegmentPath> segmentPath = path.getSegmentList();
-            double[] DeltaDifSR;
-            DeltaDifSR = getDeltaDif(srPath.get(0), data);
+            getDeltaDif(srPath.get(0), deltaDifSR);
 
             // Eq 2.5.30 - Eq. 2.5.31 - Eq. 2.5.32
             for (int idf = 0; idf < nbfreq; idf++) {
-                aDif[idf]=DeltaDifSR[idf];
-                aBoundary[idf] = aDif[idf] + aGround[idf];
+                aBoundary[idf] += deltaDifSR[idf];
             }
         }
         if (path.difHPoints.size() > 0) {
             List<SegmentPath> segmentPath = path.getSegmentList();
 
-            double[] DeltaDifSR;
-            double[] DeltaDifSpR;
-            double[] DeltaDifSRp;
-            double[] aGroundSO;
-            double[] aGroundOR;
-
-            DeltaDifSR = getDeltaDif(srPath.get(0), data);
-            DeltaDifSpR = getDeltaDif(srPath.get(srPath.size()-2), data);
-            DeltaDifSRp = getDeltaDif(srPath.get(srPath.size()-1), data);
+            getDeltaDif(srPath.get(0), deltaDifSR);
+            getDeltaDif(srPath.get(srPath.size()-2), deltaDifSpR);
+            getDeltaDif(srPath.get(srPath.size()-1), deltaDifSRp);
 
             // Set Gm and Gw for AGround SO - Table 2.5.b
             if (path.isFavorable()) {
@@ -290,53 +343,51 @@ public class EvaluateAttenuationCnossos {
             }
 
             // TODO Should be Z o,s' but can't find how to compute this
-            aGroundSO = getAGround(segmentPath.get(0), path,data);
+            getAGround(segmentPath.get(0), path, data, aGroundSO);
 
             // Set Gm and Gw for AGround OR - Table 2.5.b
-            if (path.isFavorable()) {
-                segmentPath.get(segmentPath.size()-1).setGw(segmentPath.get(segmentPath.size()-1).gPath);
-                segmentPath.get(segmentPath.size()-1).setGm(segmentPath.get(segmentPath.size()-1).gPath);
-            } else {
-                segmentPath.get(segmentPath.size()-1).setGw(segmentPath.get(segmentPath.size()-1).gPath);
-                segmentPath.get(segmentPath.size()-1).setGm(segmentPath.get(segmentPath.size()-1).gPath);
-            }
-            aGroundOR = getAGround(segmentPath.get(segmentPath.size()-1), path,data);
-
+            SegmentPath lastSegment = segmentPath.get(segmentPath.size()-1);
+            lastSegment.setGw(lastSegment.gPath);
+            lastSegment.setGm(lastSegment.gPath);
+            getAGround(lastSegment, path, data, aGroundOR);
 
             // Eq 2.5.30 - Eq. 2.5.31 - Eq. 2.5.32
-            for (int idf = 0; idf < nbfreq; idf++) {
-                // see 5.3 Equivalent heights from AFNOR document
-                if (segmentPath.get(0).zs <= 0.0000001 || segmentPath.get(segmentPath.size()-1).zr <= 0.0000001) {
-                    aDif[idf]=Math.min(25,DeltaDifSR[idf])+aGroundSO[idf] + aGroundOR[idf];
-                    }
-                else{
-                    aDif[idf]=Math.min(25,DeltaDifSR[idf])+getDeltaGround(aGroundSO[idf], DeltaDifSpR[idf], DeltaDifSR[idf]) + getDeltaGround(aGroundOR[idf], DeltaDifSRp[idf], DeltaDifSR[idf]);
+            // see 5.3 Equivalent heights from AFNOR document
+            if (segmentPath.get(0).zs <= 0.0000001 || lastSegment.zr <= 0.0000001) {
+                for (int idf = 0; idf < nbfreq; idf++) {
+                    aBoundary[idf] = Math.min(25, deltaDifSR[idf]) + aGroundSO[idf] + aGroundOR[idf];
                 }
-
+            } else {
+                for (int idf = 0; idf < nbfreq; idf++) {
+                    aBoundary[idf] = Math.min(25, deltaDifSR[idf]) +
+                            getDeltaGround(aGroundSO[idf], deltaDifSpR[idf], deltaDifSR[idf]) +
+                            getDeltaGround(aGroundOR[idf], deltaDifSRp[idf], deltaDifSR[idf]);
                 }
-
-            aBoundary =  aDif;
+            }
         }
-
-        return aBoundary;
     }
 
+    /**
+     * @param path Propagation path
+     * @param data Atmospheric parameters
+     * @return New array of global attenuation for each frequency band
+     */
     public double[] evaluate(PropagationPath path, PropagationProcessPathData data) {
-        // init
-        aGlobal = new double[data.freq_lvl.size()];
-        double[] aBoundary ;
-        double[] aRef ;
-        nbfreq = PropagationProcessPathData.freq_lvl.size();
+        double[] aGlobal = new double[PropagationProcessPathData.freq_lvl.size()];
+        evaluate(path, data, aGlobal);
+        return aGlobal;
+    }
 
-        // Init wave length for each frequency
-        freq_lambda = new double[nbfreq];
-        for (int idf = 0; idf < nbfreq; idf++) {
-            if (PropagationProcessPathData.freq_lvl.get(idf) > 0) {
-                freq_lambda[idf] = data.getCelerity() / PropagationProcessPathData.freq_lvl.get(idf);
-            } else {
-                freq_lambda[idf] = 1;
-            }
-        }
+    /**
+     * Compute the global attenuation of the path without allocating arrays. Frequency dependent constants
+     * and working arrays are kept between calls, so an instance must not be shared between threads.
+     * @param path Propagation path
+     * @param data Atmospheric parameters
+     * @param aGlobal Output global attenuation for each frequency band
+     */
+    public void evaluate(PropagationPath path, PropagationProcessPathData data, double[] aGlobal) {
+        // init
+        initBands(data);
 
         // init evolved path
         path.initPropagationPath();
@@ -354,23 +405,22 @@ public class EvaluateAttenuationCnossos {
 
 
         // boundary (ground + diffration)
-        aBoundary = getABoundary(path,data);
+        getABoundary(path, data, aBoundary);
 
         // reflections
-        aRef = getARef(path,data);
+        getARef(path, aRef);
 
-        for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
-            // atm
-            double aAtm;
-            if (path.difVPoints.size() > 0 || path.refPoints.size() > 0) {
-                aAtm = getAAtm(path.getSRList().get(0).dPath, alpha_atmo[idfreq]);
-            }else{
-                aAtm = getAAtm(path.getSRList().get(0).d, alpha_atmo[idfreq]);
-            }
+        // atm
+        double atmDistance;
+        if (path.difVPoints.size() > 0 || path.refPoints.size() > 0) {
+            atmDistance = path.getSRList().get(0).dPath;
+        }else{
+            atmDistance = path.getSRList().get(0).d;
+        }
 
+        for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
+            double aAtm = getAAtm(atmDistance, alpha_atmo[idfreq]);
             aGlobal[idfreq] = -(aDiv + aAtm + aBoundary[idfreq] + aRef[idfreq]);
-
         }
-        return aGlobal;
     }
 }
@@ -34,13 +34,13 @@
 package org.noise_planet.noisemodelling.propagation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.Stack;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,7 +57,6 @@ import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.index.ItemVisitor;
 import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.io.WKTWriter;
-import org.locationtech.jts.math.Vector2D;
 import org.locationtech.jts.triangulate.quadedge.Vertex;
 
 /**
@@ -75,16 +74,32 @@ public class FastObstructionTest {
     private static final double MINIMAL_REFLECTION_WALL_LENGTH = 1.0;
     // Split ray to test up to 200m length (in order to reduce returns results)
     private static final double STRTREE_TRAVERSAL_SPLIT = 300;
+    // Order of triangle sides tested by getNextTri
+    private static final int[] NEXT_TRI_SIDE_ORDER = new int[] {2, 0, 1};
     private STRtree polygonIndex;
-    private List<Triangle> triVertices;
-    private List<Coordinate> vertices;
-    private List<Triangle> triNeighbors; // Neighbors
+    private final TriangleMesh mesh;
     private List<Integer> buildingsPK = new ArrayList<>();
     private List<MeshBuilder.PolygonWithHeight> polygonWithHeight = new ArrayList<MeshBuilder.PolygonWithHeight>();//list polygon with height
     private Envelope meshEnvelope;
 
     private STRtree triIndex = null;
+    private TriangleWalkLocator triangleLocator = null;
+    // Per thread visited triangles marker of isFreeField and getLimitsInRange
+    private final ThreadLocal<VisitedTriangles> freeFieldVisited = new ThreadLocal<>();
+    // Return codes of getNextFreeFieldTri
+    private static final int NO_NEXT_TRIANGLE = -1;
+    private static final int BLOCKED_RAY = -2;
+    // Building walls table, a wall is a triangle side (half edge triId * 3 + side) facing a building triangle
+    private int[] halfEdgeWall;
+    private int[] wallVertexA;
+    private int[] wallVertexB;
+    private int[] wallBuildingId;
+    private double[] wallLength;
+    private AtomicReferenceArray<Wall> wallInstances;
     private List<Float> verticesOpenAngle = null;
+    // Object views of the mesh, built on the first call of getTriangles and getVertices
+    private volatile List<Triangle> triangleList = null;
+    private volatile List<Coordinate> vertexList = null;
     private List<Coordinate> verticesOpenAngleTranslated = null; /*Open angle*/
     private boolean hasBuildingWithHeight;
     private Logger logger = LoggerFactory.getLogger(FastObstructionTest.class);
@@ -101,6 +116,17 @@ public class FastObstructionTest {
      */
     public FastObstructionTest(List<MeshBuilder.PolygonWithHeight> buildings,
                                List<Triangle> triangles, List<Triangle> triNeighbors, List<Coordinate> points) {
+        this(buildings, new TriangleMesh(triangles, triNeighbors, points));
+    }
+
+    /**
+     * Initialize buildings and mesh from array based mesh data
+     *
+     * @param buildings list of buildings with their height
+     * @param mesh      Triangles, neighbors and vertices. Triangle attribute is the building index [1-n], 0 if not in
+     *                  a building
+     */
+    public FastObstructionTest(List<MeshBuilder.PolygonWithHeight> buildings, TriangleMesh mesh) {
 
         List<MeshBuilder.PolygonWithHeight> polygonWithHeightArray = new ArrayList<MeshBuilder.PolygonWithHeight>(buildings.size());
         hasBuildingWithHeight = false;
@@ -115,24 +141,30 @@ public class FastObstructionTest {
             MeshBuilder.PolygonWithHeight p = polygonWithHeightArray.get(i);
             polygonIndex.insert(p.geo.getEnvelopeInternal(), i + 1);
         }
-        this.triVertices = triangles;
-        this.triNeighbors = triNeighbors;
-        this.vertices = points;
+        this.mesh = mesh;
         meshEnvelope = new Envelope();
-        for(Coordinate p : points) {
-            meshEnvelope.expandToInclude(p);
+        for(int vertexId = 0; vertexId < mesh.getVertexCount(); vertexId++) {
+            meshEnvelope.expandToInclude(mesh.getX(vertexId), mesh.getY(vertexId));
         }
 
         // /////////////////////////////////
         // Feed Query Structure to find triangle, by coordinate
 
         triIndex = new STRtree();
-        for (int triId = 0; triId < this.triVertices.size(); triId++) {
-            Triangle tri = triVertices.get(triId);
-            Envelope env = new Envelope(vertices.get(tri.getA()), vertices.get(tri.getB()));
-            env.expandToInclude(vertices.get(tri.getC()));
+        for (int triId = 0; triId < mesh.getTriangleCount(); triId++) {
+            int a = mesh.getVertex(triId, 0);
+            int b = mesh.getVertex(triId, 1);
+            int c = mesh.getVertex(triId, 2);
+            Envelope env = new Envelope(mesh.getX(a), mesh.getX(b), mesh.getY(a), mesh.getY(b));
+            env.expandToInclude(mesh.getX(c), mesh.getY(c));
             triIndex.insert(env, triId);
         }
+        if(mesh.hasNeighbors() && mesh.getTriangleCount() > 0) {
+            triangleLocator = new TriangleWalkLocator(mesh, meshEnvelope);
+        }
+        if(mesh.hasNeighbors()) {
+            buildWallTable();
+        }
         //give a average height to each building
         setAverageBuildingHeight(this.polygonWithHeight);
     }
@@ -171,7 +203,12 @@ public class FastObstructionTest {
      * @return Triangle list
      */
     public List<Triangle> getTriangles() {
-        return Collections.unmodifiableList(triVertices);
+        List<Triangle> list = triangleList;
+        if (list == null) {
+            list = Collections.unmodifiableList(mesh.toTriangleList());
+            triangleList = list;
+        }
+        return list;
     }
 
 
@@ -179,7 +216,19 @@ public class FastObstructionTest {
      * @return vertices list, only for debug and unit test purpose
      */
     public List<Coordinate> getVertices() {
-        return Collections.unmodifiableList(vertices);
+        List<Coordinate> list = vertexList;
+        if (list == null) {
+            list = Collections.unmodifiableList(mesh.toCoordinateList());
+            vertexList = list;
+        }
+        return list;
+    }
+
+    /**
+     * @return Array based triangle mesh
+     */
+    public TriangleMesh getMesh() {
+        return mesh;
     }
 
 
@@ -195,95 +244,58 @@ public class FastObstructionTest {
     private TriIdWithIntersection getNextTri(final int triIndex,
                                              final LineSegment propagationLine,
                                              HashSet<Integer> navigationHistory) {
-        final Triangle tri = this.triVertices.get(triIndex);
-        final Triangle triNeighbors = this.triNeighbors.get(triIndex);
         int nearestIntersectionSide = -1;
-        int idneigh;
-
         double nearestIntersectionPtDist = Double.MAX_VALUE;
-        // Find intersection pt
-        final Coordinate aTri = this.vertices.get(tri.getA());
-        final Coordinate bTri = this.vertices.get(tri.getB());
-        final Coordinate cTri = this.vertices.get(tri.getC());
-        double distline_line;
-        Coordinate intersection = new Coordinate();
+        double nearestIntersectionFraction = 0;
         //if there is no intersection, by default we set the - max value to Topography intersection to avoid the problem
         double zTopoIntersection = -Double.MAX_VALUE;
-        double zPropagationRayIntersection;
-        // Intersection First Side
-        idneigh = triNeighbors.get(2);
-        if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            Coordinate[] closestPoints = propagationLine.closestPoints(new LineSegment(aTri, bTri));
-            Coordinate intersectionTest = null;
-            if(closestPoints.length == 2 && closestPoints[0].distance(closestPoints[1]) < epsilon) {
-                intersectionTest = closestPoints[0];
-            }
-            if(intersectionTest != null) {
-                distline_line = propagationLine.p1.distance(intersectionTest);
-                if (distline_line < nearestIntersectionPtDist) {
-                    intersection = intersectionTest;
-                    nearestIntersectionPtDist = distline_line;
-                    nearestIntersectionSide = 2;
-                    //we will get the intersection point coordinate with(x,y,NaN)
-                    //get this point Z using interested segment.
-                    zTopoIntersection = calculateLinearInterpolation(aTri, bTri, intersection);
-                }
-            }
-        }
-        // Intersection Second Side
-        idneigh = triNeighbors.get(0);
-        if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            Coordinate[] closestPoints = propagationLine.closestPoints(new LineSegment(bTri, cTri));
-            Coordinate intersectionTest = null;
-            if(closestPoints.length == 2 && closestPoints[0].distance(closestPoints[1]) < epsilon) {
-                intersectionTest = closestPoints[0];
-            }
-            if(intersectionTest != null) {
-                distline_line = propagationLine.p1.distance(intersectionTest);
-                if (distline_line < nearestIntersectionPtDist) {
-                    intersection = intersectionTest;
-                    nearestIntersectionPtDist = distline_line;
-                    nearestIntersectionSide = 0;
-                    //we will get the intersection point coordinate with(x,y,NaN)
-                    //get this point Z using interested segment.
-                    zTopoIntersection = calculateLinearInterpolation(bTri, cTri, intersection);
-                }
-            }
-        }
-        // Intersection Third Side
-        idneigh = triNeighbors.get(1);
-        if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            Coordinate[] closestPoints = propagationLine.closestPoints(new LineSegment(cTri, aTri));
-            Coordinate intersectionTest = null;
-            if(closestPoints.length == 2 && closestPoints[0].distance(closestPoints[1]) < epsilon) {
-                intersectionTest = closestPoints[0];
-            }
-            if(intersectionTest != null) {
-                distline_line = propagationLine.p1.distance(intersectionTest);
-                if (distline_line < nearestIntersectionPtDist) {
-                    intersection = intersectionTest;
-                    nearestIntersectionSide = 1;
-                    //we will get the intersection point coordinate with(x,y,NaN)
-                    //get this point Z using interested segment.
-                    zTopoIntersection = calculateLinearInterpolation(cTri, aTri, intersection);
+        final double p0x = propagationLine.p0.x;
+        final double p0y = propagationLine.p0.y;
+        final double p1x = propagationLine.p1.x;
+        final double p1y = propagationLine.p1.y;
+        for (int sideId : NEXT_TRI_SIDE_ORDER) {
+            int idneigh = mesh.getNeighbor(triIndex, sideId);
+            if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
+                // Side is the segment opposite to the vertex of the same index
+                int va = mesh.getVertex(triIndex, (sideId + 1) % 3);
+                int vb = mesh.getVertex(triIndex, (sideId + 2) % 3);
+                double ax = mesh.getX(va);
+                double ay = mesh.getY(va);
+                double bx = mesh.getX(vb);
+                double by = mesh.getY(vb);
+                double fraction = segmentIntersectionFraction(p0x, p0y, p1x, p1y, ax, ay, bx, by);
+                if (!Double.isNaN(fraction)) {
+                    double ix = p0x + fraction * (p1x - p0x);
+                    double iy = p0y + fraction * (p1y - p0y);
+                    double distline_line = Math.sqrt((p1x - ix) * (p1x - ix) + (p1y - iy) * (p1y - iy));
+                    if (distline_line < nearestIntersectionPtDist) {
+                        nearestIntersectionPtDist = distline_line;
+                        nearestIntersectionFraction = fraction;
+                        nearestIntersectionSide = sideId;
+                        //get this point Z using interested segment.
+                        zTopoIntersection = interpolateZ(ix, iy, ax, ay, mesh.getZ(va), bx, by, mesh.getZ(vb));
+                    }
                 }
             }
         }
         if (nearestIntersectionSide != -1) {
+            Coordinate intersection = new Coordinate(p0x + nearestIntersectionFraction * (p1x - p0x),
+                    p0y + nearestIntersectionFraction * (p1y - p0y));
             //get this point Z using propagation line
-            zPropagationRayIntersection = calculateLinearInterpolation(propagationLine.p0, propagationLine.p1, intersection);
+            double zPropagationRayIntersection = calculateLinearInterpolation(propagationLine.p0, propagationLine.p1, intersection);
+            intersection.z = zPropagationRayIntersection;
+            int nextTri = mesh.getNeighbor(triIndex, nearestIntersectionSide);
             // Manage blocking buildings
-            int neightBuildingId = this.triVertices.get(triNeighbors.get(nearestIntersectionSide)).getAttribute();
+            int neightBuildingId = mesh.getAttribute(nextTri);
+            int triBuildingId = mesh.getAttribute(triIndex);
             int rayBuildingId = 0;
             // Current tri is in building
-            if(tri.getAttribute() != 0) {
-                rayBuildingId = tri.getAttribute();
-                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(tri.getAttribute() - 1);
+            if(triBuildingId != 0) {
+                rayBuildingId = triBuildingId;
+                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(triBuildingId - 1);
                 // Stop propagation if ray collide with the building
                 if(!building.hasHeight() || Double.isNaN(zPropagationRayIntersection) || zPropagationRayIntersection < building.getHeight()) {
-                    return new TriIdWithIntersection(triNeighbors.get(nearestIntersectionSide),
-                            new Coordinate(intersection.x, intersection.y, zPropagationRayIntersection),
-                            true,false, rayBuildingId);
+                    return new TriIdWithIntersection(nextTri, intersection, true,false, rayBuildingId);
                 }
             }
             // Next tri is in building
@@ -292,23 +304,17 @@ public class FastObstructionTest {
                 MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(neightBuildingId - 1);
                 // Stop propagation if ray collide with the building
                 if(!building.hasHeight() || Double.isNaN(zPropagationRayIntersection) || zPropagationRayIntersection < building.getHeight()) {
-                    return new TriIdWithIntersection(triNeighbors.get(nearestIntersectionSide),
-                            new Coordinate(intersection.x, intersection.y, zPropagationRayIntersection),
-                            true,false, rayBuildingId);
+                    return new TriIdWithIntersection(nextTri, intersection, true,false, rayBuildingId);
                 }
             }
             //If the Z calculated by propagation Line >= Z calculated by intersected line, we will find next triangle
             if (Double.isNaN(zPropagationRayIntersection) || zPropagationRayIntersection + epsilon >= zTopoIntersection) {
-                return new TriIdWithIntersection(triNeighbors.get(nearestIntersectionSide),
-                        new Coordinate(intersection.x, intersection.y, zPropagationRayIntersection),
-                        false, false, rayBuildingId);
+                return new TriIdWithIntersection(nextTri, intersection, false, false, rayBuildingId);
             }
             //Else, the Z of Topographic intersection > Z calculated by propagation Line, the Topographic intersection will block the propagation line
             else {
                 //Propagation line blocked by the topography
-                return new TriIdWithIntersection(triNeighbors.get(nearestIntersectionSide),
-                        new Coordinate(intersection.x, intersection.y, zPropagationRayIntersection),
-                        false,true, rayBuildingId);
+                return new TriIdWithIntersection(nextTri, intersection, false,true, rayBuildingId);
             }
         } else {
             return new TriIdWithIntersection(-1,
@@ -317,57 +323,163 @@ public class FastObstructionTest {
         }
     }
 
-    private boolean dotInTri(Coordinate p, Coordinate a, Coordinate b,
-                             Coordinate c) {
-        return dotInTri(p, a, b, c, null);
+    /**
+     * Intersection of the segment p0-p1 with the segment a-b. Segments that are closer than {@link #epsilon} are
+     * considered as intersecting.
+     * @return Position of the intersection on p0-p1 as a fraction [0-1] of its length, NaN if there is no
+     * intersection
+     */
+    static double segmentIntersectionFraction(double p0x, double p0y, double p1x, double p1y,
+                                              double ax, double ay, double bx, double by) {
+        double rx = p1x - p0x;
+        double ry = p1y - p0y;
+        double sx = bx - ax;
+        double sy = by - ay;
+        double qx = ax - p0x;
+        double qy = ay - p0y;
+        double denom = rx * sy - ry * sx;
+        if (denom != 0) {
+            double t = (qx * sy - qy * sx) / denom;
+            double u = (qx * ry - qy * rx) / denom;
+            if (t >= 0 && t <= 1 && u >= 0 && u <= 1) {
+                return t;
+            }
+        }
+        // No proper intersection, look for the segment extremities that touch the other segment
+        double bestFraction = Double.NaN;
+        double bestDistance = epsilon;
+        double rLength2 = rx * rx + ry * ry;
+        for (int i = 0; i < 2; i++) {
+            double ex = i == 0 ? ax : bx;
+            double ey = i == 0 ? ay : by;
+            double t = rLength2 > 0 ? Math.max(0, Math.min(1, ((ex - p0x) * rx + (ey - p0y) * ry) / rLength2)) : 0;
+            double dx = p0x + t * rx - ex;
+            double dy = p0y + t * ry - ey;
+            double dist = Math.sqrt(dx * dx + dy * dy);
+            if (dist < bestDistance) {
+                bestDistance = dist;
+                bestFraction = t;
+            }
+        }
+        for (int i = 0; i < 2; i++) {
+            double dist = pointSegmentDistance(i == 0 ? p0x : p1x, i == 0 ? p0y : p1y, ax, ay, bx, by);
+            if (dist < bestDistance) {
+                bestDistance = dist;
+                bestFraction = i;
+            }
+        }
+        return bestFraction;
+    }
+
+    /**
+     * @return 2D distance between point p and segment a-b
+     */
+    static double pointSegmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double sx = bx - ax;
+        double sy = by - ay;
+        double length2 = sx * sx + sy * sy;
+        double t = length2 > 0 ? Math.max(0, Math.min(1, ((px - ax) * sx + (py - ay) * sy) / length2)) : 0;
+        double dx = ax + t * sx - px;
+        double dy = ay + t * sy - py;
+        return Math.sqrt(dx * dx + dy * dy);
     }
+
+    /**
+     * Primitive version of {@link Vertex#interpolateZ(Coordinate, Coordinate, Coordinate)}
+     */
+    private static double interpolateZ(double px, double py, double x0, double y0, double z0,
+                                       double x1, double y1, double z1) {
+        double segLen = Math.sqrt((x1 - x0) * (x1 - x0) + (y1 - y0) * (y1 - y0));
+        double ptLen = Math.sqrt((px - x0) * (px - x0) + (py - y0) * (py - y0));
+        return z0 + (z1 - z0) * (ptLen / segLen);
+    }
+
     /**
      * Fast dot in triangle test
      * <p/>
      * {@see http://www.blackpawn.com/texts/pointinpoly/default.html}
      *
-     * @param p coordinate of the point
-     * @param a coordinate of the A vertex of triangle
-     * @param b coordinate of the B vertex of triangle
-     * @param c coordinate of the C vertex of triangle
+     * @param px X of the point
+     * @param py Y of the point
+     * @param triId Triangle index
      * @return True if dot is in triangle
      */
-    private boolean dotInTri(Coordinate p, Coordinate a, Coordinate b,
-                             Coordinate c, AtomicReference<Double> error) {
-        Vector2D v0 = new Vector2D(c.x - a.x, c.y - a.y);
-        Vector2D v1 = new Vector2D(b.x - a.x, b.y - a.y);
-        Vector2D v2 = new Vector2D(p.x - a.x, p.y - a.y);
+    private boolean dotInTri(double px, double py, int triId) {
+        return dotInTri(mesh, px, py, triId);
+    }
+
+    /**
+     * Fast dot in triangle test
+     * @param mesh Triangle mesh
+     * @param px X of the point
+     * @param py Y of the point
+     * @param triId Triangle index
+     * @return True if dot is in triangle, with a tolerance of {@link #epsilon} on barycentric coordinates
+     */
+    static boolean dotInTri(TriangleMesh mesh, double px, double py, int triId) {
+        int a = mesh.getVertex(triId, 0);
+        int b = mesh.getVertex(triId, 1);
+        int c = mesh.getVertex(triId, 2);
+        double ax = mesh.getX(a);
+        double ay = mesh.getY(a);
+        double v0x = mesh.getX(c) - ax;
+        double v0y = mesh.getY(c) - ay;
+        double v1x = mesh.getX(b) - ax;
+        double v1y = mesh.getY(b) - ay;
+        double v2x = px - ax;
+        double v2y = py - ay;
 
         // Compute dot products
-        double dot00 = v0.dot(v0);
-        double dot01 = v0.dot(v1);
-        double dot02 = v0.dot(v2);
-        double dot11 = v1.dot(v1);
-        double dot12 = v1.dot(v2);
+        double dot00 = v0x * v0x + v0y * v0y;
+        double dot01 = v0x * v1x + v0y * v1y;
+        double dot02 = v0x * v2x + v0y * v2y;
+        double dot11 = v1x * v1x + v1y * v1y;
+        double dot12 = v1x * v2x + v1y * v2y;
 
         // Compute barycentric coordinates
         double invDenom = 1 / (dot00 * dot11 - dot01 * dot01);
         double u = (dot11 * dot02 - dot01 * dot12) * invDenom;
         double v = (dot00 * dot12 - dot01 * dot02) * invDenom;
 
-        if(error != null) {
-            double err = 0;
-            err += Math.max(0, -u);
-            err += Math.max(0, -v);
-            err += Math.max(0, (u + v) - 1);
-            error.set(err);
-        }
-
         // Check if point is in triangle
         return (u > (0. - epsilon)) && (v > (0. - epsilon))
                 && (u + v < (1. + epsilon));
+    }
+
+    /**
+     * @param px X of the point
+     * @param py Y of the point
+     * @param triId Triangle index
+     * @return Barycentric distance between the point and the triangle, 0 if inside
+     */
+    private double dotInTriError(double px, double py, int triId) {
+        int a = mesh.getVertex(triId, 0);
+        int b = mesh.getVertex(triId, 1);
+        int c = mesh.getVertex(triId, 2);
+        double ax = mesh.getX(a);
+        double ay = mesh.getY(a);
+        double v0x = mesh.getX(c) - ax;
+        double v0y = mesh.getY(c) - ay;
+        double v1x = mesh.getX(b) - ax;
+        double v1y = mesh.getY(b) - ay;
+        double v2x = px - ax;
+        double v2y = py - ay;
+
+        double dot00 = v0x * v0x + v0y * v0y;
+        double dot01 = v0x * v1x + v0y * v1y;
+        double dot02 = v0x * v2x + v0y * v2y;
+        double dot11 = v1x * v1x + v1y * v1y;
+        double dot12 = v1x * v2x + v1y * v2y;
 
+        double invDenom = 1 / (dot00 * dot11 - dot01 * dot01);
+        double u = (dot11 * dot02 - dot01 * dot12) * invDenom;
+        double v = (dot00 * dot12 - dot01 * dot02) * invDenom;
+        return Math.max(0, -u) + Math.max(0, -v) + Math.max(0, (u + v) - 1);
     }
 
     Coordinate[] getTriangle(int triIndex) {
-        final Triangle tri = this.triVertices.get(triIndex);
-        return new Coordinate[]{this.vertices.get(tri.getA()),
-                this.vertices.get(tri.getB()), this.vertices.get(tri.getC())};
+        return new Coordinate[]{mesh.getCoordinate(mesh.getVertex(triIndex, 0)),
+                mesh.getCoordinate(mesh.getVertex(triIndex, 1)), mesh.getCoordinate(mesh.getVertex(triIndex, 2))};
     }
 
     /**
@@ -378,6 +490,23 @@ public class FastObstructionTest {
      */
 
     public int getTriangleIdByCoordinate(Coordinate pt) {
+        if(triangleLocator != null) {
+            int triId = triangleLocator.locate(pt.x, pt.y);
+            if(triId >= 0) {
+                return triId;
+            }
+        }
+        return getTriangleIdByIndex(pt);
+    }
+
+    /**
+     * Return the triangle id from a point coordinate using the R-Tree of triangles envelope. Points that are not
+     * in the mesh are associated with the closest triangle within 1 meter.
+     *
+     * @param pt Point test
+     * @return Triangle Id, Or -1 if no triangle has been found
+     */
+    public int getTriangleIdByIndex(Coordinate pt) {
         Envelope ptEnv = new Envelope(pt);
         ptEnv.expandBy(1);
         List res = triIndex.query(new Envelope(ptEnv));
@@ -385,11 +514,9 @@ public class FastObstructionTest {
         int minDistanceTriangle = -1;
         for(Object objInd : res) {
             int triId = (Integer) objInd;
-            Coordinate[] tri = getTriangle(triId);
-            AtomicReference<Double> err = new AtomicReference<>(0.);
-            dotInTri(pt, tri[0], tri[1], tri[2], err);
-            if (err.get() < minDistance) {
-                minDistance = err.get();
+            double err = dotInTriError(pt.x, pt.y, triId);
+            if (err < minDistance) {
+                minDistance = err;
                 minDistanceTriangle = triId;
             }
         }
@@ -466,9 +593,9 @@ public class FastObstructionTest {
      * @return List of corners within parameters range
      */
     public List<Coordinate> getWideAnglePoints(double minAngle, double maxAngle) {
-        List<Coordinate> wideAnglePts = new ArrayList<Coordinate>(
-                vertices.size());
         if (verticesOpenAngle == null) {
+            // Vertices are converted once, open angles are then kept for the next calls
+            List<Coordinate> vertices = mesh.toCoordinateList();
             verticesOpenAngle = new ArrayList<Float>(vertices.size()); // Reserve
             // size
             verticesOpenAngleTranslated = new ArrayList<Coordinate>(
@@ -483,32 +610,35 @@ public class FastObstructionTest {
             }
 
 
-            for (Triangle tri : this.triVertices) {
-                if (tri.getAttribute() < 1) {
+            for (int triId = 0; triId < mesh.getTriangleCount(); triId++) {
+                if (mesh.getAttribute(triId) < 1) {
+                    int idA = mesh.getVertex(triId, 0);
+                    int idB = mesh.getVertex(triId, 1);
+                    int idC = mesh.getVertex(triId, 2);
                     // Compute angle at each corner, then add to vertices angle
                     // array
-                    Coordinate triA = vertices.get(tri.getA());
-                    Coordinate triB = vertices.get(tri.getB());
-                    Coordinate triC = vertices.get(tri.getC());
+                    Coordinate triA = vertices.get(idA);
+                    Coordinate triB = vertices.get(idB);
+                    Coordinate triC = vertices.get(idC);
                     // Add A vertex min/max angle
-                    updateMinMax(tri.getA(), triA, triB, triC,
+                    updateMinMax(idA, triA, triB, triC,
                             verticesOpenAnglesTuples);
-                    verticesOpenAngle.set(tri.getA(),
-                            (float) (verticesOpenAngle.get(tri.getA()) + Angle
+                    verticesOpenAngle.set(idA,
+                            (float) (verticesOpenAngle.get(idA) + Angle
                                     .angleBetween(triB, triA, triC))
                     );
                     // Add B vertex angle
-                    updateMinMax(tri.getB(), triB, triC, triA,
+                    updateMinMax(idB, triB, triC, triA,
                             verticesOpenAnglesTuples);
-                    verticesOpenAngle.set(tri.getB(),
-                            (float) (verticesOpenAngle.get(tri.getB()) + Angle
+                    verticesOpenAngle.set(idB,
+                            (float) (verticesOpenAngle.get(idB) + Angle
                                     .angleBetween(triA, triB, triC))
                     );
                     // Add C vertex angle
-                    updateMinMax(tri.getC(), triC, triA, triB,
+                    updateMinMax(idC, triC, triA, triB,
                             verticesOpenAnglesTuples);
-                    verticesOpenAngle.set(tri.getC(),
-                            (float) (verticesOpenAngle.get(tri.getC()) + Angle
+                    verticesOpenAngle.set(idC,
+                            (float) (verticesOpenAngle.get(idC) + Angle
                                     .angleBetween(triB, triC, triA))
                     );
                 }
@@ -535,6 +665,8 @@ public class FastObstructionTest {
             }
 
         }
+        List<Coordinate> wideAnglePts = new ArrayList<Coordinate>(
+                verticesOpenAngle.size());
         int idvert = 0;
         for (Float angleVertex : verticesOpenAngle) {
             if (angleVertex >= minAngle && angleVertex <= maxAngle) {
@@ -590,6 +722,116 @@ public class FastObstructionTest {
         return verticesBuilding;
     }
 
+    /**
+     * Register all triangle sides that face a building triangle and are longer than
+     * {@link #MINIMAL_REFLECTION_WALL_LENGTH}
+     */
+    private void buildWallTable() {
+        int triangleCount = mesh.getTriangleCount();
+        halfEdgeWall = new int[triangleCount * 3];
+        Arrays.fill(halfEdgeWall, -1);
+        int wallCount = 0;
+        int capacity = 16;
+        wallVertexA = new int[capacity];
+        wallVertexB = new int[capacity];
+        wallBuildingId = new int[capacity];
+        wallLength = new double[capacity];
+        for (int triId = 0; triId < triangleCount; triId++) {
+            for (int sideId = 0; sideId < 3; sideId++) {
+                int neighbor = mesh.getNeighbor(triId, sideId);
+                if (neighbor == -1 || mesh.getAttribute(neighbor) < 1) {
+                    continue;
+                }
+                int va = mesh.getVertex(triId, (sideId + 1) % 3);
+                int vb = mesh.getVertex(triId, (sideId + 2) % 3);
+                double dx = mesh.getX(vb) - mesh.getX(va);
+                double dy = mesh.getY(vb) - mesh.getY(va);
+                double length = Math.sqrt(dx * dx + dy * dy);
+                if (length <= MINIMAL_REFLECTION_WALL_LENGTH) {
+                    continue;
+                }
+                if (wallCount == capacity) {
+                    capacity *= 2;
+                    wallVertexA = Arrays.copyOf(wallVertexA, capacity);
+                    wallVertexB = Arrays.copyOf(wallVertexB, capacity);
+                    wallBuildingId = Arrays.copyOf(wallBuildingId, capacity);
+                    wallLength = Arrays.copyOf(wallLength, capacity);
+                }
+                wallVertexA[wallCount] = va;
+                wallVertexB[wallCount] = vb;
+                wallBuildingId[wallCount] = mesh.getAttribute(neighbor);
+                wallLength[wallCount] = length;
+                halfEdgeWall[triId * 3 + sideId] = wallCount;
+                wallCount++;
+            }
+        }
+        wallVertexA = Arrays.copyOf(wallVertexA, wallCount);
+        wallVertexB = Arrays.copyOf(wallVertexB, wallCount);
+        wallBuildingId = Arrays.copyOf(wallBuildingId, wallCount);
+        wallLength = Arrays.copyOf(wallLength, wallCount);
+        wallInstances = new AtomicReferenceArray<>(wallCount);
+    }
+
+    /**
+     * @return Number of walls in the building walls table
+     */
+    public int getWallCount() {
+        return wallBuildingId == null ? 0 : wallBuildingId.length;
+    }
+
+    /**
+     * @param wallIndex Wall index [0-{@link #getWallCount()}]
+     * @return Building identifier [1-n] of the wall
+     */
+    public int getWallBuildingId(int wallIndex) {
+        return wallBuildingId[wallIndex];
+    }
+
+    /**
+     * @param wallIndex Wall index [0-{@link #getWallCount()}]
+     * @return Wall length in meters
+     */
+    public double getWallLength(int wallIndex) {
+        return wallLength[wallIndex];
+    }
+
+    /**
+     * @param wallIndex Wall index [0-{@link #getWallCount()}]
+     * @return Wall segment, the same instance is returned for the same index
+     */
+    public Wall getWall(int wallIndex) {
+        Wall wall = wallInstances.get(wallIndex);
+        if (wall == null) {
+            wall = new Wall(mesh.getCoordinate(wallVertexA[wallIndex]), mesh.getCoordinate(wallVertexB[wallIndex]),
+                    wallBuildingId[wallIndex]);
+            if (!wallInstances.compareAndSet(wallIndex, null, wall)) {
+                wall = wallInstances.get(wallIndex);
+            }
+        }
+        return wall;
+    }
+
+    /**
+     * @param wallIndex Wall index [0-{@link #getWallCount()}]
+     * @param px X of the point
+     * @param py Y of the point
+     * @return Distance between the point and the wall segment
+     */
+    public double getWallDistance(int wallIndex, double px, double py) {
+        int va = wallVertexA[wallIndex];
+        int vb = wallVertexB[wallIndex];
+        return pointSegmentDistance(px, py, mesh.getX(va), mesh.getY(va), mesh.getX(vb), mesh.getY(vb));
+    }
+
+    private VisitedTriangles getVisitedTriangles() {
+        VisitedTriangles visited = freeFieldVisited.get();
+        if(visited == null) {
+            visited = new VisitedTriangles(mesh.getTriangleCount());
+            freeFieldVisited.set(visited);
+        }
+        return visited;
+    }
+
     /**
      * Compute the list of segments corresponding to holes and domain limitation
      *
@@ -600,70 +842,108 @@ public class FastObstructionTest {
     public LinkedList<Wall> getLimitsInRange(double maxDist,
                                              Coordinate p1, boolean goThroughWalls) {
         LinkedList<Wall> walls = new LinkedList<>();
-        int curTri = getTriangleIdByCoordinate(p1);
-        int p1Building = 0;
-        p1Building = triVertices.get(curTri).getAttribute();
-        int nextTri = -1;
-        short firstSide = 0;
-        HashSet<Integer> navigationHistory = new HashSet<Integer>(); // List all
-        // triangles
-        // already
-        // processed
-        Stack<Integer> navigationNodes = new Stack<Integer>(); // List the
-        // current queue
-        // of triangles
-        // the process
-        // go through
-        Stack<Short> navigationSide = new Stack<Short>(); //History of current processing side
+        for (int wallIndex : getLimitsIndexInRange(maxDist, p1, goThroughWalls)) {
+            walls.add(getWall(wallIndex));
+        }
+        return walls;
+    }
+
+    /**
+     * Walk through the triangles reachable from p1 within maxDist and collect the building walls.
+     *
+     * @param maxDist Maximum distance from origin to segments
+     * @param p1      Origin of search
+     * @param goThroughWalls Continue the walk into buildings
+     * @return Wall index, see {@link #getWall(int)}
+     */
+    public int[] getLimitsIndexInRange(double maxDist, Coordinate p1, boolean goThroughWalls) {
+        return getLimitsIndexInRange(maxDist, p1, goThroughWalls, null);
+    }
 
+    /**
+     * Walk through the triangles reachable from p1 within maxDist and collect the building walls.
+     *
+     * @param maxDist Maximum distance from origin to segments
+     * @param p1      Origin of search
+     * @param goThroughWalls Continue the walk into buildings
+     * @param walkedTriangles If not null, the identifiers of the walked triangles are set at index 0
+     * @return Wall index, see {@link #getWall(int)}
+     */
+    public int[] getLimitsIndexInRange(double maxDist, Coordinate p1, boolean goThroughWalls,
+                                       int[][] walkedTriangles) {
+        int curTri = getTriangleIdByCoordinate(p1);
+        if (curTri < 0) {
+            if (walkedTriangles != null) {
+                walkedTriangles[0] = new int[0];
+            }
+            return new int[0];
+        }
+        int[] walked = walkedTriangles != null ? new int[64] : null;
+        int walkedCount = 0;
+        int p1Building = mesh.getAttribute(curTri);
+        VisitedTriangles visited = getVisitedTriangles();
+        int epoch = visited.nextEpoch();
+        int[] walls = new int[16];
+        int wallCount = 0;
+        // Half edges (triangle * 3 + side) to go back to when there is no more navigable neighbors
+        int[] navigationStack = new int[64];
+        int stackSize = 0;
+        int firstSide = 0;
         while (curTri != -1) {
-            if(firstSide == 0) {
-                navigationHistory.add(curTri);
+            if (firstSide == 0) {
+                visited.marks[curTri] = epoch;
+                if (walked != null) {
+                    if (walkedCount == walked.length) {
+                        walked = Arrays.copyOf(walked, walkedCount * 2);
+                    }
+                    walked[walkedCount++] = curTri;
+                }
             }
-            // for each side of the triangle
-            Triangle neighbors = this.triNeighbors.get(curTri);
-            nextTri = -1;
-            for (short sideId = firstSide; sideId < 3; sideId++) {
-                Triangle tri = this.triVertices.get(curTri);
-                IntSegment segVerticesIndex = tri
-                        .getSegment(sideId);
-                int wallBuildingId = 0;
-                if(neighbors.get(sideId) != -1) {
-                    wallBuildingId = triVertices.get(neighbors.get(sideId)).getAttribute();
+            int nextTri = -1;
+            for (int sideId = firstSide; sideId < 3; sideId++) {
+                int neighbor = mesh.getNeighbor(curTri, sideId);
+                // Propagate search in this direction if this is not the domain limitation
+                if (neighbor == -1) {
+                    continue;
                 }
-                Wall wall = new Wall(
-                        this.vertices.get(segVerticesIndex.getA()),
-                        this.vertices.get(segVerticesIndex.getB()),wallBuildingId);
-                Coordinate closestPoint = wall.closestPoint(p1);
-                if (closestPoint.distance(p1) <= maxDist) {
-                    // Propagate search in this direction if this is not the domain limitation
-                    if (neighbors.get(sideId) != -1) {
-                        // If the triangle side is a wal
-                        if (wall.getBuildingId() >= 1 && wall.getLength() > MINIMAL_REFLECTION_WALL_LENGTH) {
-                            walls.add(wall);
+                int va = mesh.getVertex(curTri, (sideId + 1) % 3);
+                int vb = mesh.getVertex(curTri, (sideId + 2) % 3);
+                if (pointSegmentDistance(p1.x, p1.y, mesh.getX(va), mesh.getY(va), mesh.getX(vb), mesh.getY(vb))
+                        <= maxDist) {
+                    int halfEdge = curTri * 3 + sideId;
+                    int wallIndex = halfEdgeWall[halfEdge];
+                    if (wallIndex >= 0) {
+                        if (wallCount == walls.length) {
+                            walls = Arrays.copyOf(walls, wallCount * 2);
                         }
-                        if((goThroughWalls || wall.getBuildingId() == 0 || wall.getBuildingId() == p1Building) && !navigationHistory.contains(neighbors.get(sideId))) {
-                            // Store currentTriangle Id. This is where to go
-                            // back when there is no more navigable neighbors at
-                            // the next triangle
-                            navigationNodes.add(curTri);
-                            navigationSide.add(sideId);
-                            firstSide = 0;
-                            nextTri = neighbors.get(sideId);
-                            break; // Next triangle
+                        walls[wallCount++] = wallIndex;
+                    }
+                    int neighborBuildingId = mesh.getAttribute(neighbor);
+                    if ((goThroughWalls || neighborBuildingId == 0 || neighborBuildingId == p1Building) &&
+                            visited.marks[neighbor] != epoch) {
+                        if (stackSize == navigationStack.length) {
+                            navigationStack = Arrays.copyOf(navigationStack, stackSize * 2);
                         }
+                        navigationStack[stackSize++] = halfEdge;
+                        firstSide = 0;
+                        nextTri = neighbor;
+                        break; // Next triangle
                     }
                 }
             }
-            if (nextTri == -1 && !navigationNodes.empty()) {
+            if (nextTri == -1 && stackSize > 0) {
                 // All the side have been rejected, go back by one on the
                 // navigation
-                nextTri = navigationNodes.pop();
-                firstSide = (short) (navigationSide.pop() + 1);
+                int halfEdge = navigationStack[--stackSize];
+                nextTri = halfEdge / 3;
+                firstSide = halfEdge % 3 + 1;
             }
             curTri = nextTri;
         }
-        return walls;
+        if (walkedTriangles != null) {
+            walkedTriangles[0] = Arrays.copyOf(walked, walkedCount);
+        }
+        return Arrays.copyOf(walls, wallCount);
     }
 
     /**
@@ -686,10 +966,9 @@ public class FastObstructionTest {
     public double getHeightAtPosition(Coordinate p1) {
         int curTri = getTriangleIdByCoordinate(p1);
         if(curTri >= 0) {
-            Triangle triangle = triVertices.get(curTri);
+            Coordinate[] triangle = getTriangle(curTri);
             org.locationtech.jts.geom.Triangle tri =
-                    new org.locationtech.jts.geom.Triangle(vertices.get(triangle.getA()),
-                            vertices.get(triangle.getB()),vertices.get(triangle.getC()));
+                    new org.locationtech.jts.geom.Triangle(triangle[0], triangle[1], triangle[2]);
 
             return tri.interpolateZ(p1);
         } else {
@@ -729,11 +1008,150 @@ public class FastObstructionTest {
     }
 
 
-    /*
-     * compute diffraction.
+    /**
+     * Visibility test, same result as computePropagationPath(p1, p2, true, null, false) but the traversal
+     * does not allocate objects when the mesh has triangle neighbors.
+     * @param p1 Start propagation path
+     * @param p2 End propagation path
+     * @return True if the segment between p1 and p2 does not intersect with topography or buildings
      */
     public boolean isFreeField(Coordinate p1, Coordinate p2) {
-        return computePropagationPath(p1, p2, true, null, false);
+        if(!mesh.hasNeighbors()) {
+            return computePropagationPath(p1, p2, true, null, false);
+        }
+        int curTriP1 = getTriangleIdByCoordinate(p1);
+        int curTriP2 = getTriangleIdByCoordinate(p2);
+        if(curTriP1 == -1) {
+            logger.error(String.format("Propagation path point (%.2f, %.2f) is outside of bounds", p1.x, p1.y));
+            return false;
+        }
+        if(curTriP2 == -1) {
+            logger.error(String.format("Propagation path point (%.2f, %.2f) is outside of bounds", p2.x, p2.y));
+            return false;
+        }
+        if(isInsideBuilding(curTriP1, p1.z) || isInsideBuilding(curTriP2, p2.z)) {
+            return false;
+        }
+        if((!Double.isNaN(p1.z) && p1.z + epsilon < getTopoZ(curTriP1, p1.x, p1.y)) ||
+                (!Double.isNaN(p2.z) && p2.z + epsilon < getTopoZ(curTriP2, p2.x, p2.y))) {
+            //Z value of origin or destination is lower than topography. FreeField is always false in this case
+            return false;
+        }
+        VisitedTriangles visited = getVisitedTriangles();
+        int epoch = visited.nextEpoch();
+        int navigationTri = curTriP1;
+        while (navigationTri >= 0) {
+            visited.marks[navigationTri] = epoch;
+            if (dotInTri(p2.x, p2.y, navigationTri)) {
+                return true;
+            }
+            navigationTri = getNextFreeFieldTri(navigationTri, p1, p2, visited.marks, epoch);
+        }
+        // Can't find a way to p2
+        return false;
+    }
+
+    /**
+     * @param triId Triangle index
+     * @param z Z of the point
+     * @return True if the triangle is in a building and the point is below the roof
+     */
+    private boolean isInsideBuilding(int triId, double z) {
+        int buildingId = mesh.getAttribute(triId);
+        if (buildingId >= 1) {
+            MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(buildingId - 1);
+            return !building.hasHeight() || Double.isNaN(z) || building.getHeight() >= z;
+        }
+        return false;
+    }
+
+    /**
+     * @param triId Triangle index
+     * @param z Z of the ray on the triangle side
+     * @return True if the triangle is in a building and the ray pass below the roof
+     */
+    private boolean isRayBlockedByBuilding(int triId, double z) {
+        int buildingId = mesh.getAttribute(triId);
+        if (buildingId >= 1) {
+            MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(buildingId - 1);
+            return !building.hasHeight() || Double.isNaN(z) || z < building.getHeight();
+        }
+        return false;
+    }
+
+    /**
+     * Primitive version of {@link #getTopoZByGiven3Points(Coordinate, Coordinate, Coordinate, Coordinate)}
+     */
+    private double getTopoZ(int triId, double px, double py) {
+        int v0 = mesh.getVertex(triId, 0);
+        int v1 = mesh.getVertex(triId, 1);
+        int v2 = mesh.getVertex(triId, 2);
+        double x0 = mesh.getX(v0);
+        double y0 = mesh.getY(v0);
+        double a = mesh.getX(v1) - x0;
+        double b = mesh.getX(v2) - x0;
+        double c = mesh.getY(v1) - y0;
+        double d = mesh.getY(v2) - y0;
+        double det = a * d - b * c;
+        double dx = px - x0;
+        double dy = py - y0;
+        double t = (d * dx - b * dy) / det;
+        double u = (-c * dx + a * dy) / det;
+        double z0 = mesh.getZ(v0);
+        return z0 + t * (mesh.getZ(v1) - z0) + u * (mesh.getZ(v2) - z0);
+    }
+
+    /**
+     * Allocation free version of {@link #getNextTri(int, LineSegment, HashSet)} for visibility test
+     * @return Next triangle index, {@link #NO_NEXT_TRIANGLE} or {@link #BLOCKED_RAY} if the ray is stopped by a
+     * building or the topography
+     */
+    private int getNextFreeFieldTri(final int triIndex, Coordinate p0, Coordinate p1, int[] visited, int epoch) {
+        int nearestIntersectionSide = -1;
+        double nearestIntersectionPtDist = Double.MAX_VALUE;
+        double nearestIntersectionFraction = 0;
+        double zTopoIntersection = -Double.MAX_VALUE;
+        for (int sideId : NEXT_TRI_SIDE_ORDER) {
+            int idneigh = mesh.getNeighbor(triIndex, sideId);
+            if (idneigh != -1 && visited[idneigh] != epoch) {
+                int va = mesh.getVertex(triIndex, (sideId + 1) % 3);
+                int vb = mesh.getVertex(triIndex, (sideId + 2) % 3);
+                double ax = mesh.getX(va);
+                double ay = mesh.getY(va);
+                double bx = mesh.getX(vb);
+                double by = mesh.getY(vb);
+                double fraction = segmentIntersectionFraction(p0.x, p0.y, p1.x, p1.y, ax, ay, bx, by);
+                if (!Double.isNaN(fraction)) {
+                    double ix = p0.x + fraction * (p1.x - p0.x);
+                    double iy = p0.y + fraction * (p1.y - p0.y);
+                    double distline_line = Math.sqrt((p1.x - ix) * (p1.x - ix) + (p1.y - iy) * (p1.y - iy));
+                    if (distline_line < nearestIntersectionPtDist) {
+                        nearestIntersectionPtDist = distline_line;
+                        nearestIntersectionFraction = fraction;
+                        nearestIntersectionSide = sideId;
+                        zTopoIntersection = interpolateZ(ix, iy, ax, ay, mesh.getZ(va), bx, by, mesh.getZ(vb));
+                    }
+                }
+            }
+        }
+        if (nearestIntersectionSide == -1) {
+            return NO_NEXT_TRIANGLE;
+        }
+        double ix = p0.x + nearestIntersectionFraction * (p1.x - p0.x);
+        double iy = p0.y + nearestIntersectionFraction * (p1.y - p0.y);
+        double zPropagationRayIntersection = interpolateZ(ix, iy, p0.x, p0.y, p0.z, p1.x, p1.y, p1.z);
+        int nextTri = mesh.getNeighbor(triIndex, nearestIntersectionSide);
+        // Stop propagation if ray collide with the current or next building
+        if (isRayBlockedByBuilding(triIndex, zPropagationRayIntersection) ||
+                isRayBlockedByBuilding(nextTri, zPropagationRayIntersection)) {
+            return BLOCKED_RAY;
+        }
+        if (Double.isNaN(zPropagationRayIntersection) || zPropagationRayIntersection + epsilon >= zTopoIntersection) {
+            return nextTri;
+        } else {
+            //Propagation line blocked by the topography
+            return BLOCKED_RAY;
+        }
     }
 
     /**
@@ -762,18 +1180,18 @@ public class FastObstructionTest {
         }
         Coordinate[] triP1 = getTriangle(curTriP1);
         Coordinate[] triP2 = getTriangle(curTriP2);
-        Triangle buildingP1 = this.triVertices.get(curTriP1);
-        Triangle buildingP2 = this.triVertices.get(curTriP2);
+        int buildingP1 = mesh.getAttribute(curTriP1);
+        int buildingP2 = mesh.getAttribute(curTriP2);
         if(stopOnIntersection) {
-            if (buildingP1.getAttribute() >= 1) {
-                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(buildingP1.getAttribute() - 1);
+            if (buildingP1 >= 1) {
+                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(buildingP1 - 1);
                 if (!building.hasHeight() || Double.isNaN(p1.z) || building.getHeight() >= p1.z) {
                     //receiver is in the building so this propagation line is invisible
                     return false;
                 }
             }
-            if (buildingP2.getAttribute() >= 1) {
-                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(buildingP2.getAttribute() - 1);
+            if (buildingP2 >= 1) {
+                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(buildingP2 - 1);
                 if (!building.hasHeight() || Double.isNaN(p2.z) || building.getHeight() >= p2.z) {
                     //receiver is in the building so this propagation line is invisible
                     return false;
@@ -790,7 +1208,7 @@ public class FastObstructionTest {
             //Z value of origin or destination is lower than topography. FreeField is always false in this case
             if(includePoints) {
                 path.add(new TriIdWithIntersection(curTriP2, new Coordinate(p2.x, p2.y, zTopoP2), false, false,
-                        buildingP2.getAttribute()));
+                        buildingP2));
             }
             return false;
         }
@@ -799,11 +1217,10 @@ public class FastObstructionTest {
         int navigationTri = curTriP1;
         while (navigationTri != -1) {
             navigationHistory.add(navigationTri);
-            Coordinate[] tri = getTriangle(navigationTri);
-            if (dotInTri(p2, tri[0], tri[1], tri[2])) {
+            if (dotInTri(p2.x, p2.y, navigationTri)) {
                 if(includePoints) {
                     path.add(new TriIdWithIntersection(curTriP2, new Coordinate(p2.x, p2.y, zTopoP2), false, false,
-                            buildingP2.getAttribute()));
+                            buildingP2));
                 }
                 return true;
             }
@@ -841,9 +1258,8 @@ public class FastObstructionTest {
     public List<Coordinate> getGroundProfile(List<TriIdWithIntersection> allInterPoints) {
         List<Coordinate> groundProfile = new ArrayList<>(allInterPoints.size());
         for(TriIdWithIntersection tri : allInterPoints) {
-            Triangle triangle = triVertices.get(tri.getTriID());
-            double zTri = getTopoZByGiven3Points(vertices.get(triangle.getA()), vertices.get(triangle.getB()),
-                    vertices.get(triangle.getC()), tri.getCoorIntersection());
+            Coordinate[] triangle = getTriangle(tri.getTriID());
+            double zTri = getTopoZByGiven3Points(triangle[0], triangle[1], triangle[2], tri.getCoorIntersection());
             groundProfile.add(new Coordinate(tri.getCoorIntersection().x, tri.getCoorIntersection().y, zTri));
         }
         return groundProfile;
@@ -1373,6 +1789,26 @@ public class FastObstructionTest {
         return Vertex.interpolateZ(point, p1, p2, p3);
     }
 
+    /**
+     * Epoch stamped marker of visited triangles. Incrementing the epoch clear all marks.
+     */
+    private static final class VisitedTriangles {
+        private final int[] marks;
+        private int epoch = 0;
+
+        VisitedTriangles(int triangleCount) {
+            marks = new int[triangleCount];
+        }
+
+        int nextEpoch() {
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 0;
+            }
+            return ++epoch;
+        }
+    }
+
     public static final class Wall extends LineSegment {
         private int buildingId = 0;
 
@@ -1399,22 +1835,20 @@ public class FastObstructionTest {
         sb.append("CREATE TABLE TRI_NEIGHBOURS(id serial, the_geom LINESTRING);\n");
         GeometryFactory gf = new GeometryFactory();
         WKTWriter wktWriter = new WKTWriter(3);
-        int idTriangle = 0;
-        for( Triangle t : triVertices) {
-            Coordinate[] line = new Coordinate[] {vertices.get(t.getA()), vertices.get(t.getB()), vertices.get(t.getC()), vertices.get(t.getA())};
+        for(int idTriangle = 0; idTriangle < mesh.getTriangleCount(); idTriangle++) {
+            Coordinate[] t = getTriangle(idTriangle);
+            Coordinate[] line = new Coordinate[] {t[0], t[1], t[2], t[0]};
             sb.append(String.format("INSERT INTO TRIANGLES(THE_GEOM) VALUES ('%s');\n", gf.createPolygon(line)));
-            Coordinate from = new org.locationtech.jts.geom.Triangle(vertices.get(t.getA()), vertices.get(t.getB()), vertices.get(t.getC())).centroid();
+            Coordinate from = new org.locationtech.jts.geom.Triangle(t[0], t[1], t[2]).centroid();
             // Dump neighbours links
-            Triangle neigh = triNeighbors.get(idTriangle);
             for(int n = 0; n < 3; n++) {
-                int vIndex = neigh.get(n);
+                int vIndex = mesh.getNeighbor(idTriangle, n);
                 if(vIndex >= 0) {
-                    Triangle tn = triVertices.get(vIndex);
-                    Coordinate to = new org.locationtech.jts.geom.Triangle(vertices.get(tn.getA()), vertices.get(tn.getB()), vertices.get(tn.getC())).centroid();
+                    Coordinate[] tn = getTriangle(vIndex);
+                    Coordinate to = new org.locationtech.jts.geom.Triangle(tn[0], tn[1], tn[2]).centroid();
                     sb.append(String.format("INSERT INTO TRI_NEIGHBOURS(THE_GEOM) VALUES ('%s');\n", gf.createLineString(new Coordinate[]{from, to})));
                 }
             }
-            idTriangle++;
         }
         return sb.toString();
     }
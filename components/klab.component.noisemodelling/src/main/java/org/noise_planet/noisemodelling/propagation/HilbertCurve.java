@@ -0,0 +1,124 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Hilbert space filling curve. Positions sorted by their index on the curve are processed so that consecutive
+ * positions are close to each other, queries of neighbouring positions hit the same index nodes and caches.
+ */
+public final class HilbertCurve {
+    /** Number of bits of each axis, the curve index fits in 2 * ORDER bits */
+    public static final int ORDER = 15;
+    private static final int SIDE = 1 << ORDER;
+
+    private HilbertCurve() {
+    }
+
+    /**
+     * @param x Cell column, from 0 to 2^ORDER - 1
+     * @param y Cell row, from 0 to 2^ORDER - 1
+     * @return Position of the cell on the curve
+     */
+    public static long index(int x, int y) {
+        long d = 0;
+        for (int s = SIDE >>> 1; s > 0; s >>>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = SIDE - 1 - x;
+                    y = SIDE - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * @param positions Positions to sort
+     * @return Position indexes sorted by ascending index on the curve covering the envelope of the positions
+     */
+    public static int[] sort(List<Coordinate> positions) {
+        int count = positions.size();
+        double[] x = new double[count];
+        double[] y = new double[count];
+        for (int i = 0; i < count; i++) {
+            Coordinate position = positions.get(i);
+            x[i] = position.x;
+            y[i] = position.y;
+        }
+        return sort(x, y, count);
+    }
+
+    /**
+     * @param x Positions X
+     * @param y Positions Y
+     * @param count Number of positions
+     * @return Position indexes sorted by ascending index on the curve covering the envelope of the positions
+     */
+    public static int[] sort(double[] x, double[] y, int count) {
+        int[] order = new int[count];
+        if (count == 0) {
+            return order;
+        }
+        Envelope envelope = new Envelope();
+        for (int i = 0; i < count; i++) {
+            envelope.expandToInclude(x[i], y[i]);
+        }
+        double scale = (SIDE - 1) / Math.max(Math.max(envelope.getWidth(), envelope.getHeight()), Double.MIN_VALUE);
+        // Curve index in the upper bits, position index in the lower bits
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            int cellX = (int) ((x[i] - envelope.getMinX()) * scale);
+            int cellY = (int) ((y[i] - envelope.getMinY()) * scale);
+            keys[i] = (index(cellX, cellY) << 32) | i;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+}
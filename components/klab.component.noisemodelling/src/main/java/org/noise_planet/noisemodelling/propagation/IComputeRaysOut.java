@@ -18,10 +18,19 @@ public interface IComputeRaysOut {
      * @param receiverId
      */
     void finalizeReceiver(long receiverId);
+
+    /**
+     * All the receivers of the range given to {@link #subProcess(int, int)} have been processed. Thread outputs
+     * merge their private buffers and counters into the shared output here.
+     */
+    default void finalizeRange() {
+    }
+
     /**
      * If the implementation does not support thread concurrency, this method is called to return an instance
-     * @param receiverStart
-     * @param receiverEnd
+     * @param receiverStart First processing position of the range. It is the receiver index unless the receivers
+     *                      are processed in spatial order, see {@link ComputeRays#setSpatialReceiverOrder(boolean)}
+     * @param receiverEnd Last processing position of the range, excluded
      * @return
      */
     IComputeRaysOut subProcess(int receiverStart, int receiverEnd);
@@ -0,0 +1,407 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineSegment;
+
+/**
+ * Tree of the receiver images through a list of walls. A node is the image of its parent through a wall, the root
+ * is the receiver. Nodes are expanded on demand and kept, so the images are computed once whatever the number of
+ * queries.
+ *
+ * Children are pruned without knowing the source:
+ * - The wall must face the receiver and the wall of the parent (wall to wall visibility rows are computed once by
+ * wall).
+ * - The wall must cross the beam of the parent image, bounded by the parent wall. Otherwise no reflection point
+ * on this wall could see the parent image through the parent wall.
+ *
+ * Queries apply the source constraints and skip the whole subtree of a rejected image, as
+ * {@link MirrorReceiverIterator} does.
+ *
+ * One tree is kept for all the sources of a receiver. Walls near a source are added with {@link #addWall} and the
+ * query only uses the enabled walls, nodes already expanded are completed with the new walls on the next visit.
+ */
+public final class ImageSourceTree {
+    // Tolerance (m) of the beam test, reflection points are translated by wideAngleTranslationEpsilon
+    private static final double BEAM_TOLERANCE = 2 * FastObstructionTest.wideAngleTranslationEpsilon;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private final Coordinate receiverCoord;
+    private final List<FastObstructionTest.Wall> walls = new ArrayList<>();
+    private final Map<FastObstructionTest.Wall, Integer> wallIndex = new HashMap<>();
+    private final int maxDepth;
+    // Wall oriented toward the receiver
+    private boolean[] receiverFront = new boolean[INITIAL_CAPACITY];
+    // Bit set of the walls facing each wall, null rows until computed
+    private long[][] facingWalls = new long[INITIAL_CAPACITY][];
+    // Number of walls tested in each facing row
+    private int[] facingWallCount = new int[INITIAL_CAPACITY];
+    // Nodes
+    private int nodeCount = 0;
+    private int[] nodeWall = new int[INITIAL_CAPACITY];
+    private int[] nodeParent = new int[INITIAL_CAPACITY];
+    private int[] nodeDepth = new int[INITIAL_CAPACITY];
+    private double[] imageX = new double[INITIAL_CAPACITY];
+    private double[] imageY = new double[INITIAL_CAPACITY];
+    // Children linked list, by ascending wall identifier
+    private int[] firstChild = new int[INITIAL_CAPACITY];
+    private int[] lastChild = new int[INITIAL_CAPACITY];
+    private int[] nextSibling = new int[INITIAL_CAPACITY];
+    // Number of walls tested for the children of the node
+    private int[] expandedWallCount = new int[INITIAL_CAPACITY];
+
+    /**
+     * @param receiverCoord Receiver position
+     * @param maxDepth Maximum reflection order
+     */
+    public ImageSourceTree(Coordinate receiverCoord, int maxDepth) {
+        this.receiverCoord = receiverCoord;
+        this.maxDepth = maxDepth;
+        addNode(NONE, NONE, 0, receiverCoord.x, receiverCoord.y);
+    }
+
+    /**
+     * @param receiverCoord Receiver position
+     * @param walls Walls, the wall identifier of the images is the index in this list
+     * @param maxDepth Maximum reflection order
+     */
+    public ImageSourceTree(Coordinate receiverCoord, List<FastObstructionTest.Wall> walls, int maxDepth) {
+        this(receiverCoord, maxDepth);
+        for (FastObstructionTest.Wall wall : walls) {
+            addWall(wall);
+        }
+    }
+
+    /**
+     * @param wall Wall to use in reflections
+     * @return Wall identifier, the same identifier is returned if the wall has already been added
+     */
+    public int addWall(FastObstructionTest.Wall wall) {
+        Integer wallId = wallIndex.get(wall);
+        if (wallId == null) {
+            wallId = walls.size();
+            walls.add(wall);
+            wallIndex.put(wall, wallId);
+            if (wallId == receiverFront.length) {
+                int capacity = wallId * 2;
+                receiverFront = Arrays.copyOf(receiverFront, capacity);
+                facingWalls = Arrays.copyOf(facingWalls, capacity);
+                facingWallCount = Arrays.copyOf(facingWallCount, capacity);
+            }
+            receiverFront[wallId] = MirrorReceiverIterator.wallPointTest(wall, receiverCoord);
+        }
+        return wallId;
+    }
+
+    /**
+     * @return Receiver position
+     */
+    public Coordinate getReceiverCoord() {
+        return receiverCoord;
+    }
+
+    /**
+     * @return Walls of the tree, the wall identifier of the images is the index in this list
+     */
+    public List<FastObstructionTest.Wall> getWalls() {
+        return walls;
+    }
+
+    /**
+     * @return Maximum reflection order
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return Number of images expanded so far
+     */
+    public int getImageCount() {
+        return nodeCount - 1;
+    }
+
+    /**
+     * Receiver images for a source using all the walls, in the order of {@link MirrorReceiverIterator}
+     * @param srcReceiver Source to receiver segment
+     * @param distanceLimitation Maximum distance between the wall and the source to receiver segment
+     * @param propagationLimitation Maximum distance between the source and the image
+     * @return Receiver images, deepest reflection first in the parent chain
+     */
+    public List<MirrorReceiverResult> getImages(LineSegment srcReceiver, double distanceLimitation,
+                                                double propagationLimitation) {
+        return getImages(srcReceiver, distanceLimitation, propagationLimitation, null);
+    }
+
+    /**
+     * Receiver images for a source, ordered by wall identifiers
+     * @param srcReceiver Source to receiver segment
+     * @param distanceLimitation Maximum distance between the wall and the source to receiver segment
+     * @param propagationLimitation Maximum distance between the source and the image
+     * @param enabledWalls Walls to use by wall identifier, null to use all the walls
+     * @return Receiver images, deepest reflection first in the parent chain
+     */
+    public List<MirrorReceiverResult> getImages(LineSegment srcReceiver, double distanceLimitation,
+                                                double propagationLimitation, boolean[] enabledWalls) {
+        List<MirrorReceiverResult> images = new ArrayList<>();
+        if (walls.isEmpty() || maxDepth <= 0) {
+            return images;
+        }
+        // Distance test result of each wall, 0 unknown 1 accepted 2 rejected
+        byte[] wallDistance = new byte[walls.size()];
+        if (enabledWalls != null) {
+            for (int wallId = 0; wallId < wallDistance.length; wallId++) {
+                if (wallId >= enabledWalls.length || !enabledWalls[wallId]) {
+                    wallDistance[wallId] = 2;
+                }
+            }
+        }
+        MirrorReceiverResult[] path = new MirrorReceiverResult[maxDepth + 1];
+        int[] stack = new int[Math.max(INITIAL_CAPACITY, 2 * walls.size())];
+        int stackSize = pushChildren(ROOT, stack, 0);
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (stackSize + walls.size() > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(stack.length * 2, stackSize + walls.size()));
+            }
+            int wallId = nodeWall[node];
+            FastObstructionTest.Wall wall = walls.get(wallId);
+            if (wallDistance[wallId] == 0) {
+                wallDistance[wallId] = wall.distance(srcReceiver) < distanceLimitation ? (byte) 1 : (byte) 2;
+            }
+            if (wallDistance[wallId] != 1) {
+                continue;
+            }
+            if (Double.isNaN(imageX[node])) {
+                computeImage(node);
+            }
+            Coordinate mirrored = new Coordinate(imageX[node], imageY[node], receiverCoord.z);
+            if (srcReceiver.p0.distance(mirrored) < propagationLimitation) {
+                int depth = nodeDepth[node];
+                MirrorReceiverResult image = new MirrorReceiverResult(mirrored, path[depth - 1], wallId,
+                        wall.getBuildingId());
+                path[depth] = image;
+                images.add(image);
+                stackSize = pushChildren(node, stack, stackSize);
+            }
+        }
+        return images;
+    }
+
+    /**
+     * Push the children of the node in reverse order, so they are popped by ascending wall identifier
+     */
+    private int pushChildren(int node, int[] stack, int stackSize) {
+        if (expandedWallCount[node] < walls.size()) {
+            expand(node);
+        }
+        int first = stackSize;
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            stack[stackSize++] = child;
+        }
+        // Reverse the pushed children
+        for (int i = first, j = stackSize - 1; i < j; i++, j--) {
+            int tmp = stack[i];
+            stack[i] = stack[j];
+            stack[j] = tmp;
+        }
+        return stackSize;
+    }
+
+    private int addNode(int wallId, int parent, int depth, double x, double y) {
+        if (nodeCount == nodeWall.length) {
+            int capacity = nodeCount * 2;
+            nodeWall = Arrays.copyOf(nodeWall, capacity);
+            nodeParent = Arrays.copyOf(nodeParent, capacity);
+            nodeDepth = Arrays.copyOf(nodeDepth, capacity);
+            imageX = Arrays.copyOf(imageX, capacity);
+            imageY = Arrays.copyOf(imageY, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            lastChild = Arrays.copyOf(lastChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            expandedWallCount = Arrays.copyOf(expandedWallCount, capacity);
+        }
+        int node = nodeCount++;
+        nodeWall[node] = wallId;
+        nodeParent[node] = parent;
+        nodeDepth[node] = depth;
+        imageX[node] = x;
+        imageY[node] = y;
+        firstChild[node] = NONE;
+        lastChild[node] = NONE;
+        nextSibling[node] = NONE;
+        expandedWallCount[node] = 0;
+        if (parent != NONE) {
+            if (lastChild[parent] == NONE) {
+                firstChild[parent] = node;
+            } else {
+                nextSibling[lastChild[parent]] = node;
+            }
+            lastChild[parent] = node;
+        }
+        return node;
+    }
+
+    /**
+     * Image of the parent image through the node wall
+     */
+    private void computeImage(int node) {
+        int parent = nodeParent[node];
+        Coordinate parentImage = new Coordinate(imageX[parent], imageY[parent], receiverCoord.z);
+        Coordinate intersectionPt = walls.get(nodeWall[node]).project(parentImage);
+        imageX[node] = 2 * intersectionPt.x - parentImage.x;
+        imageY[node] = 2 * intersectionPt.y - parentImage.y;
+    }
+
+    /**
+     * Add the children of the walls added since the last expansion of the node
+     */
+    private void expand(int node) {
+        int depth = nodeDepth[node];
+        int fromWall = expandedWallCount[node];
+        expandedWallCount[node] = walls.size();
+        if (depth >= maxDepth) {
+            return;
+        }
+        int parentWall = nodeWall[node];
+        long[] facing = null;
+        boolean beam = false;
+        if (parentWall != NONE) {
+            facing = getFacingWalls(parentWall);
+            if (Double.isNaN(imageX[node])) {
+                computeImage(node);
+            }
+            beam = isBehind(walls.get(parentWall), imageX[node], imageY[node]);
+        }
+        for (int wallId = fromWall; wallId < walls.size(); wallId++) {
+            if (wallId == parentWall || !receiverFront[wallId]) {
+                continue;
+            }
+            if (facing != null && (facing[wallId >>> 6] & (1L << wallId)) == 0) {
+                continue;
+            }
+            if (beam && !crossBeam(imageX[node], imageY[node], walls.get(parentWall), walls.get(wallId))) {
+                continue;
+            }
+            addNode(wallId, node, depth + 1, Double.NaN, Double.NaN);
+        }
+    }
+
+    /**
+     * @param wallId Wall identifier
+     * @return Bit set of the walls face to face with this wall
+     */
+    private long[] getFacingWalls(int wallId) {
+        long[] facing = facingWalls[wallId];
+        int from = facingWallCount[wallId];
+        if (facing == null || from < walls.size()) {
+            int length = (walls.size() + 63) >>> 6;
+            facing = facing == null ? new long[length] : Arrays.copyOf(facing, length);
+            FastObstructionTest.Wall wall = walls.get(wallId);
+            for (int other = from; other < walls.size(); other++) {
+                if (other != wallId && MirrorReceiverIterator.wallWallTest(wall, walls.get(other))) {
+                    facing[other >>> 6] |= 1L << other;
+                }
+            }
+            facingWalls[wallId] = facing;
+            facingWallCount[wallId] = walls.size();
+        }
+        return facing;
+    }
+
+    /**
+     * @return True if the point is strictly behind the wall (walls are CCW oriented, front is on the left side)
+     */
+    private static boolean isBehind(LineSegment wall, double x, double y) {
+        double length = wall.getLength();
+        return length > 0 && cross(wall.p0.x, wall.p0.y, wall.p1.x, wall.p1.y, x, y) / length < -BEAM_TOLERANCE;
+    }
+
+    /**
+     * The beam of an image through a wall is the part of the cone from the image through the wall that is in front
+     * of the wall.
+     * @param x Image X, behind the wall
+     * @param y Image Y, behind the wall
+     * @param wall Wall of the image
+     * @param other Child wall
+     * @return True if the child wall may cross the beam (within the tolerance)
+     */
+    private static boolean crossBeam(double x, double y, LineSegment wall, LineSegment other) {
+        double ax = wall.p0.x, ay = wall.p0.y, bx = wall.p1.x, by = wall.p1.y;
+        double side = Math.signum(cross(x, y, ax, ay, bx, by));
+        double lengthA = Math.hypot(ax - x, ay - y);
+        double lengthB = Math.hypot(bx - x, by - y);
+        double lengthWall = Math.hypot(bx - ax, by - ay);
+        if (side == 0 || lengthA == 0 || lengthB == 0 || lengthWall == 0) {
+            return true;
+        }
+        double cx = other.p0.x, cy = other.p0.y, dx = other.p1.x, dy = other.p1.y;
+        // Signed distances of the child wall vertices to the three half planes of the beam, positive inside
+        double[] fc = {side * cross(x, y, ax, ay, cx, cy) / lengthA, side * cross(x, y, cx, cy, bx, by) / lengthB,
+                cross(ax, ay, bx, by, cx, cy) / lengthWall};
+        double[] fd = {side * cross(x, y, ax, ay, dx, dy) / lengthA, side * cross(x, y, dx, dy, bx, by) / lengthB,
+                cross(ax, ay, bx, by, dx, dy) / lengthWall};
+        // Clip the child wall with the half planes
+        double tMin = 0;
+        double tMax = 1;
+        for (int i = 0; i < fc.length; i++) {
+            double c = fc[i] + BEAM_TOLERANCE;
+            double d = fd[i] + BEAM_TOLERANCE;
+            if (c < 0 && d < 0) {
+                return false;
+            } else if (c < 0) {
+                tMin = Math.max(tMin, c / (c - d));
+            } else if (d < 0) {
+                tMax = Math.min(tMax, c / (c - d));
+            }
+        }
+        return tMin <= tMax;
+    }
+
+    /**
+     * @return Cross product of (b - a) and (c - a), positive if a b c is counter clockwise
+     */
+    private static double cross(double ax, double ay, double bx, double by, double cx, double cy) {
+        return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import org.locationtech.jts.algorithm.CGAlgorithms;
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Planar convex hull that grows point by point. Vertices are kept in clockwise order, as the rings of
+ * {@link org.locationtech.jts.algorithm.ConvexHull}, and only strictly convex vertices are kept. Adding a point only
+ * replaces the chain of vertices visible from this point.
+ */
+public final class IncrementalConvexHull {
+    private static final Comparator<Coordinate> XY_ORDER = new Comparator<Coordinate>() {
+        @Override
+        public int compare(Coordinate o1, Coordinate o2) {
+            int cmp = Double.compare(o1.x, o2.x);
+            return cmp != 0 ? cmp : Double.compare(o1.y, o2.y);
+        }
+    };
+    private Coordinate[] vertices;
+    // Vertices of the previous state, reused when the hull changes
+    private Coordinate[] buffer;
+    private int size = 0;
+
+    /**
+     * @param points Initial points
+     */
+    public IncrementalConvexHull(Collection<Coordinate> points) {
+        this(points.toArray(new Coordinate[0]));
+    }
+
+    /**
+     * @param points Initial points
+     */
+    public IncrementalConvexHull(Coordinate[] points) {
+        // Monotone chain, counter clockwise
+        Coordinate[] sorted = points.clone();
+        Arrays.sort(sorted, XY_ORDER);
+        Coordinate[] chain = new Coordinate[sorted.length * 2 + 1];
+        int count = 0;
+        for (Coordinate p : sorted) {
+            while (count >= 2 && CGAlgorithms.orientationIndex(chain[count - 2], chain[count - 1], p) <= 0) {
+                count--;
+            }
+            chain[count++] = p;
+        }
+        int lowerCount = count + 1;
+        for (int i = sorted.length - 2; i >= 0; i--) {
+            Coordinate p = sorted[i];
+            while (count >= lowerCount && CGAlgorithms.orientationIndex(chain[count - 2], chain[count - 1], p) <= 0) {
+                count--;
+            }
+            chain[count++] = p;
+        }
+        // The last point is the first one
+        count = Math.max(0, count - 1);
+        if (count < 3 && sorted.length > 0) {
+            // Point or segment, keep distinct extremities
+            chain[0] = sorted[0];
+            chain[1] = sorted[sorted.length - 1];
+            count = sorted[0].equals2D(sorted[sorted.length - 1]) ? 1 : 2;
+        }
+        vertices = new Coordinate[Math.max(8, count * 2)];
+        buffer = new Coordinate[vertices.length];
+        for (int i = 0; i < count; i++) {
+            vertices[i] = chain[count - 1 - i];
+        }
+        size = count;
+    }
+
+    /**
+     * @param other Hull to copy, left unchanged by the updates of the copy
+     */
+    public IncrementalConvexHull(IncrementalConvexHull other) {
+        vertices = other.vertices.clone();
+        buffer = new Coordinate[vertices.length];
+        size = other.size;
+    }
+
+    /**
+     * @param p New point
+     * @return True if the hull has changed, false if the point is inside the hull or on its boundary
+     */
+    public boolean add(Coordinate p) {
+        if (size < 3) {
+            Coordinate[] points = Arrays.copyOf(vertices, size + 1);
+            points[size] = p;
+            IncrementalConvexHull hull = new IncrementalConvexHull(points);
+            // A collinear point may move an extremity of a segment
+            boolean changed = hull.size != size ||
+                    !Arrays.equals(Arrays.copyOf(vertices, size), Arrays.copyOf(hull.vertices, hull.size));
+            vertices = hull.vertices;
+            buffer = hull.buffer;
+            size = hull.size;
+            return changed;
+        }
+        // Edge i goes from vertex i to vertex i + 1, the point is outside of the edges where it is on the left side
+        int visible = -1;
+        for (int i = 0; i < size; i++) {
+            if (isVisible(i, p)) {
+                visible = i;
+                break;
+            }
+        }
+        if (visible == -1) {
+            return false;
+        }
+        int first = visible;
+        if (visible == 0) {
+            while ((first + size - 1) % size != visible && isVisible((first + size - 1) % size, p)) {
+                first = (first + size - 1) % size;
+            }
+        }
+        int last = visible;
+        while ((last + 1) % size != first && isVisible((last + 1) % size, p)) {
+            last = (last + 1) % size;
+        }
+        // Replace vertices between the first and the last visible edges by p
+        int removed = (last - first + size) % size;
+        if (buffer.length < size - removed + 1) {
+            buffer = new Coordinate[vertices.length * 2];
+        }
+        int count = 0;
+        for (int i = 0; i < size - removed; i++) {
+            buffer[count++] = vertices[(last + 1 + i) % size];
+        }
+        // Start at the vertex after p, the ring is closed by p
+        buffer[count++] = p;
+        Coordinate[] previous = vertices;
+        vertices = buffer;
+        buffer = previous;
+        size = count;
+        // Neighbours of p that became collinear are no longer convex vertices
+        removeCollinear(size - 2);
+        removeCollinear(0);
+        return true;
+    }
+
+    private boolean isVisible(int edge, Coordinate p) {
+        return CGAlgorithms.orientationIndex(vertices[edge], vertices[(edge + 1) % size], p) > 0;
+    }
+
+    /**
+     * Remove the vertex at index if it is aligned with its neighbours
+     */
+    private void removeCollinear(int index) {
+        if (size <= 3) {
+            return;
+        }
+        int previous = (index + size - 1) % size;
+        int next = (index + 1) % size;
+        if (CGAlgorithms.orientationIndex(vertices[previous], vertices[index], vertices[next]) == 0) {
+            System.arraycopy(vertices, index + 1, vertices, index, size - index - 1);
+            size--;
+        }
+    }
+
+    /**
+     * @return Number of vertices
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index Vertex index [0-size[
+     * @return Vertex
+     */
+    public Coordinate get(int index) {
+        return vertices[index];
+    }
+
+    /**
+     * @param p Point
+     * @return Index of the vertex at the same planar location, -1 if not found
+     */
+    public int indexOf(Coordinate p) {
+        for (int i = 0; i < size; i++) {
+            if (vertices[i].equals2D(p)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Planar perimeter of the hull
+     */
+    public double getLength() {
+        if (size < 3) {
+            return size == 2 ? vertices[0].distance(vertices[1]) : 0;
+        }
+        double length = 0;
+        for (int i = 0; i < size; i++) {
+            length += vertices[i].distance(vertices[(i + 1) % size]);
+        }
+        return length;
+    }
+
+    /**
+     * @return Vertices, clockwise
+     */
+    public Coordinate[] toArray() {
+        return Arrays.copyOf(vertices, size);
+    }
+}
@@ -0,0 +1,1189 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.locationtech.jts.algorithm.Area;
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Constrained Delaunay triangulation working on primitive arrays.
+ *
+ * Points are inserted incrementally along a {@link HilbertCurve}, located by a walk from the last created triangle,
+ * then constrained segments are forced into the mesh by retriangulating the triangles they cross. Building triangles
+ * are labelled by a flood fill from the interior point of each building that stops on the building edges, and
+ * crosses the edges of overlapping buildings. The result is directly available as a {@link TriangleMesh}.
+ *
+ * Orientation and in-circle predicates are evaluated in floating point and fall back to exact arithmetic when the
+ * result is within the rounding error bound.
+ */
+public class LayerConstrainedDelaunay implements LayerDelaunay {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LayerConstrainedDelaunay.class);
+    // Relative error bounds of the floating point predicates (Shewchuk)
+    private static final double CCW_ERROR_BOUND = 3.3306690738754716e-16;
+    private static final double INCIRCLE_ERROR_BOUND = 1.1102230246251577e-15;
+    // Size of the super triangle relative to the input extent
+    private static final double SUPER_TRIANGLE_SCALE = 1e3;
+    private static final int SUPER_VERTEX_COUNT = 3;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int NONE = -1;
+    // Edge constraint, building edges use the building identifier [1-n]
+    private static final int UNCONSTRAINED = 0;
+    private static final int CONSTRAINED_LINE = -1;
+    private static final int[] NEXT = {1, 2, 0};
+    private static final int[] PREV = {2, 0, 1};
+
+    // Input points and segments (a, b, attribute)
+    private final Map<Coordinate, Integer> inputIndex = new HashMap<>();
+    private double[] inputX = new double[INITIAL_CAPACITY];
+    private double[] inputY = new double[INITIAL_CAPACITY];
+    private double[] inputZ = new double[INITIAL_CAPACITY];
+    private int inputCount = 0;
+    private int[] segments = new int[INITIAL_CAPACITY * 3];
+    private int segmentCount = 0;
+    // Interior point of buildings
+    private double[] buildingX = new double[INITIAL_CAPACITY];
+    private double[] buildingY = new double[INITIAL_CAPACITY];
+    private int[] buildingId = new int[INITIAL_CAPACITY];
+    private Polygon[] buildingPolygon = new Polygon[INITIAL_CAPACITY];
+    // Point in polygon locators, created when the building is crossed by another building
+    private IndexedPointInAreaLocator[] buildingLocator = new IndexedPointInAreaLocator[INITIAL_CAPACITY];
+    private int buildingCount = 0;
+    private double maxArea = 0;
+    private boolean computeNeighbors = false;
+
+    // Triangulation, the first vertices are the super triangle vertices
+    private double[] x;
+    private double[] y;
+    private double[] z;
+    private int vertexCount;
+    private int[] vertexTriangle;
+    private int[] triVertex;
+    private int[] triNeighbor;
+    private int[] triConstraint;
+    private int[] triLabel;
+    private int triangleCount;
+    private int[] freeTriangles;
+    private int freeTriangleCount;
+    private int lastTriangle;
+    private int randomState;
+    // Result of locate
+    private int locateSide;
+    private int locateVertex;
+    private IntStack legalizeStack = new IntStack();
+
+    // Result
+    private TriangleMesh mesh = null;
+    private List<Coordinate> vertices = null;
+    private List<Triangle> triangles = null;
+    private List<Triangle> neighbors = null;
+
+    @Override
+    public void hintInit(Envelope boundingBox, long polygonCount, long verticesCount) throws LayerDelaunayError {
+        ensureInputCapacity((int) Math.min(1 << 20, verticesCount));
+    }
+
+    @Override
+    public void addPolygon(Polygon newPoly, int buildingId) throws LayerDelaunayError {
+        Coordinate[] coordinates = newPoly.getExteriorRing().getCoordinates();
+        if (coordinates.length > 1) {
+            addLine(coordinates, buildingId);
+            if (buildingId >= 1) {
+                addBuilding(newPoly, buildingId);
+            }
+        }
+        // Append holes
+        final int holeCount = newPoly.getNumInteriorRing();
+        for (int holeIndex = 0; holeIndex < holeCount; holeIndex++) {
+            LineString holeLine = newPoly.getInteriorRingN(holeIndex);
+            if (Area.ofRing(holeLine.getCoordinates()) > 0) {
+                addLine(holeLine.getCoordinates(), buildingId);
+            } else {
+                LOGGER.info("Warning : hole rejected, area=0");
+            }
+        }
+    }
+
+    @Override
+    public void addVertex(Coordinate vertexCoordinate) throws LayerDelaunayError {
+        addPoint(vertexCoordinate);
+    }
+
+    @Override
+    public void addLineString(LineString line, int attribute) throws LayerDelaunayError {
+        addLine(line.getCoordinates(), attribute);
+    }
+
+    /**
+     * Triangle refinement by minimal angle is not supported, only the maximum area is used
+     * @param minAngle Ignored
+     */
+    @Override
+    public void setMinAngle(Double minAngle) throws LayerDelaunayError {
+        if (minAngle != null && minAngle > 0) {
+            LOGGER.warn("Minimal angle " + minAngle + " is not supported by this triangulation and is ignored");
+        }
+    }
+
+    @Override
+    public void setMaxArea(Double maxArea) throws LayerDelaunayError {
+        this.maxArea = Math.max(0, maxArea);
+    }
+
+    @Override
+    public void processDelaunay() throws LayerDelaunayError {
+        mesh = null;
+        vertices = null;
+        triangles = null;
+        neighbors = null;
+        initTriangulation();
+        if (inputCount > 0) {
+            // Insert points along a space filling curve, the walk from the last triangle stays short
+            int[] order = HilbertCurve.sort(inputX, inputY, inputCount);
+            for (int i : order) {
+                insertVertex(i + SUPER_VERTEX_COUNT);
+            }
+            insertSegments();
+            labelBuildings();
+            if (maxArea > 0) {
+                refine();
+            }
+        }
+        mesh = buildMesh();
+    }
+
+    @Override
+    public List<Coordinate> getVertices() throws LayerDelaunayError {
+        if (vertices == null) {
+            vertices = getTriangleMesh().toCoordinateList();
+        }
+        return vertices;
+    }
+
+    @Override
+    public List<Triangle> getTriangles() throws LayerDelaunayError {
+        if (triangles == null) {
+            triangles = getTriangleMesh().toTriangleList();
+        }
+        return triangles;
+    }
+
+    @Override
+    public List<Triangle> getNeighbors() throws LayerDelaunayError {
+        if (!computeNeighbors) {
+            throw new LayerDelaunayError("You must call setRetrieveNeighbors(True) before process delaunay triangulation");
+        }
+        if (neighbors == null) {
+            neighbors = getTriangleMesh().toNeighborList();
+        }
+        return neighbors;
+    }
+
+    @Override
+    public TriangleMesh getTriangleMesh() throws LayerDelaunayError {
+        if (mesh == null) {
+            throw new LayerDelaunayError("You must call processDelaunay before retrieving the triangulation");
+        }
+        return mesh;
+    }
+
+    @Override
+    public void reset() {
+        inputIndex.clear();
+        inputCount = 0;
+        segmentCount = 0;
+        Arrays.fill(buildingPolygon, 0, buildingCount, null);
+        Arrays.fill(buildingLocator, 0, buildingCount, null);
+        buildingCount = 0;
+        mesh = null;
+        vertices = null;
+        triangles = null;
+        neighbors = null;
+        x = null;
+        y = null;
+        z = null;
+        vertexTriangle = null;
+        triVertex = null;
+        triNeighbor = null;
+        triConstraint = null;
+        triLabel = null;
+        freeTriangles = null;
+    }
+
+    @Override
+    public void setRetrieveNeighbors(boolean retrieve) {
+        this.computeNeighbors = retrieve;
+    }
+
+    private void ensureInputCapacity(int capacity) {
+        if (capacity > inputX.length) {
+            int newLength = Math.max(capacity, inputX.length * 2);
+            inputX = Arrays.copyOf(inputX, newLength);
+            inputY = Arrays.copyOf(inputY, newLength);
+            inputZ = Arrays.copyOf(inputZ, newLength);
+        }
+    }
+
+    private int addPoint(Coordinate coordinate) {
+        Coordinate key = new Coordinate(coordinate.x, coordinate.y);
+        Integer index = inputIndex.get(key);
+        if (index == null) {
+            index = inputCount++;
+            ensureInputCapacity(inputCount);
+            inputX[index] = coordinate.x;
+            inputY[index] = coordinate.y;
+            inputZ[index] = Double.isNaN(coordinate.z) ? 0 : coordinate.z;
+            inputIndex.put(key, index);
+        }
+        return index;
+    }
+
+    private void addLine(Coordinate[] coordinates, int attribute) {
+        int constraint = attribute >= 1 ? attribute : CONSTRAINED_LINE;
+        int previous = NONE;
+        for (Coordinate coordinate : coordinates) {
+            int index = addPoint(coordinate);
+            if (previous != NONE && previous != index) {
+                if (segmentCount * 3 + 3 > segments.length) {
+                    segments = Arrays.copyOf(segments, segments.length * 2);
+                }
+                segments[segmentCount * 3] = previous;
+                segments[segmentCount * 3 + 1] = index;
+                segments[segmentCount * 3 + 2] = constraint;
+                segmentCount++;
+            }
+            previous = index;
+        }
+    }
+
+    private void addBuilding(Polygon building, int id) {
+        if (buildingCount == buildingId.length) {
+            buildingX = Arrays.copyOf(buildingX, buildingCount * 2);
+            buildingY = Arrays.copyOf(buildingY, buildingCount * 2);
+            buildingId = Arrays.copyOf(buildingId, buildingCount * 2);
+            buildingPolygon = Arrays.copyOf(buildingPolygon, buildingCount * 2);
+            buildingLocator = Arrays.copyOf(buildingLocator, buildingCount * 2);
+        }
+        Coordinate interiorPoint = building.getInteriorPoint().getCoordinate();
+        if (interiorPoint != null) {
+            buildingX[buildingCount] = interiorPoint.x;
+            buildingY[buildingCount] = interiorPoint.y;
+            buildingId[buildingCount] = id;
+            buildingPolygon[buildingCount] = building;
+            buildingLocator[buildingCount] = null;
+            buildingCount++;
+        }
+    }
+
+    /**
+     * Copy input points and create the super triangle that contains all of them
+     */
+    private void initTriangulation() {
+        int capacity = inputCount * 2 + SUPER_VERTEX_COUNT + INITIAL_CAPACITY;
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        vertexTriangle = new int[capacity];
+        System.arraycopy(inputX, 0, x, SUPER_VERTEX_COUNT, inputCount);
+        System.arraycopy(inputY, 0, y, SUPER_VERTEX_COUNT, inputCount);
+        System.arraycopy(inputZ, 0, z, SUPER_VERTEX_COUNT, inputCount);
+        vertexCount = inputCount + SUPER_VERTEX_COUNT;
+        triVertex = new int[capacity * 6];
+        triNeighbor = new int[capacity * 6];
+        triConstraint = new int[capacity * 6];
+        triLabel = new int[capacity * 2];
+        freeTriangles = new int[INITIAL_CAPACITY];
+        triangleCount = 0;
+        freeTriangleCount = 0;
+        randomState = 0x2545F491;
+        Envelope envelope = new Envelope();
+        for (int i = 0; i < inputCount; i++) {
+            envelope.expandToInclude(inputX[i], inputY[i]);
+        }
+        double centerX = inputCount > 0 ? envelope.centre().x : 0;
+        double centerY = inputCount > 0 ? envelope.centre().y : 0;
+        double size = Math.max(1, Math.max(envelope.getWidth(), envelope.getHeight())) * SUPER_TRIANGLE_SCALE;
+        x[0] = centerX - 4 * size;
+        y[0] = centerY - 2 * size;
+        x[1] = centerX + 4 * size;
+        y[1] = centerY - 2 * size;
+        x[2] = centerX;
+        y[2] = centerY + 4 * size;
+        lastTriangle = newTriangle(0, 1, 2, 0);
+    }
+
+    private int newVertex(double px, double py, double pz) {
+        if (vertexCount == x.length) {
+            int newLength = x.length * 2;
+            x = Arrays.copyOf(x, newLength);
+            y = Arrays.copyOf(y, newLength);
+            z = Arrays.copyOf(z, newLength);
+            vertexTriangle = Arrays.copyOf(vertexTriangle, newLength);
+        }
+        x[vertexCount] = px;
+        y[vertexCount] = py;
+        z[vertexCount] = pz;
+        return vertexCount++;
+    }
+
+    private int newTriangle(int a, int b, int c, int label) {
+        int t;
+        if (freeTriangleCount > 0) {
+            t = freeTriangles[--freeTriangleCount];
+        } else {
+            if (triangleCount == triLabel.length) {
+                int newLength = triLabel.length * 2;
+                triVertex = Arrays.copyOf(triVertex, newLength * 3);
+                triNeighbor = Arrays.copyOf(triNeighbor, newLength * 3);
+                triConstraint = Arrays.copyOf(triConstraint, newLength * 3);
+                triLabel = Arrays.copyOf(triLabel, newLength);
+            }
+            t = triangleCount++;
+        }
+        setTriangle(t, a, b, c);
+        Arrays.fill(triNeighbor, t * 3, t * 3 + 3, NONE);
+        Arrays.fill(triConstraint, t * 3, t * 3 + 3, UNCONSTRAINED);
+        triLabel[t] = label;
+        return t;
+    }
+
+    private void setTriangle(int t, int a, int b, int c) {
+        triVertex[t * 3] = a;
+        triVertex[t * 3 + 1] = b;
+        triVertex[t * 3 + 2] = c;
+        vertexTriangle[a] = t;
+        vertexTriangle[b] = t;
+        vertexTriangle[c] = t;
+    }
+
+    private void setNeighbors(int t, int n0, int n1, int n2, int c0, int c1, int c2) {
+        triNeighbor[t * 3] = n0;
+        triNeighbor[t * 3 + 1] = n1;
+        triNeighbor[t * 3 + 2] = n2;
+        triConstraint[t * 3] = c0;
+        triConstraint[t * 3 + 1] = c1;
+        triConstraint[t * 3 + 2] = c2;
+    }
+
+    private void freeTriangle(int t) {
+        triVertex[t * 3] = NONE;
+        if (freeTriangleCount == freeTriangles.length) {
+            freeTriangles = Arrays.copyOf(freeTriangles, freeTriangleCount * 2);
+        }
+        freeTriangles[freeTriangleCount++] = t;
+    }
+
+    private boolean isFree(int t) {
+        return triVertex[t * 3] == NONE;
+    }
+
+    private boolean hasSuperVertex(int t) {
+        return triVertex[t * 3] < SUPER_VERTEX_COUNT || triVertex[t * 3 + 1] < SUPER_VERTEX_COUNT ||
+                triVertex[t * 3 + 2] < SUPER_VERTEX_COUNT;
+    }
+
+    /**
+     * @return Side of the triangle t opposite to the edge u v
+     */
+    private int oppositeSide(int t, int u, int v) {
+        for (int i = 0; i < 3; i++) {
+            int w = triVertex[t * 3 + i];
+            if (w != u && w != v) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    private int vertexSide(int t, int v) {
+        for (int i = 0; i < 3; i++) {
+            if (triVertex[t * 3 + i] == v) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Make the triangle n point to the triangle t through its edge u v
+     */
+    private void replaceNeighbor(int n, int t, int u, int v) {
+        if (n != NONE) {
+            triNeighbor[n * 3 + oppositeSide(n, u, v)] = t;
+        }
+    }
+
+    private int nextRandom() {
+        randomState ^= randomState << 13;
+        randomState ^= randomState >>> 17;
+        randomState ^= randomState << 5;
+        return randomState >>> 1;
+    }
+
+    /**
+     * Find the triangle that contains the point, with a randomized visibility walk. Set {@link #locateSide} if
+     * the point lies on an edge and {@link #locateVertex} if the point is a vertex.
+     */
+    private int locate(double px, double py) throws LayerDelaunayError {
+        int t = lastTriangle;
+        if (t == NONE || t >= triangleCount || isFree(t)) {
+            t = 0;
+            while (isFree(t)) {
+                t++;
+            }
+        }
+        int maxSteps = triangleCount * 3 + 16;
+        for (int step = 0; step < maxSteps; step++) {
+            int next = NONE;
+            int start = nextRandom() % 3;
+            for (int k = 0; k < 3; k++) {
+                int side = (start + k) % 3;
+                int a = triVertex[t * 3 + NEXT[side]];
+                int b = triVertex[t * 3 + PREV[side]];
+                if (orient(x[a], y[a], x[b], y[b], px, py) < 0) {
+                    next = triNeighbor[t * 3 + side];
+                    if (next == NONE) {
+                        throw new LayerDelaunayError("Point out of the triangulation " + px + " " + py);
+                    }
+                    break;
+                }
+            }
+            if (next == NONE) {
+                lastTriangle = t;
+                locateSide = NONE;
+                locateVertex = NONE;
+                for (int side = 0; side < 3; side++) {
+                    int v = triVertex[t * 3 + side];
+                    if (x[v] == px && y[v] == py) {
+                        locateVertex = v;
+                        return t;
+                    }
+                }
+                for (int side = 0; side < 3; side++) {
+                    int a = triVertex[t * 3 + NEXT[side]];
+                    int b = triVertex[t * 3 + PREV[side]];
+                    if (orient(x[a], y[a], x[b], y[b], px, py) == 0) {
+                        locateSide = side;
+                    }
+                }
+                return t;
+            }
+            t = next;
+        }
+        throw new LayerDelaunayError("Point location failed " + px + " " + py);
+    }
+
+    private void insertVertex(int v) throws LayerDelaunayError {
+        int t = locate(x[v], y[v]);
+        if (locateVertex != NONE) {
+            throw new LayerDelaunayError("Duplicate vertex " + x[v] + " " + y[v]);
+        }
+        if (locateSide != NONE) {
+            splitEdge(t, locateSide, v);
+        } else {
+            splitTriangle(t, v);
+        }
+        legalize(v);
+    }
+
+    /**
+     * Insert a new point
+     * @return Vertex index, the existing vertex if the point is already in the mesh
+     */
+    private int insertPoint(double px, double py, double pz) throws LayerDelaunayError {
+        int t = locate(px, py);
+        if (locateVertex != NONE) {
+            return locateVertex;
+        }
+        int v = newVertex(px, py, pz);
+        if (locateSide != NONE) {
+            splitEdge(t, locateSide, v);
+        } else {
+            splitTriangle(t, v);
+        }
+        legalize(v);
+        return v;
+    }
+
+    /**
+     * Split the triangle (a, b, c) into (p, b, c), (p, c, a), (p, a, b)
+     */
+    private void splitTriangle(int t, int p) {
+        int a = triVertex[t * 3];
+        int b = triVertex[t * 3 + 1];
+        int c = triVertex[t * 3 + 2];
+        int na = triNeighbor[t * 3];
+        int nb = triNeighbor[t * 3 + 1];
+        int nc = triNeighbor[t * 3 + 2];
+        int ca = triConstraint[t * 3];
+        int cb = triConstraint[t * 3 + 1];
+        int cc = triConstraint[t * 3 + 2];
+        int label = triLabel[t];
+        int t1 = newTriangle(p, c, a, label);
+        int t2 = newTriangle(p, a, b, label);
+        setTriangle(t, p, b, c);
+        setNeighbors(t, na, t1, t2, ca, UNCONSTRAINED, UNCONSTRAINED);
+        setNeighbors(t1, nb, t2, t, cb, UNCONSTRAINED, UNCONSTRAINED);
+        setNeighbors(t2, nc, t, t1, cc, UNCONSTRAINED, UNCONSTRAINED);
+        replaceNeighbor(nb, t1, c, a);
+        replaceNeighbor(nc, t2, a, b);
+        legalizeStack.push(t);
+        legalizeStack.push(t1);
+        legalizeStack.push(t2);
+    }
+
+    /**
+     * Split the edge (u, v) opposite to the vertex w of the triangle t, and the edge of the neighbor triangle
+     */
+    private void splitEdge(int t, int side, int p) {
+        int w = triVertex[t * 3 + side];
+        int u = triVertex[t * 3 + NEXT[side]];
+        int v = triVertex[t * 3 + PREV[side]];
+        int n = triNeighbor[t * 3 + side];
+        int constraint = triConstraint[t * 3 + side];
+        int nvw = triNeighbor[t * 3 + NEXT[side]];
+        int cvw = triConstraint[t * 3 + NEXT[side]];
+        int nwu = triNeighbor[t * 3 + PREV[side]];
+        int cwu = triConstraint[t * 3 + PREV[side]];
+        int t2 = newTriangle(w, p, v, triLabel[t]);
+        setTriangle(t, w, u, p);
+        replaceNeighbor(nvw, t2, v, w);
+        legalizeStack.push(t);
+        legalizeStack.push(t2);
+        if (n != NONE) {
+            int j = oppositeSide(n, u, v);
+            int q = triVertex[n * 3 + j];
+            int nuq = triNeighbor[n * 3 + NEXT[j]];
+            int cuq = triConstraint[n * 3 + NEXT[j]];
+            int nqv = triNeighbor[n * 3 + PREV[j]];
+            int cqv = triConstraint[n * 3 + PREV[j]];
+            int n2 = newTriangle(q, p, u, triLabel[n]);
+            setTriangle(n, q, v, p);
+            setNeighbors(n, t2, n2, nqv, constraint, UNCONSTRAINED, cqv);
+            setNeighbors(n2, t, nuq, n, constraint, cuq, UNCONSTRAINED);
+            replaceNeighbor(nuq, n2, u, q);
+            setNeighbors(t, n2, t2, nwu, constraint, UNCONSTRAINED, cwu);
+            setNeighbors(t2, n, nvw, t, constraint, cvw, UNCONSTRAINED);
+            legalizeStack.push(n);
+            legalizeStack.push(n2);
+        } else {
+            setNeighbors(t, NONE, t2, nwu, constraint, UNCONSTRAINED, cwu);
+            setNeighbors(t2, NONE, nvw, t, constraint, cvw, UNCONSTRAINED);
+        }
+    }
+
+    /**
+     * Restore the Delaunay property around the inserted vertex p, constrained edges are never flipped
+     */
+    private void legalize(int p) {
+        while (!legalizeStack.isEmpty()) {
+            int t = legalizeStack.pop();
+            int i = vertexSide(t, p);
+            if (i == NONE || triConstraint[t * 3 + i] != UNCONSTRAINED) {
+                continue;
+            }
+            int n = triNeighbor[t * 3 + i];
+            if (n == NONE) {
+                continue;
+            }
+            int u = triVertex[t * 3 + NEXT[i]];
+            int v = triVertex[t * 3 + PREV[i]];
+            int j = oppositeSide(n, u, v);
+            int q = triVertex[n * 3 + j];
+            if (inCircle(p, u, v, q) > 0) {
+                flip(t, i, n, j);
+                legalizeStack.push(t);
+                legalizeStack.push(n);
+            }
+        }
+    }
+
+    /**
+     * Flip the edge (u, v) shared by t (p, u, v) and n (q, v, u), t becomes (p, u, q) and n becomes (q, v, p)
+     */
+    private void flip(int t, int i, int n, int j) {
+        int p = triVertex[t * 3 + i];
+        int u = triVertex[t * 3 + NEXT[i]];
+        int v = triVertex[t * 3 + PREV[i]];
+        int q = triVertex[n * 3 + j];
+        int nvp = triNeighbor[t * 3 + NEXT[i]];
+        int cvp = triConstraint[t * 3 + NEXT[i]];
+        int npu = triNeighbor[t * 3 + PREV[i]];
+        int cpu = triConstraint[t * 3 + PREV[i]];
+        int nuq = triNeighbor[n * 3 + NEXT[j]];
+        int cuq = triConstraint[n * 3 + NEXT[j]];
+        int nqv = triNeighbor[n * 3 + PREV[j]];
+        int cqv = triConstraint[n * 3 + PREV[j]];
+        setTriangle(t, p, u, q);
+        setNeighbors(t, nuq, n, npu, cuq, UNCONSTRAINED, cpu);
+        setTriangle(n, q, v, p);
+        setNeighbors(n, nvp, t, nqv, cvp, UNCONSTRAINED, cqv);
+        replaceNeighbor(nuq, t, u, q);
+        replaceNeighbor(nvp, n, v, p);
+    }
+
+    private static int mergeConstraint(int current, int constraint) {
+        if (current >= 1 || constraint >= 1) {
+            return Math.max(current, constraint);
+        }
+        return Math.min(current, constraint);
+    }
+
+    /**
+     * Set the constraint of the side of t and of the same edge in the neighbor triangle
+     */
+    private void setEdgeConstraint(int t, int side, int constraint) {
+        int merged = mergeConstraint(triConstraint[t * 3 + side], constraint);
+        triConstraint[t * 3 + side] = merged;
+        int n = triNeighbor[t * 3 + side];
+        if (n != NONE) {
+            int j = oppositeSide(n, triVertex[t * 3 + NEXT[side]], triVertex[t * 3 + PREV[side]]);
+            triConstraint[n * 3 + j] = merged;
+        }
+    }
+
+    private void insertSegments() throws LayerDelaunayError {
+        IntStack pending = new IntStack();
+        for (int i = segmentCount - 1; i >= 0; i--) {
+            pending.push(segments[i * 3 + 2]);
+            pending.push(segments[i * 3 + 1] + SUPER_VERTEX_COUNT);
+            pending.push(segments[i * 3] + SUPER_VERTEX_COUNT);
+        }
+        long maxIterations = (long) segmentCount * 64 + 1024;
+        long iteration = 0;
+        while (!pending.isEmpty()) {
+            if (iteration++ > maxIterations) {
+                throw new LayerDelaunayError("Unable to insert constrained segments");
+            }
+            int a = pending.pop();
+            int b = pending.pop();
+            int constraint = pending.pop();
+            if (a != b) {
+                insertSegment(a, b, constraint, pending);
+            }
+        }
+    }
+
+    private void pushSegment(IntStack pending, int a, int b, int constraint) {
+        pending.push(constraint);
+        pending.push(b);
+        pending.push(a);
+    }
+
+    /**
+     * Force the segment (a, b) into the triangulation, the remaining parts of the segment are pushed into pending
+     */
+    private void insertSegment(int a, int b, int constraint, IntStack pending) throws LayerDelaunayError {
+        // Turn around a in order to find the edge or the first triangle crossed by the segment
+        int start = vertexTriangle[a];
+        int t = start;
+        int firstSide = NONE;
+        do {
+            int k = vertexSide(t, a);
+            int v1 = triVertex[t * 3 + NEXT[k]];
+            int v2 = triVertex[t * 3 + PREV[k]];
+            if (v1 == b) {
+                setEdgeConstraint(t, PREV[k], constraint);
+                return;
+            } else if (v2 == b) {
+                setEdgeConstraint(t, NEXT[k], constraint);
+                return;
+            }
+            double o1 = orient(a, v1, b);
+            double o2 = orient(a, v2, b);
+            if (o1 == 0 && isForward(a, b, v1)) {
+                // The segment goes through the vertex v1
+                setEdgeConstraint(t, PREV[k], constraint);
+                pushSegment(pending, v1, b, constraint);
+                return;
+            } else if (o2 == 0 && isForward(a, b, v2)) {
+                setEdgeConstraint(t, NEXT[k], constraint);
+                pushSegment(pending, v2, b, constraint);
+                return;
+            } else if (o1 > 0 && o2 < 0) {
+                firstSide = k;
+                break;
+            }
+            t = triNeighbor[t * 3 + PREV[k]];
+        } while (t != start && t != NONE);
+        if (firstSide == NONE) {
+            throw new LayerDelaunayError("Unable to find the segment " + x[a] + " " + y[a] + " , " + x[b] + " " +
+                    y[b]);
+        }
+        // Walk along the segment, the crossed triangles form a cavity bounded by the upper and lower chains
+        IntStack crossed = new IntStack();
+        IntStack upper = new IntStack();
+        IntStack lower = new IntStack();
+        int right = triVertex[t * 3 + NEXT[firstSide]];
+        int left = triVertex[t * 3 + PREV[firstSide]];
+        upper.push(left);
+        lower.push(right);
+        crossed.push(t);
+        int side = firstSide;
+        int end;
+        while (true) {
+            if (triConstraint[t * 3 + side] != UNCONSTRAINED) {
+                splitCrossedConstraint(t, side, a, b, constraint, pending);
+                return;
+            }
+            int n = triNeighbor[t * 3 + side];
+            int w = triVertex[n * 3 + oppositeSide(n, left, right)];
+            crossed.push(n);
+            if (w == b) {
+                end = b;
+                break;
+            }
+            double o = orient(a, b, w);
+            if (o == 0) {
+                // The segment goes through the vertex w
+                end = w;
+                break;
+            } else if (o > 0) {
+                upper.push(w);
+                side = vertexSide(n, left);
+                left = w;
+            } else {
+                lower.push(w);
+                side = vertexSide(n, right);
+                right = w;
+            }
+            t = n;
+        }
+        retriangulateCavity(a, end, constraint, crossed, upper, lower);
+        if (end != b) {
+            pushSegment(pending, end, b, constraint);
+        }
+    }
+
+    private boolean isForward(int a, int b, int v) {
+        return (x[v] - x[a]) * (x[b] - x[a]) + (y[v] - y[a]) * (y[b] - y[a]) > 0;
+    }
+
+    /**
+     * The segment (a, b) crosses an already constrained edge, insert the intersection point into this edge and
+     * insert the two parts of the segment.
+     */
+    private void splitCrossedConstraint(int t, int side, int a, int b, int constraint, IntStack pending)
+            throws LayerDelaunayError {
+        int left = triVertex[t * 3 + PREV[side]];
+        int right = triVertex[t * 3 + NEXT[side]];
+        double abX = x[b] - x[a];
+        double abY = y[b] - y[a];
+        double denominator = abX * (y[left] - y[right]) - abY * (x[left] - x[right]);
+        double ratio = (abX * (y[left] - y[a]) - abY * (x[left] - x[a])) / denominator;
+        ratio = Math.max(0, Math.min(1, ratio));
+        double px = x[left] + ratio * (x[right] - x[left]);
+        double py = y[left] + ratio * (y[right] - y[left]);
+        int p;
+        if (px == x[left] && py == y[left]) {
+            p = left;
+        } else if (px == x[right] && py == y[right]) {
+            p = right;
+        } else {
+            p = newVertex(px, py, z[left] + ratio * (z[right] - z[left]));
+            splitEdge(t, side, p);
+            legalize(p);
+        }
+        pushSegment(pending, p, b, constraint);
+        pushSegment(pending, a, p, constraint);
+    }
+
+    /**
+     * Replace the crossed triangles by the constrained Delaunay triangulation of the two pseudo polygons on each
+     * side of the segment (a, b)
+     */
+    private void retriangulateCavity(int a, int b, int constraint, IntStack crossed, IntStack upper,
+                                     IntStack lower) throws LayerDelaunayError {
+        Set<Integer> crossedSet = new HashSet<>(crossed.size() * 2);
+        for (int i = 0; i < crossed.size(); i++) {
+            crossedSet.add(crossed.get(i));
+        }
+        // Outer edges of the cavity, directed counter clockwise
+        Map<Long, int[]> boundary = new HashMap<>(crossed.size() * 2);
+        for (int i = 0; i < crossed.size(); i++) {
+            int t = crossed.get(i);
+            for (int side = 0; side < 3; side++) {
+                int n = triNeighbor[t * 3 + side];
+                if (!crossedSet.contains(n)) {
+                    boundary.put(edgeKey(triVertex[t * 3 + NEXT[side]], triVertex[t * 3 + PREV[side]]),
+                            new int[]{n, triConstraint[t * 3 + side]});
+                }
+            }
+        }
+        for (int i = 0; i < crossed.size(); i++) {
+            freeTriangle(crossed.get(i));
+        }
+        IntStack created = new IntStack();
+        triangulatePseudoPolygon(a, b, upper, false, created);
+        triangulatePseudoPolygon(b, a, lower, true, created);
+        // Link the new triangles
+        Map<Long, Integer> edges = new HashMap<>(created.size() * 6);
+        for (int i = 0; i < created.size(); i++) {
+            int t = created.get(i);
+            for (int side = 0; side < 3; side++) {
+                edges.put(edgeKey(triVertex[t * 3 + NEXT[side]], triVertex[t * 3 + PREV[side]]), t);
+            }
+        }
+        for (int i = 0; i < created.size(); i++) {
+            int t = created.get(i);
+            for (int side = 0; side < 3; side++) {
+                int u = triVertex[t * 3 + NEXT[side]];
+                int v = triVertex[t * 3 + PREV[side]];
+                Integer twin = edges.get(edgeKey(v, u));
+                if (twin != null) {
+                    triNeighbor[t * 3 + side] = twin;
+                    if ((u == a && v == b) || (u == b && v == a)) {
+                        triConstraint[t * 3 + side] = constraint;
+                    }
+                } else {
+                    int[] outer = boundary.get(edgeKey(u, v));
+                    if (outer == null) {
+                        throw new LayerDelaunayError("Invalid cavity of the segment " + x[a] + " " + y[a] + " , " +
+                                x[b] + " " + y[b]);
+                    }
+                    triNeighbor[t * 3 + side] = outer[0];
+                    triConstraint[t * 3 + side] = outer[1];
+                    replaceNeighbor(outer[0], t, u, v);
+                }
+            }
+        }
+        lastTriangle = created.get(0);
+    }
+
+    private static long edgeKey(int u, int v) {
+        return ((long) u << 32) | (v & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Triangulate the polygon made of the edge (a, b) and the chain of vertices on the left side of (a, b)
+     * @param chain Vertices from a to b, or from b to a if reversed
+     */
+    private void triangulatePseudoPolygon(int a, int b, IntStack chain, boolean reversed, IntStack created) {
+        int count = chain.size();
+        int[] vertices = new int[count];
+        for (int i = 0; i < count; i++) {
+            vertices[i] = chain.get(reversed ? count - 1 - i : i);
+        }
+        // Sub polygons (a, b, first chain index, last chain index)
+        IntStack tasks = new IntStack();
+        tasks.push(a);
+        tasks.push(b);
+        tasks.push(0);
+        tasks.push(count - 1);
+        while (!tasks.isEmpty()) {
+            int to = tasks.pop();
+            int from = tasks.pop();
+            int end = tasks.pop();
+            int begin = tasks.pop();
+            if (from > to) {
+                continue;
+            }
+            // The vertex whose circle with the edge contains no other vertex of the chain
+            int c = from;
+            for (int i = from + 1; i <= to; i++) {
+                if (inCircle(begin, end, vertices[c], vertices[i]) > 0) {
+                    c = i;
+                }
+            }
+            created.push(newTriangle(begin, end, vertices[c], 0));
+            tasks.push(begin);
+            tasks.push(vertices[c]);
+            tasks.push(from);
+            tasks.push(c - 1);
+            tasks.push(vertices[c]);
+            tasks.push(end);
+            tasks.push(c + 1);
+            tasks.push(to);
+        }
+    }
+
+    /**
+     * Label the triangles of each building by a flood fill from the interior point of the building, stopped by
+     * the building edges. Edges of other buildings are crossed when the next triangle is inside the building, as
+     * the edges of an overlapping building split the building into several parts.
+     */
+    private void labelBuildings() throws LayerDelaunayError {
+        IntStack queue = new IntStack();
+        IntStack labelled = new IntStack();
+        for (int building = 0; building < buildingCount; building++) {
+            int id = buildingId[building];
+            queue.clear();
+            labelled.clear();
+            queue.push(locate(buildingX[building], buildingY[building]));
+            boolean leak = false;
+            while (!queue.isEmpty()) {
+                int t = queue.pop();
+                if (triLabel[t] == id) {
+                    continue;
+                }
+                if (hasSuperVertex(t)) {
+                    // The building is not closed by its edges
+                    leak = true;
+                    break;
+                }
+                triLabel[t] = id;
+                labelled.push(t);
+                for (int side = 0; side < 3; side++) {
+                    int n = triNeighbor[t * 3 + side];
+                    if (n == NONE || triLabel[n] == id) {
+                        continue;
+                    }
+                    int constraint = triConstraint[t * 3 + side];
+                    if (constraint < 1 || (constraint != id && isInBuilding(building, n))) {
+                        queue.push(n);
+                    }
+                }
+            }
+            if (leak) {
+                for (int i = 0; i < labelled.size(); i++) {
+                    triLabel[labelled.get(i)] = 0;
+                }
+                LOGGER.info("Warning : building " + id + " is not closed, triangles are not labelled");
+            }
+        }
+    }
+
+    /**
+     * @param building Building index
+     * @param t Triangle
+     * @return True if the centroid of the triangle is inside the building
+     */
+    private boolean isInBuilding(int building, int t) {
+        IndexedPointInAreaLocator locator = buildingLocator[building];
+        if (locator == null) {
+            locator = new IndexedPointInAreaLocator(buildingPolygon[building]);
+            buildingLocator[building] = locator;
+        }
+        int a = triVertex[t * 3];
+        int b = triVertex[t * 3 + 1];
+        int c = triVertex[t * 3 + 2];
+        Coordinate centroid = new Coordinate((x[a] + x[b] + x[c]) / 3, (y[a] + y[b] + y[c]) / 3);
+        return locator.locate(centroid) == Location.INTERIOR;
+    }
+
+    /**
+     * Insert the centroid of the triangles out of buildings larger than the maximum area
+     */
+    private void refine() throws LayerDelaunayError {
+        IntStack largeTriangles = new IntStack();
+        boolean refine = true;
+        while (refine) {
+            refine = false;
+            largeTriangles.clear();
+            for (int t = 0; t < triangleCount; t++) {
+                if (!isFree(t) && triLabel[t] == 0 && !hasSuperVertex(t)) {
+                    int a = triVertex[t * 3];
+                    int b = triVertex[t * 3 + 1];
+                    int c = triVertex[t * 3 + 2];
+                    double area = ((x[b] - x[a]) * (y[c] - y[a]) - (y[b] - y[a]) * (x[c] - x[a])) / 2;
+                    if (area > maxArea) {
+                        largeTriangles.push(t);
+                    }
+                }
+            }
+            for (int i = 0; i < largeTriangles.size(); i++) {
+                int t = largeTriangles.get(i);
+                int a = triVertex[t * 3];
+                int b = triVertex[t * 3 + 1];
+                int c = triVertex[t * 3 + 2];
+                double px = (x[a] + x[b] + x[c]) / 3;
+                double py = (y[a] + y[b] + y[c]) / 3;
+                double pz = (z[a] + z[b] + z[c]) / 3;
+                int location = locate(px, py);
+                if (locateVertex == NONE && triLabel[location] == 0) {
+                    insertPoint(px, py, pz);
+                    refine = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Triangles without super triangle vertices, vertex indexes shifted by the super vertex count
+     */
+    private TriangleMesh buildMesh() {
+        int outVertexCount = Math.max(0, vertexCount - SUPER_VERTEX_COUNT);
+        double[] outX = new double[outVertexCount];
+        double[] outY = new double[outVertexCount];
+        double[] outZ = new double[outVertexCount];
+        for (int i = 0; i < outVertexCount; i++) {
+            outX[i] = x[i + SUPER_VERTEX_COUNT];
+            outY[i] = y[i + SUPER_VERTEX_COUNT];
+            outZ[i] = Double.isNaN(z[i + SUPER_VERTEX_COUNT]) ? 0 : z[i + SUPER_VERTEX_COUNT];
+        }
+        int[] triangleIndex = new int[triangleCount];
+        int outTriangleCount = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            if (!isFree(t) && !hasSuperVertex(t)) {
+                triangleIndex[t] = outTriangleCount++;
+            } else {
+                triangleIndex[t] = NONE;
+            }
+        }
+        int[] outVertices = new int[outTriangleCount * 3];
+        int[] outNeighbors = computeNeighbors ? new int[outTriangleCount * 3] : null;
+        int[] outAttribute = new int[outTriangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            int out = triangleIndex[t];
+            if (out != NONE) {
+                for (int i = 0; i < 3; i++) {
+                    outVertices[out * 3 + i] = triVertex[t * 3 + i] - SUPER_VERTEX_COUNT;
+                    if (outNeighbors != null) {
+                        int n = triNeighbor[t * 3 + i];
+                        outNeighbors[out * 3 + i] = n == NONE ? NONE : triangleIndex[n];
+                    }
+                }
+                outAttribute[out] = triLabel[t];
+            }
+        }
+        return new TriangleMesh(outX, outY, outZ, outVertices, outNeighbors, outAttribute);
+    }
+
+    private double orient(int a, int b, int c) {
+        return orient(x[a], y[a], x[b], y[b], x[c], y[c]);
+    }
+
+    /**
+     * @return Positive if a, b, c are counter clockwise, negative if clockwise, 0 if collinear
+     */
+    static double orient(double ax, double ay, double bx, double by, double cx, double cy) {
+        double detLeft = (ax - cx) * (by - cy);
+        double detRight = (ay - cy) * (bx - cx);
+        double det = detLeft - detRight;
+        double bound = CCW_ERROR_BOUND * (Math.abs(detLeft) + Math.abs(detRight));
+        if (det > bound || -det > bound) {
+            return det;
+        }
+        BigDecimal acx = new BigDecimal(ax).subtract(new BigDecimal(cx));
+        BigDecimal bcy = new BigDecimal(by).subtract(new BigDecimal(cy));
+        BigDecimal acy = new BigDecimal(ay).subtract(new BigDecimal(cy));
+        BigDecimal bcx = new BigDecimal(bx).subtract(new BigDecimal(cx));
+        return acx.multiply(bcy).subtract(acy.multiply(bcx)).signum();
+    }
+
+    private double inCircle(int a, int b, int c, int d) {
+        return inCircle(x[a], y[a], x[b], y[b], x[c], y[c], x[d], y[d]);
+    }
+
+    /**
+     * @return Positive if d is inside the circle of the counter clockwise triangle a, b, c, negative if outside, 0
+     * if on the circle
+     */
+    static double inCircle(double ax, double ay, double bx, double by, double cx, double cy, double dx,
+                           double dy) {
+        double adx = ax - dx;
+        double ady = ay - dy;
+        double bdx = bx - dx;
+        double bdy = by - dy;
+        double cdx = cx - dx;
+        double cdy = cy - dy;
+        double bdxcdy = bdx * cdy;
+        double cdxbdy = cdx * bdy;
+        double cdxady = cdx * ady;
+        double adxcdy = adx * cdy;
+        double adxbdy = adx * bdy;
+        double bdxady = bdx * ady;
+        double alift = adx * adx + ady * ady;
+        double blift = bdx * bdx + bdy * bdy;
+        double clift = cdx * cdx + cdy * cdy;
+        double det = alift * (bdxcdy - cdxbdy) + blift * (cdxady - adxcdy) + clift * (adxbdy - bdxady);
+        double permanent = (Math.abs(bdxcdy) + Math.abs(cdxbdy)) * alift +
+                (Math.abs(cdxady) + Math.abs(adxcdy)) * blift + (Math.abs(adxbdy) + Math.abs(bdxady)) * clift;
+        double bound = INCIRCLE_ERROR_BOUND * permanent;
+        if (det > bound || -det > bound) {
+            return det;
+        }
+        BigDecimal eadx = new BigDecimal(ax).subtract(new BigDecimal(dx));
+        BigDecimal eady = new BigDecimal(ay).subtract(new BigDecimal(dy));
+        BigDecimal ebdx = new BigDecimal(bx).subtract(new BigDecimal(dx));
+        BigDecimal ebdy = new BigDecimal(by).subtract(new BigDecimal(dy));
+        BigDecimal ecdx = new BigDecimal(cx).subtract(new BigDecimal(dx));
+        BigDecimal ecdy = new BigDecimal(cy).subtract(new BigDecimal(dy));
+        BigDecimal ealift = eadx.multiply(eadx).add(eady.multiply(eady));
+        BigDecimal eblift = ebdx.multiply(ebdx).add(ebdy.multiply(ebdy));
+        BigDecimal eclift = ecdx.multiply(ecdx).add(ecdy.multiply(ecdy));
+        return ealift.multiply(ebdx.multiply(ecdy).subtract(ecdx.multiply(ebdy)))
+                .add(eblift.multiply(ecdx.multiply(eady).subtract(eadx.multiply(ecdy))))
+                .add(eclift.multiply(eadx.multiply(ebdy).subtract(ebdx.multiply(eady)))).signum();
+    }
+
+    /**
+     * Growable stack of int
+     */
+    private static final class IntStack {
+        private int[] values = new int[64];
+        private int size = 0;
+
+        void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int pop() {
+            return values[--size];
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
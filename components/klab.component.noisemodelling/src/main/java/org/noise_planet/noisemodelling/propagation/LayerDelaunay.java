@@ -120,6 +120,14 @@ public interface LayerDelaunay {
 	 * triangles neighbor by their index.
 	 */
 	List<Triangle> getNeighbors() throws LayerDelaunayError;
+	/**
+	 * When the processDelaunay has been called, retrieve results as arrays.
+	 * Implementations that can be used without collecting the neighbors must override this method.
+	 * @throws LayerDelaunayError If the results or the neighbors are not available
+	 */
+	default TriangleMesh getTriangleMesh() throws LayerDelaunayError {
+		return new TriangleMesh(getTriangles(), getNeighbors(), getVertices());
+	}
 	/**
 	 * Remove all data, come back to the constructor state
 	 */
@@ -429,6 +429,11 @@ public class LayerPoly2Tri implements LayerDelaunay {
     }
   }
 
+  @Override
+  public TriangleMesh getTriangleMesh() throws LayerDelaunayError {
+    return new TriangleMesh(getTriangles(), computeNeighbors ? neighbors : null, getVertices());
+  }
+
   @Override
   public void setRetrieveNeighbors(boolean retrieve) {
     this.computeNeighbors = retrieve;
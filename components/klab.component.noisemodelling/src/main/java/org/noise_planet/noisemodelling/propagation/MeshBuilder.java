@@ -34,12 +34,17 @@
 package org.noise_planet.noisemodelling.propagation;
 
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
@@ -49,6 +54,8 @@ import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.operation.union.CascadedPolygonUnion;
 
 
 /**
@@ -66,6 +73,7 @@ public class MeshBuilder {
     private List<Triangle> triVertices;
     private List<Coordinate> vertices;
     private List<Triangle> triNeighbors; // Neighbors
+    private TriangleMesh triangleMesh;
     private static final int BUILDING_COUNT_HINT = 1500; // 2-3 km² average buildings
     public static final List<Double> ALPHA_DEFAULT_VALUE = Collections.unmodifiableList(
             Arrays.asList(0.1,0.1,0.1,0.1,0.1,0.1,0.1,0.1));
@@ -79,6 +87,21 @@ public class MeshBuilder {
     private double maximumArea = 0;
     private GeometryFactory factory = new GeometryFactory();
     private static final int EPSILON_MESH = 2; //Decimal value, Used for merged geometry precision
+    public static final int DEFAULT_MERGE_TILE_SIZE = 1024;
+    private int mergeThreadCount = 1;
+    private int mergeTileSize = DEFAULT_MERGE_TILE_SIZE;
+    private ForkJoinPool mergePool = null;
+    private DelaunayBackend delaunayBackend = DelaunayBackend.POLY2TRI;
+
+    /**
+     * Constrained Delaunay triangulation implementations
+     */
+    public enum DelaunayBackend {
+        /** {@link LayerPoly2Tri} */
+        POLY2TRI,
+        /** {@link LayerConstrainedDelaunay}, the mesh is produced as arrays */
+        PRIMITIVE_ARRAYS
+    }
 
     public static final class PolygonWithHeight {
         protected final Geometry geo;
@@ -247,6 +270,9 @@ public class MeshBuilder {
      * @return
      */
     public List<Triangle> getTriangles() {
+        if(triVertices == null && triangleMesh != null) {
+            triVertices = triangleMesh.toTriangleList();
+        }
         return triVertices;
     }
 
@@ -263,6 +289,9 @@ public class MeshBuilder {
      * @return
      */
     public List<Triangle> getTriNeighbors() {
+        if(triNeighbors == null && triangleMesh != null) {
+            triNeighbors = triangleMesh.toNeighborList();
+        }
         return triNeighbors;
     }
 
@@ -270,9 +299,22 @@ public class MeshBuilder {
      * @return vertices list
      */
     public List<Coordinate> getVertices() {
+        if(vertices == null && triangleMesh != null) {
+            vertices = triangleMesh.toCoordinateList();
+        }
         return vertices;
     }
 
+    /**
+     * @return Triangulation as arrays, null if the triangulation has not been done
+     */
+    public TriangleMesh getTriangleMesh() {
+        if(triangleMesh == null && triVertices != null) {
+            triangleMesh = new TriangleMesh(triVertices, triNeighbors, vertices);
+        }
+        return triangleMesh;
+    }
+
 
     /**
      * @return Envelope
@@ -384,8 +426,13 @@ public class MeshBuilder {
         } else {
           toUnion[i] = factory.createPolygon(new Coordinate[0]);
         }
-        Geometry geomCollection = factory.createGeometryCollection(toUnion);
-        geomCollection = geomCollection.union();
+        Geometry geomCollection;
+        if(mergeThreadCount > 1 && polygonWithHeight.size() > mergeTileSize) {
+            geomCollection = tiledUnion(buildingsRtree, toUnion[i]);
+        } else {
+            geomCollection = factory.createGeometryCollection(toUnion);
+            geomCollection = geomCollection.union();
+        }
         List<PolygonWithHeight> mergedPolygonWithHeight = new ArrayList<>(geomCollection.getNumGeometries());
         // For each merged buildings fetch all contained buildings and take the minimal height then insert into mergedPolygonWithHeight
         for(int idGeom = 0; idGeom < geomCollection.getNumGeometries(); idGeom++) {
@@ -422,6 +469,96 @@ public class MeshBuilder {
         polygonWithHeight = mergedPolygonWithHeight;
     }
 
+    /**
+     * Union of the buildings by tiles of neighbouring buildings (STRtree leaves order) computed in parallel, tiles
+     * are then merged by pairs, only the polygons that cross the seam between two tiles are merged again.
+     * @param buildingsRtree Buildings index
+     * @param envelopeRing Exterior ring of the bounding box
+     * @return Merged buildings and the split bounding box ring
+     */
+    private Geometry tiledUnion(STRtree buildingsRtree, Geometry envelopeRing) {
+        buildingsRtree.build();
+        List<Geometry> buildings = new ArrayList<>(polygonWithHeight.size());
+        addItems(buildingsRtree.itemsTree(), buildings);
+        ForkJoinPool forkJoinPool = mergePool != null ? mergePool : ForkJoinPool.commonPool();
+        Geometry merged = forkJoinPool.invoke(new UnionTask(buildings, 0, buildings.size(), mergeTileSize));
+        // Lines are merged with polygons last, as done by Geometry.union()
+        return envelopeRing.isEmpty() ? merged : envelopeRing.union(merged);
+    }
+
+    /**
+     * Flatten STRtree nodes, neighbouring buildings are contiguous
+     */
+    private void addItems(List<?> node, List<Geometry> buildings) {
+        for (Object child : node) {
+            if (child instanceof List) {
+                addItems((List<?>) child, buildings);
+            } else if (child instanceof Integer) {
+                buildings.add(polygonWithHeight.get((Integer) child).getGeometry());
+            }
+        }
+    }
+
+    /**
+     * Union of a range of buildings, split in halves while the range is larger than a tile
+     */
+    private static final class UnionTask extends RecursiveTask<Geometry> {
+        private final List<Geometry> buildings;
+        private final int from; // Included
+        private final int to; // Excluded
+        private final int tileSize;
+
+        UnionTask(List<Geometry> buildings, int from, int to, int tileSize) {
+            this.buildings = buildings;
+            this.from = from;
+            this.to = to;
+            this.tileSize = tileSize;
+        }
+
+        @Override
+        protected Geometry compute() {
+            if (to - from <= tileSize) {
+                return CascadedPolygonUnion.union(buildings.subList(from, to));
+            }
+            int middle = (from + to) >>> 1;
+            UnionTask right = new UnionTask(buildings, middle, to, tileSize);
+            right.fork();
+            Geometry left = new UnionTask(buildings, from, middle, tileSize).compute();
+            Geometry rightUnion = right.join();
+            if (left == null || rightUnion == null) {
+                return left == null ? rightUnion : left;
+            }
+            return stitch(left, rightUnion);
+        }
+
+        /**
+         * Merge two unions. A polygon that does not intersect the envelope shared by the two unions can not
+         * intersect a polygon of the other union, it is kept as is.
+         */
+        private static Geometry stitch(Geometry left, Geometry right) {
+            Envelope seam = left.getEnvelopeInternal().intersection(right.getEnvelopeInternal());
+            List<Geometry> components = new ArrayList<>(left.getNumGeometries() + right.getNumGeometries());
+            List<Geometry> crossingSeam = new ArrayList<>();
+            for (Geometry union : Arrays.asList(left, right)) {
+                for (int idGeom = 0; idGeom < union.getNumGeometries(); idGeom++) {
+                    Geometry component = union.getGeometryN(idGeom);
+                    if (!seam.isNull() && component.getEnvelopeInternal().intersects(seam)) {
+                        crossingSeam.add(component);
+                    } else {
+                        components.add(component);
+                    }
+                }
+            }
+            Geometry seamUnion = CascadedPolygonUnion.union(crossingSeam);
+            if (seamUnion != null) {
+                for (int idGeom = 0; idGeom < seamUnion.getNumGeometries(); idGeom++) {
+                    components.add(seamUnion.getGeometryN(idGeom));
+                }
+            }
+            return left.getFactory().buildGeometry(components);
+        }
+    }
+
     /**
      * Add the Topographic Point in the mesh data, to complete the topographic data.
      *
@@ -476,7 +613,12 @@ public class MeshBuilder {
             this.geometriesBoundingBox = boundingBoxGeom.getEnvelopeInternal();
         }
 
-        LayerDelaunay delaunayTool = new LayerPoly2Tri();
+        LayerDelaunay delaunayTool;
+        if(delaunayBackend == DelaunayBackend.PRIMITIVE_ARRAYS) {
+            delaunayTool = new LayerConstrainedDelaunay();
+        } else {
+            delaunayTool = new LayerPoly2Tri();
+        }
 
 
         //merge buildings
@@ -500,7 +642,7 @@ public class MeshBuilder {
         //computeNeighbors
         delaunayTool.setRetrieveNeighbors(false);
         delaunayTool.processDelaunay();
-        FastObstructionTest fastObstructionTest = new FastObstructionTest(new ArrayList<>(Collections.EMPTY_LIST), delaunayTool.getTriangles(),null,delaunayTool.getVertices());
+        FastObstructionTest fastObstructionTest = new FastObstructionTest(new ArrayList<>(Collections.EMPTY_LIST), delaunayTool.getTriangleMesh());
         ComputeRays.AbsoluteCoordinateSequenceFilter absoluteCoordinateSequenceFilter = new ComputeRays.AbsoluteCoordinateSequenceFilter(fastObstructionTest, false);
 
         //add buildings to delaunay triangulation
@@ -524,14 +666,82 @@ public class MeshBuilder {
         }
         delaunayTool.processDelaunay();
         // Get results
-        this.triVertices = delaunayTool.getTriangles();
-        this.vertices = delaunayTool.getVertices();
+        if(delaunayBackend == DelaunayBackend.PRIMITIVE_ARRAYS) {
+            // Lists are built on demand
+            this.triangleMesh = delaunayTool.getTriangleMesh();
+        } else {
+            this.triVertices = delaunayTool.getTriangles();
+            this.vertices = delaunayTool.getVertices();
+
+            if(computeNeighbors) {
+                this.triNeighbors = delaunayTool.getNeighbors();
+            }
+        }
+    }
+
+    /**
+     * Hash of all the inputs of {@link #finishPolygonFeeding(Geometry)}. Must be called before the triangulation as
+     * buildings are merged by it. Topographic points and lines are hashed independently of their insertion order.
+     * @param boundingBoxGeom Bounding box that will be given to finishPolygonFeeding
+     * @return Hexadecimal SHA-256 of buildings, topography and mesh parameters
+     */
+    public String computeInputFingerprint(Geometry boundingBoxGeom) {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES * 4);
+        WKBWriter wkbWriter = new WKBWriter(3);
+        digest.update(wkbWriter.write(boundingBoxGeom));
+        buffer.putDouble(maximumArea).putInt(computeNeighbors ? 1 : 0).putInt(polygonWithHeight.size())
+                .putInt(delaunayBackend.ordinal());
+        digest.update(buffer.array(), 0, buffer.position());
+        for(PolygonWithHeight poly : polygonWithHeight) {
+            digest.update(wkbWriter.write(poly.getGeometry()));
+            buffer.clear();
+            buffer.putDouble(poly.getHeight()).putInt(poly.getPrimaryKey()).putInt(poly.hasHeight() ? 1 : 0);
+            digest.update(buffer.array(), 0, buffer.position());
+            for(Double alpha : poly.getAlpha()) {
+                buffer.clear();
+                buffer.putDouble(alpha);
+                digest.update(buffer.array(), 0, buffer.position());
+            }
+        }
+        Coordinate[] sortedTopoPoints = topoPoints.toArray(new Coordinate[0]);
+        // Order on z too, so the hash does not depend on the insertion order of points sharing the same x,y
+        Arrays.sort(sortedTopoPoints, new Coordinate.DimensionalComparator(3));
+        for(Coordinate topoPoint : sortedTopoPoints) {
+            buffer.clear();
+            buffer.putDouble(topoPoint.x).putDouble(topoPoint.y).putDouble(topoPoint.z);
+            digest.update(buffer.array(), 0, buffer.position());
+        }
+        // LineString hash code is not stable between runs, sort the hash of each line instead
+        List<String> topoLinesHash = new ArrayList<>(topoLines.size());
+        for(LineString topoLine : topoLines) {
+            MessageDigest lineDigest = newDigest();
+            lineDigest.update(wkbWriter.write(topoLine));
+            topoLinesHash.add(toHexString(lineDigest.digest()));
+        }
+        Collections.sort(topoLinesHash);
+        for(String lineHash : topoLinesHash) {
+            digest.update(lineHash.getBytes());
+        }
+        return toHexString(digest.digest());
+    }
 
-        if(computeNeighbors) {
-            this.triNeighbors = delaunayTool.getNeighbors();
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
         }
     }
 
+    private static String toHexString(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
     public void clearBuildings() {
         polygonWithHeight.clear();
     }
@@ -548,6 +758,67 @@ public class MeshBuilder {
         this.computeNeighbors = computeNeighbors;
     }
 
+    /**
+     * @return Number of threads used to merge buildings
+     */
+    public int getMergeThreadCount() {
+        return mergeThreadCount;
+    }
+
+    /**
+     * @param mergeThreadCount Number of threads used to merge buildings, 1 to merge all buildings in a single
+     *                         union. Buildings are merged by tiles only if there is more buildings than the tile size.
+     *                         Tiles are merged by the tasks of {@link #setMergePool(ForkJoinPool)}, the pool
+     *                         parallelism should be this thread count.
+     */
+    public void setMergeThreadCount(int mergeThreadCount) {
+        this.mergeThreadCount = Math.max(1, mergeThreadCount);
+    }
+
+    /**
+     * @return Pool of the tile merge tasks, null to use the common pool
+     */
+    public ForkJoinPool getMergePool() {
+        return mergePool;
+    }
+
+    /**
+     * @param mergePool Pool of the tile merge tasks, shared by the mesh builders of concurrent cells. Null to use
+     *                  {@link ForkJoinPool#commonPool()}
+     */
+    public void setMergePool(ForkJoinPool mergePool) {
+        this.mergePool = mergePool;
+    }
+
+    /**
+     * @return Maximum number of buildings merged by a single task
+     */
+    public int getMergeTileSize() {
+        return mergeTileSize;
+    }
+
+    /**
+     * @param mergeTileSize Maximum number of buildings merged by a single task
+     */
+    public void setMergeTileSize(int mergeTileSize) {
+        this.mergeTileSize = Math.max(1, mergeTileSize);
+    }
+
+    /**
+     * @return Constrained Delaunay triangulation implementation
+     */
+    public DelaunayBackend getDelaunayBackend() {
+        return delaunayBackend;
+    }
+
+    /**
+     * @param delaunayBackend Constrained Delaunay triangulation implementation. {@link DelaunayBackend#PRIMITIVE_ARRAYS}
+     *                        does not refine triangles by minimal angle, only the maximum area is applied.
+     */
+    public void setDelaunayBackend(DelaunayBackend delaunayBackend) {
+        this.delaunayBackend = delaunayBackend;
+    }
+
     //function just for test MergePolygon
     public void testMergeGetPolygonWithHeight() {
 
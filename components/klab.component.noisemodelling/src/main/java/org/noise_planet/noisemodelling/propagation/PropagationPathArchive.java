@@ -0,0 +1,654 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.math.Vector3D;
+
+/**
+ * Columnar and chunked archive of {@link PropagationPath}. Paths are grouped by chunks, and the fields of all the
+ * paths, points and segments of a chunk are stored column by column:
+ * <ul>
+ *     <li>source and receiver identifiers are delta encoded variable length integers</li>
+ *     <li>point types are stored as one byte code, wall absorption lists through a per chunk dictionary</li>
+ *     <li>doubles (coordinates, altitude, ground factor, mean planes) are xor-ed with the previous value of the
+ *     same column, neighbouring rays share the high bytes so that the column is mostly made of zeros</li>
+ * </ul>
+ * The xor encoding does not reduce the size by itself, it makes the chunk easier to compress: by default each chunk
+ * is compressed with deflate, and stored as is only if deflate does not reduce its size. Compression can be turned
+ * off by the {@link Writer} to save CPU time. The archive ends with an index of chunks, so that the {@link Reader}
+ * can map and decode any chunk without reading the whole file.
+ *
+ * File layout (big endian): magic, version, chunks (path count, raw length, stored length, codec, data), chunk index
+ * (offset, path count), footer (index offset, chunk count, path count, magic).
+ * The format is lossless, {@link PropagationPath#writeStream(DataOutputStream)} fields are kept.
+ */
+public final class PropagationPathArchive {
+    public static final int MAGIC = 0x4E4D5241; // NMRA
+    public static final int VERSION = 1;
+    public static final byte CODEC_NONE = 0;
+    public static final byte CODEC_DEFLATE = 1;
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+    private static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int CHUNK_HEADER_SIZE = Integer.BYTES * 3 + 1;
+    private static final int NULL_TYPE = 0xFF;
+
+    private PropagationPathArchive() {
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static void writeZigZag(DataOutputStream out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long readZigZag(ByteBuffer in) {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Column of doubles, each value is xor-ed with the previous one
+     */
+    private static final class DoubleColumnWriter {
+        private final DataOutputStream out;
+        private long previous = 0;
+
+        DoubleColumnWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void write(double value) throws IOException {
+            long bits = Double.doubleToRawLongBits(value);
+            out.writeLong(bits ^ previous);
+            previous = bits;
+        }
+    }
+
+    private static final class DoubleColumnReader {
+        private final ByteBuffer in;
+        private long previous = 0;
+
+        DoubleColumnReader(ByteBuffer in, int position) {
+            this.in = in.duplicate();
+            this.in.position(position);
+        }
+
+        double read() {
+            previous ^= in.getLong();
+            return Double.longBitsToDouble(previous);
+        }
+    }
+
+    /**
+     * Streaming archive writer. Paths are encoded when a chunk is full, only one chunk of paths is kept in memory.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final int chunkSize;
+        private final List<PropagationPath> chunk;
+        private final List<Long> chunkOffsets = new ArrayList<>();
+        private final List<Integer> chunkPathCount = new ArrayList<>();
+        private long position = 0;
+        private long pathCount = 0;
+        // Null if chunks are not compressed
+        private final Deflater deflater;
+
+        /**
+         * @param file Archive file, overwritten if it exists
+         * @throws IOException
+         */
+        public Writer(File file) throws IOException {
+            this(new FileOutputStream(file), DEFAULT_CHUNK_SIZE, true);
+        }
+
+        /**
+         * @param outputStream Destination, closed with this writer
+         * @param chunkSize Number of paths of each chunk
+         * @throws IOException
+         */
+        public Writer(OutputStream outputStream, int chunkSize) throws IOException {
+            this(outputStream, chunkSize, true);
+        }
+
+        /**
+         * @param outputStream Destination, closed with this writer
+         * @param chunkSize Number of paths of each chunk
+         * @param compress Compress chunks with deflate, false to store all chunks as is
+         * @throws IOException
+         */
+        public Writer(OutputStream outputStream, int chunkSize, boolean compress) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(outputStream));
+            this.chunkSize = Math.max(1, chunkSize);
+            this.chunk = new ArrayList<>(this.chunkSize);
+            this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            position = Integer.BYTES * 2;
+        }
+
+        /**
+         * @param path Path to archive, must not be modified until the chunk is written
+         * @throws IOException
+         */
+        public void write(PropagationPath path) throws IOException {
+            chunk.add(path);
+            if (chunk.size() >= chunkSize) {
+                flushChunk();
+            }
+        }
+
+        /**
+         * @param paths Paths to archive
+         * @throws IOException
+         */
+        public void writeAll(List<PropagationPath> paths) throws IOException {
+            for (PropagationPath path : paths) {
+                write(path);
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            byte[] raw = encodeChunk(chunk);
+            byte[] stored = raw;
+            int storedLength = raw.length;
+            byte codec = CODEC_NONE;
+            if (deflater != null) {
+                deflater.reset();
+                deflater.setInput(raw);
+                deflater.finish();
+                byte[] compressed = new byte[Math.max(64, raw.length + raw.length / 100 + 64)];
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                if (length < raw.length) {
+                    stored = compressed;
+                    storedLength = length;
+                    codec = CODEC_DEFLATE;
+                }
+            }
+            chunkOffsets.add(position);
+            chunkPathCount.add(chunk.size());
+            out.writeInt(chunk.size());
+            out.writeInt(raw.length);
+            out.writeInt(storedLength);
+            out.writeByte(codec);
+            out.write(stored, 0, storedLength);
+            position += CHUNK_HEADER_SIZE + storedLength;
+            pathCount += chunk.size();
+            chunk.clear();
+        }
+
+        /**
+         * Write remaining paths and the chunk index
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flushChunk();
+                long indexOffset = position;
+                for (int i = 0; i < chunkOffsets.size(); i++) {
+                    out.writeLong(chunkOffsets.get(i));
+                    out.writeInt(chunkPathCount.get(i));
+                }
+                out.writeLong(indexOffset);
+                out.writeInt(chunkOffsets.size());
+                out.writeLong(pathCount);
+                out.writeInt(MAGIC);
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+                out.close();
+            }
+        }
+    }
+
+    static byte[] encodeChunk(List<PropagationPath> paths) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        writeVarLong(out, paths.size());
+        for (PropagationPath path : paths) {
+            out.writeBoolean(path.isFavorable());
+        }
+        long previousId = 0;
+        for (PropagationPath path : paths) {
+            writeZigZag(out, path.getIdSource() - previousId);
+            previousId = path.getIdSource();
+        }
+        previousId = 0;
+        for (PropagationPath path : paths) {
+            writeZigZag(out, path.getIdReceiver() - previousId);
+            previousId = path.getIdReceiver();
+        }
+        List<PointPath> points = new ArrayList<>();
+        List<SegmentPath> segments = new ArrayList<>();
+        for (PropagationPath path : paths) {
+            writeVarLong(out, path.getPointList().size());
+            points.addAll(path.getPointList());
+        }
+        for (PropagationPath path : paths) {
+            writeVarLong(out, path.getSegmentList().size());
+            segments.addAll(path.getSegmentList());
+        }
+        for (PropagationPath path : paths) {
+            writeVarLong(out, path.getSRList().size());
+            segments.addAll(path.getSRList());
+        }
+        // Points
+        for (PointPath point : points) {
+            out.writeByte(point.type == null ? NULL_TYPE : point.type.ordinal());
+        }
+        Map<List<Double>, Integer> alphaDictionary = new HashMap<>();
+        List<List<Double>> alphaEntries = new ArrayList<>();
+        int[] alphaRefs = new int[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            List<Double> alpha = points.get(i).alphaWall;
+            if (alpha == null) {
+                continue;
+            }
+            Integer entry = alphaDictionary.get(alpha);
+            if (entry == null) {
+                entry = alphaEntries.size();
+                alphaDictionary.put(alpha, entry);
+                alphaEntries.add(alpha);
+            }
+            alphaRefs[i] = entry + 1;
+        }
+        writeVarLong(out, alphaEntries.size());
+        for (List<Double> alpha : alphaEntries) {
+            writeVarLong(out, alpha.size());
+            for (Double value : alpha) {
+                out.writeDouble(value);
+            }
+        }
+        for (int alphaRef : alphaRefs) {
+            writeVarLong(out, alphaRef);
+        }
+        for (PointPath point : points) {
+            writeZigZag(out, point.buildingId);
+        }
+        DoubleColumnWriter column = new DoubleColumnWriter(out);
+        for (PointPath point : points) {
+            column.write(point.coordinate.x);
+        }
+        column = new DoubleColumnWriter(out);
+        for (PointPath point : points) {
+            column.write(point.coordinate.y);
+        }
+        column = new DoubleColumnWriter(out);
+        for (PointPath point : points) {
+            column.write(point.coordinate.z);
+        }
+        column = new DoubleColumnWriter(out);
+        for (PointPath point : points) {
+            column.write(point.altitude);
+        }
+        column = new DoubleColumnWriter(out);
+        for (PointPath point : points) {
+            column.write(point.gs);
+        }
+        // Segments
+        column = new DoubleColumnWriter(out);
+        for (SegmentPath segment : segments) {
+            column.write(segment.gPath);
+        }
+        column = new DoubleColumnWriter(out);
+        for (SegmentPath segment : segments) {
+            column.write(segment.vector3D.getX());
+        }
+        column = new DoubleColumnWriter(out);
+        for (SegmentPath segment : segments) {
+            column.write(segment.vector3D.getY());
+        }
+        column = new DoubleColumnWriter(out);
+        for (SegmentPath segment : segments) {
+            column.write(segment.vector3D.getZ());
+        }
+        column = new DoubleColumnWriter(out);
+        for (SegmentPath segment : segments) {
+            column.write(segment.pInit.x);
+        }
+        column = new DoubleColumnWriter(out);
+        for (SegmentPath segment : segments) {
+            column.write(segment.pInit.y);
+        }
+        column = new DoubleColumnWriter(out);
+        for (SegmentPath segment : segments) {
+            column.write(segment.pInit.z);
+        }
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    static List<PropagationPath> decodeChunk(ByteBuffer in) {
+        int pathCount = (int) readVarLong(in);
+        boolean[] favorable = new boolean[pathCount];
+        for (int i = 0; i < pathCount; i++) {
+            favorable[i] = in.get() != 0;
+        }
+        int[] idSource = new int[pathCount];
+        long previousId = 0;
+        for (int i = 0; i < pathCount; i++) {
+            previousId += readZigZag(in);
+            idSource[i] = (int) previousId;
+        }
+        int[] idReceiver = new int[pathCount];
+        previousId = 0;
+        for (int i = 0; i < pathCount; i++) {
+            previousId += readZigZag(in);
+            idReceiver[i] = (int) previousId;
+        }
+        int[] pointCount = new int[pathCount];
+        int[] segmentCount = new int[pathCount];
+        int[] srCount = new int[pathCount];
+        int totalPoints = 0;
+        int totalSegments = 0;
+        for (int i = 0; i < pathCount; i++) {
+            pointCount[i] = (int) readVarLong(in);
+            totalPoints += pointCount[i];
+        }
+        for (int i = 0; i < pathCount; i++) {
+            segmentCount[i] = (int) readVarLong(in);
+            totalSegments += segmentCount[i];
+        }
+        for (int i = 0; i < pathCount; i++) {
+            srCount[i] = (int) readVarLong(in);
+            totalSegments += srCount[i];
+        }
+        // Points
+        PointPath.POINT_TYPE[] types = PointPath.POINT_TYPE.values();
+        PointPath[] points = new PointPath[totalPoints];
+        for (int i = 0; i < totalPoints; i++) {
+            int code = in.get() & 0xFF;
+            points[i] = new PointPath();
+            points[i].type = code == NULL_TYPE ? null : types[code];
+        }
+        int alphaEntryCount = (int) readVarLong(in);
+        List<List<Double>> alphaEntries = new ArrayList<>(alphaEntryCount);
+        for (int i = 0; i < alphaEntryCount; i++) {
+            int length = (int) readVarLong(in);
+            List<Double> alpha = new ArrayList<>(length);
+            for (int j = 0; j < length; j++) {
+                alpha.add(in.getDouble());
+            }
+            alphaEntries.add(alpha);
+        }
+        for (PointPath point : points) {
+            int alphaRef = (int) readVarLong(in);
+            point.alphaWall = alphaRef == 0 ? null : alphaEntries.get(alphaRef - 1);
+        }
+        for (PointPath point : points) {
+            point.buildingId = (int) readZigZag(in);
+        }
+        int columnSize = totalPoints * Long.BYTES;
+        int position = in.position();
+        if (position + (long) totalPoints * Long.BYTES * 5 > in.limit()) {
+            throw new BufferUnderflowException();
+        }
+        DoubleColumnReader xColumn = new DoubleColumnReader(in, position);
+        DoubleColumnReader yColumn = new DoubleColumnReader(in, position + columnSize);
+        DoubleColumnReader zColumn = new DoubleColumnReader(in, position + columnSize * 2);
+        DoubleColumnReader altitudeColumn = new DoubleColumnReader(in, position + columnSize * 3);
+        DoubleColumnReader gsColumn = new DoubleColumnReader(in, position + columnSize * 4);
+        for (PointPath point : points) {
+            point.coordinate = new Coordinate(xColumn.read(), yColumn.read(), zColumn.read());
+            point.altitude = altitudeColumn.read();
+            point.gs = gsColumn.read();
+        }
+        // Segments
+        position += columnSize * 5;
+        columnSize = totalSegments * Long.BYTES;
+        if (position + (long) totalSegments * Long.BYTES * 7 > in.limit()) {
+            throw new BufferUnderflowException();
+        }
+        DoubleColumnReader gPathColumn = new DoubleColumnReader(in, position);
+        DoubleColumnReader vxColumn = new DoubleColumnReader(in, position + columnSize);
+        DoubleColumnReader vyColumn = new DoubleColumnReader(in, position + columnSize * 2);
+        DoubleColumnReader vzColumn = new DoubleColumnReader(in, position + columnSize * 3);
+        DoubleColumnReader pxColumn = new DoubleColumnReader(in, position + columnSize * 4);
+        DoubleColumnReader pyColumn = new DoubleColumnReader(in, position + columnSize * 5);
+        DoubleColumnReader pzColumn = new DoubleColumnReader(in, position + columnSize * 6);
+        SegmentPath[] segments = new SegmentPath[totalSegments];
+        for (int i = 0; i < totalSegments; i++) {
+            double gPath = gPathColumn.read();
+            Vector3D vector = new Vector3D(vxColumn.read(), vyColumn.read(), vzColumn.read());
+            segments[i] = new SegmentPath(gPath, vector, new Coordinate(pxColumn.read(), pyColumn.read(),
+                    pzColumn.read()));
+        }
+        in.position(position + columnSize * 7);
+        // Rebuild paths, segment list of all paths are stored before the source-receiver lists
+        List<PropagationPath> paths = new ArrayList<>(pathCount);
+        int pointIndex = 0;
+        int segmentIndex = 0;
+        int srIndex = 0;
+        for (int i = 0; i < pathCount; i++) {
+            srIndex += segmentCount[i];
+        }
+        for (int i = 0; i < pathCount; i++) {
+            List<PointPath> pointList = new ArrayList<>(pointCount[i]);
+            for (int j = 0; j < pointCount[i]; j++) {
+                pointList.add(points[pointIndex++]);
+            }
+            List<SegmentPath> segmentList = new ArrayList<>(segmentCount[i]);
+            for (int j = 0; j < segmentCount[i]; j++) {
+                segmentList.add(segments[segmentIndex++]);
+            }
+            List<SegmentPath> srList = new ArrayList<>(srCount[i]);
+            for (int j = 0; j < srCount[i]; j++) {
+                srList.add(segments[srIndex++]);
+            }
+            PropagationPath path = new PropagationPath(favorable[i], pointList, segmentList, srList);
+            path.setIdSource(idSource[i]);
+            path.setIdReceiver(idReceiver[i]);
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    /**
+     * Archive reader, chunks are memory mapped and decoded on demand. Instances are not thread safe.
+     */
+    public static class Reader implements Closeable {
+        private final File file;
+        private final FileChannel channel;
+        private final long[] chunkOffsets;
+        private final int[] chunkPathCount;
+        private final long pathCount;
+        private final Inflater inflater = new Inflater();
+
+        /**
+         * @param file Archive file
+         * @throws IOException If the file is not an archive or is truncated
+         */
+        public Reader(File file) throws IOException {
+            this.file = file;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if (size < Integer.BYTES * 2 + FOOTER_SIZE) {
+                    throw new IOException("Truncated propagation path archive " + file.getAbsolutePath());
+                }
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Integer.BYTES * 2);
+                ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - FOOTER_SIZE, FOOTER_SIZE);
+                long indexOffset = footer.getLong();
+                int chunkCount = footer.getInt();
+                pathCount = footer.getLong();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION || footer.getInt() != MAGIC) {
+                    throw new IOException("Unsupported propagation path archive " + file.getAbsolutePath());
+                }
+                ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset,
+                        (long) chunkCount * (Long.BYTES + Integer.BYTES));
+                chunkOffsets = new long[chunkCount];
+                chunkPathCount = new int[chunkCount];
+                for (int i = 0; i < chunkCount; i++) {
+                    chunkOffsets[i] = index.getLong();
+                    chunkPathCount[i] = index.getInt();
+                }
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        public int getChunkCount() {
+            return chunkOffsets.length;
+        }
+
+        /**
+         * @return Total number of archived paths
+         */
+        public long getPathCount() {
+            return pathCount;
+        }
+
+        /**
+         * @param chunkId Chunk index [0-{@link #getChunkCount()}]
+         * @return Number of paths in this chunk
+         */
+        public int getChunkPathCount(int chunkId) {
+            return chunkPathCount[chunkId];
+        }
+
+        /**
+         * @param chunkId Chunk index [0-{@link #getChunkCount()}]
+         * @return Decoded paths of the chunk
+         * @throws IOException If the chunk is corrupted
+         */
+        public List<PropagationPath> readChunk(int chunkId) throws IOException {
+            try {
+                ByteBuffer chunkHeader = channel.map(FileChannel.MapMode.READ_ONLY, chunkOffsets[chunkId],
+                        CHUNK_HEADER_SIZE);
+                chunkHeader.getInt();
+                int rawLength = chunkHeader.getInt();
+                int storedLength = chunkHeader.getInt();
+                byte codec = chunkHeader.get();
+                ByteBuffer stored = channel.map(FileChannel.MapMode.READ_ONLY,
+                        chunkOffsets[chunkId] + CHUNK_HEADER_SIZE, storedLength);
+                ByteBuffer raw;
+                if (codec == CODEC_DEFLATE) {
+                    byte[] compressed = new byte[storedLength];
+                    stored.get(compressed);
+                    byte[] data = new byte[rawLength];
+                    inflater.reset();
+                    inflater.setInput(compressed);
+                    int length = 0;
+                    while (length < rawLength && !inflater.finished()) {
+                        int inflated = inflater.inflate(data, length, rawLength - length);
+                        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        length += inflated;
+                    }
+                    if (length != rawLength) {
+                        throw new IOException("Truncated chunk " + chunkId + " in " + file.getAbsolutePath());
+                    }
+                    raw = ByteBuffer.wrap(data);
+                } else if (codec == CODEC_NONE) {
+                    raw = stored;
+                } else {
+                    throw new IOException("Unknown codec " + codec + " in " + file.getAbsolutePath());
+                }
+                return decodeChunk(raw);
+            } catch (DataFormatException | RuntimeException ex) {
+                throw new IOException("Corrupted chunk " + chunkId + " in " + file.getAbsolutePath(), ex);
+            }
+        }
+
+        /**
+         * @return All the archived paths
+         * @throws IOException If a chunk is corrupted
+         */
+        public List<PropagationPath> readAll() throws IOException {
+            List<PropagationPath> paths = new ArrayList<>((int) Math.min(Integer.MAX_VALUE, pathCount));
+            for (int chunkId = 0; chunkId < chunkOffsets.length; chunkId++) {
+                paths.addAll(readChunk(chunkId));
+            }
+            return paths;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+    }
+}
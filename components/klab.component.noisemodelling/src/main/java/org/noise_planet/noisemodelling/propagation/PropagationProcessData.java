@@ -71,6 +71,8 @@ public class PropagationProcessData {
     public QueryGeometryStructure sourcesIndex = new QueryRTree();
     /** Sources geometries. Can be LINESTRING or POINT */
     public List<Geometry> sourceGeometries = new ArrayList<>();
+    /** Sources power spectrum (W), empty if the emission of the sources is not provided */
+    public List<double[]> sourcesEmission = new ArrayList<>();
     /** Maximum reflexion order */
     public int reflexionOrder = 1;
     /** Compute diffraction rays over vertical edges */
@@ -122,6 +124,21 @@ public class PropagationProcessData {
         addSource(pk, geom);
     }
 
+    /**
+     * Add a source with its emission
+     * @param pk Unique source identifier
+     * @param geom Source geometry
+     * @param emission Power spectrum (W) of the source, see {@link #getSourceEmission(int)}
+     * @throws IllegalStateException If previous sources have been added without emission
+     */
+    public void addSource(Long pk, Geometry geom, double[] emission) {
+        if(sourcesEmission.size() != sourceGeometries.size()) {
+            throw new IllegalStateException("The emission of the previous sources has not been provided");
+        }
+        addSource(pk, geom);
+        sourcesEmission.add(emission);
+    }
+
     public void setSources(List<Geometry> sourceGeometries) {
         int i = 0;
         for(Geometry source : sourceGeometries) {
@@ -139,6 +156,18 @@ public class PropagationProcessData {
         return new double[0];
     }
 
+    /**
+     * Optional - Return the power spectrum of the sound source, used to weight its attenuation when the receiver
+     * levels are aggregated ({@link ComputeRaysOut#enableReceiverLevelsAggregation(int)}). Unlike
+     * {@link #getMaximalSourcePower(int)}, only an upper bound used to stop the source iteration, this is the actual
+     * emission of the source.
+     * @param sourceId Source identifier (index in {@link PropagationProcessData#sourceGeometries})
+     * @return power spectrum (W) or empty array
+     */
+    public double[] getSourceEmission(int sourceId) {
+        return sourceId < sourcesEmission.size() ? sourcesEmission.get(sourceId) : new double[0];
+    }
+
 
     public void addSoilType(GeoWithSoilType soilType) {
         soilList.add(soilType);
@@ -0,0 +1,88 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Append levels to a binary file. A header (magic, version, frequency band count) is written when the file is
+ * created, then each record is (big endian) receiver identifier (long), source identifier (long) and one double per
+ * frequency band.
+ */
+public class ReceiverLevelsFileSink implements ReceiverLevelsSink {
+    public static final int MAGIC = 0x4E4D524C; // NMRL
+    public static final int VERSION = 1;
+    private final int bandCount;
+    private final DataOutputStream out;
+
+    /**
+     * @param file Output file, records are appended if the file already exists
+     * @param bandCount Number of frequency bands of each record
+     * @throws IOException
+     */
+    public ReceiverLevelsFileSink(File file, int bandCount) throws IOException {
+        this.bandCount = bandCount;
+        boolean newFile = !file.exists() || file.length() == 0;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        if (newFile) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(bandCount);
+        }
+    }
+
+    @Override
+    public void write(List<ComputeRaysOut.verticeSL> levels) throws IOException {
+        for (ComputeRaysOut.verticeSL level : levels) {
+            if (level.value.length != bandCount) {
+                throw new IOException("Expected " + bandCount + " frequency bands, got " + level.value.length);
+            }
+            out.writeLong(level.receiverId);
+            out.writeLong(level.sourceId);
+            for (double value : level.value) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineSegment;
+
+/**
+ * Cache of the horizontal diffraction structures of a cell, shared by all the threads of the cell.
+ * Side hulls are made of building corners, whose planar location does not depend on the source and the receiver,
+ * so the buildings crossed by a hull side and the corners of a building are computed once for all the paths of the
+ * cell. Crossed buildings are kept in a bounded LRU map keyed by the planar segment.
+ * The hull of a source, a receiver and a set of buildings is kept in a second bounded LRU map, so the left and the
+ * right side searches of a path share the hull of the buildings crossed by the direct path, and the hull sides
+ * already found free of other buildings.
+ */
+public class SideHullCache {
+    private final FastObstructionTest freeFieldFinder;
+    private final int maximumSize;
+    private final Map<LineSegment, int[]> segmentBuildings;
+    private final Map<ClusterKey, ClusterHull> clusterHulls;
+    private final AtomicReferenceArray<Coordinate[]> roofPoints;
+    private final AtomicReferenceArray<Coordinate[]> roofHulls;
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    /**
+     * @param freeFieldFinder Mesh of the cell
+     * @param maximumSize Maximum number of segments and of cluster hulls kept in the cache, 0 to disable the segments
+     *                    and the cluster hulls caches
+     */
+    public SideHullCache(FastObstructionTest freeFieldFinder, final int maximumSize) {
+        this.freeFieldFinder = freeFieldFinder;
+        this.maximumSize = maximumSize;
+        this.segmentBuildings = new LinkedHashMap<LineSegment, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LineSegment, int[]> eldest) {
+                return size() > maximumSize;
+            }
+        };
+        this.clusterHulls = new LinkedHashMap<ClusterKey, ClusterHull>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ClusterKey, ClusterHull> eldest) {
+                return size() > maximumSize;
+            }
+        };
+        int buildingCount = freeFieldFinder.getPolygonWithHeight().size();
+        this.roofPoints = new AtomicReferenceArray<>(buildingCount);
+        this.roofHulls = new AtomicReferenceArray<>(buildingCount);
+    }
+
+    /**
+     * @param p1 First point
+     * @param p2 Second point
+     * @return Identifier of the buildings that intersects the planar segment, in the visit order of the buildings
+     * R-Tree query (not sorted by identifier), the same order than {@link FastObstructionTest#getBuildingsOnPath}
+     */
+    public int[] getBuildingsOnPath(Coordinate p1, Coordinate p2) {
+        LineSegment key = null;
+        if(maximumSize > 0) {
+            key = new LineSegment(new Coordinate(p1.x, p1.y), new Coordinate(p2.x, p2.y));
+            key.normalize();
+            int[] buildings;
+            synchronized (segmentBuildings) {
+                buildings = segmentBuildings.get(key);
+            }
+            if(buildings != null) {
+                hitCount.incrementAndGet();
+                return buildings;
+            }
+            missCount.incrementAndGet();
+        }
+        BuildingCollector collector = new BuildingCollector(freeFieldFinder.getPolygonWithHeight(), p1, p2);
+        freeFieldFinder.getBuildingsOnPath(p1, p2, collector);
+        int[] buildings = new int[collector.buildings.size()];
+        for(int i = 0; i < buildings.length; i++) {
+            buildings[i] = collector.buildings.get(i);
+        }
+        if(key != null) {
+            synchronized (segmentBuildings) {
+                segmentBuildings.put(key, buildings);
+            }
+        }
+        return buildings;
+    }
+
+    /**
+     * @param buildingId Building identifier [1-n]
+     * @return Closed ring of the building corners, see {@link FastObstructionTest#getWideAnglePointsByBuilding}.
+     * The coordinates must not be modified.
+     */
+    public Coordinate[] getRoofPoints(int buildingId) {
+        Coordinate[] points = roofPoints.get(buildingId - 1);
+        if(points == null) {
+            points = freeFieldFinder.getWideAnglePointsByBuilding(buildingId, 0, 2 * Math.PI)
+                    .toArray(new Coordinate[0]);
+            if(!roofPoints.compareAndSet(buildingId - 1, null, points)) {
+                points = roofPoints.get(buildingId - 1);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * @param buildingId Building identifier [1-n]
+     * @return Convex vertices of the planar hull of the building corners. The coordinates must not be modified.
+     */
+    public Coordinate[] getRoofHull(int buildingId) {
+        Coordinate[] hull = roofHulls.get(buildingId - 1);
+        if(hull == null) {
+            hull = new IncrementalConvexHull(getRoofPoints(buildingId)).toArray();
+            if(!roofHulls.compareAndSet(buildingId - 1, null, hull)) {
+                hull = roofHulls.get(buildingId - 1);
+            }
+        }
+        return hull;
+    }
+
+    /**
+     * @param p1 First point of the path
+     * @param p2 Second point of the path
+     * @param buildings Identifier of the buildings of the hull
+     * @return Hull of the path points and of the cuts of the buildings, null if not computed yet
+     */
+    public ClusterHull getClusterHull(Coordinate p1, Coordinate p2, Collection<Integer> buildings) {
+        if(maximumSize <= 0) {
+            return null;
+        }
+        ClusterKey key = new ClusterKey(p1, p2, buildings);
+        synchronized (clusterHulls) {
+            return clusterHulls.get(key);
+        }
+    }
+
+    /**
+     * @param p1 First point of the path
+     * @param p2 Second point of the path
+     * @param buildings Identifier of the buildings of the hull
+     * @param hull Hull of the path points and of the cuts of the buildings, must not be modified afterwards
+     * @return Cached hull, the one of another thread if it has been stored first
+     */
+    public ClusterHull putClusterHull(Coordinate p1, Coordinate p2, Collection<Integer> buildings,
+                                      IncrementalConvexHull hull) {
+        ClusterHull clusterHull = new ClusterHull(hull);
+        if(maximumSize <= 0) {
+            return clusterHull;
+        }
+        ClusterKey key = new ClusterKey(p1, p2, buildings);
+        synchronized (clusterHulls) {
+            ClusterHull previous = clusterHulls.get(key);
+            if(previous != null) {
+                return previous;
+            }
+            clusterHulls.put(key, clusterHull);
+        }
+        return clusterHull;
+    }
+
+    /**
+     * @return Number of segments answered from the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return Number of segments that have been tested against buildings
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Hull of a path and of a set of buildings, with the hull sides free of other buildings
+     */
+    public static final class ClusterHull {
+        private final IncrementalConvexHull hull;
+        private final Set<LineSegment> freeSides = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        ClusterHull(IncrementalConvexHull hull) {
+            this.hull = hull;
+        }
+
+        /**
+         * @return Copy of the hull, that can be grown with other buildings
+         */
+        public IncrementalConvexHull copyHull() {
+            return new IncrementalConvexHull(hull);
+        }
+
+        /**
+         * @param side Hull side
+         * @return True if the side does not cross any building out of the hull, above the path plane
+         */
+        public boolean isFreeSide(LineSegment side) {
+            return freeSides.contains(side);
+        }
+
+        /**
+         * @param side Hull side that does not cross any building out of the hull, above the path plane
+         */
+        public void addFreeSide(LineSegment side) {
+            freeSides.add(side);
+        }
+    }
+
+    /**
+     * Path points with their elevation, as the path plane depends on it, and sorted building identifiers
+     */
+    private static final class ClusterKey {
+        private final double[] points;
+        private final int[] buildings;
+        private final int hashCode;
+
+        ClusterKey(Coordinate p1, Coordinate p2, Collection<Integer> buildings) {
+            this.points = new double[] {p1.x, p1.y, p1.z, p2.x, p2.y, p2.z};
+            this.buildings = new int[buildings.size()];
+            int i = 0;
+            for(int buildingId : buildings) {
+                this.buildings[i++] = buildingId;
+            }
+            Arrays.sort(this.buildings);
+            this.hashCode = 31 * Arrays.hashCode(points) + Arrays.hashCode(this.buildings);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof ClusterKey)) {
+                return false;
+            }
+            ClusterKey other = (ClusterKey) o;
+            return hashCode == other.hashCode && Arrays.equals(points, other.points) &&
+                    Arrays.equals(buildings, other.buildings);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class BuildingCollector extends FastObstructionTest.IntersectionRayVisitor {
+        private final List<Integer> buildings = new ArrayList<>();
+
+        BuildingCollector(List<MeshBuilder.PolygonWithHeight> polygonWithHeight, Coordinate p1, Coordinate p2) {
+            super(polygonWithHeight, p1, p2);
+        }
+
+        @Override
+        public void addBuilding(int buildingId) {
+            buildings.add(buildingId);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Output that does not keep levels in memory. The levels of a receiver are pushed into a bounded queue as soon as
+ * {@link IComputeRaysOut#finalizeReceiver(long)} is called, a background thread drain this queue by batches into a
+ * {@link ReceiverLevelsSink}. When the sink is slower than the computation, the computation threads wait for free
+ * room in the queue so the heap usage does not depend on the number of receivers.
+ *
+ * Levels are streamed by the instances returned by {@link #subProcess(int, int)}, as used by {@link ComputeRays}.
+ * {@link #close()} must be called once the computation is done.
+ */
+public class StreamingRaysOut extends ComputeRaysOut implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingRaysOut.class);
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    // Marker pushed by close to stop the writer thread
+    private static final verticeSL END_OF_STREAM = new verticeSL(-1, -1, new double[0]);
+    private final BlockingQueue<verticeSL> queue;
+    private final ReceiverLevelsSink sink;
+    private final int batchSize;
+    private final Thread writerThread;
+    // Exception or error that stopped the writer thread
+    private volatile Throwable writerError;
+
+    /**
+     * @param pathData Atmospheric parameters
+     * @param inputData Cell data, used to retrieve receivers and sources primary keys
+     * @param sink Destination of levels
+     */
+    public StreamingRaysOut(PropagationProcessPathData pathData, PropagationProcessData inputData,
+                            ReceiverLevelsSink sink) {
+        this(pathData, inputData, sink, DEFAULT_QUEUE_SIZE, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param pathData Atmospheric parameters
+     * @param inputData Cell data, used to retrieve receivers and sources primary keys
+     * @param sink Destination of levels
+     * @param queueSize Maximum number of levels waiting for the writer thread
+     * @param batchSize Maximum number of levels given to the sink at once
+     */
+    public StreamingRaysOut(PropagationProcessPathData pathData, PropagationProcessData inputData,
+                            ReceiverLevelsSink sink, int queueSize, int batchSize) {
+        super(false, pathData, inputData);
+        this.sink = sink;
+        this.batchSize = Math.max(1, batchSize);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        writerThread = new Thread(new LevelsWriter(), "noisemodelling-levels-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Push levels into the queue, wait if the queue is full
+     */
+    void push(verticeSL level) {
+        checkWriter();
+        try {
+            while (!queue.offer(level, 1, TimeUnit.SECONDS)) {
+                checkWriter();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the levels writer", ex);
+        }
+    }
+
+    private void checkWriter() {
+        if (writerError != null) {
+            throw new IllegalStateException("Levels writer failed", writerError);
+        }
+    }
+
+    @Override
+    public IComputeRaysOut subProcess(int receiverStart, int receiverEnd) {
+        return new StreamingThreadRaysOut(this);
+    }
+
+    /**
+     * Wait for the writer thread to write all the queued levels then close the sink
+     * @throws IOException Error raised by the sink, runtime exceptions and errors of the sink are thrown as is
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (writerThread.isAlive()) {
+                while (writerError == null && !queue.offer(END_OF_STREAM, 1, TimeUnit.SECONDS)) {
+                    LOGGER.debug("Waiting for the levels writer");
+                }
+                writerThread.join();
+            }
+        } catch (InterruptedException ex) {
+            writerThread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the levels writer", ex);
+        } finally {
+            sink.close();
+        }
+        Throwable error = writerError;
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new IOException("Levels writer failed", error);
+        }
+    }
+
+    private final class LevelsWriter implements Runnable {
+        @Override
+        public void run() {
+            List<verticeSL> batch = new ArrayList<>(batchSize);
+            try {
+                boolean endOfStream = false;
+                while (!endOfStream) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, batchSize - 1);
+                    if (batch.get(batch.size() - 1) == END_OF_STREAM) {
+                        batch.remove(batch.size() - 1);
+                        endOfStream = true;
+                    }
+                    if (!batch.isEmpty()) {
+                        sink.write(batch);
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException ex) {
+                writerError = new IOException("Levels writer interrupted", ex);
+                queue.clear();
+            } catch (IOException | RuntimeException | Error ex) {
+                LOGGER.error(ex.getLocalizedMessage(), ex);
+                writerError = ex;
+                // Release computation threads waiting for room
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Merge the sources of a receiver then push them into the queue of the parent
+     */
+    public static class StreamingThreadRaysOut extends ThreadRaysOut {
+        private final StreamingRaysOut streamingParent;
+
+        public StreamingThreadRaysOut(StreamingRaysOut streamingParent) {
+            super(streamingParent);
+            this.streamingParent = streamingParent;
+        }
+
+        @Override
+        protected void pushResult(long receiverId, long sourceId, double[] level) {
+            streamingParent.push(new verticeSL(receiverId, sourceId, level));
+        }
+    }
+}
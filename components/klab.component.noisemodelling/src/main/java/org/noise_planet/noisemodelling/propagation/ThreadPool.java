@@ -33,9 +33,12 @@
  */
 package org.noise_planet.noisemodelling.propagation;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
@@ -51,6 +54,11 @@ import org.h2gis.api.EmptyProgressVisitor;
  */
 public class ThreadPool extends ThreadPoolExecutor {
 	ProgressVisitor progressVisitor = new EmptyProgressVisitor();
+	/** Guard of {@link #blockingTasks}, notified when a task ends or on cancellation */
+	private final Object slotLock = new Object();
+	/** Tasks submitted by {@link #executeBlocking(Runnable)} and not yet finished */
+	private int blockingTasks = 0;
+	private final CancelListener cancelListener = new CancelListener();
 
 	/**
 	 * Default constructor. Set CorePoolSize size to 32 Set Maximum pool size to
@@ -125,8 +133,19 @@ public class ThreadPool extends ThreadPoolExecutor {
 				threadFactory);
 	}
 
+	/**
+	 * @param progressVisitor Cancellation of this visitor wake up and release the callers of
+	 * {@link #executeBlocking(Runnable)}. Null is equivalent to a visitor that is never canceled, and
+	 * unregister the pool from the previous visitor.
+	 */
 	public void setProgressVisitor(ProgressVisitor progressVisitor) {
-		this.progressVisitor = progressVisitor;
+		this.progressVisitor.removePropertyChangeListener(cancelListener);
+		if (progressVisitor == null) {
+			this.progressVisitor = new EmptyProgressVisitor();
+		} else {
+			this.progressVisitor = progressVisitor;
+			this.progressVisitor.addPropertyChangeListener(ProgressVisitor.PROPERTY_CANCELED, cancelListener);
+		}
 	}
 
 	/**
@@ -152,18 +171,71 @@ public class ThreadPool extends ThreadPoolExecutor {
 	 * cannot be submitted for execution, either because this executor has been
 	 * shutdown or because its capacity has been reached, the task is handled by
 	 * the current RejectedExecutionHandler.
+	 * The caller is parked until a previously submitted task ends or the progress visitor is canceled,
+	 * in the later case the command is not executed.
 	 * 
 	 * @param command
 	 */
 	public void executeBlocking(Runnable command) {
-		while (this.getQueue().size() + this.getActiveCount() >= this
-				.getMaximumPoolSize() && !progressVisitor.isCanceled()) {
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
+		synchronized (slotLock) {
+			while (blockingTasks >= getMaximumPoolSize() && !progressVisitor.isCanceled()) {
+				try {
+					slotLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return; // do not execute
+				}
+			}
+			if (progressVisitor.isCanceled()) {
 				return; // do not execute
 			}
+			blockingTasks++;
+		}
+		try {
+			super.execute(new BlockingTask(command));
+		} catch (RejectedExecutionException ex) {
+			releaseSlot();
+			throw ex;
+		}
+	}
+
+	private void releaseSlot() {
+		synchronized (slotLock) {
+			blockingTasks--;
+			slotLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Free the slot of the wrapped command even if it run in the caller thread
+	 * (CallerRunsPolicy) or throws an exception.
+	 */
+	private final class BlockingTask implements Runnable {
+		private final Runnable command;
+
+		BlockingTask(Runnable command) {
+			this.command = command;
+		}
+
+		@Override
+		public void run() {
+			try {
+				command.run();
+			} finally {
+				releaseSlot();
+			}
+		}
+	}
+
+	/**
+	 * Wake up the callers waiting for a slot as soon as the process is canceled.
+	 */
+	private final class CancelListener implements PropertyChangeListener {
+		@Override
+		public void propertyChange(PropertyChangeEvent evt) {
+			synchronized (slotLock) {
+				slotLock.notifyAll();
+			}
 		}
-		super.execute(command);
 	}
 }
@@ -0,0 +1,234 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Struct of arrays storage of a triangulated mesh. Triangle i use vertices
+ * {@code triVertices[3 * i]}, {@code triVertices[3 * i + 1]}, {@code triVertices[3 * i + 2]} (a, b, c) and the
+ * neighbor {@code triNeighbors[3 * i + side]} is the triangle on the other side of the edge opposite to the vertex
+ * {@code side} (see {@link Triangle#getSegment(int)}), -1 if there is no neighbor.
+ */
+public final class TriangleMesh {
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final int[] triVertices;
+    private final int[] triNeighbors;
+    private final int[] triAttribute;
+
+    /**
+     * @param x Vertices X
+     * @param y Vertices Y
+     * @param z Vertices Z
+     * @param triVertices Vertex index a,b,c of each triangle
+     * @param triNeighbors Triangle index of each triangle side, may be null if neighbors are not computed
+     * @param triAttribute Building identifier [1-n] of each triangle, 0 if not in a building
+     */
+    public TriangleMesh(double[] x, double[] y, double[] z, int[] triVertices, int[] triNeighbors,
+                        int[] triAttribute) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.triVertices = triVertices;
+        this.triNeighbors = triNeighbors;
+        this.triAttribute = triAttribute;
+    }
+
+    /**
+     * Copy delaunay output into arrays
+     * @param triangles Triangles
+     * @param neighbors Neighbors of triangles, may be null
+     * @param vertices Vertices
+     */
+    public TriangleMesh(List<Triangle> triangles, List<Triangle> neighbors, List<Coordinate> vertices) {
+        int vertexCount = vertices.size();
+        x = new double[vertexCount];
+        y = new double[vertexCount];
+        z = new double[vertexCount];
+        for(int i = 0; i < vertexCount; i++) {
+            Coordinate vertex = vertices.get(i);
+            x[i] = vertex.x;
+            y[i] = vertex.y;
+            z[i] = vertex.z;
+        }
+        int triangleCount = triangles.size();
+        triVertices = new int[triangleCount * 3];
+        triAttribute = new int[triangleCount];
+        for(int i = 0; i < triangleCount; i++) {
+            Triangle triangle = triangles.get(i);
+            triVertices[i * 3] = triangle.getA();
+            triVertices[i * 3 + 1] = triangle.getB();
+            triVertices[i * 3 + 2] = triangle.getC();
+            triAttribute[i] = triangle.getAttribute();
+        }
+        if(neighbors != null) {
+            triNeighbors = new int[triangleCount * 3];
+            for(int i = 0; i < triangleCount; i++) {
+                Triangle neighbor = neighbors.get(i);
+                triNeighbors[i * 3] = neighbor.getA();
+                triNeighbors[i * 3 + 1] = neighbor.getB();
+                triNeighbors[i * 3 + 2] = neighbor.getC();
+            }
+        } else {
+            triNeighbors = null;
+        }
+    }
+
+    public int getVertexCount() {
+        return x.length;
+    }
+
+    public int getTriangleCount() {
+        return triAttribute.length;
+    }
+
+    /**
+     * @return True if neighbors of triangles are available
+     */
+    public boolean hasNeighbors() {
+        return triNeighbors != null;
+    }
+
+    public double getX(int vertexId) {
+        return x[vertexId];
+    }
+
+    public double getY(int vertexId) {
+        return y[vertexId];
+    }
+
+    public double getZ(int vertexId) {
+        return z[vertexId];
+    }
+
+    /**
+     * @param triangleId Triangle index
+     * @param vertex Vertex of the triangle [0-2]
+     * @return Vertex index
+     */
+    public int getVertex(int triangleId, int vertex) {
+        return triVertices[triangleId * 3 + vertex];
+    }
+
+    /**
+     * @param triangleId Triangle index
+     * @param side Side of the triangle [0-2], opposite to the vertex of the same index
+     * @return Neighbor triangle index or -1
+     */
+    public int getNeighbor(int triangleId, int side) {
+        return triNeighbors[triangleId * 3 + side];
+    }
+
+    /**
+     * @param triangleId Triangle index
+     * @return Building identifier [1-n], 0 if not in a building
+     */
+    public int getAttribute(int triangleId) {
+        return triAttribute[triangleId];
+    }
+
+    /**
+     * @param vertexId Vertex index
+     * @return New coordinate instance of this vertex
+     */
+    public Coordinate getCoordinate(int vertexId) {
+        return new Coordinate(x[vertexId], y[vertexId], z[vertexId]);
+    }
+
+    double[] getXArray() {
+        return x;
+    }
+
+    double[] getYArray() {
+        return y;
+    }
+
+    double[] getZArray() {
+        return z;
+    }
+
+    int[] getTriVerticesArray() {
+        return triVertices;
+    }
+
+    int[] getTriNeighborsArray() {
+        return triNeighbors;
+    }
+
+    int[] getTriAttributeArray() {
+        return triAttribute;
+    }
+
+    /**
+     * @return Triangles as objects, for debug and export purpose
+     */
+    public List<Triangle> toTriangleList() {
+        List<Triangle> triangles = new ArrayList<>(getTriangleCount());
+        for(int i = 0; i < getTriangleCount(); i++) {
+            triangles.add(new Triangle(triVertices[i * 3], triVertices[i * 3 + 1], triVertices[i * 3 + 2],
+                    triAttribute[i]));
+        }
+        return triangles;
+    }
+
+    /**
+     * @return Neighbors of triangles as objects, null if neighbors are not computed
+     */
+    public List<Triangle> toNeighborList() {
+        if(triNeighbors == null) {
+            return null;
+        }
+        List<Triangle> neighbors = new ArrayList<>(getTriangleCount());
+        for(int i = 0; i < getTriangleCount(); i++) {
+            neighbors.add(new Triangle(triNeighbors[i * 3], triNeighbors[i * 3 + 1], triNeighbors[i * 3 + 2]));
+        }
+        return neighbors;
+    }
+
+    /**
+     * @return Vertices as objects, for debug and export purpose
+     */
+    public List<Coordinate> toCoordinateList() {
+        List<Coordinate> coordinates = new ArrayList<>(getVertexCount());
+        for(int i = 0; i < getVertexCount(); i++) {
+            coordinates.add(getCoordinate(i));
+        }
+        return coordinates;
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.Arrays;
+
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Point location in a triangle mesh by walking through triangle neighbors. The walk start from a triangle
+ * registered in a coarse regular grid for the cell of the searched point, then jump to the neighbor on the other
+ * side of an edge that separate the current triangle from the point, until the containing triangle is reached.
+ * No object is allocated while locating a point.
+ */
+final class TriangleWalkLocator {
+    // Average number of triangles in a grid cell
+    private static final int TRIANGLES_PER_CELL = 4;
+    private static final int MAXIMUM_GRID_SIDE = 1024;
+    private static final int MINIMAL_WALK_STEPS = 64;
+    private final TriangleMesh mesh;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final int gridSide;
+    private final int[] seeds;
+    private final int maximumSteps;
+
+    /**
+     * @param mesh Mesh with neighbors
+     * @param envelope Envelope of mesh vertices
+     */
+    TriangleWalkLocator(TriangleMesh mesh, Envelope envelope) {
+        this.mesh = mesh;
+        int triangleCount = mesh.getTriangleCount();
+        gridSide = (int) Math.max(1, Math.min(MAXIMUM_GRID_SIDE,
+                Math.ceil(Math.sqrt(triangleCount / (double) TRIANGLES_PER_CELL))));
+        minX = envelope.getMinX();
+        minY = envelope.getMinY();
+        maxX = envelope.getMaxX();
+        maxY = envelope.getMaxY();
+        cellWidth = envelope.getWidth() > 0 ? envelope.getWidth() / gridSide : 1;
+        cellHeight = envelope.getHeight() > 0 ? envelope.getHeight() / gridSide : 1;
+        seeds = new int[gridSide * gridSide];
+        Arrays.fill(seeds, -1);
+        for (int triId = 0; triId < triangleCount; triId++) {
+            int a = mesh.getVertex(triId, 0);
+            int b = mesh.getVertex(triId, 1);
+            int c = mesh.getVertex(triId, 2);
+            double cx = (mesh.getX(a) + mesh.getX(b) + mesh.getX(c)) / 3;
+            double cy = (mesh.getY(a) + mesh.getY(b) + mesh.getY(c)) / 3;
+            seeds[getCellIndex(cx, cy)] = triId;
+        }
+        // Empty cells take the seed of the nearest filled cell in row order
+        int lastSeed = -1;
+        for (int i = 0; i < seeds.length; i++) {
+            if (seeds[i] == -1) {
+                seeds[i] = lastSeed;
+            } else {
+                lastSeed = seeds[i];
+            }
+        }
+        lastSeed = -1;
+        for (int i = seeds.length - 1; i >= 0; i--) {
+            if (seeds[i] == -1) {
+                seeds[i] = lastSeed;
+            } else {
+                lastSeed = seeds[i];
+            }
+        }
+        maximumSteps = MINIMAL_WALK_STEPS + 6 * gridSide;
+    }
+
+    private int getCellIndex(double x, double y) {
+        int i = Math.max(0, Math.min(gridSide - 1, (int) ((x - minX) / cellWidth)));
+        int j = Math.max(0, Math.min(gridSide - 1, (int) ((y - minY) / cellHeight)));
+        return j * gridSide + i;
+    }
+
+    /**
+     * @return Twice the signed area of the triangle (vertex a, vertex b, point p)
+     */
+    private double orientation(int va, int vb, double px, double py) {
+        double ax = mesh.getX(va);
+        double ay = mesh.getY(va);
+        return (mesh.getX(vb) - ax) * (py - ay) - (mesh.getY(vb) - ay) * (px - ax);
+    }
+
+    /**
+     * @param px X of the point
+     * @param py Y of the point
+     * @return Triangle that contains the point, -1 if the point is outside of the mesh or if the walk did not
+     * converge
+     */
+    int locate(double px, double py) {
+        if (px < minX || px > maxX || py < minY || py > maxY) {
+            return -1;
+        }
+        int triId = seeds[getCellIndex(px, py)];
+        for (int step = 0; step < maximumSteps && triId >= 0; step++) {
+            int nextTri = triId;
+            // Rotate the first tested side in order to not loop forever in non Delaunay areas
+            for (int i = 0; i < 3; i++) {
+                int side = (i + step) % 3;
+                int va = mesh.getVertex(triId, (side + 1) % 3);
+                int vb = mesh.getVertex(triId, (side + 2) % 3);
+                int vs = mesh.getVertex(triId, side);
+                double pointOrientation = orientation(va, vb, px, py);
+                double vertexOrientation = orientation(va, vb, mesh.getX(vs), mesh.getY(vs));
+                if (pointOrientation * vertexOrientation < 0) {
+                    // The edge separate the point from the triangle
+                    nextTri = mesh.getNeighbor(triId, side);
+                    break;
+                }
+            }
+            if (nextTri == triId) {
+                return FastObstructionTest.dotInTri(mesh, px, py, triId) ? triId : -1;
+            }
+            triId = nextTri;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Bounded LRU cache of {@link FastObstructionTest#getLimitsInRange(double, Coordinate, boolean)} queries, shared by
+ * all the threads of a cell. Query points are snapped to a regular grid. The walls of a grid cell are fetched from a
+ * point queried in the cell, with a search distance extended by the cell diagonal, then filtered for each query point
+ * with the exact distance. The walk only reaches the free field connected to this point, so the walls are reused only
+ * for the query points located in a triangle of the walk. Points of the same grid cell in another free field region
+ * (a courtyard, the other side of a building) start a new walk kept as another region of the grid cell.
+ * The cache stores wall indices of the mesh walls table, returned lists are immutable and share the same wall
+ * instances, so walls keep the same identity between sources and receivers.
+ */
+public class WallQueryCache {
+    private final FastObstructionTest freeFieldFinder;
+    private final double maxDist;
+    private final double cellSize;
+    private final Map<Long, CellRegion[]> cellWalls;
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    /**
+     * @param freeFieldFinder Mesh of the cell
+     * @param maxDist Wall search distance
+     * @param cellSize Side of the grid cells in meters. The bigger it is, the more walls are fetched and filtered for
+     *                 each query
+     * @param maximumSize Maximum number of grid cells kept in the cache
+     */
+    public WallQueryCache(FastObstructionTest freeFieldFinder, double maxDist, double cellSize,
+                          final int maximumSize) {
+        this.freeFieldFinder = freeFieldFinder;
+        this.maxDist = maxDist;
+        this.cellSize = cellSize;
+        this.cellWalls = new LinkedHashMap<Long, CellRegion[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CellRegion[]> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * @param p1 Origin of search
+     * @return Walls within the search distance of p1
+     */
+    public List<FastObstructionTest.Wall> getLimitsInRange(Coordinate p1) {
+        int triId = freeFieldFinder.getTriangleIdByCoordinate(p1);
+        if(triId < 0 || freeFieldFinder.getMesh().getAttribute(triId) != 0) {
+            // Points in buildings do not share the walls of the surrounding free field
+            return Collections.unmodifiableList(freeFieldFinder.getLimitsInRange(maxDist, p1, false));
+        }
+        long cellX = (long) Math.floor(p1.x / cellSize);
+        long cellY = (long) Math.floor(p1.y / cellSize);
+        long key = (cellX << 32) | (cellY & 0xFFFFFFFFL);
+        CellRegion[] regions;
+        synchronized (cellWalls) {
+            regions = cellWalls.get(key);
+        }
+        CellRegion region = findRegion(regions, triId);
+        if(region == null) {
+            missCount.incrementAndGet();
+            int[][] walkedTriangles = new int[1][];
+            int[] walls = freeFieldFinder.getLimitsIndexInRange(maxDist + cellSize * Math.sqrt(2), p1, false,
+                    walkedTriangles);
+            region = new CellRegion(trianglesInCell(walkedTriangles[0], cellX, cellY), walls);
+            synchronized (cellWalls) {
+                regions = cellWalls.get(key);
+                CellRegion concurrentRegion = findRegion(regions, triId);
+                if(concurrentRegion == null) {
+                    if(regions == null) {
+                        regions = new CellRegion[] {region};
+                    } else {
+                        regions = Arrays.copyOf(regions, regions.length + 1);
+                        regions[regions.length - 1] = region;
+                    }
+                    cellWalls.put(key, regions);
+                } else {
+                    region = concurrentRegion;
+                }
+            }
+        } else {
+            hitCount.incrementAndGet();
+        }
+        List<FastObstructionTest.Wall> wallsInRange = new ArrayList<>(region.walls.length);
+        for(int wallIndex : region.walls) {
+            if(freeFieldFinder.getWallDistance(wallIndex, p1.x, p1.y) <= maxDist) {
+                wallsInRange.add(freeFieldFinder.getWall(wallIndex));
+            }
+        }
+        return Collections.unmodifiableList(wallsInRange);
+    }
+
+    private static CellRegion findRegion(CellRegion[] regions, int triId) {
+        if(regions != null) {
+            for(CellRegion region : regions) {
+                if(Arrays.binarySearch(region.triangles, triId) >= 0) {
+                    return region;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Sorted identifiers of the walked triangles that overlap the grid cell, other triangles cannot contain
+     * a query point of the grid cell
+     */
+    private int[] trianglesInCell(int[] walkedTriangles, long cellX, long cellY) {
+        double minX = cellX * cellSize;
+        double minY = cellY * cellSize;
+        double maxX = minX + cellSize;
+        double maxY = minY + cellSize;
+        TriangleMesh mesh = freeFieldFinder.getMesh();
+        int[] triangles = new int[walkedTriangles.length];
+        int count = 0;
+        for(int triId : walkedTriangles) {
+            double triMinX = Double.POSITIVE_INFINITY;
+            double triMinY = Double.POSITIVE_INFINITY;
+            double triMaxX = Double.NEGATIVE_INFINITY;
+            double triMaxY = Double.NEGATIVE_INFINITY;
+            for(int vertex = 0; vertex < 3; vertex++) {
+                int vertexId = mesh.getVertex(triId, vertex);
+                triMinX = Math.min(triMinX, mesh.getX(vertexId));
+                triMinY = Math.min(triMinY, mesh.getY(vertexId));
+                triMaxX = Math.max(triMaxX, mesh.getX(vertexId));
+                triMaxY = Math.max(triMaxY, mesh.getY(vertexId));
+            }
+            if(triMinX <= maxX && triMaxX >= minX && triMinY <= maxY && triMaxY >= minY) {
+                triangles[count++] = triId;
+            }
+        }
+        triangles = Arrays.copyOf(triangles, count);
+        Arrays.sort(triangles);
+        return triangles;
+    }
+
+    /**
+     * @return Number of queries answered from the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return Number of queries that computed the walls of a grid cell region
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Free field region of a grid cell, walls reachable from the triangles of the region
+     */
+    private static final class CellRegion {
+        private final int[] triangles;
+        private final int[] walls;
+
+        CellRegion(int[] triangles, int[] walls) {
+            this.triangles = triangles;
+            this.walls = walls;
+        }
+    }
+}
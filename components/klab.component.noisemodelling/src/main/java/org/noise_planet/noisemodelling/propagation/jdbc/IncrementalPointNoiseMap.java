@@ -0,0 +1,753 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation.jdbc;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.h2gis.api.ProgressVisitor;
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.SpatialResultSet;
+import org.h2gis.utilities.TableLocation;
+import org.noise_planet.noisemodelling.propagation.ComputeRays;
+import org.noise_planet.noisemodelling.propagation.ComputeRaysOut;
+import org.noise_planet.noisemodelling.propagation.IComputeRaysOut;
+import org.noise_planet.noisemodelling.propagation.PropagationProcessData;
+import org.noise_planet.noisemodelling.propagation.PropagationProcessPathData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKBWriter;
+
+/**
+ * Point noise map that keeps the level of each source/receiver couple into a contribution table, so that the next
+ * evaluations only compute what has been changed in the sources and buildings tables.
+ *
+ * The first evaluation computes all the cells. The next evaluations compare the rows of the sources and buildings
+ * tables with the state saved by the previous evaluation:
+ * - receivers closer than the maximum propagation distance plus the maximum reflection distance of an added, removed
+ * or modified building are computed again with all the sources;
+ * - other receivers closer than the maximum propagation distance of an added or modified source are computed with
+ * the changed sources only.
+ * The energy of the removed contributions is subtracted from the receiver levels table then the energy of the new
+ * contributions is added. Only the cells containing affected receivers are fetched and triangulated.
+ *
+ * Tables are named from the contribution table name: contributions (IDRECEIVER, IDSOURCE, HZ63, ...), receiver
+ * levels NAME_RECEIVERS (IDRECEIVER, HZ63, ...) and states NAME_SOURCES_STATE, NAME_BUILDINGS_STATE. Drop the
+ * contribution table in order to force a complete evaluation, ex. when receivers are changed.
+ *
+ * Cell outputs must be {@link ComputeRaysOut} instances with the attenuation kept for each couple. The power of
+ * the sources is added to the attenuation, so the cell data must provide the power spectrum (W) of each source with
+ * {@link PropagationProcessData#getMaximalSourcePower(int)}, see
+ * {@link #setPropagationProcessDataFactory(PropagationProcessDataFactory)}. Sources and buildings tables must have
+ * an integer primary key. {@link #maximumError} should be disabled, as the sources skipped for a receiver depend on
+ * all the other sources.
+ */
+public class IncrementalPointNoiseMap extends PointNoiseMap {
+    private Logger logger = LoggerFactory.getLogger(IncrementalPointNoiseMap.class);
+    // Receiver energy lower than this ratio of the previous energy after a subtraction is summed again from the
+    // contributions, in order to avoid cancellation errors
+    private static final double CANCELLATION_RATIO = 1e-6;
+    private static final int BATCH_SIZE = 1000;
+    private final String contributionTableName;
+
+    /**
+     * @param buildingsTableName Buildings table, with an integer primary key
+     * @param sourcesTableName Sources table, with an integer primary key
+     * @param receiverTableName Receivers table
+     * @param contributionTableName Table of source/receiver levels, created by the first evaluation
+     */
+    public IncrementalPointNoiseMap(String buildingsTableName, String sourcesTableName, String receiverTableName,
+                                    String contributionTableName) {
+        super(buildingsTableName, sourcesTableName, receiverTableName);
+        this.contributionTableName = contributionTableName;
+    }
+
+    /**
+     * @return Table of source/receiver levels
+     */
+    public String getContributionTableName() {
+        return contributionTableName;
+    }
+
+    /**
+     * @return Table of receiver levels, energetic sum of all the contributions of each receiver
+     */
+    public String getReceiverLevelsTableName() {
+        return contributionTableName + "_RECEIVERS";
+    }
+
+    private String getSourcesStateTableName() {
+        return contributionTableName + "_SOURCES_STATE";
+    }
+
+    private String getBuildingsStateTableName() {
+        return contributionTableName + "_BUILDINGS_STATE";
+    }
+
+    /**
+     * Evaluate all the receivers if the contribution table does not exist, else only the receivers affected by the
+     * changes of the sources and buildings tables since the previous evaluation.
+     * {@link #initialize(Connection, ProgressVisitor)} must be called before. The tables are updated within a single
+     * transaction, rolled back if the evaluation fails.
+     * @param connection JDBC Connection
+     * @param progression Progression info, may be null
+     * @return Number of receivers with an updated level
+     * @throws SQLException
+     */
+    public long evaluate(Connection connection, ProgressVisitor progression) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        boolean fullEvaluation = false;
+        try {
+            Map<Long, RowState> sources = readTableState(connection, sourcesTableName);
+            Map<Long, RowState> buildings = readTableState(connection, buildingsTableName);
+            long updatedReceivers;
+            if(!JDBCUtilities.tableExists(connection, contributionTableName)) {
+                fullEvaluation = true;
+                updatedReceivers = evaluateAll(connection, progression);
+            } else {
+                updatedReceivers = evaluateChanges(connection, progression, sources, buildings);
+            }
+            saveTableState(connection, getSourcesStateTableName(), sources);
+            saveTableState(connection, getBuildingsStateTableName(), buildings);
+            connection.commit();
+            return updatedReceivers;
+        } catch (SQLException | RuntimeException | Error ex) {
+            rollback(connection, fullEvaluation);
+            throw ex;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Cancel the changes of a failed evaluation
+     * @param fullEvaluation True if the contribution table has been created by the failed evaluation
+     */
+    private void rollback(Connection connection, boolean fullEvaluation) {
+        try {
+            connection.rollback();
+            if(fullEvaluation) {
+                // Table creation may be committed by the database, drop it so that the next evaluation computes
+                // all the receivers again
+                try (Statement st = connection.createStatement()) {
+                    st.execute("DROP TABLE IF EXISTS " + TableLocation.parse(contributionTableName));
+                }
+                connection.commit();
+            }
+        } catch (SQLException ex) {
+            logger.error("Cannot roll back the incremental evaluation", ex);
+        }
+    }
+
+    private long evaluateAll(Connection connection, ProgressVisitor progression) throws SQLException {
+        createTables(connection);
+        Set<Long> savedReceiverFilter = getReceiverFilter();
+        Set<Long> savedSourceFilter = getSourceFilter();
+        setReceiverFilter(null);
+        setSourceFilter(null);
+        try (ContributionWriter writer = new ContributionWriter(connection, new HashMap<Long, double[]>(), true)) {
+            evaluateAllCells(connection, progression, writer);
+            return writer.insertedReceivers;
+        } finally {
+            setReceiverFilter(savedReceiverFilter);
+            setSourceFilter(savedSourceFilter);
+        }
+    }
+
+    private long evaluateChanges(Connection connection, ProgressVisitor progression, Map<Long, RowState> sources,
+                                 Map<Long, RowState> buildings) throws SQLException {
+        Map<Long, RowState> previousSources = readSavedState(connection, getSourcesStateTableName());
+        Map<Long, RowState> previousBuildings = readSavedState(connection, getBuildingsStateTableName());
+        // Added or modified sources
+        Set<Long> changedSources = new HashSet<>();
+        // Removed or modified sources
+        Set<Long> obsoleteSources = new HashSet<>();
+        List<Envelope> sourceEnvelopes = new ArrayList<>();
+        diff(previousSources, sources, changedSources, obsoleteSources, sourceEnvelopes, null);
+        List<Envelope> buildingEnvelopes = new ArrayList<>();
+        diff(previousBuildings, buildings, new HashSet<Long>(), new HashSet<Long>(), buildingEnvelopes,
+                buildingEnvelopes);
+        if(sourceEnvelopes.isEmpty() && obsoleteSources.isEmpty() && buildingEnvelopes.isEmpty()) {
+            return 0;
+        }
+        Map<Long, Coordinate> buildingReceivers = fetchReceivers(connection, buildingEnvelopes,
+                maximumPropagationDistance + maximumReflectionDistance);
+        Map<Long, Coordinate> sourceReceivers = fetchReceivers(connection, sourceEnvelopes,
+                maximumPropagationDistance);
+        sourceReceivers.keySet().removeAll(buildingReceivers.keySet());
+        if(verbose) {
+            logger.info(String.format("%d sources changed, %d sources removed or modified, %d buildings changes, " +
+                            "%d receivers computed with all sources, %d receivers computed with changed sources",
+                    changedSources.size(), obsoleteSources.size(), buildingEnvelopes.size(),
+                    buildingReceivers.size(), sourceReceivers.size()));
+        }
+        // Subtract obsolete contributions
+        Map<Long, double[]> deltaEnergy = new HashMap<>();
+        removeContributions(connection, "IDRECEIVER", buildingReceivers.keySet(), deltaEnergy);
+        removeContributions(connection, "IDSOURCE", obsoleteSources, deltaEnergy);
+        // Add new contributions
+        Set<Long> savedReceiverFilter = getReceiverFilter();
+        Set<Long> savedSourceFilter = getSourceFilter();
+        try (ContributionWriter writer = new ContributionWriter(connection, deltaEnergy, false)) {
+            if(!buildingReceivers.isEmpty()) {
+                setReceiverFilter(buildingReceivers.keySet());
+                setSourceFilter(null);
+                evaluateCells(connection, subProcess(progression, buildingReceivers),
+                        getCells(buildingReceivers.values()), writer);
+            }
+            if(!sourceReceivers.isEmpty() && !changedSources.isEmpty()) {
+                setReceiverFilter(sourceReceivers.keySet());
+                setSourceFilter(changedSources);
+                evaluateCells(connection, subProcess(progression, sourceReceivers),
+                        getCells(sourceReceivers.values()), writer);
+            }
+        } finally {
+            setReceiverFilter(savedReceiverFilter);
+            setSourceFilter(savedSourceFilter);
+        }
+        updateReceiverLevels(connection, deltaEnergy);
+        return deltaEnergy.size();
+    }
+
+    private ProgressVisitor subProcess(ProgressVisitor progression, Map<Long, Coordinate> receivers) {
+        return progression == null ? null : progression.subProcess(getCells(receivers.values()).size());
+    }
+
+    /**
+     * Compare table states
+     * @param previous Saved state
+     * @param current Current state
+     * @param changed (Out) Added or modified rows
+     * @param obsolete (Out) Removed or modified rows
+     * @param newEnvelopes (Out) Envelopes of added or modified rows
+     * @param oldEnvelopes (Out) Envelopes of removed or modified rows, null to ignore
+     */
+    private static void diff(Map<Long, RowState> previous, Map<Long, RowState> current, Set<Long> changed,
+                             Set<Long> obsolete, List<Envelope> newEnvelopes, List<Envelope> oldEnvelopes) {
+        for (Map.Entry<Long, RowState> entry : current.entrySet()) {
+            RowState previousState = previous.get(entry.getKey());
+            if(previousState == null || previousState.hash != entry.getValue().hash) {
+                changed.add(entry.getKey());
+                if(!entry.getValue().envelope.isNull()) {
+                    newEnvelopes.add(entry.getValue().envelope);
+                }
+                if(previousState != null) {
+                    obsolete.add(entry.getKey());
+                    if(oldEnvelopes != null && !previousState.envelope.isNull()) {
+                        oldEnvelopes.add(previousState.envelope);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Long, RowState> entry : previous.entrySet()) {
+            if(!current.containsKey(entry.getKey())) {
+                obsolete.add(entry.getKey());
+                if(oldEnvelopes != null && !entry.getValue().envelope.isNull()) {
+                    oldEnvelopes.add(entry.getValue().envelope);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param receivers Receivers positions
+     * @return Indexes (cellI * gridDim + cellJ) of the cells containing the receivers
+     */
+    private Collection<Integer> getCells(Collection<Coordinate> receivers) {
+        Set<Integer> cells = new TreeSet<>();
+        double cellWidth = getCellWidth();
+        double cellHeight = getCellHeight();
+        for (Coordinate receiver : receivers) {
+            int cellI = (int) Math.floor((receiver.x - mainEnvelope.getMinX()) / cellWidth);
+            int cellJ = (int) Math.floor((receiver.y - mainEnvelope.getMinY()) / cellHeight);
+            cellI = Math.max(0, Math.min(gridDim - 1, cellI));
+            cellJ = Math.max(0, Math.min(gridDim - 1, cellJ));
+            cells.add(cellI * gridDim + cellJ);
+        }
+        return cells;
+    }
+
+    /**
+     * @param envelopes Changed areas
+     * @param distance Expand distance of the areas
+     * @return Receivers in the expanded areas
+     */
+    private Map<Long, Coordinate> fetchReceivers(Connection connection, List<Envelope> envelopes, double distance)
+            throws SQLException {
+        Map<Long, Coordinate> receivers = new HashMap<>();
+        if(envelopes.isEmpty()) {
+            return receivers;
+        }
+        TableLocation receiverTableLocation = TableLocation.parse(getReceiverTableName());
+        String receiverGeomName = GeometryTableUtilities.getGeometryColumnNames(connection,
+                receiverTableLocation).get(0);
+        int intPk = JDBCUtilities.getIntegerPrimaryKey(connection, receiverTableLocation);
+        if(intPk < 1) {
+            throw new SQLException(String.format("Table %s missing primary key for receiver identification",
+                    getReceiverTableName()));
+        }
+        try (PreparedStatement st = connection.prepareStatement(
+                "SELECT " + TableLocation.quoteIdentifier(receiverGeomName) + ", " +
+                        JDBCUtilities.getColumnName(connection, receiverTableLocation, intPk) + " FROM " +
+                        getReceiverTableName() + " WHERE " +
+                        TableLocation.quoteIdentifier(receiverGeomName) + " && ?::geometry")) {
+            for (Envelope envelope : envelopes) {
+                Envelope expanded = new Envelope(envelope);
+                expanded.expandBy(distance);
+                st.setObject(1, geometryFactory.toGeometry(expanded));
+                try (SpatialResultSet rs = st.executeQuery().unwrap(SpatialResultSet.class)) {
+                    while (rs.next()) {
+                        Geometry pt = rs.getGeometry();
+                        if(pt != null && !pt.isEmpty()) {
+                            receivers.put(rs.getLong(2), pt.getCoordinate());
+                        }
+                    }
+                }
+            }
+        }
+        return receivers;
+    }
+
+    /**
+     * Hash each row of a table
+     * @param tableName Table with an integer primary key
+     * @return Hash and envelope of each row by primary key
+     */
+    private Map<Long, RowState> readTableState(Connection connection, String tableName) throws SQLException {
+        TableLocation tableLocation = TableLocation.parse(tableName);
+        int pkIndex = JDBCUtilities.getIntegerPrimaryKey(connection, tableLocation);
+        if(pkIndex < 1) {
+            throw new SQLException(String.format("Table %s must have an integer primary key for incremental " +
+                    "evaluation", tableName));
+        }
+        String pkName = JDBCUtilities.getColumnName(connection, tableLocation, pkIndex);
+        Map<Long, RowState> state = new HashMap<>();
+        WKBWriter wkbWriter = new WKBWriter(3);
+        try (Statement st = connection.createStatement()) {
+            st.setFetchSize(fetchSize);
+            try (SpatialResultSet rs = st.executeQuery("SELECT * FROM " + tableName).unwrap(SpatialResultSet.class)) {
+                int columnCount = rs.getMetaData().getColumnCount();
+                int pkColumn = rs.findColumn(pkName);
+                while (rs.next()) {
+                    long hash = FNV_OFFSET;
+                    for (int column = 1; column <= columnCount; column++) {
+                        Object value = rs.getObject(column);
+                        if(value instanceof Geometry) {
+                            hash = hash(hash, wkbWriter.write((Geometry) value));
+                        } else if(value != null) {
+                            hash = hash(hash, String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+                        } else {
+                            hash = hash(hash, NULL_VALUE);
+                        }
+                    }
+                    Geometry geometry = rs.getGeometry();
+                    state.put(rs.getLong(pkColumn), new RowState(hash, geometry == null ? new Envelope() :
+                            geometry.getEnvelopeInternal()));
+                }
+            }
+        }
+        return state;
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final byte[] NULL_VALUE = new byte[] {0};
+
+    private static long hash(long hash, byte[] bytes) {
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        // Column separator
+        hash ^= 0x1f;
+        return hash * FNV_PRIME;
+    }
+
+    private Map<Long, RowState> readSavedState(Connection connection, String stateTableName) throws SQLException {
+        Map<Long, RowState> state = new HashMap<>();
+        if(!JDBCUtilities.tableExists(connection, stateTableName)) {
+            return state;
+        }
+        try (Statement st = connection.createStatement()) {
+            st.setFetchSize(fetchSize);
+            try (ResultSet rs = st.executeQuery("SELECT PK, HASH, MINX, MAXX, MINY, MAXY FROM " +
+                    TableLocation.parse(stateTableName))) {
+                while (rs.next()) {
+                    Envelope envelope = new Envelope();
+                    double minX = rs.getDouble(3);
+                    if(!rs.wasNull()) {
+                        envelope = new Envelope(minX, rs.getDouble(4), rs.getDouble(5), rs.getDouble(6));
+                    }
+                    state.put(rs.getLong(1), new RowState(rs.getLong(2), envelope));
+                }
+            }
+        }
+        return state;
+    }
+
+    private void saveTableState(Connection connection, String stateTableName, Map<Long, RowState> state)
+            throws SQLException {
+        TableLocation stateTable = TableLocation.parse(stateTableName);
+        try (Statement st = connection.createStatement()) {
+            if(JDBCUtilities.tableExists(connection, stateTableName)) {
+                st.execute("DELETE FROM " + stateTable);
+            } else {
+                st.execute("CREATE TABLE " + stateTable + "(PK bigint PRIMARY KEY, HASH bigint NOT NULL, " +
+                        "MINX double precision, MAXX double precision, MINY double precision, MAXY double precision)");
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + stateTable +
+                " VALUES (?, ?, ?, ?, ?, ?)")) {
+            int batch = 0;
+            for (Map.Entry<Long, RowState> entry : state.entrySet()) {
+                insert.setLong(1, entry.getKey());
+                insert.setLong(2, entry.getValue().hash);
+                Envelope envelope = entry.getValue().envelope;
+                if(envelope.isNull()) {
+                    for (int i = 3; i <= 6; i++) {
+                        insert.setNull(i, Types.DOUBLE);
+                    }
+                } else {
+                    insert.setDouble(3, envelope.getMinX());
+                    insert.setDouble(4, envelope.getMaxX());
+                    insert.setDouble(5, envelope.getMinY());
+                    insert.setDouble(6, envelope.getMaxY());
+                }
+                insert.addBatch();
+                if(++batch >= BATCH_SIZE) {
+                    insert.executeBatch();
+                    batch = 0;
+                }
+            }
+            if(batch > 0) {
+                insert.executeBatch();
+            }
+        }
+    }
+
+    private static String getLevelColumns() {
+        StringBuilder columns = new StringBuilder();
+        for (Integer frequency : PropagationProcessPathData.freq_lvl) {
+            if(columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append("HZ").append(frequency);
+        }
+        return columns.toString();
+    }
+
+    private static String getLevelValues() {
+        StringBuilder values = new StringBuilder();
+        for (int idf = 0; idf < PropagationProcessPathData.freq_lvl.size(); idf++) {
+            values.append(", ?");
+        }
+        return values.toString();
+    }
+
+    private void createTables(Connection connection) throws SQLException {
+        StringBuilder levelColumns = new StringBuilder();
+        for (Integer frequency : PropagationProcessPathData.freq_lvl) {
+            levelColumns.append(", HZ").append(frequency).append(" double precision");
+        }
+        TableLocation contributionTable = TableLocation.parse(contributionTableName);
+        TableLocation levelsTable = TableLocation.parse(getReceiverLevelsTableName());
+        try (Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE " + contributionTable + "(IDRECEIVER bigint NOT NULL, IDSOURCE bigint NOT NULL"
+                    + levelColumns + ")");
+            st.execute("CREATE INDEX ON " + contributionTable + "(IDRECEIVER)");
+            st.execute("CREATE INDEX ON " + contributionTable + "(IDSOURCE)");
+            st.execute("DROP TABLE IF EXISTS " + levelsTable);
+            st.execute("CREATE TABLE " + levelsTable + "(IDRECEIVER bigint PRIMARY KEY" + levelColumns + ")");
+            st.execute("DROP TABLE IF EXISTS " + TableLocation.parse(getSourcesStateTableName()));
+            st.execute("DROP TABLE IF EXISTS " + TableLocation.parse(getBuildingsStateTableName()));
+        }
+    }
+
+    /**
+     * Delete contributions and subtract their energy
+     * @param field IDRECEIVER or IDSOURCE
+     * @param ids Identifiers of the contributions to remove
+     * @param deltaEnergy (In/Out) Energy delta of each receiver
+     */
+    private void removeContributions(Connection connection, String field, Set<Long> ids,
+                                     Map<Long, double[]> deltaEnergy) throws SQLException {
+        if(ids.isEmpty()) {
+            return;
+        }
+        int bandCount = PropagationProcessPathData.freq_lvl.size();
+        TableLocation contributionTable = TableLocation.parse(contributionTableName);
+        try (PreparedStatement select = connection.prepareStatement("SELECT IDRECEIVER, " + getLevelColumns() +
+                " FROM " + contributionTable + " WHERE " + field + " = ?");
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM " + contributionTable +
+                     " WHERE " + field + " = ?")) {
+            int batch = 0;
+            for (long id : ids) {
+                select.setLong(1, id);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        double[] delta = getDelta(deltaEnergy, rs.getLong(1), bandCount);
+                        for (int idf = 0; idf < bandCount; idf++) {
+                            delta[idf] -= ComputeRays.dbaToW(rs.getDouble(2 + idf));
+                        }
+                    }
+                }
+                delete.setLong(1, id);
+                delete.addBatch();
+                if(++batch >= BATCH_SIZE) {
+                    delete.executeBatch();
+                    batch = 0;
+                }
+            }
+            if(batch > 0) {
+                delete.executeBatch();
+            }
+        }
+    }
+
+    private static double[] getDelta(Map<Long, double[]> deltaEnergy, long receiverId, int bandCount) {
+        double[] delta = deltaEnergy.get(receiverId);
+        if(delta == null) {
+            delta = new double[bandCount];
+            deltaEnergy.put(receiverId, delta);
+        }
+        return delta;
+    }
+
+    /**
+     * Apply energy delta to the receiver levels table
+     * @param deltaEnergy Energy delta of each receiver
+     */
+    private void updateReceiverLevels(Connection connection, Map<Long, double[]> deltaEnergy) throws SQLException {
+        int bandCount = PropagationProcessPathData.freq_lvl.size();
+        TableLocation levelsTable = TableLocation.parse(getReceiverLevelsTableName());
+        StringBuilder set = new StringBuilder();
+        for (Integer frequency : PropagationProcessPathData.freq_lvl) {
+            set.append(set.length() == 0 ? "" : ", ").append("HZ").append(frequency).append(" = ?");
+        }
+        try (PreparedStatement select = connection.prepareStatement("SELECT " + getLevelColumns() + " FROM " +
+                levelsTable + " WHERE IDRECEIVER = ?");
+             PreparedStatement sum = connection.prepareStatement("SELECT " + getLevelColumns() + " FROM " +
+                     TableLocation.parse(contributionTableName) + " WHERE IDRECEIVER = ?");
+             PreparedStatement update = connection.prepareStatement("UPDATE " + levelsTable + " SET " + set +
+                     " WHERE IDRECEIVER = ?");
+             PreparedStatement insert = connection.prepareStatement("INSERT INTO " + levelsTable + " VALUES (?" +
+                     getLevelValues() + ")")) {
+            double[] energy = new double[bandCount];
+            for (Map.Entry<Long, double[]> entry : deltaEnergy.entrySet()) {
+                long receiverId = entry.getKey();
+                double[] delta = entry.getValue();
+                boolean exists = false;
+                select.setLong(1, receiverId);
+                try (ResultSet rs = select.executeQuery()) {
+                    if(rs.next()) {
+                        exists = true;
+                        for (int idf = 0; idf < bandCount; idf++) {
+                            energy[idf] = ComputeRays.dbaToW(rs.getDouble(1 + idf));
+                        }
+                    }
+                }
+                boolean cancellation = false;
+                for (int idf = 0; idf < bandCount; idf++) {
+                    double previous = exists ? energy[idf] : 0;
+                    energy[idf] = previous + delta[idf];
+                    if(delta[idf] < 0 && energy[idf] <= previous * CANCELLATION_RATIO) {
+                        cancellation = true;
+                    }
+                }
+                if(cancellation) {
+                    // Most of the energy has been removed, sum the remaining contributions
+                    Arrays.fill(energy, 0);
+                    sum.setLong(1, receiverId);
+                    try (ResultSet rs = sum.executeQuery()) {
+                        while (rs.next()) {
+                            for (int idf = 0; idf < bandCount; idf++) {
+                                energy[idf] += ComputeRays.dbaToW(rs.getDouble(1 + idf));
+                            }
+                        }
+                    }
+                }
+                PreparedStatement st = exists ? update : insert;
+                int parameter = 1;
+                if(!exists) {
+                    st.setLong(parameter++, receiverId);
+                }
+                for (int idf = 0; idf < bandCount; idf++) {
+                    st.setDouble(parameter++, ComputeRays.wToDba(energy[idf]));
+                }
+                if(exists) {
+                    st.setLong(parameter, receiverId);
+                }
+                st.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Hash and envelope of a table row
+     */
+    private static final class RowState {
+        private final long hash;
+        private final Envelope envelope;
+
+        RowState(long hash, Envelope envelope) {
+            this.hash = hash;
+            this.envelope = envelope;
+        }
+    }
+
+    /**
+     * Insert the levels of each evaluated cell into the contribution table and keep the energy delta of receivers.
+     */
+    private final class ContributionWriter implements CellEvaluationVisitor, AutoCloseable {
+        private final PreparedStatement insert;
+        private final PreparedStatement insertLevel;
+        private final Map<Long, double[]> deltaEnergy;
+        // Levels table is empty and receivers are computed only once, write the levels by cell
+        private final boolean writeLevels;
+        private long insertedReceivers = 0;
+
+        ContributionWriter(Connection connection, Map<Long, double[]> deltaEnergy, boolean writeLevels)
+                throws SQLException {
+            this.deltaEnergy = deltaEnergy;
+            this.writeLevels = writeLevels;
+            insert = connection.prepareStatement("INSERT INTO " + TableLocation.parse(contributionTableName) +
+                    " VALUES (?, ?" + getLevelValues() + ")");
+            insertLevel = connection.prepareStatement("INSERT INTO " +
+                    TableLocation.parse(getReceiverLevelsTableName()) + " VALUES (?" + getLevelValues() + ")");
+        }
+
+        @Override
+        public void cellEvaluated(int cellI, int cellJ, IComputeRaysOut computeRaysOut) throws SQLException {
+            if(!(computeRaysOut instanceof ComputeRaysOut) ||
+                    ((ComputeRaysOut) computeRaysOut).isReceiverLevelsAggregated()) {
+                throw new SQLException("Incremental evaluation requires the levels of each source/receiver couple");
+            }
+            int bandCount = PropagationProcessPathData.freq_lvl.size();
+            Map<Long, double[]> sourcePower = getSourcePower(((ComputeRaysOut) computeRaysOut).getInputData(),
+                    bandCount);
+            int batch = 0;
+            for (ComputeRaysOut.verticeSL level : ((ComputeRaysOut) computeRaysOut).getVerticesSoundLevel()) {
+                insert.setLong(1, level.receiverId);
+                insert.setLong(2, level.sourceId);
+                double[] power = sourcePower.get(level.sourceId);
+                if(power == null) {
+                    throw new SQLException("Unknown source " + level.sourceId);
+                }
+                double[] delta = getDelta(deltaEnergy, level.receiverId, bandCount);
+                for (int idf = 0; idf < bandCount; idf++) {
+                    // Attenuation of the couple plus the source power
+                    double energy = ComputeRays.dbaToW(level.value[idf]) * power[idf];
+                    insert.setDouble(3 + idf, ComputeRays.wToDba(energy));
+                    delta[idf] += energy;
+                }
+                insert.addBatch();
+                if(++batch >= BATCH_SIZE) {
+                    insert.executeBatch();
+                    batch = 0;
+                }
+            }
+            if(batch > 0) {
+                insert.executeBatch();
+            }
+            if(writeLevels) {
+                batch = 0;
+                for (Map.Entry<Long, double[]> entry : deltaEnergy.entrySet()) {
+                    insertLevel.setLong(1, entry.getKey());
+                    for (int idf = 0; idf < bandCount; idf++) {
+                        insertLevel.setDouble(2 + idf, ComputeRays.wToDba(entry.getValue()[idf]));
+                    }
+                    insertLevel.addBatch();
+                    if(++batch >= BATCH_SIZE) {
+                        insertLevel.executeBatch();
+                        batch = 0;
+                    }
+                }
+                if(batch > 0) {
+                    insertLevel.executeBatch();
+                }
+                insertedReceivers += deltaEnergy.size();
+                deltaEnergy.clear();
+            }
+        }
+
+        /**
+         * @param inputData Cell data
+         * @param bandCount Number of frequency bands
+         * @return Power spectrum (W) of the cell sources by primary key
+         */
+        private Map<Long, double[]> getSourcePower(PropagationProcessData inputData, int bandCount)
+                throws SQLException {
+            if(inputData == null) {
+                throw new SQLException("Incremental evaluation requires the cell data of the outputs");
+            }
+            Map<Long, double[]> sourcePower = new HashMap<>();
+            for (int sourceIndex = 0; sourceIndex < inputData.sourceGeometries.size(); sourceIndex++) {
+                double[] power = inputData.getMaximalSourcePower(sourceIndex);
+                if(power.length != bandCount) {
+                    throw new SQLException("Incremental evaluation requires the power spectrum of the sources, " +
+                            "see PropagationProcessData#getMaximalSourcePower");
+                }
+                sourcePower.put(sourceIndex < inputData.sourcesPk.size() ? inputData.sourcesPk.get(sourceIndex) :
+                        (long) sourceIndex, power);
+            }
+            return sourcePower;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            insert.close();
+            insertLevel.close();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Set;
 
 import org.h2gis.api.ProgressVisitor;
 import org.h2gis.utilities.GeometryTableUtilities;
@@ -63,6 +64,8 @@ public abstract class JdbcNoiseMap {
     // Initialised attributes
     protected int gridDim = 0;
     protected Envelope mainEnvelope = new Envelope();
+    // Primary keys of the sources to fetch, null to fetch all sources
+    protected Set<Long> sourceFilter = null;
 
     public JdbcNoiseMap(String buildingsTableName, String sourcesTableName) {
         this.buildingsTableName = buildingsTableName;
@@ -83,6 +86,20 @@ public abstract class JdbcNoiseMap {
         this.alphaFieldName = alphaFieldName;
     }
 
+    /**
+     * @return Primary keys of the sources fetched by the cells, null if all sources are fetched
+     */
+    public Set<Long> getSourceFilter() {
+        return sourceFilter;
+    }
+
+    /**
+     * @param sourceFilter Primary keys of the sources fetched by the cells, null to fetch all sources
+     */
+    public void setSourceFilter(Set<Long> sourceFilter) {
+        this.sourceFilter = sourceFilter;
+    }
+
     /**
      * Compute the envelope corresping to parameters
      *
@@ -262,6 +279,9 @@ public abstract class JdbcNoiseMap {
             st.setFetchDirection(ResultSet.FETCH_FORWARD);
             try (SpatialResultSet rs = st.executeQuery().unwrap(SpatialResultSet.class)) {
                 while (rs.next()) {
+                    if(sourceFilter != null && !sourceFilter.contains(rs.getLong(pkIndex))) {
+                        continue;
+                    }
                     Geometry geo = rs.getGeometry();
                     if (geo != null) {
                         geo = domainConstraint.intersection(geo);
@@ -1,17 +1,32 @@
 package org.noise_planet.noisemodelling.propagation.jdbc;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 import org.h2gis.api.ProgressVisitor;
 import org.h2gis.utilities.GeometryTableUtilities;
 import org.h2gis.utilities.JDBCUtilities;
 import org.h2gis.utilities.SpatialResultSet;
 import org.h2gis.utilities.TableLocation;
+import org.noise_planet.noisemodelling.propagation.AttenuationMatrix;
+import org.noise_planet.noisemodelling.propagation.AttenuationMatrixRaysOut;
+import org.noise_planet.noisemodelling.propagation.CellMeshCache;
 import org.noise_planet.noisemodelling.propagation.ComputeRays;
 import org.noise_planet.noisemodelling.propagation.ComputeRaysOut;
+import org.noise_planet.noisemodelling.propagation.ConvergenceStatistics;
 import org.noise_planet.noisemodelling.propagation.FastObstructionTest;
 import org.noise_planet.noisemodelling.propagation.IComputeRaysOut;
 import org.noise_planet.noisemodelling.propagation.LayerDelaunayError;
@@ -35,12 +50,35 @@ public class PointNoiseMap extends JdbcNoiseMap {
     private Logger logger = LoggerFactory.getLogger(PointNoiseMap.class);
     private PropagationProcessPathData propagationProcessPathData = new PropagationProcessPathData();
     private int threadCount = 0;
+    private boolean workStealing = false;
+    private boolean spatialReceiverOrder = false;
+    private MeshBuilder.DelaunayBackend delaunayBackend = MeshBuilder.DelaunayBackend.POLY2TRI;
+    private int concurrentCellCount = 1;
+    private long cellMemoryBudget = 0;
+    private CellMeshCache meshCache;
+    private double wallCacheCellSize = 0;
+    private boolean aggregateReceiverLevels = false;
+    private ConvergenceStatistics convergenceStatistics = null;
+    // Primary keys of the receivers to compute, null to compute all receivers
+    private Set<Long> receiverFilter = null;
+    // Rough heap footprint of cell structures, used to respect cellMemoryBudget
+    private static final long TRIANGLE_MEMORY = 120;
+    private static final long VERTEX_MEMORY = 24;
+    private static final long RECEIVER_MEMORY = 96;
+    private static final long SOURCE_VERTEX_MEMORY = 64;
 
     public PointNoiseMap(String buildingsTableName, String sourcesTableName, String receiverTableName) {
         super(buildingsTableName, sourcesTableName);
         this.receiverTableName = receiverTableName;
     }
 
+    /**
+     * @return Table name that contains receivers
+     */
+    public String getReceiverTableName() {
+        return receiverTableName;
+    }
+
     public void setPropagationProcessPathData(PropagationProcessPathData propagationProcessPathData) {
         this.propagationProcessPathData = propagationProcessPathData;
     }
@@ -61,6 +99,157 @@ public class PointNoiseMap extends JdbcNoiseMap {
         this.threadCount = threadCount;
     }
 
+    /**
+     * @return True if receivers of a cell are scheduled by small chunks on a work-stealing pool
+     */
+    public boolean isWorkStealing() {
+        return workStealing;
+    }
+
+    /**
+     * @param workStealing True if receivers of a cell are scheduled by small chunks on a work-stealing pool
+     * {@link ComputeRays#setWorkStealing(boolean)}
+     */
+    public void setWorkStealing(boolean workStealing) {
+        this.workStealing = workStealing;
+    }
+
+    /**
+     * @return True if receivers of a cell are processed along a Hilbert curve
+     */
+    public boolean isSpatialReceiverOrder() {
+        return spatialReceiverOrder;
+    }
+
+    /**
+     * @param spatialReceiverOrder True if receivers of a cell are processed along a Hilbert curve instead of the
+     * table order {@link ComputeRays#setSpatialReceiverOrder(boolean)}
+     */
+    public void setSpatialReceiverOrder(boolean spatialReceiverOrder) {
+        this.spatialReceiverOrder = spatialReceiverOrder;
+    }
+
+    /**
+     * @return Constrained Delaunay triangulation implementation of cells
+     */
+    public MeshBuilder.DelaunayBackend getDelaunayBackend() {
+        return delaunayBackend;
+    }
+
+    /**
+     * @param delaunayBackend Constrained Delaunay triangulation implementation of cells
+     */
+    public void setDelaunayBackend(MeshBuilder.DelaunayBackend delaunayBackend) {
+        this.delaunayBackend = delaunayBackend;
+    }
+
+    /**
+     * @return Maximum number of cells propagated at the same time by {@link #evaluateAllCells}
+     */
+    public int getConcurrentCellCount() {
+        return concurrentCellCount;
+    }
+
+    /**
+     * @param concurrentCellCount Maximum number of cells propagated at the same time by {@link #evaluateAllCells}.
+     * The available cores are shared between the running cells if the thread count is not set.
+     */
+    public void setConcurrentCellCount(int concurrentCellCount) {
+        this.concurrentCellCount = Math.max(1, concurrentCellCount);
+    }
+
+    /**
+     * @return Estimated heap size in bytes of the cells in progress, 0 for no limit
+     */
+    public long getCellMemoryBudget() {
+        return cellMemoryBudget;
+    }
+
+    /**
+     * @param cellMemoryBudget Estimated heap size in bytes of the cells in progress, 0 for no limit. A prepared cell
+     *                         waits for the end of running cells until it fits in the budget. A single cell always
+     *                         runs even if it is bigger than the budget.
+     */
+    public void setCellMemoryBudget(long cellMemoryBudget) {
+        this.cellMemoryBudget = cellMemoryBudget;
+    }
+
+    /**
+     * @return Grid size in meters of the reflection walls cache, 0 if disabled
+     */
+    public double getWallCacheCellSize() {
+        return wallCacheCellSize;
+    }
+
+    /**
+     * @param wallCacheCellSize Grid size in meters of the reflection walls cache, 0 to disable
+     * {@link ComputeRays#setWallCacheCellSize(double)}
+     */
+    public void setWallCacheCellSize(double wallCacheCellSize) {
+        this.wallCacheCellSize = wallCacheCellSize;
+    }
+
+    /**
+     * @return True if the default output keeps only the energetic sum of sources for each receiver
+     */
+    public boolean isAggregateReceiverLevels() {
+        return aggregateReceiverLevels;
+    }
+
+    /**
+     * @param aggregateReceiverLevels True if the default output keeps only the energetic sum of sources for each
+     * receiver {@link ComputeRaysOut#enableReceiverLevelsAggregation(int)}. The cell data must then provide the power
+     * spectrum of the sources with {@link PropagationProcessData#getSourceEmission(int)}, see
+     * {@link #setPropagationProcessDataFactory(PropagationProcessDataFactory)}.
+     */
+    public void setAggregateReceiverLevels(boolean aggregateReceiverLevels) {
+        this.aggregateReceiverLevels = aggregateReceiverLevels;
+    }
+
+    /**
+     * @return Early termination statistics shared by all cells, null if disabled
+     */
+    public ConvergenceStatistics getConvergenceStatistics() {
+        return convergenceStatistics;
+    }
+
+    /**
+     * @param convergenceStatistics Early termination statistics shared by all cells, null to disable.
+     * {@link ComputeRays#setConvergenceStatistics(ConvergenceStatistics)}
+     */
+    public void setConvergenceStatistics(ConvergenceStatistics convergenceStatistics) {
+        this.convergenceStatistics = convergenceStatistics;
+    }
+
+    /**
+     * @return Primary keys of the receivers computed by the cells, null if all receivers are computed
+     */
+    public Set<Long> getReceiverFilter() {
+        return receiverFilter;
+    }
+
+    /**
+     * @param receiverFilter Primary keys of the receivers computed by the cells, null to compute all receivers
+     */
+    public void setReceiverFilter(Set<Long> receiverFilter) {
+        this.receiverFilter = receiverFilter;
+    }
+
+    /**
+     * @return Cache of triangulated cell meshes, null if disabled
+     */
+    public CellMeshCache getMeshCache() {
+        return meshCache;
+    }
+
+    /**
+     * @param meshCache Cache of triangulated cell meshes, reused when buildings and topography of a cell are unchanged.
+     *                  Null to disable.
+     */
+    public void setMeshCache(CellMeshCache meshCache) {
+        this.meshCache = meshCache;
+    }
+
     /**
      * Initialisation of data structures needed for sound propagation.
      * @param connection JDBC Connection
@@ -72,7 +261,31 @@ public class PointNoiseMap extends JdbcNoiseMap {
      */
     public PropagationProcessData prepareCell(Connection connection,int cellI, int cellJ,
                                               ProgressVisitor progression, Set<Long> skipReceivers) throws SQLException {
+        ForkJoinPool mergePool = createMergePool();
+        try {
+            return prepareCell(connection, cellI, cellJ, progression, skipReceivers, mergePool);
+        } finally {
+            if(mergePool != null) {
+                mergePool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return Pool of {@link #getThreadCount()} threads used to merge the buildings of the cells, null if the thread
+     * count is not set (the buildings are then merged in {@link ForkJoinPool#commonPool()}) or if the buildings are
+     * merged in a single union
+     */
+    private ForkJoinPool createMergePool() {
+        return threadCount > 1 ? new ForkJoinPool(threadCount) : null;
+    }
+
+    private PropagationProcessData prepareCell(Connection connection,int cellI, int cellJ, ProgressVisitor progression,
+                                               Set<Long> skipReceivers, ForkJoinPool mergePool) throws SQLException {
         MeshBuilder mesh = new MeshBuilder();
+        mesh.setMergeThreadCount(threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors());
+        mesh.setMergePool(mergePool);
+        mesh.setDelaunayBackend(delaunayBackend);
         int ij = cellI * gridDim + cellJ;
         if(verbose) {
             logger.info("Begin processing of cell " + ij + " / " + gridDim * gridDim);
@@ -105,13 +318,33 @@ public class PointNoiseMap extends JdbcNoiseMap {
         Envelope meshEnvelope = new Envelope(expandedCellEnvelop);
         // Expand again envelope for sound sources or buildings sides that are close to the edge
         meshEnvelope.expandBy(10);
-        try {
-            mesh.finishPolygonFeeding(expandedCellEnvelop);
-        } catch (LayerDelaunayError ex) {
-            throw new SQLException(ex.getLocalizedMessage(), ex);
+        FastObstructionTest freeFieldFinder = null;
+        String meshFingerprint = null;
+        if(meshCache != null) {
+            meshFingerprint = mesh.computeInputFingerprint(geometryFactory.toGeometry(expandedCellEnvelop));
+            try {
+                freeFieldFinder = meshCache.load(meshFingerprint);
+            } catch (IOException ex) {
+                logger.warn("Cannot load cell mesh from cache, the mesh will be computed", ex);
+            }
+        }
+        if(freeFieldFinder == null) {
+            try {
+                mesh.finishPolygonFeeding(expandedCellEnvelop);
+            } catch (LayerDelaunayError ex) {
+                throw new SQLException(ex.getLocalizedMessage(), ex);
+            }
+            freeFieldFinder = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangleMesh());
+            if(meshCache != null) {
+                try {
+                    meshCache.save(meshFingerprint, mesh);
+                } catch (IOException ex) {
+                    logger.warn("Cannot save cell mesh into cache", ex);
+                }
+            }
+        } else if(verbose) {
+            logger.info("Cell mesh " + ij + " loaded from cache");
         }
-        FastObstructionTest freeFieldFinder = new FastObstructionTest(mesh.getPolygonWithHeight(),
-                mesh.getTriangles(), mesh.getTriNeighbors(), mesh.getVertices());
 
 
         PropagationProcessData propagationProcessData;
@@ -158,6 +391,9 @@ public class PointNoiseMap extends JdbcNoiseMap {
             try (SpatialResultSet rs = st.executeQuery().unwrap(SpatialResultSet.class)) {
                 while (rs.next()) {
                     long receiverPk = rs.getLong(2);
+                    if(receiverFilter != null && !receiverFilter.contains(receiverPk)) {
+                        continue;
+                    }
                     if(skipReceivers.contains(receiverPk)) {
                         continue;
                     } else {
@@ -194,18 +430,158 @@ public class PointNoiseMap extends JdbcNoiseMap {
                                         ProgressVisitor progression, Set<Long> skipReceivers) throws SQLException {
         PropagationProcessData threadData = prepareCell(connection, cellI, cellJ, progression, skipReceivers);
 
+        return computeCell(threadData, threadCount);
+    }
+
+    /**
+     * Compute the source/receiver attenuation of a cell. Levels of any emission scenario are then evaluated without
+     * propagation with {@link AttenuationMatrix#multiply(double[], int, double[])}, the matrix can be stored with
+     * {@link AttenuationMatrix#save(java.io.File)}. Sources are not skipped using their power, the maximum error is
+     * ignored.
+     * @param connection JDBC Connection
+     * @param cellI Cell I [0-{@link #getGridDim()}]
+     * @param cellJ Cell J [0-{@link #getGridDim()}]
+     * @param progression Progression info
+     * @param skipReceivers Receivers of the previous cells, the receivers of this cell are added
+     * @return Attenuation of the receivers of the cell
+     * @throws SQLException
+     */
+    public AttenuationMatrix evaluateAttenuationMatrix(Connection connection, int cellI, int cellJ,
+                                                       ProgressVisitor progression, Set<Long> skipReceivers)
+            throws SQLException {
+        PropagationProcessData threadData = prepareCell(connection, cellI, cellJ, progression, skipReceivers);
+        threadData.maximumError = 0;
+        AttenuationMatrixRaysOut matrixOut = new AttenuationMatrixRaysOut(propagationProcessPathData, threadData);
+        computeCell(threadData, threadCount, matrixOut);
+        return matrixOut.getAttenuationMatrix();
+    }
+
+    /**
+     * Launch sound propagation on all cells. The next cell is fetched and triangulated in the calling thread
+     * while the previous cells are propagated in a pool of {@link #getConcurrentCellCount()} threads.
+     * The connection is used only by the calling thread.
+     * @param connection JDBC Connection
+     * @param progression Progression info, with one step per cell
+     * @param cellVisitor Receive the result of each cell, in the calling thread and in the completion order
+     * @throws SQLException
+     */
+    public void evaluateAllCells(Connection connection, ProgressVisitor progression,
+                                 CellEvaluationVisitor cellVisitor) throws SQLException {
+        List<Integer> cells = new ArrayList<>(gridDim * gridDim);
+        for (int ij = 0; ij < gridDim * gridDim; ij++) {
+            cells.add(ij);
+        }
+        evaluateCells(connection, progression, cells, cellVisitor);
+    }
+
+    /**
+     * Launch sound propagation on a subset of cells, see {@link #evaluateAllCells}
+     * @param connection JDBC Connection
+     * @param progression Progression info, with one step per cell
+     * @param cells Cell indexes (cellI * {@link #getGridDim()} + cellJ)
+     * @param cellVisitor Receive the result of each cell, in the calling thread and in the completion order
+     * @throws SQLException
+     */
+    public void evaluateCells(Connection connection, ProgressVisitor progression, Collection<Integer> cells,
+                              CellEvaluationVisitor cellVisitor) throws SQLException {
+        int cellThreadCount = threadCount;
+        if(cellThreadCount <= 0 && concurrentCellCount > 1) {
+            cellThreadCount = Math.max(1, Runtime.getRuntime().availableProcessors() / concurrentCellCount);
+        }
+        Set<Long> skipReceivers = new HashSet<>();
+        ExecutorService cellExecutor = Executors.newFixedThreadPool(concurrentCellCount);
+        ExecutorCompletionService<CellResult> completionService = new ExecutorCompletionService<>(cellExecutor);
+        // Cells are prepared one at a time, they share the same merge pool
+        ForkJoinPool mergePool = createMergePool();
+        int runningCells = 0;
+        long runningMemory = 0;
+        try {
+            for (int ij : cells) {
+                if(progression != null && progression.isCanceled()) {
+                    break;
+                }
+                int i = ij / gridDim;
+                int j = ij % gridDim;
+                PropagationProcessData threadData = prepareCell(connection, i, j, progression, skipReceivers,
+                        mergePool);
+                long cellMemory = estimateCellMemory(threadData);
+                while (runningCells > 0 && (runningCells >= concurrentCellCount ||
+                        (cellMemoryBudget > 0 && runningMemory + cellMemory > cellMemoryBudget))) {
+                    CellResult cellResult = takeCellResult(completionService);
+                    runningCells--;
+                    runningMemory -= cellResult.memory;
+                    cellVisitor.cellEvaluated(cellResult.cellI, cellResult.cellJ, cellResult.computeRaysOut);
+                }
+                completionService.submit(new CellComputation(this, i, j, threadData, cellThreadCount, cellMemory));
+                runningCells++;
+                runningMemory += cellMemory;
+            }
+            while (runningCells > 0) {
+                CellResult cellResult = takeCellResult(completionService);
+                runningCells--;
+                cellVisitor.cellEvaluated(cellResult.cellI, cellResult.cellJ, cellResult.computeRaysOut);
+            }
+        } finally {
+            cellExecutor.shutdownNow();
+            if(mergePool != null) {
+                mergePool.shutdown();
+            }
+        }
+    }
+
+    private static CellResult takeCellResult(ExecutorCompletionService<CellResult> completionService)
+            throws SQLException {
+        try {
+            return completionService.take().get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(ex.getLocalizedMessage(), ex);
+        } catch (ExecutionException ex) {
+            throw new SQLException(ex.getCause().getLocalizedMessage(), ex.getCause());
+        }
+    }
+
+    /**
+     * @param threadData Prepared cell
+     * @return Estimated heap size in bytes of the cell structures
+     */
+    protected long estimateCellMemory(PropagationProcessData threadData) {
+        long memory = threadData.receivers.size() * RECEIVER_MEMORY;
+        if(threadData.freeFieldFinder != null) {
+            memory += threadData.freeFieldFinder.getMesh().getTriangleCount() * TRIANGLE_MEMORY;
+            memory += threadData.freeFieldFinder.getMesh().getVertexCount() * VERTEX_MEMORY;
+        }
+        for(Geometry sourceGeometry : threadData.sourceGeometries) {
+            memory += sourceGeometry.getNumPoints() * SOURCE_VERTEX_MEMORY;
+        }
+        return memory;
+    }
+
+    private IComputeRaysOut computeCell(PropagationProcessData threadData, int cellThreadCount) {
         IComputeRaysOut computeRaysOut;
         if(computeRaysOutFactory == null) {
-            computeRaysOut = new ComputeRaysOut(false, propagationProcessPathData, threadData);
+            ComputeRaysOut defaultOut = new ComputeRaysOut(false, propagationProcessPathData, threadData);
+            if(aggregateReceiverLevels) {
+                defaultOut.enableReceiverLevelsAggregation(threadData.receivers.size());
+            }
+            computeRaysOut = defaultOut;
         } else {
             computeRaysOut = computeRaysOutFactory.create(threadData, propagationProcessPathData);
         }
+        computeCell(threadData, cellThreadCount, computeRaysOut);
+        return computeRaysOut;
+    }
 
+    private void computeCell(PropagationProcessData threadData, int cellThreadCount, IComputeRaysOut computeRaysOut) {
         ComputeRays computeRays = new ComputeRays(threadData);
 
-        if(threadCount > 0) {
-            computeRays.setThreadCount(threadCount);
+        if(cellThreadCount > 0) {
+            computeRays.setThreadCount(cellThreadCount);
         }
+        computeRays.setWorkStealing(workStealing);
+        computeRays.setSpatialReceiverOrder(spatialReceiverOrder);
+        computeRays.setWallCacheCellSize(wallCacheCellSize);
+        computeRays.setConvergenceStatistics(convergenceStatistics);
 
         if(!receiverHasAbsoluteZCoordinates) {
             computeRays.makeReceiverRelativeZToAbsolute();
@@ -216,8 +592,51 @@ public class PointNoiseMap extends JdbcNoiseMap {
         }
 
         computeRays.run(computeRaysOut);
+    }
 
-        return computeRaysOut;
+    /**
+     * Propagation of a prepared cell, does not use the JDBC connection
+     */
+    private static final class CellComputation implements Callable<CellResult> {
+        private final PointNoiseMap noiseMap;
+        private final int cellI;
+        private final int cellJ;
+        private final PropagationProcessData threadData;
+        private final int cellThreadCount;
+        private final long memory;
+
+        CellComputation(PointNoiseMap noiseMap, int cellI, int cellJ, PropagationProcessData threadData,
+                        int cellThreadCount, long memory) {
+            this.noiseMap = noiseMap;
+            this.cellI = cellI;
+            this.cellJ = cellJ;
+            this.threadData = threadData;
+            this.cellThreadCount = cellThreadCount;
+            this.memory = memory;
+        }
+
+        @Override
+        public CellResult call() {
+            return new CellResult(cellI, cellJ, noiseMap.computeCell(threadData, cellThreadCount), memory);
+        }
+    }
+
+    private static final class CellResult {
+        private final int cellI;
+        private final int cellJ;
+        private final IComputeRaysOut computeRaysOut;
+        private final long memory;
+
+        CellResult(int cellI, int cellJ, IComputeRaysOut computeRaysOut, long memory) {
+            this.cellI = cellI;
+            this.cellJ = cellJ;
+            this.computeRaysOut = computeRaysOut;
+            this.memory = memory;
+        }
+    }
+
+    public interface CellEvaluationVisitor {
+        void cellEvaluated(int cellI, int cellJ, IComputeRaysOut computeRaysOut) throws SQLException;
     }
 
     public interface PropagationProcessDataFactory {
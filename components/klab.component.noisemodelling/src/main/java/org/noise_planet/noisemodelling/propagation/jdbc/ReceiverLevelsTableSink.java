@@ -0,0 +1,107 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.noise_planet.noisemodelling.propagation.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.noise_planet.noisemodelling.propagation.ComputeRaysOut;
+import org.noise_planet.noisemodelling.propagation.PropagationProcessPathData;
+import org.noise_planet.noisemodelling.propagation.ReceiverLevelsSink;
+
+/**
+ * Insert levels into a table (IDRECEIVER, IDSOURCE, HZ63, HZ125, ...) using batched prepared statements. The table
+ * is created if it does not exist. The connection is used by the writer thread only, it must not be shared with
+ * the computation.
+ */
+public class ReceiverLevelsTableSink implements ReceiverLevelsSink {
+    private final PreparedStatement insert;
+    private final int bandCount;
+
+    /**
+     * @param connection Dedicated connection
+     * @param tableName Output table
+     * @throws SQLException
+     */
+    public ReceiverLevelsTableSink(Connection connection, String tableName) throws SQLException {
+        List<Integer> frequencies = PropagationProcessPathData.freq_lvl;
+        bandCount = frequencies.size();
+        StringBuilder columns = new StringBuilder("IDRECEIVER bigint NOT NULL, IDSOURCE bigint NOT NULL");
+        StringBuilder values = new StringBuilder("?, ?");
+        for (Integer frequency : frequencies) {
+            columns.append(", HZ").append(frequency).append(" double precision");
+            values.append(", ?");
+        }
+        if (!JDBCUtilities.tableExists(connection, tableName)) {
+            try (Statement st = connection.createStatement()) {
+                st.execute("CREATE TABLE " + TableLocation.parse(tableName) + "(" + columns + ")");
+            }
+        }
+        insert = connection.prepareStatement("INSERT INTO " + TableLocation.parse(tableName) + " VALUES (" +
+                values + ")");
+    }
+
+    @Override
+    public void write(List<ComputeRaysOut.verticeSL> levels) throws IOException {
+        try {
+            for (ComputeRaysOut.verticeSL level : levels) {
+                insert.setLong(1, level.receiverId);
+                insert.setLong(2, level.sourceId);
+                for (int idf = 0; idf < bandCount; idf++) {
+                    insert.setDouble(3 + idf, level.value[idf]);
+                }
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            insert.clearBatch();
+        } catch (SQLException ex) {
+            throw new IOException(ex.getLocalizedMessage(), ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            insert.close();
+        } catch (SQLException ex) {
+            throw new IOException(ex.getLocalizedMessage(), ex);
+        }
+    }
+}
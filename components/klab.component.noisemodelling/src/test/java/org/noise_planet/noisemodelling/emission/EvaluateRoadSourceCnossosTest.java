@@ -0,0 +1,197 @@
+package org.noise_planet.noisemodelling.emission;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class EvaluateRoadSourceCnossosTest {
+    private static final double EPSILON = 1e-9;
+    private static final int[] COEFF_VERSIONS = {1, 2};
+    private static final int[] FREQUENCIES = {63, 125, 250, 500, 1000, 2000, 4000, 8000};
+
+    private static List<String> getSurfaces(int coeffVer) {
+        List<String> surfaces = new ArrayList<>();
+        Iterator<String> fieldNames = EvaluateRoadSourceCnossos.getCnossosData(coeffVer).get("roads").fieldNames();
+        while (fieldNames.hasNext()) {
+            surfaces.add(fieldNames.next());
+        }
+        return surfaces;
+    }
+
+    /**
+     * Compare a table value with the value read in the json, a missing json entry must raise an
+     * IllegalArgumentException
+     */
+    private static void assertSameCoefficient(DoubleSupplier expected, DoubleSupplier got) {
+        double expectedValue;
+        try {
+            expectedValue = expected.getAsDouble();
+        } catch (NullPointerException ex) {
+            assertThrows(IllegalArgumentException.class, got::getAsDouble);
+            return;
+        }
+        assertEquals(expectedValue, got.getAsDouble(), 0);
+    }
+
+    /**
+     * @return False if the previous implementation fails on a missing json entry
+     */
+    private static boolean hasCoefficients(RSParametersCnossos parameters) {
+        try {
+            EvaluateRoadSourceCnossosReference.evaluate(parameters);
+            return true;
+        } catch (NullPointerException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Parameters with junctions, studded tyres, slopes and temperatures depending on the case index
+     */
+    private static RSParametersCnossos makeParameters(int i, int frequency, String surface, int coeffVer) {
+        RSParametersCnossos parameters = new RSParametersCnossos(30 + 7 * (i % 11), 30 + 5 * (i % 9),
+                20 + 6 * (i % 10), 20 + 4 * (i % 7), 30 + 8 * (i % 8), 100 + 37 * (i % 17), 10 + 3 * (i % 5),
+                5 + 2 * (i % 7), 1 + i % 3, 2 + i % 4, frequency, -5 + 3 * (i % 11), surface,
+                i % 3 == 0 ? 4 : 0, i % 3 == 0 ? 0.3 + 0.1 * (i % 5) : 0, 20 * (i % 7), 1 + i % 2);
+        parameters.setSlopePercentage(-10 + 2 * (i % 11));
+        parameters.setCoeffVer(coeffVer);
+        return parameters;
+    }
+
+    @Test
+    public void testCoefficientsSameAsJson() {
+        for (int coeffVer : COEFF_VERSIONS) {
+            for (String vehCat : EvaluateRoadSourceCnossos.VEHICLE_CATEGORIES) {
+                for (int freq : FREQUENCIES) {
+                    for (String coeff : EvaluateRoadSourceCnossos.VEHICLE_COEFFICIENTS) {
+                        assertSameCoefficient(
+                                () -> EvaluateRoadSourceCnossosReference.getCoeff(coeff, freq, vehCat, coeffVer),
+                                () -> EvaluateRoadSourceCnossos.getCoeff(coeff, freq, vehCat, coeffVer));
+                    }
+                    for (String surface : getSurfaces(coeffVer)) {
+                        assertSameCoefficient(
+                                () -> EvaluateRoadSourceCnossosReference.getA_Roadcoeff(freq, vehCat, surface,
+                                        coeffVer),
+                                () -> EvaluateRoadSourceCnossos.getA_Roadcoeff(freq, vehCat, surface, coeffVer));
+                    }
+                }
+                for (String surface : getSurfaces(coeffVer)) {
+                    assertSameCoefficient(
+                            () -> EvaluateRoadSourceCnossosReference.getB_Roadcoeff(vehCat, surface, coeffVer),
+                            () -> EvaluateRoadSourceCnossos.getB_Roadcoeff(vehCat, surface, coeffVer));
+                }
+                for (int k = 1; k <= 2; k++) {
+                    final int junction = k;
+                    assertSameCoefficient(() -> EvaluateRoadSourceCnossosReference.getCr(vehCat, junction, coeffVer),
+                            () -> EvaluateRoadSourceCnossos.getCr(vehCat, junction, coeffVer));
+                    assertSameCoefficient(() -> EvaluateRoadSourceCnossosReference.getCp(vehCat, junction, coeffVer),
+                            () -> EvaluateRoadSourceCnossos.getCp(vehCat, junction, coeffVer));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEvaluateSameAsJson() {
+        int studdedCount = 0;
+        int junctionCount = 0;
+        int evaluatedCount = 0;
+        for (int coeffVer : COEFF_VERSIONS) {
+            List<String> surfaces = getSurfaces(coeffVer);
+            assertTrue(surfaces.size() > 3);
+            for (int i = 0; i < 60; i++) {
+                String surface = surfaces.get((i * 7) % surfaces.size());
+                for (int freq : FREQUENCIES) {
+                    RSParametersCnossos parameters = makeParameters(i, freq, surface, coeffVer);
+                    if (!hasCoefficients(parameters)) {
+                        assertThrows(IllegalArgumentException.class,
+                                () -> EvaluateRoadSourceCnossos.evaluate(parameters));
+                        continue;
+                    }
+                    assertEquals(EvaluateRoadSourceCnossosReference.evaluate(parameters),
+                            EvaluateRoadSourceCnossos.evaluate(parameters), EPSILON);
+                    evaluatedCount++;
+                    studdedCount += parameters.getPm_stud() > 0 ? 1 : 0;
+                    junctionCount += parameters.getJunc_dist() < 100 ? 1 : 0;
+                }
+            }
+        }
+        assertTrue(evaluatedCount > 0);
+        assertTrue(studdedCount > 0);
+        assertTrue(junctionCount > 0);
+    }
+
+    @Test
+    public void testBatchEvaluation() {
+        List<RSParametersCnossos> parameters = new ArrayList<>();
+        for (int coeffVer : COEFF_VERSIONS) {
+            List<String> surfaces = getSurfaces(coeffVer);
+            for (int i = 0; i < 40; i++) {
+                // Consecutive segments share the same surface, then the surface changes
+                RSParametersCnossos segment = makeParameters(i, FREQUENCIES[i % FREQUENCIES.length],
+                        surfaces.get((i / 3) % surfaces.size()), coeffVer);
+                if (hasCoefficients(segment)) {
+                    parameters.add(segment);
+                }
+            }
+        }
+        // Versions alternate
+        for (int i = 0; i < 6; i++) {
+            int coeffVer = COEFF_VERSIONS[i % 2];
+            RSParametersCnossos segment = makeParameters(i, 500, getSurfaces(coeffVer).get(0), coeffVer);
+            if (hasCoefficients(segment)) {
+                parameters.add(segment);
+            }
+        }
+        assertTrue(parameters.size() > 10);
+        RSParametersCnossos[] parametersArray = parameters.toArray(new RSParametersCnossos[0]);
+        double[] levels = new double[parametersArray.length];
+        EvaluateRoadSourceCnossos.evaluate(parametersArray, levels);
+        for (int i = 0; i < parametersArray.length; i++) {
+            assertEquals(EvaluateRoadSourceCnossosReference.evaluate(parametersArray[i]), levels[i], EPSILON);
+            assertEquals(EvaluateRoadSourceCnossos.evaluate(parametersArray[i]), levels[i], 0);
+        }
+        assertThrows(IllegalArgumentException.class, () -> EvaluateRoadSourceCnossos.evaluate(parametersArray,
+                new double[parametersArray.length - 1]));
+    }
+
+    @Test
+    public void testUnknownEntries() {
+        assertThrows(IllegalArgumentException.class, () -> EvaluateRoadSourceCnossos.getCoeff("ar", 63, "6", 2));
+        assertThrows(IllegalArgumentException.class, () -> EvaluateRoadSourceCnossos.getCoeff("cr", 63, "1", 2));
+        assertThrows(IllegalArgumentException.class, () -> EvaluateRoadSourceCnossos.getA_Roadcoeff(63, "1",
+                "UNKNOWN_SURFACE", 2));
+        assertThrows(IllegalArgumentException.class, () -> EvaluateRoadSourceCnossos.evaluate(makeParameters(0, 63,
+                "UNKNOWN_SURFACE", 1)));
+    }
+
+    @Test
+    public void testMissingEntries() throws IOException {
+        EvaluateRoadSourceCnossos.CoefficientTable table = new EvaluateRoadSourceCnossos.CoefficientTable(
+                new ObjectMapper().readTree("{\"vehicles\": {\"1\": {\"ar\": [1, 2, 3, 4, 5, 6, 7, 8]," +
+                        " \"crossing\": {\"cr\": 1.5}}}," +
+                        " \"roads\": {\"S1\": {\"ref\": {\"1\": {\"spectrum\": [0, -1, -2, -3, -4, -5, -6, -7]}}}}}"));
+        int surface = table.getSurfaceIndex("S1");
+        assertEquals(4, table.getVehicleCoeff(0, 0, 3), 0);
+        assertEquals(1.5, table.getCr(0, 1), 0);
+        assertEquals(-2, table.getRoadSpectrum(surface, 0, 2), 0);
+        // Missing coefficient, band, junction, vehicle category and road entries
+        assertThrows(IllegalArgumentException.class, () -> table.getVehicleCoeff(1, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> table.getVehicleCoeff(0, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> table.getCr(0, 2));
+        assertThrows(IllegalArgumentException.class, () -> table.getCp(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> table.getRoadSpectrum(surface, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> table.getRoadBeta(surface, 0));
+        assertThrows(IllegalArgumentException.class, () -> table.getSurfaceIndex("S2"));
+    }
+}
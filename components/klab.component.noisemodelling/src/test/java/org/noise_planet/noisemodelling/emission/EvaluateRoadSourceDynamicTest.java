@@ -0,0 +1,140 @@
+package org.noise_planet.noisemodelling.emission;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+public class EvaluateRoadSourceDynamicTest {
+    private static final double EPSILON = 1e-9;
+    private static final int[] VEHICLES = {1, 2, 3, 41, 42, 5};
+    private static final int[] SURFACES = {0, 1, 2, 7, 14, 16, 20};
+    private static final int[] FREQUENCIES = {63, 125, 250, 500, 1000, 2000, 4000, 8000};
+    private static final int VEHICLE_COUNT = 30;
+    /**
+     * Levels of {@link #makeParameters(int, int)} for each vehicle and frequency band, as computed by the previous
+     * per band implementation with the switch based coefficient getters
+     */
+    private static final double[] EXPECTED_LEVELS = {
+            98.8285714291402, 87.3571428651241, 85.20000001311547, 81.4857143165613,
+            78.98571434056888, 82.2857143113717, 78.68571434449204, 71.38571460136943,
+            108.03147364944678, 99.49040920971798, 100.76208122167628, 98.51034230117615,
+            95.3742412049153, 92.49911179732247, 87.69043510496178, 83.2024989125633,
+            105.07357804169455, 99.78495314029446, 99.41311392973115, 94.58797456156731,
+            92.6173896305311, 87.99897782884355, 84.84693871072652, 79.8761564295523,
+            86.26000001027506, 84.43428572993001, 85.44000001241037, 88.89428571988788,
+            90.09571428996256, 90.97000000347363, 85.49000001226831, 80.1657143275178,
+            94.3918749364523, 95.7433035074179, 89.3575892259534, 89.65187493987759,
+            91.48330350953194, 89.63758922560886, 87.00901780134028, 83.12616067217684,
+            99.81170225140883, 93.4779546745205, 91.71330836667802, 93.18853404589778,
+            98.44529232737655, 95.24609160984085, 87.27904008197119, 78.59658734156723,
+            99.73825295534155, 101.31463800817598, 100.44523840761464, 101.86936846874973,
+            102.44870045818651, 96.7393150963695, 89.5737551858857, 81.29511740133094,
+            101.8794197356303, 97.78822744852333, 100.1353162722887, 100.16791802559756,
+            101.47989866797674, 97.08916927612968, 90.52716699182513, 85.18918267211562,
+            115.05097734128091, 111.6150465709002, 109.14949524813848, 108.93720494096173,
+            103.58395624172508, 99.4293725195738, 95.98837244428704, 91.81699794681275,
+            88.78000000575155, 88.87428571991373, 91.32000000320467, 95.85428571541385,
+            99.51571428619982, 102.31000000025514, 97.67000000074265, 92.52571428814208,
+            96.14612491966905, 99.1175534905463, 96.33183920533678, 96.44612491959481,
+            98.21755349067557, 97.03183920517806, 93.50326777774403, 90.16041063725709,
+            98.94308466089824, 99.32468584678648, 97.59187217357469, 98.76154604631782,
+            105.92676115050752, 103.445779545208, 94.6926358192652, 85.25244315756342,
+            102.75863780943536, 108.58895523155479, 107.22048421420871, 106.42493434242255,
+            108.30611053917053, 102.92718675383708, 96.24374638323827, 92.4319994396981,
+            102.99822396562358, 93.78393825319166, 94.86965253844009, 92.79822396801403,
+            94.5982239671173, 91.19822396919125, 84.79822398204635, 78.69822403330251,
+            112.10733064680036, 106.47101480951189, 102.61985767060825, 102.0108651328725,
+            100.99563898014883, 96.62939121063667, 91.98018569894747, 85.9865247844767,
+            85.84000001131838, 83.69428573283622, 84.46000001555193, 87.7342857216031,
+            88.52571429181265, 89.08000000536765, 83.46000001957873, 78.10571435289009,
+            93.85703679825104, 94.93846536926883, 87.95275108935914, 88.27703680312271,
+            90.1184653722237, 88.16275108901658, 85.68417966576632, 81.71132254121721,
+            97.36328870817, 89.9114156811236, 88.09049463684181, 89.30011191032145,
+            94.02028307584547, 90.78230428637018, 83.23308205867146, 74.80623581215714,
+            98.25790530714771, 90.70796373203117, 88.95607828850686, 91.5859916401038,
+            92.33571574951745, 86.97183866018726, 81.05675509508038, 73.88437519384414,
+            105.96694236611651, 103.5780656438985, 104.24369930337554, 104.50176658650372,
+            105.60496831361247, 100.59364297405251, 93.51711850566639, 88.3956754498344,
+            107.04752464183643, 107.9748605496377, 108.08779014357104, 109.07865856432215,
+            109.91517936371768, 104.17490977649257, 96.95123513735794, 91.64042148164894,
+            88.36000000633555, 88.13428572095923, 90.34000000401592, 94.69428571575924,
+            97.94571428641123, 100.42000000039425, 95.64000000118519, 90.46571428961562,
+            95.88813733681678, 98.58956590769063, 95.20385162273544, 95.34813733697536,
+            97.12956590794757, 95.83385162254612, 92.45528019540212, 89.02242305572481,
+            99.1642252048485, 98.48816793937237, 96.77418064445872, 98.11211045022435,
+            105.05473962115956, 102.44791023221106, 93.72446922364375, 84.34086735083272,
+            99.61820884803936, 99.79733520464663, 99.07308028364685, 101.61681845525558,
+            109.17579341919706, 103.41603794232975, 94.02624462339023, 88.66295530671414,
+            111.69946384202687, 110.50319631657801, 113.59739788535977, 111.42534774074545,
+            111.82432561045812, 108.02393413639697, 103.01128550481373, 97.57155940758585,
+            99.92739655998655, 93.98453941924049, 97.94168227469004, 96.95596798926587,
+            96.05596798959483, 91.85596799246025, 87.25596800117019, 81.25596804091676,
+            85.42000001246764, 82.95428573628232, 83.48000001948877, 86.57428572384347,
+            86.95571429446842, 87.19000000829438, 81.43000003124527, 76.04571439366185,
+            94.41683835884098, 95.22826692992768, 87.64255265209434, 87.99683836563231,
+            89.84826693400744, 87.78255265179156, 85.45398122977717, 81.39112411138554,
+            99.30690103407147, 90.77776629707509, 88.885223052207, 89.6568658201349,
+            93.7127586376344, 90.54438960596576, 83.58047336419949, 75.43917434045976
+    };
+
+    private static RSParametersDynamic makeParameters(int i, int frequency) {
+        RSParametersDynamic parameters = new RSParametersDynamic(20 + 7 * (i % 13), (i % 5) - 2, VEHICLES[i % 6],
+                i % 3, frequency, -5 + 3 * (i % 11), SURFACES[i % 7], i % 4 == 0, 20 * (i % 8), 1 + i % 2,
+                (i % 3) * 0.5, 1000 + i);
+        parameters.setSlopePercentage(-6 + i % 13);
+        return parameters;
+    }
+
+    private static RSParametersDynamicColumns makeColumns() {
+        RSParametersDynamicColumns columns = new RSParametersDynamicColumns(VEHICLE_COUNT);
+        for (int i = 0; i < VEHICLE_COUNT; i++) {
+            columns.set(i, makeParameters(i, FREQUENCIES[0]));
+        }
+        return columns;
+    }
+
+    @Test
+    public void testSingleBandEvaluation() {
+        for (int i = 0; i < VEHICLE_COUNT; i++) {
+            for (int band = 0; band < FREQUENCIES.length; band++) {
+                assertEquals(EXPECTED_LEVELS[i * FREQUENCIES.length + band],
+                        EvaluateRoadSourceDynamic.evaluate(makeParameters(i, FREQUENCIES[band])), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testColumnarEvaluation() {
+        double[] levels = new double[VEHICLE_COUNT * EvaluateRoadSourceDynamic.BAND_COUNT];
+        EvaluateRoadSourceDynamic.evaluate(makeColumns(), levels);
+        for (int i = 0; i < levels.length; i++) {
+            assertEquals(EXPECTED_LEVELS[i], levels[i], EPSILON);
+        }
+    }
+
+    @Test
+    public void testColumnarRangeEvaluation() {
+        double[] levels = new double[VEHICLE_COUNT * EvaluateRoadSourceDynamic.BAND_COUNT];
+        EvaluateRoadSourceDynamic.evaluate(makeColumns(), 10, 20, levels);
+        for (int i = 0; i < levels.length; i++) {
+            int vehicle = i / EvaluateRoadSourceDynamic.BAND_COUNT;
+            assertEquals(vehicle >= 10 && vehicle < 20 ? EXPECTED_LEVELS[i] : 0, levels[i], EPSILON);
+        }
+    }
+
+    @Test
+    public void testParallelColumnarEvaluation() {
+        double[] levels = new double[VEHICLE_COUNT * EvaluateRoadSourceDynamic.BAND_COUNT];
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            EvaluateRoadSourceDynamic.evaluate(makeColumns(), levels, pool, 7);
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < levels.length; i++) {
+            assertEquals(EXPECTED_LEVELS[i], levels[i], EPSILON);
+        }
+    }
+}
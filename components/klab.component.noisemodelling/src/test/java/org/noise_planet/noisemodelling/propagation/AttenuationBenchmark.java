@@ -0,0 +1,49 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Band-major {@link EvaluateAttenuationCnossos} kernel against the previous per band evaluation
+ * {@link EvaluateAttenuationCnossosReference}, over the propagation paths of the buildings with topography scene
+ */
+public class AttenuationBenchmark {
+    // Each round evaluates the paths several times, so that a round last long enough to be timed
+    private static final int REPEAT = 50;
+
+    @Test
+    public void benchmarkEvaluate() throws LayerDelaunayError {
+        List<PropagationPath> paths = EvaluateAttenuationCnossosTest.computePaths();
+        PropagationProcessPathData pathData = new PropagationProcessPathData();
+        for (boolean favorable : new boolean[] {false, true}) {
+            for (PropagationPath path : paths) {
+                path.setFavorable(favorable);
+            }
+            long baseline = Benchmarks.medianNanos(() -> {
+                long sum = 0;
+                EvaluateAttenuationCnossosReference evaluator = new EvaluateAttenuationCnossosReference();
+                for (int i = 0; i < REPEAT; i++) {
+                    for (PropagationPath path : paths) {
+                        sum += (long) evaluator.evaluate(path, pathData)[0];
+                    }
+                }
+                return sum;
+            });
+            long kernel = Benchmarks.medianNanos(() -> {
+                long sum = 0;
+                EvaluateAttenuationCnossos evaluator = new EvaluateAttenuationCnossos();
+                double[] aGlobal = new double[PropagationProcessPathData.freq_lvl.size()];
+                for (int i = 0; i < REPEAT; i++) {
+                    for (PropagationPath path : paths) {
+                        evaluator.evaluate(path, pathData, aGlobal);
+                        sum += (long) aGlobal[0];
+                    }
+                }
+                return sum;
+            });
+            Benchmarks.report("Attenuation of " + paths.size() + " paths, " + (favorable ? "favorable" :
+                    "homogeneous"), baseline, kernel, (long) REPEAT * paths.size());
+        }
+    }
+}
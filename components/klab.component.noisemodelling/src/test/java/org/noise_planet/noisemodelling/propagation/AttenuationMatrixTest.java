@@ -0,0 +1,278 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+public class AttenuationMatrixTest {
+    private static final int BAND_COUNT = 8;
+    private static final int SOURCE_COUNT = 23;
+    private static final int RECEIVER_COUNT = 31;
+
+    @TempDir
+    Path temporaryFolder;
+
+    /**
+     * Dense attenuation, null when the source does not reach the receiver
+     */
+    private static double[][][] randomAttenuation(Random random) {
+        double[][][] dense = new double[RECEIVER_COUNT][SOURCE_COUNT][];
+        for (int r = 0; r < RECEIVER_COUNT; r++) {
+            // Some receivers do not have any source
+            if (r % 7 == 3) {
+                continue;
+            }
+            for (int s = 0; s < SOURCE_COUNT; s++) {
+                if (random.nextDouble() < 0.4) {
+                    double[] attenuation = new double[BAND_COUNT];
+                    for (int band = 0; band < BAND_COUNT; band++) {
+                        attenuation[band] = random.nextDouble() * 1e-3;
+                    }
+                    dense[r][s] = attenuation;
+                }
+            }
+        }
+        return dense;
+    }
+
+    private static AttenuationMatrix toMatrix(double[][][] dense) {
+        long[] sourcesPk = new long[SOURCE_COUNT];
+        for (int s = 0; s < SOURCE_COUNT; s++) {
+            sourcesPk[s] = 1000 + s;
+        }
+        AttenuationMatrix.Builder builder = new AttenuationMatrix.Builder(BAND_COUNT, SOURCE_COUNT, RECEIVER_COUNT,
+                sourcesPk, new long[0]);
+        // Rows are not set in the receiver order
+        for (int r = RECEIVER_COUNT - 1; r >= 0; r--) {
+            List<Integer> sources = new ArrayList<>();
+            for (int s = 0; s < SOURCE_COUNT; s++) {
+                if (dense[r][s] != null) {
+                    sources.add(s);
+                }
+            }
+            if (sources.isEmpty()) {
+                continue;
+            }
+            int[] sourceIndex = new int[sources.size()];
+            double[] attenuation = new double[sources.size() * BAND_COUNT];
+            for (int i = 0; i < sourceIndex.length; i++) {
+                sourceIndex[i] = sources.get(i);
+                System.arraycopy(dense[r][sourceIndex[i]], 0, attenuation, i * BAND_COUNT, BAND_COUNT);
+            }
+            builder.setRow(r, sourceIndex, attenuation);
+        }
+        return builder.build();
+    }
+
+    private static double[] randomPower(Random random, int scenarioCount) {
+        double[] power = new double[SOURCE_COUNT * BAND_COUNT * scenarioCount];
+        for (int i = 0; i < power.length; i++) {
+            power[i] = ComputeRays.dbaToW(60 + random.nextDouble() * 40);
+        }
+        return power;
+    }
+
+    /**
+     * Direct energetic sum of the contribution of each source
+     */
+    private static double[] directSum(double[][][] dense, double[] power, int scenarioCount) {
+        double[] energy = new double[RECEIVER_COUNT * BAND_COUNT * scenarioCount];
+        for (int r = 0; r < RECEIVER_COUNT; r++) {
+            for (int s = 0; s < SOURCE_COUNT; s++) {
+                if (dense[r][s] == null) {
+                    continue;
+                }
+                for (int band = 0; band < BAND_COUNT; band++) {
+                    for (int scenario = 0; scenario < scenarioCount; scenario++) {
+                        energy[(r * BAND_COUNT + band) * scenarioCount + scenario] += dense[r][s][band] *
+                                power[(s * BAND_COUNT + band) * scenarioCount + scenario];
+                    }
+                }
+            }
+        }
+        return energy;
+    }
+
+    private static void assertEnergyEquals(double[] expected, double[] got) {
+        assertEquals(expected.length, got.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], got[i], Math.abs(expected[i]) * 1e-12, "At " + i);
+        }
+    }
+
+    @Test
+    public void testGetAttenuation() {
+        double[][][] dense = randomAttenuation(new Random(42));
+        AttenuationMatrix matrix = toMatrix(dense);
+        int entryCount = 0;
+        int rowCount = 0;
+        for (int r = 0; r < RECEIVER_COUNT; r++) {
+            boolean hasSource = false;
+            for (int s = 0; s < SOURCE_COUNT; s++) {
+                if (dense[r][s] == null) {
+                    assertNull(matrix.getAttenuation(s, r));
+                } else {
+                    assertArrayEquals(dense[r][s], matrix.getAttenuation(s, r));
+                    entryCount++;
+                    hasSource = true;
+                }
+            }
+            if (hasSource) {
+                rowCount++;
+            }
+        }
+        assertEquals(entryCount, matrix.getEntryCount());
+        assertEquals(rowCount, matrix.getRowCount());
+        assertEquals(1005, matrix.getSourcePk(5));
+        assertEquals(5, matrix.getReceiverPk(5));
+    }
+
+    @Test
+    public void testMultiplySingleScenario() {
+        Random random = new Random(7);
+        double[][][] dense = randomAttenuation(random);
+        AttenuationMatrix matrix = toMatrix(dense);
+        double[] power = randomPower(random, 1);
+        assertEnergyEquals(directSum(dense, power, 1), matrix.multiply(power));
+    }
+
+    @Test
+    public void testMultiplyScenarios() {
+        Random random = new Random(13);
+        double[][][] dense = randomAttenuation(random);
+        AttenuationMatrix matrix = toMatrix(dense);
+        int scenarioCount = 24;
+        double[] power = randomPower(random, scenarioCount);
+        double[] expected = directSum(dense, power, scenarioCount);
+        double[] energy = new double[RECEIVER_COUNT * BAND_COUNT * scenarioCount];
+        matrix.multiply(power, scenarioCount, energy);
+        assertEnergyEquals(expected, energy);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            double[] pooledEnergy = new double[energy.length];
+            matrix.multiply(power, scenarioCount, pooledEnergy, pool, 3);
+            assertEnergyEquals(expected, pooledEnergy);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMultiplyChecksLength() {
+        AttenuationMatrix matrix = toMatrix(randomAttenuation(new Random(1)));
+        assertThrows(IllegalArgumentException.class, () -> matrix.multiply(new double[SOURCE_COUNT * BAND_COUNT],
+                2, new double[RECEIVER_COUNT * BAND_COUNT * 2]));
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        Random random = new Random(17);
+        double[][][] dense = randomAttenuation(random);
+        AttenuationMatrix matrix = toMatrix(dense);
+        File file = temporaryFolder.resolve("cell.matrix").toFile();
+        matrix.save(file);
+        AttenuationMatrix loaded = AttenuationMatrix.load(file);
+        assertEquals(matrix.getBandCount(), loaded.getBandCount());
+        assertEquals(matrix.getSourceCount(), loaded.getSourceCount());
+        assertEquals(matrix.getReceiverCount(), loaded.getReceiverCount());
+        assertEquals(matrix.getRowCount(), loaded.getRowCount());
+        assertEquals(matrix.getEntryCount(), loaded.getEntryCount());
+        assertEquals(1005, loaded.getSourcePk(5));
+        assertEquals(5, loaded.getReceiverPk(5));
+        for (int r = 0; r < RECEIVER_COUNT; r++) {
+            for (int s = 0; s < SOURCE_COUNT; s++) {
+                assertArrayEquals(matrix.getAttenuation(s, r), loaded.getAttenuation(s, r));
+            }
+        }
+        double[] power = randomPower(random, 1);
+        assertArrayEquals(matrix.multiply(power), loaded.multiply(power));
+        // A changed byte is detected by the checksum
+        try (RandomAccessFile corrupted = new RandomAccessFile(file, "rw")) {
+            corrupted.seek(corrupted.length() / 2);
+            int value = corrupted.read();
+            corrupted.seek(corrupted.length() / 2);
+            corrupted.write(value ^ 0xFF);
+        }
+        assertThrows(IOException.class, () -> AttenuationMatrix.load(file));
+        // Truncated file
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(10);
+        }
+        assertThrows(IOException.class, () -> AttenuationMatrix.load(file));
+    }
+
+    private static PropagationProcessData makeScene() throws LayerDelaunayError {
+        GeometryFactory factory = new GeometryFactory();
+        PropagationProcessData data = new PropagationProcessData(TestScenes.singleBuilding());
+        data.addSource(10L, factory.createPoint(new Coordinate(20, 50, 1)));
+        data.addSource(11L, factory.createPoint(new Coordinate(50, 90, 1)));
+        data.addSource(12L, factory.createLineString(new Coordinate[] {new Coordinate(0, 0, 0.5),
+                new Coordinate(100, 0, 0.5)}));
+        data.addReceiver(20, new Coordinate(80, 50, 4));
+        data.addReceiver(21, new Coordinate(50, 20, 4));
+        data.addReceiver(22, new Coordinate(10, 80, 4));
+        data.maximumError = 0;
+        data.reflexionOrder = 1;
+        data.setComputeHorizontalDiffraction(true);
+        return data;
+    }
+
+    /**
+     * The matrix must give the same receiver levels than the sum of the attenuation computed by ComputeRaysOut
+     */
+    @Test
+    public void testMatchesComputeRaysOut() throws LayerDelaunayError {
+        PropagationProcessPathData pathData = new PropagationProcessPathData();
+        PropagationProcessData data = makeScene();
+        ComputeRaysOut levelsOut = new ComputeRaysOut(false, pathData, data);
+        new ComputeRays(data).run(levelsOut);
+        AttenuationMatrixRaysOut matrixOut = new AttenuationMatrixRaysOut(pathData, makeScene());
+        new ComputeRays(makeScene()).run(matrixOut);
+        AttenuationMatrix matrix = matrixOut.getAttenuationMatrix();
+        assertEquals(20, matrix.getReceiverPk(0));
+        assertEquals(12, matrix.getSourcePk(2));
+
+        // Expected attenuation, receiver pk -> source pk -> energy
+        Map<Long, Map<Long, double[]>> expected = new HashMap<>();
+        for (ComputeRaysOut.verticeSL lvl : levelsOut.getVerticesSoundLevel()) {
+            Map<Long, double[]> sources = expected.computeIfAbsent(lvl.receiverId, k -> new HashMap<>());
+            double[] energy = sources.computeIfAbsent(lvl.sourceId, k -> new double[BAND_COUNT]);
+            for (int band = 0; band < BAND_COUNT; band++) {
+                energy[band] += ComputeRays.dbaToW(lvl.value[band]);
+            }
+        }
+        assertFalse(expected.isEmpty());
+        for (int r = 0; r < matrix.getReceiverCount(); r++) {
+            for (int s = 0; s < matrix.getSourceCount(); s++) {
+                Map<Long, double[]> sources = expected.get(matrix.getReceiverPk(r));
+                double[] energy = sources == null ? null : sources.get(matrix.getSourcePk(s));
+                double[] attenuation = matrix.getAttenuation(s, r);
+                if (energy == null) {
+                    assertNull(attenuation);
+                } else {
+                    assertNotNull(attenuation, "Missing source " + s + " receiver " + r);
+                    assertEnergyEquals(energy, attenuation);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * Timing and allocation helpers of the benchmarks. The benchmark classes do not match the surefire test patterns,
+ * they are run on demand, for example: mvn test -Dtest=TriangleLocationBenchmark
+ */
+final class Benchmarks {
+    static final int WARMUP_ROUNDS = 3;
+    static final int ROUNDS = 7;
+    // Keep the results of the measured code alive
+    private static volatile long sink;
+
+    private Benchmarks() {
+    }
+
+    /**
+     * @param round Measured code, returns a value depending on the computation
+     * @return Median duration of the rounds in nanoseconds, after the warm up rounds
+     */
+    static long medianNanos(int warmupRounds, int rounds, LongSupplier round) {
+        for (int i = 0; i < warmupRounds; i++) {
+            sink += round.getAsLong();
+        }
+        long[] durations = new long[rounds];
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            sink += round.getAsLong();
+            durations[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(durations);
+        return durations[rounds / 2];
+    }
+
+    static long medianNanos(LongSupplier round) {
+        return medianNanos(WARMUP_ROUNDS, ROUNDS, round);
+    }
+
+    /**
+     * @return True if the JVM counts the bytes allocated by each thread
+     */
+    static boolean isAllocationCountSupported() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        return threadMXBean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported() &&
+                ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * @param round Measured code, run once for warm up then once for the measure
+     * @return Bytes allocated by the current thread during the measure, see {@link #isAllocationCountSupported()}
+     */
+    static long allocatedBytes(LongSupplier round) {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        sink += round.getAsLong();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        sink += round.getAsLong();
+        return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    /**
+     * Print the durations of the baseline and of the new implementation
+     * @param operations Number of operations of a round
+     */
+    static void report(String name, long baselineNanos, long nanos, long operations) {
+        System.out.println(String.format(Locale.ROOT, "%-48s baseline %10.1f ns/op  new %10.1f ns/op  speedup %5.2f",
+                name, baselineNanos / (double) operations, nanos / (double) operations,
+                baselineNanos / (double) Math.max(1, nanos)));
+    }
+}
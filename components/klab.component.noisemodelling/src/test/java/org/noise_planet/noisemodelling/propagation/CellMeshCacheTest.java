@@ -0,0 +1,141 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+
+public class CellMeshCacheTest {
+    private static final Geometry DOMAIN = TestScenes.FACTORY.toGeometry(new Envelope(0, 200, 0, 200));
+
+    @TempDir
+    Path temporaryFolder;
+
+    /**
+     * @param reverseTopography Insert the topographic points in the reverse order
+     * @param firstHeight Height of the first building
+     */
+    private static MeshBuilder makeMesh(boolean reverseTopography, double firstHeight) {
+        MeshBuilder mesh = new MeshBuilder();
+        Random random = new Random(5);
+        for (int i = 0; i < 12; i++) {
+            double minX = 10 + (i % 4) * 45 + random.nextDouble() * 10;
+            double minY = 10 + (i / 4) * 60 + random.nextDouble() * 10;
+            mesh.addGeometry(TestScenes.rectangle(minX, minY, minX + 15, minY + 20), i == 0 ? firstHeight : 5 + i,
+                    0.1 + i * 0.05).setPrimaryKey(100 + i);
+        }
+        Coordinate[] topography = new Coordinate[25];
+        for (int i = 0; i < topography.length; i++) {
+            topography[i] = new Coordinate((i % 5) * 50, (i / 5) * 50, random.nextDouble() * 10);
+        }
+        if (reverseTopography) {
+            Collections.reverse(Arrays.asList(topography));
+        }
+        for (Coordinate point : topography) {
+            mesh.addTopographicPoint(point);
+        }
+        return mesh;
+    }
+
+    private File getCacheFile(String fingerprint) {
+        return new File(temporaryFolder.toFile(), fingerprint + ".mesh");
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, LayerDelaunayError {
+        CellMeshCache cache = new CellMeshCache(new File(temporaryFolder.toFile(), "cache"));
+        MeshBuilder mesh = makeMesh(false, 10);
+        String fingerprint = mesh.computeInputFingerprint(DOMAIN);
+        assertFalse(cache.contains(fingerprint));
+        assertNull(cache.load(fingerprint));
+        mesh.finishPolygonFeeding(DOMAIN);
+        cache.save(fingerprint, mesh);
+        assertTrue(cache.contains(fingerprint));
+
+        FastObstructionTest loaded = cache.load(fingerprint);
+        TriangleMesh expected = mesh.getTriangleMesh();
+        TriangleMesh got = loaded.getMesh();
+        assertTrue(got.hasNeighbors());
+        assertArrayEquals(expected.getXArray(), got.getXArray());
+        assertArrayEquals(expected.getYArray(), got.getYArray());
+        assertArrayEquals(expected.getZArray(), got.getZArray());
+        assertArrayEquals(expected.getTriVerticesArray(), got.getTriVerticesArray());
+        assertArrayEquals(expected.getTriNeighborsArray(), got.getTriNeighborsArray());
+        assertArrayEquals(expected.getTriAttributeArray(), got.getTriAttributeArray());
+        List<MeshBuilder.PolygonWithHeight> expectedBuildings = mesh.getPolygonWithHeight();
+        List<MeshBuilder.PolygonWithHeight> gotBuildings = loaded.getPolygonWithHeight();
+        assertEquals(expectedBuildings.size(), gotBuildings.size());
+        for (int i = 0; i < expectedBuildings.size(); i++) {
+            MeshBuilder.PolygonWithHeight expectedBuilding = expectedBuildings.get(i);
+            MeshBuilder.PolygonWithHeight gotBuilding = gotBuildings.get(i);
+            assertTrue(expectedBuilding.getGeometry().equalsExact(gotBuilding.getGeometry()));
+            assertEquals(expectedBuilding.getHeight(), gotBuilding.getHeight(), 0);
+            assertEquals(expectedBuilding.getPrimaryKey(), gotBuilding.getPrimaryKey());
+            assertEquals(expectedBuilding.getAlpha(), gotBuilding.getAlpha());
+        }
+    }
+
+    @Test
+    public void testFingerprint() throws IOException, LayerDelaunayError {
+        CellMeshCache cache = new CellMeshCache(temporaryFolder.toFile());
+        MeshBuilder mesh = makeMesh(false, 10);
+        String fingerprint = mesh.computeInputFingerprint(DOMAIN);
+        // Insertion order of topographic points does not change the fingerprint
+        assertEquals(fingerprint, makeMesh(true, 10).computeInputFingerprint(DOMAIN));
+        mesh.finishPolygonFeeding(DOMAIN);
+        cache.save(fingerprint, mesh);
+        // Other inputs are not found in the cache
+        String otherBuildings = makeMesh(false, 11).computeInputFingerprint(DOMAIN);
+        assertNotEquals(fingerprint, otherBuildings);
+        assertFalse(cache.contains(otherBuildings));
+        assertNull(cache.load(otherBuildings));
+        String otherDomain = makeMesh(false, 10).computeInputFingerprint(
+                TestScenes.FACTORY.toGeometry(new Envelope(0, 210, 0, 200)));
+        assertNotEquals(fingerprint, otherDomain);
+        assertNull(cache.load(otherDomain));
+        assertTrue(cache.contains(fingerprint));
+    }
+
+    @Test
+    public void testTruncatedOrCorruptedFile() throws IOException, LayerDelaunayError {
+        CellMeshCache cache = new CellMeshCache(temporaryFolder.toFile());
+        MeshBuilder mesh = makeMesh(false, 10);
+        String fingerprint = mesh.computeInputFingerprint(DOMAIN);
+        mesh.finishPolygonFeeding(DOMAIN);
+        cache.save(fingerprint, mesh);
+        Path cacheFile = getCacheFile(fingerprint).toPath();
+        byte[] content = Files.readAllBytes(cacheFile);
+        for (int length : new int[] {0, 6, 12, content.length / 2, content.length - 5, content.length - 1}) {
+            Files.write(cacheFile, Arrays.copyOf(content, length));
+            assertThrows(IOException.class, () -> cache.load(fingerprint), Integer.toString(length));
+        }
+        // Magic, vertex count, coordinates, buildings and checksum
+        for (int position : new int[] {0, 8, 11, 20, content.length / 2, content.length - 20, content.length - 1}) {
+            byte[] corrupted = content.clone();
+            corrupted[position] ^= 0x5A;
+            Files.write(cacheFile, corrupted);
+            assertThrows(IOException.class, () -> cache.load(fingerprint), Integer.toString(position));
+        }
+        // Original content is still readable
+        Files.write(cacheFile, content);
+        assertEquals(mesh.getTriangleMesh().getTriangleCount(), cache.load(fingerprint).getMesh().getTriangleCount());
+    }
+}
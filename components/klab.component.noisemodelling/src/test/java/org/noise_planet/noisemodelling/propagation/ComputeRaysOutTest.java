@@ -0,0 +1,108 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+
+public class ComputeRaysOutTest {
+    private static final int BAND_COUNT = PropagationProcessPathData.freq_lvl.size();
+
+    /**
+     * @return Power spectrum (W) of a source, different for each source
+     */
+    private static double[] sourcePower(int sourceId) {
+        double[] power = new double[BAND_COUNT];
+        for (int idf = 0; idf < BAND_COUNT; idf++) {
+            power[idf] = ComputeRays.dbaToW(70 + sourceId * 7 + idf);
+        }
+        return power;
+    }
+
+    /**
+     * @param withEmission True to add the sources with their power spectrum
+     */
+    private static PropagationProcessData makeScene(boolean withEmission) throws LayerDelaunayError {
+        PropagationProcessData data = new PropagationProcessData(TestScenes.singleBuilding());
+        Geometry[] sources = new Geometry[] {TestScenes.FACTORY.createPoint(new Coordinate(20, 50, 1)),
+                TestScenes.FACTORY.createPoint(new Coordinate(50, 90, 1)),
+                TestScenes.FACTORY.createLineString(new Coordinate[] {new Coordinate(0, 0, 0.5),
+                        new Coordinate(100, 0, 0.5)})};
+        for (int i = 0; i < sources.length; i++) {
+            if (withEmission) {
+                data.addSource(10L + i, sources[i], sourcePower(i));
+            } else {
+                data.addSource(10L + i, sources[i]);
+            }
+        }
+        Random random = new Random(5);
+        for (int i = 0; i < 12; i++) {
+            data.addReceiver(100 + i, new Coordinate(random.nextDouble() * 100, random.nextDouble() * 100, 4));
+        }
+        data.maximumError = 0;
+        data.reflexionOrder = 1;
+        return data;
+    }
+
+    /**
+     * The aggregated receiver levels are the energetic sum of the source power with the attenuation of each couple
+     */
+    @Test
+    public void testAggregatedLevels() throws LayerDelaunayError {
+        PropagationProcessPathData pathData = new PropagationProcessPathData();
+        PropagationProcessData data = makeScene(true);
+        ComputeRaysOut levelsOut = new ComputeRaysOut(false, pathData, data);
+        new ComputeRays(data).run(levelsOut);
+        assertTrue(levelsOut.getVerticesSoundLevel().size() > data.receivers.size());
+        double[] expected = new double[data.receivers.size() * BAND_COUNT];
+        for (ComputeRaysOut.verticeSL lvl : levelsOut.getVerticesSoundLevel()) {
+            int receiver = data.receiversPk.indexOf(lvl.receiverId);
+            double[] power = sourcePower(data.sourcesPk.indexOf(lvl.sourceId));
+            for (int idf = 0; idf < BAND_COUNT; idf++) {
+                expected[receiver * BAND_COUNT + idf] += ComputeRays.dbaToW(lvl.value[idf]) * power[idf];
+            }
+        }
+
+        for (int threadCount : new int[] {1, 3}) {
+            PropagationProcessData aggregatedData = makeScene(true);
+            ComputeRaysOut aggregatedOut = new ComputeRaysOut(false, pathData, aggregatedData);
+            aggregatedOut.enableReceiverLevelsAggregation(aggregatedData.receivers.size());
+            ComputeRays computeRays = new ComputeRays(aggregatedData);
+            computeRays.setThreadCount(threadCount);
+            computeRays.run(aggregatedOut);
+            assertTrue(aggregatedOut.getVerticesSoundLevel().isEmpty());
+            double[] energy = aggregatedOut.getReceiversEnergy();
+            assertEquals(expected.length, energy.length);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], energy[i], expected[i] * 1e-12);
+            }
+            for (int receiver = 0; receiver < aggregatedData.receivers.size(); receiver++) {
+                double[] level = aggregatedOut.getReceiverLevel(receiver);
+                for (int idf = 0; idf < BAND_COUNT; idf++) {
+                    assertEquals(ComputeRays.wToDba(expected[receiver * BAND_COUNT + idf]), level[idf], 1e-9);
+                }
+            }
+        }
+    }
+
+    /**
+     * Aggregation does not have any meaning without the power of the sources
+     */
+    @Test
+    public void testAggregationRequiresSourcePower() throws LayerDelaunayError {
+        PropagationProcessPathData pathData = new PropagationProcessPathData();
+        assertThrows(IllegalStateException.class, () -> new ComputeRaysOut(false, pathData)
+                .enableReceiverLevelsAggregation(1));
+        PropagationProcessData data = makeScene(false);
+        ComputeRaysOut out = new ComputeRaysOut(false, pathData, data);
+        out.enableReceiverLevelsAggregation(data.receivers.size());
+        ComputeRays computeRays = new ComputeRays(data);
+        computeRays.setThreadCount(1);
+        assertThrows(IllegalStateException.class, () -> computeRays.run(out));
+    }
+}
@@ -0,0 +1,108 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+public class ConvergenceStatisticsTest {
+
+    private static void addReceivers(ConvergenceStatistics statistics, int count, double residualError) {
+        for (int i = 0; i < count; i++) {
+            statistics.addReceiver(statistics.getReceiverCount(), 10, residualError > 0 ? 2 : 0, residualError);
+        }
+    }
+
+    @Test
+    public void testHistogram() throws IOException {
+        ConvergenceStatistics statistics = new ConvergenceStatistics();
+        statistics.enableReceiverStatistics();
+        double[] residualErrors = {0, 0.005, 0.01, 0.02, 0.1, 0.3, 1, 1.5, 5, 10};
+        for (int i = 0; i < residualErrors.length; i++) {
+            statistics.addReceiver(i, 10, residualErrors[i] > 0 ? 3 : 0, residualErrors[i]);
+        }
+        // Class upper bounds are inclusive, the last class holds the values greater than the last bound
+        assertArrayEquals(new long[] {1, 2, 1, 1, 0, 1, 1, 1, 1, 1}, statistics.getResidualErrorHistogram());
+        assertEquals(residualErrors.length, statistics.getReceiverCount());
+        assertEquals(residualErrors.length - 1, statistics.getEarlyTerminatedReceiverCount());
+        assertEquals(residualErrors.length * 10, statistics.getVisitedSourceCount());
+        assertEquals((residualErrors.length - 1) * 3, statistics.getSkippedSourceCount());
+        double sum = 0;
+        for (double residualError : residualErrors) {
+            sum += residualError;
+        }
+        assertEquals(sum / residualErrors.length, statistics.getMeanResidualError(), 1e-12);
+        assertEquals(10, statistics.getMaximumResidualError(), 0);
+        assertEquals(1L, statistics.getSummary().get("residual_error_gt_5.0"));
+        StringWriter writer = new StringWriter();
+        statistics.writeReceiverStatistics(writer);
+        String[] lines = writer.toString().split("\n");
+        assertEquals(residualErrors.length + 1, lines.length);
+        assertTrue(lines[10].startsWith("9,10,3,"), lines[10]);
+    }
+
+    @Test
+    public void testCutoffWithoutBudget() {
+        ConvergenceStatistics statistics = new ConvergenceStatistics();
+        assertEquals(3, statistics.getCutoff(3), 0);
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD * 2, 0);
+        assertEquals(3, statistics.getCutoff(3), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, statistics.getCutoff(Double.NEGATIVE_INFINITY), 0);
+    }
+
+    @Test
+    public void testCutoffOnlyReplacesEnabledMaximumError() {
+        ConvergenceStatistics statistics = new ConvergenceStatistics();
+        statistics.setErrorBudget(0.1, 1);
+        assertEquals(0.1, statistics.getCutoff(3), 0);
+        // Outputs that require all the sources disable the maximum error, the budget must not enable the pruning
+        assertEquals(0, statistics.getCutoff(0), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, statistics.getCutoff(Double.NEGATIVE_INFINITY), 0);
+    }
+
+    @Test
+    public void testAdaptation() {
+        ConvergenceStatistics statistics = new ConvergenceStatistics();
+        statistics.setErrorBudget(0.1, 1);
+        // No update before the end of the period
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD - 1, 0);
+        assertEquals(0.1, statistics.getCutoff(3), 0);
+        // The cutoff is relaxed while the mean error is below the budget, by a factor 2 at most
+        addReceivers(statistics, 1, 0);
+        assertEquals(0.2, statistics.getCutoff(3), 1e-12);
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD, 0);
+        assertEquals(0.4, statistics.getCutoff(3), 1e-12);
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD, 0);
+        assertEquals(0.8, statistics.getCutoff(3), 1e-12);
+        // Clamped to the maximal cutoff
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD, 0);
+        assertEquals(1, statistics.getCutoff(3), 1e-12);
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD, 0);
+        assertEquals(1, statistics.getCutoff(3), 1e-12);
+        // Mean error over the budget, the cutoff is tightened by a factor 2 at most
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD, 5);
+        assertEquals(0.5, statistics.getCutoff(3), 1e-12);
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD, 5);
+        assertEquals(0.25, statistics.getCutoff(3), 1e-12);
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD, 5);
+        assertEquals(0.125, statistics.getCutoff(3), 1e-12);
+        // Clamped to the budget
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD, 5);
+        assertEquals(0.1, statistics.getCutoff(3), 1e-12);
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD, 5);
+        assertEquals(0.1, statistics.getCutoff(3), 1e-12);
+    }
+
+    @Test
+    public void testMaximumCutoffLowerThanBudget() {
+        ConvergenceStatistics statistics = new ConvergenceStatistics();
+        statistics.setErrorBudget(0.5, 0.1);
+        assertEquals(0.5, statistics.getCutoff(3), 0);
+        addReceivers(statistics, ConvergenceStatistics.ADAPTATION_PERIOD * 3, 0);
+        assertEquals(0.5, statistics.getCutoff(3), 0);
+    }
+}
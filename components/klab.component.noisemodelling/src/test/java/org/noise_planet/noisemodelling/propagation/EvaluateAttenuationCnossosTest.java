@@ -0,0 +1,98 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+
+public class EvaluateAttenuationCnossosTest {
+    private static final int BAND_COUNT = PropagationProcessPathData.freq_lvl.size();
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * @return Propagation paths of random sources and receivers over the buildings with topography scene, with
+     * reflections and diffractions
+     */
+    static List<PropagationPath> computePaths() throws LayerDelaunayError {
+        Random random = new Random(17);
+        PropagationProcessData data = new PropagationProcessData(TestScenes.buildingsWithTopography(random));
+        data.addSoilType(new Envelope(0, 100, 0, 200), 1);
+        data.addSoilType(new Envelope(100, 200, 0, 100), 0.5);
+        for (int i = 0; i < 6; i++) {
+            data.addSource((long) i, TestScenes.FACTORY.createPoint(new Coordinate(10 + random.nextDouble() * 180,
+                    10 + random.nextDouble() * 180, 0.5)));
+        }
+        for (int i = 0; i < 15; i++) {
+            data.addReceiver(100 + i, new Coordinate(10 + random.nextDouble() * 180, 10 + random.nextDouble() * 180,
+                    1.5 + random.nextDouble() * 10));
+        }
+        data.maximumError = 0;
+        data.reflexionOrder = 1;
+        data.setComputeHorizontalDiffraction(true);
+        data.setComputeVerticalDiffraction(true);
+        ComputeRaysOut out = new ComputeRaysOut(true, new PropagationProcessPathData(), data);
+        ComputeRays computeRays = new ComputeRays(data);
+        computeRays.setThreadCount(1);
+        computeRays.makeRelativeZToAbsolute();
+        computeRays.run(out);
+        return out.getPropagationPaths();
+    }
+
+    private static void assertSameAttenuation(double[] expected, double[] got) {
+        assertEquals(expected.length, got.length);
+        for (int idf = 0; idf < expected.length; idf++) {
+            assertEquals(expected[idf], got[idf], TOLERANCE * Math.max(1, Math.abs(expected[idf])));
+        }
+    }
+
+    /**
+     * The band-major kernel gives the same attenuation than the previous per band computation
+     */
+    @Test
+    public void testSameAsPerBandEvaluation() throws LayerDelaunayError {
+        List<PropagationPath> paths = computePaths();
+        PropagationProcessPathData[] pathDataList = {new PropagationProcessPathData(),
+                new PropagationProcessPathData().setTemperature(25).setPrime2520(true),
+                new PropagationProcessPathData().setTemperature(-5).setGDisc(false)};
+        // The same instance is used with all the atmospheric conditions, in order to check the constants update
+        EvaluateAttenuationCnossos evaluator = new EvaluateAttenuationCnossos();
+        double[] aGlobal = new double[BAND_COUNT];
+        int directCount = 0;
+        int verticalDiffractionCount = 0;
+        int horizontalDiffractionCount = 0;
+        int reflectionCount = 0;
+        for (PropagationPath path : paths) {
+            if (!path.difVPoints.isEmpty()) {
+                verticalDiffractionCount++;
+            } else if (!path.difHPoints.isEmpty()) {
+                horizontalDiffractionCount++;
+            } else if (!path.refPoints.isEmpty()) {
+                reflectionCount++;
+            } else {
+                directCount++;
+            }
+            for (PropagationProcessPathData pathData : pathDataList) {
+                for (boolean favorable : new boolean[] {false, true}) {
+                    path.setFavorable(favorable);
+                    double[] expected = new EvaluateAttenuationCnossosReference().evaluate(path, pathData);
+                    evaluator.evaluate(path, pathData, aGlobal);
+                    assertSameAttenuation(expected, aGlobal);
+                    assertSameAttenuation(expected, new EvaluateAttenuationCnossos().evaluate(path, pathData));
+                    // Ground attenuation of the public static method, on the segment set up by the evaluation
+                    SegmentPath srPath = path.getSRList().get(0);
+                    assertSameAttenuation(EvaluateAttenuationCnossosReference.getAGroundCore(path, srPath, pathData),
+                            EvaluateAttenuationCnossos.getAGroundCore(path, srPath, pathData));
+                }
+            }
+        }
+        assertTrue(directCount > 0);
+        assertTrue(verticalDiffractionCount > 0);
+        assertTrue(horizontalDiffractionCount > 0);
+        assertTrue(reflectionCount > 0);
+    }
+}
@@ -0,0 +1,347 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Point;
+
+public class FastObstructionTestTest {
+
+    /**
+     * @return Random point above the ground, below the ground, on a roof or inside a building
+     */
+    private static Coordinate randomPoint(Random random, FastObstructionTest mesh) {
+        List<MeshBuilder.PolygonWithHeight> buildings = mesh.getPolygonWithHeight();
+        double kind = random.nextDouble();
+        if (kind < 0.3) {
+            MeshBuilder.PolygonWithHeight building = buildings.get(random.nextInt(buildings.size()));
+            Envelope envelope = building.getGeometry().getEnvelopeInternal();
+            Coordinate p = new Coordinate(envelope.getMinX() + envelope.getWidth() * (0.1 + random.nextDouble() * 0.8),
+                    envelope.getMinY() + envelope.getHeight() * (0.1 + random.nextDouble() * 0.8));
+            double height = building.hasHeight() ? building.getHeight() : 10;
+            // On the roof or inside of the building
+            p.z = height + (kind < 0.15 ? 1 + random.nextDouble() * 5 : -1 - random.nextDouble() * 3);
+            return p;
+        }
+        Coordinate p = new Coordinate(1 + random.nextDouble() * 198, 1 + random.nextDouble() * 198);
+        double ground = mesh.getHeightAtPosition(p);
+        // Below the ground or above the ground
+        p.z = ground + (kind < 0.4 ? -0.5 - random.nextDouble() * 2 : 0.5 + random.nextDouble() * 20);
+        return p;
+    }
+
+    /**
+     * The allocation free visibility test gives the same result than the propagation path walk
+     */
+    @Test
+    public void testFreeFieldSameAsPropagationPath() throws LayerDelaunayError {
+        Random random = new Random(42);
+        FastObstructionTest mesh = TestScenes.buildingsWithTopography(random);
+        int freeFieldCount = 0;
+        int blockedByBuilding = 0;
+        int pairCount = 5000;
+        for (int i = 0; i < pairCount; i++) {
+            Coordinate p1 = randomPoint(random, mesh);
+            Coordinate p2 = randomPoint(random, mesh);
+            boolean expected = mesh.computePropagationPath(p1, p2, true, null, false);
+            assertEquals(expected, mesh.isFreeField(p1, p2), p1 + " " + p2);
+            if (expected) {
+                freeFieldCount++;
+            } else {
+                Point midPoint = TestScenes.FACTORY.createPoint(new Coordinate((p1.x + p2.x) / 2,
+                        (p1.y + p2.y) / 2));
+                for (MeshBuilder.PolygonWithHeight building : mesh.getPolygonWithHeight()) {
+                    if (building.getGeometry().contains(midPoint)) {
+                        blockedByBuilding++;
+                        break;
+                    }
+                }
+            }
+        }
+        // Both visible and hidden pairs are tested
+        assertTrue(freeFieldCount > pairCount / 10, Integer.toString(freeFieldCount));
+        assertTrue(freeFieldCount < pairCount * 9 / 10, Integer.toString(freeFieldCount));
+        assertTrue(blockedByBuilding > 0);
+    }
+
+    /**
+     * The visibility test does not allocate objects, contrary to the propagation path walk
+     */
+    @Test
+    public void testFreeFieldAllocation() throws LayerDelaunayError {
+        assumeTrue(Benchmarks.isAllocationCountSupported());
+        Random random = new Random(9);
+        FastObstructionTest mesh = TestScenes.buildingsWithTopography(random);
+        int pairCount = 2000;
+        Coordinate[] points = new Coordinate[pairCount * 2];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = randomPoint(random, mesh);
+        }
+        long pathBytes = Benchmarks.allocatedBytes(() -> {
+            long visible = 0;
+            for (int i = 0; i < points.length; i += 2) {
+                visible += mesh.computePropagationPath(points[i], points[i + 1], true, null, false) ? 1 : 0;
+            }
+            return visible;
+        });
+        long freeFieldBytes = Benchmarks.allocatedBytes(() -> {
+            long visible = 0;
+            for (int i = 0; i < points.length; i += 2) {
+                visible += mesh.isFreeField(points[i], points[i + 1]) ? 1 : 0;
+            }
+            return visible;
+        });
+        // The allocation counter may allocate a few bytes itself
+        assertTrue(freeFieldBytes < pairCount, Long.toString(freeFieldBytes));
+        assertTrue(pathBytes > pairCount * 100L, Long.toString(pathBytes));
+    }
+
+    /**
+     * @return 2D distance between the point and the boundary of the triangle
+     */
+    private static double distanceToTriangleBoundary(FastObstructionTest mesh, int triId, Coordinate p) {
+        TriangleMesh triangles = mesh.getMesh();
+        double distance = Double.MAX_VALUE;
+        for (int side = 0; side < 3; side++) {
+            int a = triangles.getVertex(triId, side);
+            int b = triangles.getVertex(triId, (side + 1) % 3);
+            distance = Math.min(distance, FastObstructionTest.pointSegmentDistance(p.x, p.y, triangles.getX(a),
+                    triangles.getY(a), triangles.getX(b), triangles.getY(b)));
+        }
+        return distance;
+    }
+
+    private static boolean isNeighbor(TriangleMesh triangles, int triId, int otherTriId) {
+        for (int side = 0; side < 3; side++) {
+            if (triangles.getNeighbor(triId, side) == otherTriId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return True if the ray at altitude z pass through the building of the triangle
+     */
+    private static boolean isBlocking(FastObstructionTest mesh, int triId, double z) {
+        int buildingId = mesh.getMesh().getAttribute(triId);
+        if (buildingId == 0) {
+            return false;
+        }
+        MeshBuilder.PolygonWithHeight building = mesh.getPolygonWithHeight().get(buildingId - 1);
+        return !building.hasHeight() || z < building.getHeight();
+    }
+
+    /**
+     * Check the points of a path, from the definition of the walk: each intersection is on the segment p1 p2, on the
+     * shared side of two neighbor triangles, with the altitude of the ray and the state of the ray at this position.
+     * @return Intersections with triangle sides
+     */
+    private static List<TriIdWithIntersection> checkPath(FastObstructionTest mesh, Coordinate p1, Coordinate p2) {
+        List<TriIdWithIntersection> path = new ArrayList<>();
+        boolean reached = mesh.computePropagationPath(p1, p2, false, path, true);
+        TriangleMesh triangles = mesh.getMesh();
+        TriIdWithIntersection first = path.get(0);
+        assertEquals(mesh.getTriangleIdByCoordinate(p1), first.getTriID());
+        assertEquals(0, first.distance(p1), 1e-9);
+        assertEquals(mesh.getHeightAtPosition(p1), first.z, 1e-6);
+        int end = path.size();
+        if (reached) {
+            TriIdWithIntersection last = path.get(path.size() - 1);
+            assertEquals(mesh.getTriangleIdByCoordinate(p2), last.getTriID());
+            assertEquals(0, last.distance(p2), 1e-9);
+            assertEquals(mesh.getHeightAtPosition(p2), last.z, 1e-6);
+            assertEquals(mesh.getMesh().getAttribute(last.getTriID()), last.getBuildingId());
+            end--;
+        }
+        int previousTri = first.getTriID();
+        double previousFraction = 0;
+        double length = p1.distance(p2);
+        for (int i = 1; i < end; i++) {
+            TriIdWithIntersection intersection = path.get(i);
+            int triId = intersection.getTriID();
+            // On the segment, after the previous intersection
+            assertEquals(0, FastObstructionTest.pointSegmentDistance(intersection.x, intersection.y, p1.x, p1.y,
+                    p2.x, p2.y), 1e-6);
+            double fraction = intersection.distance(p1) / length;
+            assertTrue(fraction >= previousFraction - 1e-9);
+            assertEquals(p1.z + fraction * (p2.z - p1.z), intersection.z, 1e-6);
+            // On the side shared by the two triangles
+            assertTrue(isNeighbor(triangles, previousTri, triId));
+            assertEquals(0, distanceToTriangleBoundary(mesh, previousTri, intersection), 1e-6);
+            assertEquals(0, distanceToTriangleBoundary(mesh, triId, intersection), 1e-6);
+            // Flags
+            boolean previousBlocking = isBlocking(mesh, previousTri, intersection.z);
+            boolean onBuilding = previousBlocking || isBlocking(mesh, triId, intersection.z);
+            assertEquals(onBuilding, intersection.isIntersectionOnBuilding());
+            int expectedBuilding = triangles.getAttribute(previousBlocking || triangles.getAttribute(triId) == 0 ?
+                    previousTri : triId);
+            assertEquals(expectedBuilding, intersection.getBuildingId());
+            double ground = mesh.getHeightAtPosition(intersection);
+            if (onBuilding) {
+                assertFalse(intersection.isIntersectionOnTopography());
+            } else if (Math.abs(ground - intersection.z) > 1e-6) {
+                assertEquals(intersection.z < ground, intersection.isIntersectionOnTopography());
+            }
+            previousTri = triId;
+            previousFraction = fraction;
+        }
+        return path;
+    }
+
+    /**
+     * Ray through the building of the single building scene, on a flat ground
+     */
+    @Test
+    public void testPropagationPathThroughBuilding() throws LayerDelaunayError {
+        FastObstructionTest mesh = TestScenes.singleBuilding();
+        Coordinate p1 = new Coordinate(20, 50, 1);
+        Coordinate p2 = new Coordinate(80, 50, 1);
+        List<TriIdWithIntersection> path = checkPath(mesh, p1, p2);
+        List<Double> buildingWalls = new ArrayList<>();
+        for (TriIdWithIntersection intersection : path.subList(1, path.size() - 1)) {
+            assertEquals(50, intersection.y, 1e-9);
+            assertEquals(1, intersection.z, 1e-9);
+            assertFalse(intersection.isIntersectionOnTopography());
+            boolean inBuilding = intersection.x > 40 - 1e-9 && intersection.x < 60 + 1e-9;
+            assertEquals(inBuilding, intersection.isIntersectionOnBuilding(), intersection.toString());
+            assertEquals(inBuilding ? 1 : 0, intersection.getBuildingId());
+            if (Math.abs(intersection.x - 40) < 1e-9 || Math.abs(intersection.x - 60) < 1e-9) {
+                buildingWalls.add(intersection.x);
+            }
+        }
+        assertEquals(2, buildingWalls.size());
+        assertEquals(0, path.get(0).z, 1e-9);
+        assertEquals(0, path.get(path.size() - 1).z, 1e-9);
+        assertFalse(mesh.computePropagationPath(p1, p2, true, null, false));
+
+        // Above the roof the building does not block the ray
+        p1 = new Coordinate(20, 50, 13);
+        p2 = new Coordinate(80, 50, 13);
+        for (TriIdWithIntersection intersection : checkPath(mesh, p1, p2)) {
+            assertFalse(intersection.isIntersectionOnBuilding());
+        }
+        assertTrue(mesh.computePropagationPath(p1, p2, true, null, false));
+
+        // Below the ground
+        p1 = new Coordinate(20, 20, -1);
+        p2 = new Coordinate(80, 30, -1);
+        List<TriIdWithIntersection> belowGround = checkPath(mesh, p1, p2);
+        assertTrue(belowGround.size() > 2);
+        for (TriIdWithIntersection intersection : belowGround.subList(1, belowGround.size() - 1)) {
+            assertTrue(intersection.isIntersectionOnTopography());
+        }
+    }
+
+    @Test
+    public void testPropagationPathWithTopography() throws LayerDelaunayError {
+        Random random = new Random(11);
+        FastObstructionTest mesh = TestScenes.buildingsWithTopography(random);
+        int onBuilding = 0;
+        int onTopography = 0;
+        for (int i = 0; i < 500; i++) {
+            for (TriIdWithIntersection intersection : checkPath(mesh, randomPoint(random, mesh),
+                    randomPoint(random, mesh))) {
+                onBuilding += intersection.isIntersectionOnBuilding() ? 1 : 0;
+                onTopography += intersection.isIntersectionOnTopography() ? 1 : 0;
+            }
+        }
+        assertTrue(onBuilding > 0);
+        assertTrue(onTopography > 0);
+    }
+
+    /**
+     * Check the located triangle against the R-Tree lookup. Points on a side or a vertex may be in several
+     * triangles, any of them is accepted.
+     */
+    private static void checkLocation(FastObstructionTest mesh, TriangleWalkLocator locator, Coordinate p) {
+        TriangleMesh triangles = mesh.getMesh();
+        int expected = mesh.getTriangleIdByIndex(p);
+        int located = mesh.getTriangleIdByCoordinate(p);
+        int walked = locator.locate(p.x, p.y);
+        if (walked >= 0) {
+            assertEquals(walked, located);
+        } else {
+            // Fallback on the R-Tree
+            assertEquals(expected, located, p.toString());
+        }
+        if (located != expected) {
+            assertTrue(FastObstructionTest.dotInTri(triangles, p.x, p.y, located), p.toString());
+            assertEquals(0, distanceToTriangleBoundary(mesh, located, p), 1e-6);
+            assertEquals(0, distanceToTriangleBoundary(mesh, expected, p), 1e-6);
+        }
+    }
+
+    @Test
+    public void testTriangleIdByCoordinate() throws LayerDelaunayError {
+        Random random = new Random(7);
+        FastObstructionTest mesh = TestScenes.buildingsWithTopography(random);
+        TriangleMesh triangles = mesh.getMesh();
+        Envelope envelope = mesh.getMeshEnvelope();
+        TriangleWalkLocator locator = new TriangleWalkLocator(triangles, envelope);
+        // Random points, the walk must find the triangle without the fallback
+        for (int i = 0; i < 5000; i++) {
+            Coordinate p = new Coordinate(envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+                    envelope.getMinY() + random.nextDouble() * envelope.getHeight());
+            checkLocation(mesh, locator, p);
+            if (p.x > 1 && p.x < 199 && p.y > 1 && p.y < 199) {
+                assertEquals(mesh.getTriangleIdByIndex(p), locator.locate(p.x, p.y), p.toString());
+            }
+        }
+        // Constrained, non Delaunay, triangles along the building walls
+        List<MeshBuilder.PolygonWithHeight> buildings = mesh.getPolygonWithHeight();
+        for (int buildingId = 0; buildingId < buildings.size(); buildingId++) {
+            Coordinate[] ring = buildings.get(buildingId).getGeometry().getCoordinates();
+            for (int i = 0; i < ring.length - 1; i++) {
+                for (double t = 0.05; t < 1; t += 0.1) {
+                    double x = ring[i].x + t * (ring[i + 1].x - ring[i].x);
+                    double y = ring[i].y + t * (ring[i + 1].y - ring[i].y);
+                    double nx = ring[i].y - ring[i + 1].y;
+                    double ny = ring[i + 1].x - ring[i].x;
+                    double norm = Math.sqrt(nx * nx + ny * ny);
+                    for (double offset : new double[] {-1e-3, 0, 1e-3}) {
+                        Coordinate p = new Coordinate(x + offset * nx / norm, y + offset * ny / norm);
+                        checkLocation(mesh, locator, p);
+                        assertTrue(locator.locate(p.x, p.y) >= 0, p.toString());
+                    }
+                }
+            }
+        }
+        // On the sides and on the vertices of the triangles
+        for (int triId = 0; triId < triangles.getTriangleCount(); triId++) {
+            for (int side = 0; side < 3; side++) {
+                int a = triangles.getVertex(triId, (side + 1) % 3);
+                int b = triangles.getVertex(triId, (side + 2) % 3);
+                double t = random.nextDouble();
+                Coordinate onSide = new Coordinate(triangles.getX(a) + t * (triangles.getX(b) - triangles.getX(a)),
+                        triangles.getY(a) + t * (triangles.getY(b) - triangles.getY(a)));
+                checkLocation(mesh, locator, onSide);
+                int located = mesh.getTriangleIdByCoordinate(onSide);
+                int neighbor = triangles.getNeighbor(triId, side);
+                assertTrue(located == triId || located == neighbor || FastObstructionTest.dotInTri(triangles,
+                        onSide.x, onSide.y, located), onSide.toString());
+                checkLocation(mesh, locator, triangles.getCoordinate(a));
+            }
+        }
+        // Outside of the mesh, the walk fails and the R-Tree gives the closest triangle within 1 meter
+        Coordinate[] outside = {new Coordinate(envelope.getMinX() - 0.5, envelope.centre().y),
+                new Coordinate(envelope.getMaxX() + 0.5, envelope.centre().y),
+                new Coordinate(envelope.centre().x, envelope.getMaxY() + 0.5),
+                new Coordinate(envelope.getMinX() - 5, envelope.getMinY() - 5)};
+        for (Coordinate p : outside) {
+            assertEquals(-1, locator.locate(p.x, p.y));
+            checkLocation(mesh, locator, p);
+        }
+        assertTrue(mesh.getTriangleIdByCoordinate(outside[0]) >= 0);
+        assertEquals(-1, mesh.getTriangleIdByCoordinate(outside[3]));
+    }
+}
@@ -0,0 +1,77 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Allocation free {@link FastObstructionTest#isFreeField} against the propagation path walk
+ * {@link FastObstructionTest#computePropagationPath}, from a grid of receivers to random sources of a dense city
+ */
+public class FreeFieldBenchmark {
+    private static final int BLOCKS = 40;
+    private static final int GRID_SIDE = 100;
+    private static final int SOURCES_PER_RECEIVER = 20;
+
+    /**
+     * @param points Pairs of points
+     * @return Number of visible pairs
+     */
+    private static long countByPropagationPath(FastObstructionTest mesh, Coordinate[] points) {
+        long visible = 0;
+        for (int i = 0; i < points.length; i += 2) {
+            visible += mesh.computePropagationPath(points[i], points[i + 1], true, null, false) ? 1 : 0;
+        }
+        return visible;
+    }
+
+    private static long countByFreeField(FastObstructionTest mesh, Coordinate[] points) {
+        long visible = 0;
+        for (int i = 0; i < points.length; i += 2) {
+            visible += mesh.isFreeField(points[i], points[i + 1]) ? 1 : 0;
+        }
+        return visible;
+    }
+
+    @Test
+    public void benchmarkFreeField() throws LayerDelaunayError {
+        Random random = new Random(7);
+        Envelope domain = TestScenes.denseCityDomain(BLOCKS);
+        MeshBuilder meshBuilder = TestScenes.denseCity(random, BLOCKS);
+        meshBuilder.finishPolygonFeeding(domain);
+        FastObstructionTest mesh = new FastObstructionTest(meshBuilder.getPolygonWithHeight(),
+                meshBuilder.getTriangleMesh());
+        int pairCount = GRID_SIDE * GRID_SIDE * SOURCES_PER_RECEIVER;
+        Coordinate[] points = new Coordinate[pairCount * 2];
+        int index = 0;
+        for (int i = 0; i < GRID_SIDE; i++) {
+            for (int j = 0; j < GRID_SIDE; j++) {
+                Coordinate receiver = new Coordinate(domain.getMinX() + (i + 0.5) * domain.getWidth() / GRID_SIDE,
+                        domain.getMinY() + (j + 0.5) * domain.getHeight() / GRID_SIDE);
+                receiver.z = mesh.getHeightAtPosition(receiver) + 4;
+                for (int k = 0; k < SOURCES_PER_RECEIVER; k++) {
+                    // Sources within 200 m of the receiver
+                    Coordinate source = new Coordinate(
+                            Math.max(1, Math.min(domain.getMaxX() - 1, receiver.x + random.nextDouble() * 400 - 200)),
+                            Math.max(1, Math.min(domain.getMaxY() - 1, receiver.y + random.nextDouble() * 400 - 200)));
+                    source.z = mesh.getHeightAtPosition(source) + 0.05;
+                    points[index++] = receiver;
+                    points[index++] = source;
+                }
+            }
+        }
+        long baseline = Benchmarks.medianNanos(1, 3, () -> countByPropagationPath(mesh, points));
+        long freeField = Benchmarks.medianNanos(1, 3, () -> countByFreeField(mesh, points));
+        Benchmarks.report("Free field test, receiver grid", baseline, freeField, pairCount);
+        if (Benchmarks.isAllocationCountSupported()) {
+            long baselineBytes = Benchmarks.allocatedBytes(() -> countByPropagationPath(mesh, points));
+            long freeFieldBytes = Benchmarks.allocatedBytes(() -> countByFreeField(mesh, points));
+            System.out.println(String.format(Locale.ROOT, "%-48s baseline %10.1f B/op    new %10.1f B/op",
+                    "Free field test allocations", baselineBytes / (double) pairCount,
+                    freeFieldBytes / (double) pairCount));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+public class HilbertCurveTest {
+    private static final int SIDE = 1 << HilbertCurve.ORDER;
+
+    /**
+     * Position of a curve index, inverse of the curve
+     */
+    private static int[] position(long d) {
+        int x = 0;
+        int y = 0;
+        long t = d;
+        for (int s = 1; s < SIDE; s <<= 1) {
+            int rx = (int) (1 & (t / 2));
+            int ry = (int) (1 & (t ^ rx));
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int swap = x;
+                x = y;
+                y = swap;
+            }
+            x += s * rx;
+            y += s * ry;
+            t /= 4;
+        }
+        return new int[] {x, y};
+    }
+
+    @Test
+    public void testInverse() {
+        Random random = new Random(42);
+        long cellCount = (long) SIDE * SIDE;
+        for (int i = 0; i < 100000; i++) {
+            long d = (long) (random.nextDouble() * cellCount);
+            int[] xy = position(d);
+            assertEquals(d, HilbertCurve.index(xy[0], xy[1]));
+        }
+        assertEquals(0, HilbertCurve.index(0, 0));
+        assertEquals(cellCount - 1, HilbertCurve.index(SIDE - 1, 0));
+    }
+
+    /**
+     * The cells of a corner square cover a range of the curve, consecutive cells of the curve are neighbours
+     */
+    @Test
+    public void testCornerSquare() {
+        int side = 64;
+        int[][] cells = new int[side * side][];
+        for (int x = 0; x < side; x++) {
+            for (int y = 0; y < side; y++) {
+                long d = HilbertCurve.index(x, y);
+                assertTrue(d < cells.length);
+                assertEquals(null, cells[(int) d], "Duplicate index " + d);
+                cells[(int) d] = new int[] {x, y};
+            }
+        }
+        for (int d = 1; d < cells.length; d++) {
+            assertEquals(1, Math.abs(cells[d][0] - cells[d - 1][0]) + Math.abs(cells[d][1] - cells[d - 1][1]));
+        }
+    }
+
+    @Test
+    public void testSort() {
+        Random random = new Random(7);
+        int count = 5000;
+        final List<Coordinate> positions = new ArrayList<>();
+        // The envelope of the positions is the curve domain, positions are cells
+        positions.add(new Coordinate(0, 0));
+        positions.add(new Coordinate(SIDE - 1, SIDE - 1));
+        while (positions.size() < count) {
+            Coordinate position = new Coordinate(random.nextInt(SIDE), random.nextInt(SIDE));
+            positions.add(position);
+            if (random.nextDouble() < 0.05) {
+                // Duplicate positions keep their order
+                positions.add(new Coordinate(position));
+            }
+        }
+        Integer[] expected = new Integer[positions.size()];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = i;
+        }
+        Arrays.sort(expected, Comparator.comparingLong((Integer i) ->
+                HilbertCurve.index((int) positions.get(i).x, (int) positions.get(i).y)).thenComparingInt(i -> i));
+        int[] order = HilbertCurve.sort(positions);
+        assertArrayEquals(Arrays.stream(expected).mapToInt(Integer::intValue).toArray(), order);
+
+        double[] x = new double[positions.size() + 10];
+        double[] y = new double[positions.size() + 10];
+        for (int i = 0; i < positions.size(); i++) {
+            x[i] = positions.get(i).x;
+            y[i] = positions.get(i).y;
+        }
+        // Values after count are ignored
+        Arrays.fill(x, positions.size(), x.length, -1e9);
+        assertArrayEquals(order, HilbertCurve.sort(x, y, positions.size()));
+    }
+
+    @Test
+    public void testSortDegenerate() {
+        assertEquals(0, HilbertCurve.sort(new ArrayList<Coordinate>()).length);
+        List<Coordinate> samePosition = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            samePosition.add(new Coordinate(3, 4));
+        }
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, HilbertCurve.sort(samePosition));
+    }
+
+    /**
+     * Consecutive positions of the sorted order are much closer than in the original random order
+     */
+    @Test
+    public void testLocality() {
+        Random random = new Random(3);
+        List<Coordinate> positions = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            positions.add(new Coordinate(random.nextDouble() * 1000, random.nextDouble() * 1000));
+        }
+        int[] order = HilbertCurve.sort(positions);
+        double sortedLength = 0;
+        double originalLength = 0;
+        for (int i = 1; i < order.length; i++) {
+            sortedLength += positions.get(order[i]).distance(positions.get(order[i - 1]));
+            originalLength += positions.get(i).distance(positions.get(i - 1));
+        }
+        assertTrue(sortedLength * 20 < originalLength, sortedLength + " " + originalLength);
+    }
+
+    private static PropagationProcessData makeScene() throws LayerDelaunayError {
+        GeometryFactory factory = new GeometryFactory();
+        PropagationProcessData data = new PropagationProcessData(TestScenes.singleBuilding());
+        data.addSource(1L, factory.createPoint(new Coordinate(20, 50, 1)));
+        data.addSource(2L, factory.createPoint(new Coordinate(70, 90, 1)));
+        Random random = new Random(11);
+        for (int i = 0; i < 40; i++) {
+            data.addReceiver(100 + i, new Coordinate(random.nextDouble() * 100, random.nextDouble() * 100, 4));
+        }
+        data.reflexionOrder = 1;
+        return data;
+    }
+
+    private static Map<String, double[]> computeLevels(boolean spatialReceiverOrder) throws LayerDelaunayError {
+        PropagationProcessData data = makeScene();
+        ComputeRaysOut out = new ComputeRaysOut(false, new PropagationProcessPathData(), data);
+        ComputeRays computeRays = new ComputeRays(data);
+        computeRays.setSpatialReceiverOrder(spatialReceiverOrder);
+        computeRays.run(out);
+        Map<String, double[]> levels = new HashMap<>();
+        for (ComputeRaysOut.verticeSL lvl : out.getVerticesSoundLevel()) {
+            levels.put(lvl.receiverId + "-" + lvl.sourceId, lvl.value);
+        }
+        return levels;
+    }
+
+    /**
+     * Receivers processed along the curve must give the same levels than receivers processed in the input order
+     */
+    @Test
+    public void testSpatialReceiverOrderLevels() throws LayerDelaunayError {
+        Map<String, double[]> expected = computeLevels(false);
+        Map<String, double[]> got = computeLevels(true);
+        assertTrue(expected.size() > 40);
+        assertEquals(expected.keySet(), got.keySet());
+        for (Map.Entry<String, double[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), got.get(entry.getKey()), 1e-9, entry.getKey());
+        }
+    }
+}
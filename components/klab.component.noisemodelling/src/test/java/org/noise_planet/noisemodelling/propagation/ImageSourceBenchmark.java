@@ -0,0 +1,109 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.LineSegment;
+
+/**
+ * Receiver images of {@link ImageSourceTree} against {@link MirrorReceiverIterator} by reflection order, in a street
+ * canyon. A tree is built for each receiver and queried for all the sources of the receiver.
+ */
+public class ImageSourceBenchmark {
+    private static final double MAX_DIST = 150;
+    private static final double DISTANCE_LIMITATION = 50;
+    private static final int MAX_ORDER = 4;
+    private static final int SOURCES_PER_RECEIVER = 10;
+
+    /**
+     * Two rows of 10 m deep buildings along a 10 m wide street, from x = 0 to x = 400
+     */
+    private static FastObstructionTest makeStreetCanyon(Random random) throws LayerDelaunayError {
+        MeshBuilder mesh = new MeshBuilder();
+        for (double minY : new double[] {0, 20}) {
+            double x = 0;
+            while (x < 380) {
+                double length = 10 + random.nextDouble() * 10;
+                mesh.addGeometry(TestScenes.rectangle(x, minY, x + length, minY + 10), 15 + random.nextDouble() * 10);
+                x += length + 1 + random.nextDouble() * 3;
+            }
+        }
+        mesh.finishPolygonFeeding(new Envelope(-50, 450, -50, 80));
+        return new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangleMesh());
+    }
+
+    private static Coordinate streetPosition(Random random, double minX, double maxX, double z) {
+        return new Coordinate(minX + random.nextDouble() * (maxX - minX), 11 + random.nextDouble() * 8, z);
+    }
+
+    /**
+     * @return Number of images, the iterator is created for each source
+     */
+    private static long iteratorImages(Coordinate[] receivers, List<List<FastObstructionTest.Wall>> walls,
+                                       Coordinate[][] sources, int order) {
+        long count = 0;
+        for (int i = 0; i < receivers.length; i++) {
+            for (Coordinate source : sources[i]) {
+                for (MirrorReceiverResult ignored : new MirrorReceiverIterator.It(receivers[i], walls.get(i),
+                        new LineSegment(source, receivers[i]), DISTANCE_LIMITATION, order, MAX_DIST)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Number of images, the tree is created for each receiver
+     */
+    private static long treeImages(Coordinate[] receivers, List<List<FastObstructionTest.Wall>> walls,
+                                   Coordinate[][] sources, int order) {
+        long count = 0;
+        for (int i = 0; i < receivers.length; i++) {
+            ImageSourceTree tree = new ImageSourceTree(receivers[i], walls.get(i), order);
+            for (Coordinate source : sources[i]) {
+                count += tree.getImages(new LineSegment(source, receivers[i]), DISTANCE_LIMITATION, MAX_DIST).size();
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void benchmarkByOrder() throws LayerDelaunayError {
+        Random random = new Random(21);
+        FastObstructionTest mesh = makeStreetCanyon(random);
+        for (int order = 1; order <= MAX_ORDER; order++) {
+            // Fewer receivers at higher orders, the iterator cost grows with the power of the order
+            int receiverCount = order <= 2 ? 50 : order == 3 ? 10 : 1;
+            Coordinate[] receivers = new Coordinate[receiverCount];
+            Coordinate[][] sources = new Coordinate[receiverCount][SOURCES_PER_RECEIVER];
+            List<List<FastObstructionTest.Wall>> walls = new ArrayList<>(receiverCount);
+            for (int i = 0; i < receiverCount; i++) {
+                receivers[i] = streetPosition(random, 100, 300, 4);
+                walls.add(mesh.getLimitsInRange(MAX_DIST, receivers[i], false));
+                for (int k = 0; k < SOURCES_PER_RECEIVER; k++) {
+                    sources[i][k] = streetPosition(random, receivers[i].x - 60, receivers[i].x + 60, 0.05);
+                }
+            }
+            final int maxOrder = order;
+            long iteratorCount = iteratorImages(receivers, walls, sources, order);
+            long treeCount = treeImages(receivers, walls, sources, order);
+            // The image count computation is the warm up of the highest order
+            int warmupRounds = order < MAX_ORDER ? 1 : 0;
+            int rounds = order < MAX_ORDER ? Benchmarks.ROUNDS : 1;
+            long baseline = Benchmarks.medianNanos(warmupRounds, rounds, () -> iteratorImages(receivers, walls,
+                    sources, maxOrder));
+            long tree = Benchmarks.medianNanos(warmupRounds, rounds, () -> treeImages(receivers, walls, sources,
+                    maxOrder));
+            Benchmarks.report("Receiver images, order " + order, baseline, tree,
+                    (long) receiverCount * SOURCES_PER_RECEIVER);
+            System.out.println(String.format(Locale.ROOT, "%-48s iterator %d images, tree %d images", "",
+                    iteratorCount, treeCount));
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineSegment;
+
+public class ImageSourceTreeTest {
+    private static final double MAX_DIST = 150;
+
+    /**
+     * Random buildings of a grid of 20 m squares, a third of the squares is empty
+     */
+    private static FastObstructionTest makeMesh(Random random) throws LayerDelaunayError {
+        GeometryFactory factory = new GeometryFactory();
+        MeshBuilder mesh = new MeshBuilder();
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                if (random.nextDouble() < 0.33) {
+                    continue;
+                }
+                double minX = i * 20 + random.nextDouble() * 4;
+                double minY = j * 20 + random.nextDouble() * 4;
+                double maxX = i * 20 + 8 + random.nextDouble() * 8;
+                double maxY = j * 20 + 8 + random.nextDouble() * 8;
+                mesh.addGeometry(factory.createPolygon(new Coordinate[] {new Coordinate(minX, minY),
+                        new Coordinate(maxX, minY), new Coordinate(maxX, maxY), new Coordinate(minX, maxY),
+                        new Coordinate(minX, minY)}), 10);
+            }
+        }
+        mesh.finishPolygonFeeding(new Envelope(-50, 210, -50, 210));
+        return new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangleMesh());
+    }
+
+    /**
+     * @return Free field position, buildings do not cover the last 4 m of the grid squares
+     */
+    private static Coordinate freePosition(Random random) {
+        return new Coordinate(Math.floor(random.nextDouble() * 8) * 20 + 17 + random.nextDouble() * 2,
+                Math.floor(random.nextDouble() * 8) * 20 + 17 + random.nextDouble() * 2, 4);
+    }
+
+    private static String key(MirrorReceiverResult image) {
+        StringBuilder key = new StringBuilder();
+        for (MirrorReceiverResult cursor = image; cursor != null; cursor = cursor.getParentMirror()) {
+            key.append(cursor.getWallId()).append(' ');
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return True if a ray from the source reflected on the walls of the image reaches the receiver
+     */
+    private static boolean isValidPath(Coordinate source, Coordinate receiver, MirrorReceiverResult image,
+                                       List<FastObstructionTest.Wall> walls) {
+        Coordinate from = source;
+        for (MirrorReceiverResult cursor = image; cursor != null; cursor = cursor.getParentMirror()) {
+            LineSegment ray = new LineSegment(from, cursor.getReceiverPos());
+            Coordinate reflection = ray.intersection(walls.get(cursor.getWallId()));
+            if (reflection == null || reflection.distance(from) < 1e-6) {
+                return false;
+            }
+            // The reflected ray goes toward the parent image, or the receiver
+            from = reflection;
+        }
+        return true;
+    }
+
+    private static List<MirrorReceiverResult> iteratorImages(Coordinate receiver,
+                                                             List<FastObstructionTest.Wall> walls,
+                                                             LineSegment srcReceiver, double distanceLimitation,
+                                                             int order, double propagationLimitation) {
+        List<MirrorReceiverResult> images = new ArrayList<>();
+        for (MirrorReceiverResult image : new MirrorReceiverIterator.It(receiver, walls, srcReceiver,
+                distanceLimitation, order, propagationLimitation)) {
+            images.add(image);
+        }
+        return images;
+    }
+
+    /**
+     * At the first order the tree gives the same images than the iterator, in the same order
+     */
+    @Test
+    public void testFirstOrderSameAsIterator() throws LayerDelaunayError {
+        Random random = new Random(42);
+        FastObstructionTest mesh = makeMesh(random);
+        int imageCount = 0;
+        for (int test = 0; test < 50; test++) {
+            Coordinate receiver = freePosition(random);
+            Coordinate source = freePosition(random);
+            List<FastObstructionTest.Wall> walls = mesh.getLimitsInRange(MAX_DIST, receiver, false);
+            LineSegment srcReceiver = new LineSegment(source, receiver);
+            double distanceLimitation = 20 + random.nextDouble() * 60;
+            List<MirrorReceiverResult> expected = iteratorImages(receiver, walls, srcReceiver, distanceLimitation, 1,
+                    MAX_DIST);
+            List<MirrorReceiverResult> got = new ImageSourceTree(receiver, walls, 1).getImages(srcReceiver,
+                    distanceLimitation, MAX_DIST);
+            assertEquals(expected.size(), got.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getWallId(), got.get(i).getWallId());
+                assertEquals(expected.get(i).getBuildingId(), got.get(i).getBuildingId());
+                assertEquals(0, expected.get(i).getReceiverPos().distance(got.get(i).getReceiverPos()), 1e-9);
+            }
+            imageCount += got.size();
+        }
+        assertTrue(imageCount > 0);
+    }
+
+    /**
+     * At higher orders the tree prunes images, but every image of the iterator giving a valid reflection path must
+     * be found by the tree, at the same position
+     */
+    @Test
+    public void testHigherOrdersKeepValidPaths() throws LayerDelaunayError {
+        Random random = new Random(7);
+        FastObstructionTest mesh = makeMesh(random);
+        int validPathCount = 0;
+        for (int order = 2; order <= 3; order++) {
+            for (int test = 0; test < 20; test++) {
+                Coordinate receiver = freePosition(random);
+                Coordinate source = freePosition(random);
+                List<FastObstructionTest.Wall> walls = mesh.getLimitsInRange(MAX_DIST, receiver, false);
+                LineSegment srcReceiver = new LineSegment(source, receiver);
+                List<MirrorReceiverResult> expected = iteratorImages(receiver, walls, srcReceiver, MAX_DIST, order,
+                        MAX_DIST);
+                Map<String, MirrorReceiverResult> got = new HashMap<>();
+                for (MirrorReceiverResult image : new ImageSourceTree(receiver, walls, order).getImages(
+                        srcReceiver, MAX_DIST, MAX_DIST)) {
+                    got.put(key(image), image);
+                }
+                for (MirrorReceiverResult image : expected) {
+                    if (isValidPath(source, receiver, image, walls)) {
+                        validPathCount++;
+                        MirrorReceiverResult treeImage = got.get(key(image));
+                        assertNotNull(treeImage, "Missing image " + key(image));
+                        assertEquals(0, image.getReceiverPos().distance(treeImage.getReceiverPos()), 1e-6);
+                    }
+                }
+            }
+        }
+        assertTrue(validPathCount > 0);
+    }
+
+    /**
+     * Walls added after a query extend the already expanded nodes
+     */
+    @Test
+    public void testAddWall() throws LayerDelaunayError {
+        Random random = new Random(3);
+        FastObstructionTest mesh = makeMesh(random);
+        for (int test = 0; test < 20; test++) {
+            Coordinate receiver = freePosition(random);
+            Coordinate source = freePosition(random);
+            List<FastObstructionTest.Wall> walls = mesh.getLimitsInRange(MAX_DIST, receiver, false);
+            LineSegment srcReceiver = new LineSegment(source, receiver);
+            Set<String> expected = new HashSet<>();
+            for (MirrorReceiverResult image : new ImageSourceTree(receiver, walls, 2).getImages(srcReceiver,
+                    MAX_DIST, MAX_DIST)) {
+                expected.add(key(image));
+            }
+            ImageSourceTree tree = new ImageSourceTree(receiver, walls.subList(0, walls.size() / 2), 2);
+            tree.getImages(srcReceiver, MAX_DIST, MAX_DIST);
+            for (FastObstructionTest.Wall wall : walls.subList(walls.size() / 2, walls.size())) {
+                tree.addWall(wall);
+            }
+            // Adding a wall twice keeps its identifier
+            if (!walls.isEmpty()) {
+                assertEquals(0, tree.addWall(walls.get(0)));
+            }
+            Set<String> got = new HashSet<>();
+            for (MirrorReceiverResult image : tree.getImages(srcReceiver, MAX_DIST, MAX_DIST)) {
+                got.add(key(image));
+            }
+            assertEquals(expected, got);
+            // Disabled walls are not used
+            assertTrue(tree.getImages(srcReceiver, MAX_DIST, MAX_DIST, new boolean[walls.size()]).isEmpty());
+        }
+    }
+}
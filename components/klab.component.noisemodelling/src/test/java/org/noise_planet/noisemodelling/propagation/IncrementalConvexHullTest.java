@@ -0,0 +1,188 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.algorithm.ConvexHull;
+import org.locationtech.jts.algorithm.Orientation;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+public class IncrementalConvexHullTest {
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    /**
+     * @return Vertices of the JTS convex hull, without the closing vertex
+     */
+    private static Coordinate[] jtsHull(List<Coordinate> points) {
+        Geometry hull = new ConvexHull(points.toArray(new Coordinate[0]), FACTORY).getConvexHull();
+        Coordinate[] coordinates = hull.getCoordinates();
+        if (hull.getDimension() == 2) {
+            return Arrays.copyOf(coordinates, coordinates.length - 1);
+        }
+        return coordinates;
+    }
+
+    /**
+     * Same vertices than the JTS hull, in the same cyclic order
+     */
+    private static void assertSameAsJts(List<Coordinate> points, IncrementalConvexHull hull) {
+        Coordinate[] expected = jtsHull(points);
+        assertEquals(expected.length, hull.size(), points.toString());
+        int start = hull.indexOf(expected[0]);
+        assertTrue(start >= 0);
+        if (expected.length == 2) {
+            // Segment, order does not matter
+            assertTrue(hull.indexOf(expected[1]) >= 0);
+        } else {
+            for (int i = 0; i < expected.length; i++) {
+                assertTrue(expected[i].equals2D(hull.get((start + i) % hull.size())), points.toString());
+            }
+        }
+        if (hull.size() >= 3) {
+            Coordinate[] ring = Arrays.copyOf(hull.toArray(), hull.size() + 1);
+            ring[hull.size()] = ring[0];
+            assertFalse(Orientation.isCCW(ring));
+        }
+        assertEquals(FACTORY.createMultiPointFromCoords(points.toArray(new Coordinate[0])).convexHull().getLength(),
+                hull.getLength(), 1e-9);
+    }
+
+    private static void checkPoints(List<Coordinate> points) {
+        assertSameAsJts(points, new IncrementalConvexHull(points));
+        // Grow the hull point by point
+        IncrementalConvexHull hull = new IncrementalConvexHull(points.subList(0, 1));
+        for (int i = 1; i < points.size(); i++) {
+            Coordinate[] before = hull.toArray();
+            boolean changed = hull.add(points.get(i));
+            assertEquals(!Arrays.equals(before, hull.toArray()), changed);
+            assertSameAsJts(points.subList(0, i + 1), hull);
+        }
+    }
+
+    @Test
+    public void testRandomPoints() {
+        Random random = new Random(42);
+        for (int test = 0; test < 200; test++) {
+            List<Coordinate> points = new ArrayList<>();
+            int count = 1 + random.nextInt(60);
+            for (int i = 0; i < count; i++) {
+                points.add(new Coordinate(random.nextDouble() * 100, random.nextDouble() * 100, random.nextDouble()));
+            }
+            checkPoints(points);
+        }
+    }
+
+    /**
+     * Grid points give many collinear and duplicate points, only strictly convex vertices are kept
+     */
+    @Test
+    public void testGridPoints() {
+        Random random = new Random(7);
+        for (int test = 0; test < 200; test++) {
+            List<Coordinate> points = new ArrayList<>();
+            int count = 1 + random.nextInt(40);
+            for (int i = 0; i < count; i++) {
+                points.add(new Coordinate(random.nextInt(6), random.nextInt(6)));
+            }
+            checkPoints(points);
+        }
+    }
+
+    @Test
+    public void testDegenerate() {
+        List<Coordinate> points = new ArrayList<>();
+        points.add(new Coordinate(1, 1));
+        points.add(new Coordinate(1, 1));
+        checkPoints(points);
+        assertEquals(1, new IncrementalConvexHull(points).size());
+        // Collinear points keep the extremities
+        points.clear();
+        for (int i = 0; i < 10; i++) {
+            points.add(new Coordinate((i * 7) % 10, (i * 7) % 10 * 2));
+        }
+        checkPoints(points);
+        IncrementalConvexHull hull = new IncrementalConvexHull(points);
+        assertEquals(2, hull.size());
+        assertTrue(hull.indexOf(new Coordinate(0, 0)) >= 0);
+        assertTrue(hull.indexOf(new Coordinate(9, 18)) >= 0);
+        assertEquals(-1, hull.indexOf(new Coordinate(5, 10)));
+        // A point inside or on the boundary does not change the hull
+        points.add(new Coordinate(10, 0));
+        hull = new IncrementalConvexHull(points);
+        assertFalse(hull.add(new Coordinate(5, 5)));
+        assertFalse(hull.add(new Coordinate(5, 10)));
+        assertFalse(hull.add(new Coordinate(10, 0)));
+        assertEquals(3, hull.size());
+    }
+
+    /**
+     * Without building between the two points there is no side path, as before the hull was incremental
+     */
+    @Test
+    public void testSideHullFreeField() throws LayerDelaunayError {
+        ComputeRays computeRays = new ComputeRays(new PropagationProcessData(TestScenes.singleBuilding()));
+        Coordinate p1 = new Coordinate(0, 0, 1);
+        Coordinate p2 = new Coordinate(20, 5, 1);
+        assertTrue(computeRays.computeSideHull(true, p1, p2).isEmpty());
+        assertTrue(computeRays.computeSideHull(false, p1, p2).isEmpty());
+        // Around the building
+        p1 = new Coordinate(20, 50, 1);
+        p2 = new Coordinate(80, 50, 1);
+        List<Coordinate> left = computeRays.computeSideHull(true, p1, p2);
+        List<Coordinate> right = computeRays.computeSideHull(false, p1, p2);
+        assertEquals(4, left.size());
+        assertEquals(4, right.size());
+        assertEquals(p1, left.get(0));
+        assertEquals(p2, left.get(3));
+        assertTrue(left.get(1).y > 60 && right.get(1).y < 40);
+    }
+
+    /**
+     * The right side reuses the hull of the buildings crossed by the direct path, computed by the left side, and gives
+     * the same path than without cluster hull cache
+     */
+    @Test
+    public void testSideHullSharedCluster() throws LayerDelaunayError {
+        Random random = new Random(25);
+        MeshBuilder mesh = TestScenes.denseCity(random, 8);
+        mesh.finishPolygonFeeding(TestScenes.denseCityDomain(8));
+        FastObstructionTest freeFieldFinder = new FastObstructionTest(mesh.getPolygonWithHeight(),
+                mesh.getTriangleMesh());
+        PropagationProcessData data = new PropagationProcessData(freeFieldFinder);
+        ComputeRays cached = new ComputeRays(data);
+        ComputeRays uncached = new ComputeRays(data);
+        uncached.setSideHullCacheSize(0);
+        // Street corners, the direct path crosses the blocks
+        Coordinate p1 = new Coordinate(26, 1);
+        p1.z = freeFieldFinder.getHeightAtPosition(p1) + 1;
+        Coordinate p2 = new Coordinate(176, 151);
+        p2.z = freeFieldFinder.getHeightAtPosition(p2) + 1;
+        List<Coordinate> left = cached.computeSideHull(true, p1, p2);
+        List<Coordinate> right = cached.computeSideHull(false, p1, p2);
+        assertEquals(uncached.computeSideHull(true, p1, p2), left);
+        assertEquals(uncached.computeSideHull(false, p1, p2), right);
+        Set<Integer> crossed = new HashSet<>();
+        for (int buildingId : cached.getSideHullCache().getBuildingsOnPath(p1, p2)) {
+            crossed.add(buildingId);
+        }
+        assertFalse(crossed.isEmpty());
+        // The first building crossed by the direct path gives the shared hull
+        boolean shared = false;
+        for (int buildingId : crossed) {
+            shared |= cached.getSideHullCache().getClusterHull(p1, p2, Collections.singleton(buildingId)) != null;
+        }
+        assertTrue(shared);
+    }
+}
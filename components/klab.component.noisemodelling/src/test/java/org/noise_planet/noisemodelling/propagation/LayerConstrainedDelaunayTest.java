@@ -0,0 +1,230 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+public class LayerConstrainedDelaunayTest {
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+    private static final Envelope DOMAIN = new Envelope(0, 100, 0, 100);
+
+    private static Polygon rectangle(double minX, double minY, double maxX, double maxY) {
+        return FACTORY.createPolygon(new Coordinate[] {new Coordinate(minX, minY), new Coordinate(maxX, minY),
+                new Coordinate(maxX, maxY), new Coordinate(minX, maxY), new Coordinate(minX, minY)});
+    }
+
+    private static TriangleMesh triangulate(LayerDelaunay delaunay, List<Polygon> buildings) throws LayerDelaunayError {
+        delaunay.hintInit(DOMAIN, buildings.size(), buildings.size() * 5);
+        delaunay.addLineString(((Polygon) FACTORY.toGeometry(DOMAIN)).getExteriorRing(), -1);
+        int buildingId = 1;
+        for (Polygon building : buildings) {
+            Polygon copy = (Polygon) building.copy();
+            copy.normalize();
+            delaunay.addPolygon(copy, buildingId++);
+        }
+        delaunay.setRetrieveNeighbors(true);
+        delaunay.processDelaunay();
+        return delaunay.getTriangleMesh();
+    }
+
+    private static double cross(TriangleMesh mesh, int a, int b, double x, double y) {
+        return (mesh.getX(b) - mesh.getX(a)) * (y - mesh.getY(a)) - (mesh.getY(b) - mesh.getY(a)) * (x - mesh.getX(a));
+    }
+
+    /**
+     * @return Attribute of the triangle containing the point, -1 if the point is out of the mesh
+     */
+    private static int labelAt(TriangleMesh mesh, double x, double y) {
+        for (int t = 0; t < mesh.getTriangleCount(); t++) {
+            int a = mesh.getVertex(t, 0);
+            int b = mesh.getVertex(t, 1);
+            int c = mesh.getVertex(t, 2);
+            double ab = cross(mesh, a, b, x, y);
+            double bc = cross(mesh, b, c, x, y);
+            double ca = cross(mesh, c, a, x, y);
+            if ((ab >= 0 && bc >= 0 && ca >= 0) || (ab <= 0 && bc <= 0 && ca <= 0)) {
+                return mesh.getAttribute(t);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compare the labels of both triangulations with the buildings on a grid of points, points close to the building
+     * edges or in ignored areas are skipped.
+     * @param ignored Areas where the label is not checked, may be null
+     */
+    private static void assertLabels(List<Polygon> buildings, Geometry ignored, TriangleMesh... meshes) {
+        Geometry edges = FACTORY.createMultiPolygon(buildings.toArray(new Polygon[0])).getBoundary();
+        int labelledPoints = 0;
+        for (double x = 0.5; x < 100; x += 1.3) {
+            for (double y = 0.5; y < 100; y += 1.1) {
+                Point point = FACTORY.createPoint(new Coordinate(x, y));
+                if (edges.distance(point) < 0.2 || (ignored != null && ignored.intersects(point))) {
+                    continue;
+                }
+                int expected = 0;
+                for (int i = 0; i < buildings.size(); i++) {
+                    if (buildings.get(i).contains(point)) {
+                        expected = i + 1;
+                    }
+                }
+                if (expected > 0) {
+                    labelledPoints++;
+                }
+                for (TriangleMesh mesh : meshes) {
+                    assertEquals(expected, labelAt(mesh, x, y), "Label at " + point);
+                }
+            }
+        }
+        assertTrue(labelledPoints > 0 || buildings.isEmpty());
+    }
+
+    /**
+     * The neighbor on the side s of a triangle is the triangle sharing the edge opposite to the vertex s
+     */
+    private static void assertNeighborConvention(TriangleMesh mesh) {
+        assertTrue(mesh.hasNeighbors());
+        int neighborCount = 0;
+        for (int t = 0; t < mesh.getTriangleCount(); t++) {
+            for (int side = 0; side < 3; side++) {
+                int neighbor = mesh.getNeighbor(t, side);
+                if (neighbor < 0) {
+                    continue;
+                }
+                neighborCount++;
+                Set<Integer> neighborVertices = new HashSet<>();
+                for (int v = 0; v < 3; v++) {
+                    neighborVertices.add(mesh.getVertex(neighbor, v));
+                }
+                assertFalse(neighborVertices.contains(mesh.getVertex(t, side)));
+                assertTrue(neighborVertices.contains(mesh.getVertex(t, (side + 1) % 3)));
+                assertTrue(neighborVertices.contains(mesh.getVertex(t, (side + 2) % 3)));
+                boolean backLink = false;
+                for (int v = 0; v < 3; v++) {
+                    backLink |= mesh.getNeighbor(neighbor, v) == t;
+                }
+                assertTrue(backLink);
+            }
+        }
+        assertTrue(neighborCount > 0);
+    }
+
+    private static double area(TriangleMesh mesh) {
+        double area = 0;
+        for (int t = 0; t < mesh.getTriangleCount(); t++) {
+            int a = mesh.getVertex(t, 0);
+            area += Math.abs(cross(mesh, a, mesh.getVertex(t, 1), mesh.getX(mesh.getVertex(t, 2)),
+                    mesh.getY(mesh.getVertex(t, 2)))) / 2;
+        }
+        return area;
+    }
+
+    private static void assertSameAsPoly2Tri(List<Polygon> buildings) throws LayerDelaunayError {
+        TriangleMesh expected = triangulate(new LayerPoly2Tri(), buildings);
+        TriangleMesh got = triangulate(new LayerConstrainedDelaunay(), buildings);
+        assertEquals(area(expected), area(got), 1e-6);
+        assertLabels(buildings, null, expected, got);
+        assertNeighborConvention(expected);
+        assertNeighborConvention(got);
+    }
+
+    @Test
+    public void testSeparateBuildings() throws LayerDelaunayError {
+        List<Polygon> buildings = new ArrayList<>();
+        buildings.add(rectangle(10, 10, 30, 25));
+        buildings.add(rectangle(50, 12, 58, 70));
+        buildings.add(FACTORY.createPolygon(new Coordinate[] {new Coordinate(20, 50), new Coordinate(40, 45),
+                new Coordinate(35, 80), new Coordinate(15, 75), new Coordinate(25, 65), new Coordinate(20, 50)}));
+        assertSameAsPoly2Tri(buildings);
+    }
+
+    @Test
+    public void testCourtyard() throws LayerDelaunayError {
+        LinearRing shell = (LinearRing) rectangle(20, 20, 80, 80).getExteriorRing();
+        LinearRing hole = (LinearRing) rectangle(35, 35, 65, 65).getExteriorRing();
+        List<Polygon> buildings = new ArrayList<>();
+        buildings.add(FACTORY.createPolygon(shell, new LinearRing[] {hole}));
+        assertSameAsPoly2Tri(buildings);
+    }
+
+    @Test
+    public void testTouchingBuildings() throws LayerDelaunayError {
+        List<Polygon> buildings = new ArrayList<>();
+        buildings.add(rectangle(10, 10, 40, 40));
+        // Shares an edge with the first building
+        buildings.add(rectangle(40, 10, 70, 40));
+        // Shares a part of an edge with the first building
+        buildings.add(rectangle(20, 40, 30, 60));
+        // Touches the second building by a corner
+        buildings.add(rectangle(70, 40, 90, 55));
+        assertSameAsPoly2Tri(buildings);
+    }
+
+    /**
+     * Constraints of overlapping buildings cross each other, only the primitive array triangulation supports it.
+     * Outside of the overlap the labels are the ones of the building.
+     */
+    @Test
+    public void testCrossingBuildings() throws LayerDelaunayError {
+        List<Polygon> buildings = new ArrayList<>();
+        buildings.add(rectangle(10, 10, 50, 30));
+        buildings.add(rectangle(30, 5, 40, 60));
+        buildings.add(rectangle(60, 60, 90, 90));
+        TriangleMesh got = triangulate(new LayerConstrainedDelaunay(), buildings);
+        assertEquals(DOMAIN.getArea(), area(got), 1e-6);
+        Geometry overlap = buildings.get(0).intersection(buildings.get(1));
+        assertLabels(buildings, overlap, got);
+        assertNeighborConvention(got);
+        // The overlap is labelled by one of the buildings
+        Coordinate inOverlap = overlap.getInteriorPoint().getCoordinate();
+        int label = labelAt(got, inOverlap.x, inOverlap.y);
+        assertTrue(label == 1 || label == 2);
+    }
+
+    /**
+     * A building that does not enclose any area is not labelled, other buildings are
+     */
+    @Test
+    public void testUnclosedBuilding() throws LayerDelaunayError {
+        List<Polygon> buildings = new ArrayList<>();
+        buildings.add(rectangle(10, 10, 30, 30));
+        buildings.add(FACTORY.createPolygon(new Coordinate[] {new Coordinate(50, 50), new Coordinate(60, 50),
+                new Coordinate(70, 50), new Coordinate(50, 50)}));
+        TriangleMesh expected = triangulate(new LayerPoly2Tri(), buildings);
+        TriangleMesh got = triangulate(new LayerConstrainedDelaunay(), buildings);
+        assertLabels(buildings, null, expected, got);
+        for (int t = 0; t < got.getTriangleCount(); t++) {
+            assertTrue(got.getAttribute(t) != 2);
+        }
+    }
+
+    @Test
+    public void testMeshWithoutNeighbors() throws LayerDelaunayError {
+        for (LayerDelaunay delaunay : new LayerDelaunay[] {new LayerPoly2Tri(), new LayerConstrainedDelaunay()}) {
+            List<Polygon> buildings = new ArrayList<>();
+            buildings.add(rectangle(10, 10, 30, 30));
+            delaunay.addLineString(((Polygon) FACTORY.toGeometry(DOMAIN)).getExteriorRing(), -1);
+            delaunay.addPolygon(buildings.get(0), 1);
+            delaunay.setRetrieveNeighbors(false);
+            delaunay.processDelaunay();
+            assertFalse(delaunay.getTriangleMesh().hasNeighbors());
+            assertThrows(LayerDelaunayError.class, delaunay::getNeighbors);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Tiled building union of {@link MeshBuilder#mergeBuildings} against the single union, on a synthetic dense city of
+ * 51200 footprints
+ */
+public class MergeBuildingsBenchmark {
+    private static final int BLOCKS = 160;
+    private static final int ROUNDS = 3;
+
+    /**
+     * @param pool Pool of the tile merge, null for the single union
+     * @return Median duration of the merge in nanoseconds, the scene is built out of the measure
+     */
+    private static long mergeNanos(ForkJoinPool pool, int[] mergedCount) {
+        Geometry domain = TestScenes.FACTORY.toGeometry(TestScenes.denseCityDomain(BLOCKS));
+        long[] durations = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            MeshBuilder mesh = TestScenes.denseCity(new Random(23), BLOCKS);
+            if (pool != null) {
+                mesh.setMergeThreadCount(pool.getParallelism());
+                mesh.setMergePool(pool);
+            }
+            long start = System.nanoTime();
+            mesh.mergeBuildings(domain);
+            durations[round] = System.nanoTime() - start;
+            mergedCount[0] = mesh.getPolygonWithHeight().size();
+        }
+        Arrays.sort(durations);
+        return durations[ROUNDS / 2];
+    }
+
+    @Test
+    public void benchmarkMerge() {
+        int footprints = 2 * BLOCKS * BLOCKS;
+        int[] singleCount = new int[1];
+        long single = mergeNanos(null, singleCount);
+        for (int threadCount : new int[] {2, Runtime.getRuntime().availableProcessors()}) {
+            ForkJoinPool pool = new ForkJoinPool(threadCount);
+            try {
+                int[] tiledCount = new int[1];
+                long tiled = mergeNanos(pool, tiledCount);
+                assertEquals(singleCount[0], tiledCount[0]);
+                Benchmarks.report("Merge of " + footprints + " footprints, " + threadCount + " threads", single,
+                        tiled, footprints);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+
+public class MeshBuilderTest {
+
+    private static MeshBuilder makeBuildings(Random random) {
+        MeshBuilder mesh = new MeshBuilder();
+        for (int i = 0; i < 400; i++) {
+            double minX = random.nextDouble() * 450;
+            double minY = random.nextDouble() * 450;
+            // Large buildings overlap their neighbours, some of them in other tiles
+            double size = i % 10 == 0 ? 40 : 4 + random.nextDouble() * 12;
+            mesh.addGeometry(TestScenes.rectangle(minX, minY, minX + size, minY + size), 10 + i % 7);
+        }
+        return mesh;
+    }
+
+    private static Geometry mergedBuildings(MeshBuilder mesh) {
+        mesh.mergeBuildings(TestScenes.FACTORY.toGeometry(new Envelope(-10, 510, -10, 510)));
+        List<Geometry> buildings = new ArrayList<>();
+        for (MeshBuilder.PolygonWithHeight building : mesh.getPolygonWithHeight()) {
+            buildings.add(building.getGeometry());
+        }
+        return TestScenes.FACTORY.buildGeometry(buildings);
+    }
+
+    /**
+     * Tiles merged by their seams give the same buildings than a single union
+     */
+    @Test
+    public void testTiledUnion() {
+        Geometry expected = mergedBuildings(makeBuildings(new Random(23)));
+        assertTrue(expected.getNumGeometries() < 400);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int tileSize : new int[] {8, 50, 399}) {
+                MeshBuilder tiledMesh = makeBuildings(new Random(23));
+                tiledMesh.setMergeThreadCount(3);
+                tiledMesh.setMergeTileSize(tileSize);
+                tiledMesh.setMergePool(tileSize == 50 ? null : pool);
+                Geometry tiled = mergedBuildings(tiledMesh);
+                assertEquals(expected.getNumGeometries(), tiled.getNumGeometries());
+                assertEquals(expected.getArea(), tiled.getArea(), 1e-6);
+                assertEquals(0, expected.symDifference(tiled).getArea(), 1e-6);
+                // Merged buildings do not overlap
+                assertEquals(tiled.getArea(), tiled.union().getArea(), 1e-6);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
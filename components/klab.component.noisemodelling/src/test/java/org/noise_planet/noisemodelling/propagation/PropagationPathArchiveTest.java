@@ -0,0 +1,120 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.math.Vector3D;
+
+public class PropagationPathArchiveTest {
+    @TempDir
+    Path temporaryFolder;
+
+    private static List<PropagationPath> makePaths(int count) {
+        Random random = new Random(42);
+        List<PropagationPath> paths = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            double x = 1000 + random.nextDouble() * 50;
+            double y = 2000 + random.nextDouble() * 50;
+            List<PointPath> points = new ArrayList<>();
+            points.add(new PointPath(new Coordinate(x, y, 0.05), 0, 0, Double.NaN, -1, PointPath.POINT_TYPE.SRCE));
+            points.add(new PointPath(new Coordinate(x + 10, y + 5, 3), 0, 0.5,
+                    Arrays.asList(0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8), i % 3, PointPath.POINT_TYPE.REFL));
+            points.add(new PointPath(new Coordinate(1010, 2010, 4), 0, 1, Double.NaN, -1,
+                    PointPath.POINT_TYPE.RECV));
+            List<SegmentPath> segments = new ArrayList<>();
+            segments.add(new SegmentPath(0.5, new Vector3D(1, 2, 3), new Coordinate(x, y, 0)));
+            List<SegmentPath> srList = new ArrayList<>();
+            srList.add(new SegmentPath(1, new Vector3D(0.5, 0.25, 0), new Coordinate(x, y, 0)));
+            PropagationPath path = new PropagationPath(i % 2 == 0, points, segments, srList);
+            path.setIdSource(i / 4);
+            path.setIdReceiver(i % 4);
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    private static byte[] toStream(List<PropagationPath> paths) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        PropagationPath.writePropagationPathListStream(out, paths);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<PropagationPath> paths = makePaths(1000);
+        File file = temporaryFolder.resolve("paths.bin").toFile();
+        try(PropagationPathArchive.Writer writer = new PropagationPathArchive.Writer(new FileOutputStream(file), 300)) {
+            writer.writeAll(paths);
+        }
+        List<PropagationPath> readPaths;
+        try(PropagationPathArchive.Reader reader = new PropagationPathArchive.Reader(file)) {
+            assertEquals(4, reader.getChunkCount());
+            assertEquals(paths.size(), reader.getPathCount());
+            readPaths = reader.readAll();
+        }
+        // The archive is lossless
+        assertArrayEquals(toStream(paths), toStream(readPaths));
+        // Chunks are compressed
+        assertTrue(file.length() < toStream(paths).length / 2);
+    }
+
+    @Test
+    public void testUncompressedRoundTrip() throws IOException {
+        List<PropagationPath> paths = makePaths(1000);
+        File compressedFile = temporaryFolder.resolve("compressed.bin").toFile();
+        try(PropagationPathArchive.Writer writer = new PropagationPathArchive.Writer(
+                new FileOutputStream(compressedFile), 300, true)) {
+            writer.writeAll(paths);
+        }
+        File file = temporaryFolder.resolve("uncompressed.bin").toFile();
+        try(PropagationPathArchive.Writer writer = new PropagationPathArchive.Writer(new FileOutputStream(file), 300,
+                false)) {
+            writer.writeAll(paths);
+        }
+        List<PropagationPath> readPaths;
+        try(PropagationPathArchive.Reader reader = new PropagationPathArchive.Reader(file)) {
+            assertEquals(4, reader.getChunkCount());
+            readPaths = reader.readAll();
+        }
+        assertArrayEquals(toStream(paths), toStream(readPaths));
+        assertTrue(file.length() > compressedFile.length());
+    }
+
+    /**
+     * A chunk truncated in the point or in the segment columns is rejected before reading the columns
+     */
+    @Test
+    public void testTruncatedChunk() throws IOException {
+        List<PropagationPath> paths = makePaths(10);
+        byte[] raw = PropagationPathArchive.encodeChunk(paths);
+        assertEquals(paths.size(), PropagationPathArchive.decodeChunk(ByteBuffer.wrap(raw)).size());
+        // 2 segments by path, 7 columns
+        int segmentColumnsBytes = paths.size() * 2 * Long.BYTES * 7;
+        for (int length : new int[] {raw.length - 1, raw.length - segmentColumnsBytes,
+                raw.length - segmentColumnsBytes - 1, raw.length - segmentColumnsBytes - 3 * Long.BYTES * 10}) {
+            ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(raw, length));
+            assertThrows(BufferUnderflowException.class, () -> PropagationPathArchive.decodeChunk(truncated),
+                    Integer.toString(length));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class StreamingRaysOutTest {
+
+    private static final class ListSink implements ReceiverLevelsSink {
+        private final List<ComputeRaysOut.verticeSL> levels = new ArrayList<>();
+        private boolean closed = false;
+
+        @Override
+        public void write(List<ComputeRaysOut.verticeSL> levels) {
+            this.levels.addAll(levels);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static final class FailingSink implements ReceiverLevelsSink {
+        @Override
+        public void write(List<ComputeRaysOut.verticeSL> levels) {
+            throw new IllegalArgumentException("Sink failure");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testAllLevelsWritten() throws IOException {
+        ListSink sink = new ListSink();
+        StreamingRaysOut out = new StreamingRaysOut(new PropagationProcessPathData(), null, sink, 8, 3);
+        for(int i = 0; i < 100; i++) {
+            out.push(new ComputeRaysOut.verticeSL(i, 0, new double[] {i}));
+        }
+        out.close();
+        assertTrue(sink.closed);
+        assertEquals(100, sink.levels.size());
+        for(int i = 0; i < 100; i++) {
+            assertEquals(i, sink.levels.get(i).receiverId);
+        }
+    }
+
+    @Test
+    public void testRuntimeExceptionOfSinkReleasesComputation() {
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            StreamingRaysOut out = new StreamingRaysOut(new PropagationProcessPathData(), null,
+                    new FailingSink(), 2, 1);
+            // The writer stops on the first batch, pushing threads must not wait forever for room
+            assertThrows(IllegalStateException.class, () -> {
+                for(int i = 0; i < 1000; i++) {
+                    out.push(new ComputeRaysOut.verticeSL(i, 0, new double[] {i}));
+                }
+            });
+            IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, out::close);
+            assertEquals("Sink failure", ex.getMessage());
+        });
+    }
+}
@@ -0,0 +1,106 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.Random;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * Scenes shared by the propagation tests
+ */
+final class TestScenes {
+    static final GeometryFactory FACTORY = new GeometryFactory();
+    static final Envelope SINGLE_BUILDING_DOMAIN = new Envelope(-100, 200, -100, 200);
+
+    private TestScenes() {
+    }
+
+    /**
+     * @return One building from (40, 40) to (60, 60), 12 m high, in the domain (-100, -100) (200, 200)
+     */
+    static FastObstructionTest singleBuilding() throws LayerDelaunayError {
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(FACTORY.createPolygon(new Coordinate[] {new Coordinate(40, 40), new Coordinate(60, 40),
+                new Coordinate(60, 60), new Coordinate(40, 60), new Coordinate(40, 40)}), 12);
+        mesh.finishPolygonFeeding(SINGLE_BUILDING_DOMAIN);
+        return new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangleMesh());
+    }
+
+    static Polygon rectangle(double minX, double minY, double maxX, double maxY) {
+        return FACTORY.createPolygon(new Coordinate[] {new Coordinate(minX, minY), new Coordinate(maxX, minY),
+                new Coordinate(maxX, maxY), new Coordinate(minX, maxY), new Coordinate(minX, minY)});
+    }
+
+    /**
+     * Random buildings on a grid of 25 m squares in the domain (0, 0) (200, 200), with a hilly topography between 0
+     * and 10 m. Building heights are between 5 and 25 m, some buildings do not have a height.
+     */
+    static FastObstructionTest buildingsWithTopography(Random random) throws LayerDelaunayError {
+        MeshBuilder mesh = new MeshBuilder();
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                double kind = random.nextDouble();
+                if (kind < 0.4) {
+                    continue;
+                }
+                double minX = i * 25 + 2 + random.nextDouble() * 4;
+                double minY = j * 25 + 2 + random.nextDouble() * 4;
+                Polygon building = rectangle(minX, minY, minX + 6 + random.nextDouble() * 10,
+                        minY + 6 + random.nextDouble() * 10);
+                if (kind < 0.45) {
+                    mesh.addGeometry(building);
+                } else {
+                    mesh.addGeometry(building, 5 + random.nextDouble() * 20);
+                }
+            }
+        }
+        for (int i = 0; i <= 10; i++) {
+            for (int j = 0; j <= 10; j++) {
+                mesh.addTopographicPoint(new Coordinate(i * 20 + random.nextDouble() * 5 - 2.5,
+                        j * 20 + random.nextDouble() * 5 - 2.5, 5 + 5 * Math.sin(i * 0.7) * Math.cos(j * 0.5)));
+            }
+        }
+        mesh.finishPolygonFeeding(new Envelope(0, 200, 0, 200));
+        return new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangleMesh());
+    }
+
+    /**
+     * @param blocks Number of 25 m blocks on each side
+     * @return Domain of {@link #denseCity(Random, int)}
+     */
+    static Envelope denseCityDomain(int blocks) {
+        return new Envelope(0, blocks * 25, 0, blocks * 25);
+    }
+
+    /**
+     * Synthetic dense city, the mesh is not triangulated. Each 25 m block holds a main building and an annex that
+     * overlaps it or a building of the next block, the topography is sampled every 50 m.
+     * @param blocks Number of 25 m blocks on each side, the city has 2 * blocks * blocks footprints
+     */
+    static MeshBuilder denseCity(Random random, int blocks) {
+        MeshBuilder mesh = new MeshBuilder();
+        for (int i = 0; i < blocks; i++) {
+            for (int j = 0; j < blocks; j++) {
+                double minX = i * 25 + 2 + random.nextDouble() * 3;
+                double minY = j * 25 + 2 + random.nextDouble() * 3;
+                double maxX = minX + 8 + random.nextDouble() * 8;
+                double maxY = minY + 8 + random.nextDouble() * 8;
+                mesh.addGeometry(rectangle(minX, minY, maxX, maxY), 6 + random.nextDouble() * 30);
+                // The annex stays in the domain
+                double annexX = Math.min(maxX - 2 + random.nextDouble() * 8, blocks * 25 - 12);
+                double annexY = minY + random.nextDouble() * 6;
+                mesh.addGeometry(rectangle(annexX, annexY, annexX + 4 + random.nextDouble() * 6,
+                        annexY + 4 + random.nextDouble() * 6), 4 + random.nextDouble() * 10);
+            }
+        }
+        for (int i = 0; i < blocks / 2; i++) {
+            for (int j = 0; j < blocks / 2; j++) {
+                mesh.addTopographicPoint(new Coordinate(i * 50 + 1 + random.nextDouble() * 3,
+                        j * 50 + 1 + random.nextDouble() * 3, 10 * Math.sin(i * 0.3) * Math.cos(j * 0.2)));
+            }
+        }
+        return mesh;
+    }
+}
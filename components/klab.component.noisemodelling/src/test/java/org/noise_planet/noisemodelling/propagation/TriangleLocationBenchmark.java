@@ -0,0 +1,65 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Triangle walk of {@link FastObstructionTest#getTriangleIdByCoordinate} against the R-Tree lookup
+ * {@link FastObstructionTest#getTriangleIdByIndex}, on a dense city mesh
+ */
+public class TriangleLocationBenchmark {
+    private static final int BLOCKS = 40;
+    private static final int POINT_COUNT = 100000;
+
+    private static long locateByWalk(FastObstructionTest mesh, Coordinate[] points) {
+        long sum = 0;
+        for (Coordinate point : points) {
+            sum += mesh.getTriangleIdByCoordinate(point);
+        }
+        return sum;
+    }
+
+    private static long locateByIndex(FastObstructionTest mesh, Coordinate[] points) {
+        long sum = 0;
+        for (Coordinate point : points) {
+            sum += mesh.getTriangleIdByIndex(point);
+        }
+        return sum;
+    }
+
+    @Test
+    public void benchmarkLocation() throws LayerDelaunayError {
+        Random random = new Random(6);
+        Envelope domain = TestScenes.denseCityDomain(BLOCKS);
+        MeshBuilder meshBuilder = TestScenes.denseCity(random, BLOCKS);
+        meshBuilder.finishPolygonFeeding(domain);
+        FastObstructionTest mesh = new FastObstructionTest(meshBuilder.getPolygonWithHeight(),
+                meshBuilder.getTriangleMesh());
+        assertTrue(mesh.getMesh().hasNeighbors());
+        Coordinate[] randomPoints = new Coordinate[POINT_COUNT];
+        for (int i = 0; i < POINT_COUNT; i++) {
+            randomPoints[i] = new Coordinate(domain.getMinX() + random.nextDouble() * domain.getWidth(),
+                    domain.getMinY() + random.nextDouble() * domain.getHeight());
+        }
+        // Consecutive points along rays, as the reflection and diffraction points of a receiver
+        Coordinate[] rayPoints = new Coordinate[POINT_COUNT];
+        for (int i = 0; i < POINT_COUNT; i += 100) {
+            Coordinate start = randomPoints[i];
+            Coordinate end = randomPoints[(i + 1) % POINT_COUNT];
+            for (int j = 0; j < 100; j++) {
+                rayPoints[i + j] = new Coordinate(start.x + (end.x - start.x) * j / 100.,
+                        start.y + (end.y - start.y) * j / 100.);
+            }
+        }
+        System.out.println("Mesh of " + mesh.getMesh().getTriangleCount() + " triangles");
+        Benchmarks.report("Triangle location, random points", Benchmarks.medianNanos(() -> locateByIndex(mesh,
+                randomPoints)), Benchmarks.medianNanos(() -> locateByWalk(mesh, randomPoints)), POINT_COUNT);
+        Benchmarks.report("Triangle location, points along rays", Benchmarks.medianNanos(() -> locateByIndex(mesh,
+                rayPoints)), Benchmarks.medianNanos(() -> locateByWalk(mesh, rayPoints)), POINT_COUNT);
+    }
+}
@@ -0,0 +1,62 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+public class TriangleMeshTest {
+
+    private static void assertSameMesh(TriangleMesh expected, TriangleMesh got) {
+        assertArrayEquals(expected.getXArray(), got.getXArray());
+        assertArrayEquals(expected.getYArray(), got.getYArray());
+        assertArrayEquals(expected.getZArray(), got.getZArray());
+        assertArrayEquals(expected.getTriVerticesArray(), got.getTriVerticesArray());
+        assertArrayEquals(expected.getTriNeighborsArray(), got.getTriNeighborsArray());
+        assertArrayEquals(expected.getTriAttributeArray(), got.getTriAttributeArray());
+    }
+
+    @Test
+    public void testListRoundTrip() throws LayerDelaunayError {
+        TriangleMesh mesh = TestScenes.buildingsWithTopography(new Random(3)).getMesh();
+        assertTrue(mesh.hasNeighbors());
+        List<Triangle> triangles = mesh.toTriangleList();
+        List<Triangle> neighbors = mesh.toNeighborList();
+        List<Coordinate> vertices = mesh.toCoordinateList();
+        assertEquals(mesh.getTriangleCount(), triangles.size());
+        assertEquals(mesh.getTriangleCount(), neighbors.size());
+        assertEquals(mesh.getVertexCount(), vertices.size());
+        boolean hasBuilding = false;
+        for (int t = 0; t < mesh.getTriangleCount(); t++) {
+            Triangle triangle = triangles.get(t);
+            for (int v = 0; v < 3; v++) {
+                assertEquals(mesh.getVertex(t, v), triangle.get(v));
+                assertEquals(mesh.getNeighbor(t, v), neighbors.get(t).get(v));
+            }
+            assertEquals(mesh.getAttribute(t), triangle.getAttribute());
+            hasBuilding |= triangle.getAttribute() > 0;
+        }
+        assertTrue(hasBuilding);
+        for (int v = 0; v < mesh.getVertexCount(); v++) {
+            assertTrue(mesh.getCoordinate(v).equals3D(vertices.get(v)));
+        }
+        assertSameMesh(mesh, new TriangleMesh(triangles, neighbors, vertices));
+    }
+
+    @Test
+    public void testWithoutNeighbors() throws LayerDelaunayError {
+        TriangleMesh mesh = TestScenes.singleBuilding().getMesh();
+        TriangleMesh withoutNeighbors = new TriangleMesh(mesh.toTriangleList(), null, mesh.toCoordinateList());
+        assertFalse(withoutNeighbors.hasNeighbors());
+        assertNull(withoutNeighbors.toNeighborList());
+        assertSameMesh(new TriangleMesh(mesh.getXArray(), mesh.getYArray(), mesh.getZArray(),
+                mesh.getTriVerticesArray(), null, mesh.getTriAttributeArray()), withoutNeighbors);
+    }
+}
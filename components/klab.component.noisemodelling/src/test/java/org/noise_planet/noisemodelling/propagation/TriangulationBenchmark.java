@@ -0,0 +1,52 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * {@link LayerConstrainedDelaunay} against {@link LayerPoly2Tri}, selected by {@link MeshBuilder#setDelaunayBackend},
+ * on a synthetic dense city. The measure covers the triangulation and the conversion to a {@link TriangleMesh}.
+ */
+public class TriangulationBenchmark {
+    private static final int BLOCKS = 60;
+    private static final int ROUNDS = 3;
+
+    /**
+     * @param triangleCount [out] Number of triangles of the mesh
+     * @return Median duration in nanoseconds, the scene is built out of the measure
+     */
+    private static long triangulationNanos(MeshBuilder.DelaunayBackend backend, int[] triangleCount)
+            throws LayerDelaunayError {
+        Envelope domain = TestScenes.denseCityDomain(BLOCKS);
+        long[] durations = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            MeshBuilder mesh = TestScenes.denseCity(new Random(24), BLOCKS);
+            mesh.setDelaunayBackend(backend);
+            long start = System.nanoTime();
+            mesh.finishPolygonFeeding(domain);
+            triangleCount[0] = mesh.getTriangleMesh().getTriangleCount();
+            durations[round] = System.nanoTime() - start;
+        }
+        Arrays.sort(durations);
+        return durations[ROUNDS / 2];
+    }
+
+    @Test
+    public void benchmarkTriangulation() throws LayerDelaunayError {
+        int[] poly2TriCount = new int[1];
+        int[] arraysCount = new int[1];
+        // Warm up
+        triangulationNanos(MeshBuilder.DelaunayBackend.POLY2TRI, poly2TriCount);
+        triangulationNanos(MeshBuilder.DelaunayBackend.PRIMITIVE_ARRAYS, arraysCount);
+        long poly2Tri = triangulationNanos(MeshBuilder.DelaunayBackend.POLY2TRI, poly2TriCount);
+        long arrays = triangulationNanos(MeshBuilder.DelaunayBackend.PRIMITIVE_ARRAYS, arraysCount);
+        Benchmarks.report("Triangulation of " + 2 * BLOCKS * BLOCKS + " footprints", poly2Tri, arrays,
+                Math.max(1, arraysCount[0]));
+        System.out.println(String.format(Locale.ROOT, "%-48s poly2tri %d triangles, arrays %d triangles", "",
+                poly2TriCount[0], arraysCount[0]));
+    }
+}
@@ -0,0 +1,85 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+
+public class WallQueryCacheTest {
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    private static Polygon square(double minX, double minY, double maxX, double maxY) {
+        return FACTORY.createPolygon(new Coordinate[] {new Coordinate(minX, minY), new Coordinate(maxX, minY),
+                new Coordinate(maxX, maxY), new Coordinate(minX, maxY), new Coordinate(minX, minY)});
+    }
+
+    /**
+     * Building with a closed courtyard and a thin wall, the walls of a grid cell differ from one side to the other
+     */
+    private static FastObstructionTest makeMesh() throws LayerDelaunayError {
+        MeshBuilder mesh = new MeshBuilder();
+        LinearRing shell = (LinearRing) square(20, 20, 60, 60).getExteriorRing();
+        LinearRing hole = (LinearRing) square(30, 30, 50, 50).getExteriorRing();
+        mesh.addGeometry(FACTORY.createPolygon(shell, new LinearRing[] {hole}), 10);
+        mesh.addGeometry(square(80, 0, 81, 60), 10);
+        mesh.addGeometry(square(100, 70, 110, 80), 10);
+        mesh.finishPolygonFeeding(new Envelope(-50, 200, -50, 200));
+        return new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangleMesh());
+    }
+
+    private static Set<FastObstructionTest.Wall> asSet(List<FastObstructionTest.Wall> walls) {
+        Set<FastObstructionTest.Wall> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.addAll(walls);
+        return set;
+    }
+
+    private static void assertSameRegionWalls(FastObstructionTest mesh, WallQueryCache cache, double maxDist,
+                                              Coordinate p) {
+        Set<FastObstructionTest.Wall> expected = asSet(mesh.getLimitsInRange(maxDist, p, false));
+        List<FastObstructionTest.Wall> cached = cache.getLimitsInRange(p);
+        Set<FastObstructionTest.Wall> got = asSet(cached);
+        assertTrue(got.containsAll(expected), "Missing walls at " + p);
+        for(FastObstructionTest.Wall wall : cached) {
+            assertTrue(wall.distance(p) <= maxDist + 1e-6, "Wall out of range at " + p);
+        }
+    }
+
+    @Test
+    public void testCourtyardInSameGridCell() throws LayerDelaunayError {
+        FastObstructionTest mesh = makeMesh();
+        double maxDist = 15;
+        // A single grid cell covers the courtyard and the outside of the building
+        WallQueryCache cache = new WallQueryCache(mesh, maxDist, 100, 64);
+        Coordinate outside = new Coordinate(10, 10);
+        Coordinate courtyard = new Coordinate(40, 40);
+        assertSameRegionWalls(mesh, cache, maxDist, outside);
+        assertSameRegionWalls(mesh, cache, maxDist, courtyard);
+        // Both regions are now in the cache
+        assertSameRegionWalls(mesh, cache, maxDist, new Coordinate(11, 11));
+        assertSameRegionWalls(mesh, cache, maxDist, new Coordinate(41, 41));
+        assertFalse(cache.getLimitsInRange(courtyard).isEmpty());
+    }
+
+    @Test
+    public void testGridMatchesDirectQuery() throws LayerDelaunayError {
+        FastObstructionTest mesh = makeMesh();
+        double maxDist = 25;
+        WallQueryCache cache = new WallQueryCache(mesh, maxDist, 7, 16);
+        for(double x = -20; x < 150; x += 3.1) {
+            for(double y = -20; y < 150; y += 2.9) {
+                assertSameRegionWalls(mesh, cache, maxDist, new Coordinate(x, y));
+            }
+        }
+        assertTrue(cache.getHitCount() > 0);
+    }
+}
@@ -0,0 +1,248 @@
+package org.noise_planet.noisemodelling.propagation.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.h2gis.functions.factory.H2GISFunctions;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.SpatialResultSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.noise_planet.noisemodelling.propagation.AttenuationMatrix;
+import org.noise_planet.noisemodelling.propagation.ComputeRays;
+import org.noise_planet.noisemodelling.propagation.FastObstructionTest;
+import org.noise_planet.noisemodelling.propagation.PropagationProcessData;
+import org.noise_planet.noisemodelling.propagation.PropagationProcessPathData;
+
+public class IncrementalPointNoiseMapTest {
+    private Connection connection;
+
+    @TempDir
+    Path temporaryFolder;
+
+    /**
+     * Cell data reading the power of the sources from the LW field, in dB for all the frequency bands
+     */
+    private static class PowerProcessData extends PropagationProcessData {
+        private final List<double[]> sourcePower = new ArrayList<>();
+        private final boolean fail;
+
+        PowerProcessData(FastObstructionTest freeFieldFinder, boolean fail) {
+            super(freeFieldFinder);
+            this.fail = fail;
+        }
+
+        @Override
+        public void addSource(Long pk, Geometry geom, SpatialResultSet rs) throws SQLException {
+            if (fail) {
+                throw new IllegalStateException("Source fetching failure");
+            }
+            super.addSource(pk, geom, rs);
+            double[] power = new double[PropagationProcessPathData.freq_lvl.size()];
+            for (int idf = 0; idf < power.length; idf++) {
+                power[idf] = ComputeRays.dbaToW(rs.getDouble("LW"));
+            }
+            sourcePower.add(power);
+        }
+
+        @Override
+        public double[] getMaximalSourcePower(int sourceId) {
+            return sourcePower.get(sourceId);
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        connection = JDBCUtilities.wrapConnection(DriverManager.getConnection("jdbc:h2:mem:incrementalPointNoiseMap",
+                "sa", ""));
+        H2GISFunctions.load(connection);
+        // Function loading leaves the connection in a transaction
+        connection.setAutoCommit(true);
+        try (Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE BUILDINGS(PK integer PRIMARY KEY, THE_GEOM GEOMETRY)");
+            st.execute("INSERT INTO BUILDINGS VALUES (1, 'POLYGON((40 40, 60 40, 60 60, 40 60, 40 40))')");
+            st.execute("CREATE TABLE SOURCES(PK integer PRIMARY KEY, THE_GEOM GEOMETRY, LW double precision)");
+            st.execute("INSERT INTO SOURCES VALUES (1, 'POINTZ(20 50 1)', 90), (2, 'POINTZ(50 90 1)', 80), " +
+                    "(3, 'POINTZ(80 20 1)', 85)");
+            st.execute("CREATE TABLE RECEIVERS(PK integer PRIMARY KEY, THE_GEOM GEOMETRY)");
+            st.execute("INSERT INTO RECEIVERS VALUES (1, 'POINTZ(80 50 4)'), (2, 'POINTZ(50 20 4)'), " +
+                    "(3, 'POINTZ(10 80 4)'), (4, 'POINTZ(0 0 4)')");
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        // The in-memory database is removed with its last connection
+        connection.close();
+    }
+
+    private IncrementalPointNoiseMap makeNoiseMap(String contributionTable, final boolean fail) throws SQLException {
+        IncrementalPointNoiseMap noiseMap = new IncrementalPointNoiseMap("BUILDINGS", "SOURCES", "RECEIVERS",
+                contributionTable);
+        noiseMap.setMaximumPropagationDistance(200);
+        noiseMap.setMaximumReflectionDistance(50);
+        noiseMap.setSoundReflectionOrder(1);
+        noiseMap.setComputeHorizontalDiffraction(true);
+        noiseMap.setPropagationProcessDataFactory(new PointNoiseMap.PropagationProcessDataFactory() {
+            @Override
+            public PropagationProcessData create(FastObstructionTest freeFieldFinder) {
+                return new PowerProcessData(freeFieldFinder, fail);
+            }
+        });
+        noiseMap.setMainEnvelope(new Envelope(-10, 110, -10, 110));
+        noiseMap.initialize(connection, null);
+        return noiseMap;
+    }
+
+    private Map<Long, double[]> readLevels(String tableName) throws SQLException {
+        Map<Long, double[]> levels = new TreeMap<>();
+        int bandCount = PropagationProcessPathData.freq_lvl.size();
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT * FROM " + tableName)) {
+            while (rs.next()) {
+                double[] level = new double[bandCount];
+                for (int idf = 0; idf < bandCount; idf++) {
+                    level[idf] = rs.getDouble(2 + idf);
+                }
+                levels.put(rs.getLong(1), level);
+            }
+        }
+        return levels;
+    }
+
+    private static void assertLevelsEquals(Map<Long, double[]> expected, Map<Long, double[]> got) {
+        assertEquals(expected.keySet(), got.keySet());
+        for (Map.Entry<Long, double[]> entry : expected.entrySet()) {
+            double[] level = got.get(entry.getKey());
+            for (int idf = 0; idf < level.length; idf++) {
+                assertEquals(entry.getValue()[idf], level[idf], 1e-6, "Receiver " + entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Only the emission of a source is changed, the receiver levels must follow and match a complete evaluation
+     */
+    @Test
+    public void testEmissionChange() throws SQLException {
+        IncrementalPointNoiseMap noiseMap = makeNoiseMap("CONTRIBUTIONS", false);
+        assertTrue(noiseMap.evaluate(connection, null) > 0);
+        Map<Long, double[]> before = readLevels(noiseMap.getReceiverLevelsTableName());
+        assertFalse(before.isEmpty());
+        try (Statement st = connection.createStatement()) {
+            st.execute("UPDATE SOURCES SET LW = 100 WHERE PK = 1");
+        }
+        assertTrue(noiseMap.evaluate(connection, null) > 0);
+        Map<Long, double[]> after = readLevels(noiseMap.getReceiverLevelsTableName());
+        boolean changed = false;
+        for (Map.Entry<Long, double[]> entry : after.entrySet()) {
+            for (int idf = 0; idf < entry.getValue().length; idf++) {
+                assertTrue(entry.getValue()[idf] >= before.get(entry.getKey())[idf] - 1e-6);
+                changed |= entry.getValue()[idf] > before.get(entry.getKey())[idf] + 1;
+            }
+        }
+        assertTrue(changed, "Receiver levels did not change with the source emission");
+        IncrementalPointNoiseMap reference = makeNoiseMap("REFERENCE", false);
+        reference.evaluate(connection, null);
+        assertLevelsEquals(readLevels(reference.getReceiverLevelsTableName()), after);
+    }
+
+    /**
+     * A failed evaluation must not change the tables, the next evaluation computes the changes again
+     */
+    @Test
+    public void testRollback() throws SQLException {
+        IncrementalPointNoiseMap noiseMap = makeNoiseMap("CONTRIBUTIONS", false);
+        noiseMap.evaluate(connection, null);
+        Map<Long, double[]> before = readLevels(noiseMap.getReceiverLevelsTableName());
+        try (Statement st = connection.createStatement()) {
+            st.execute("UPDATE SOURCES SET LW = 70 WHERE PK = 3");
+        }
+        IncrementalPointNoiseMap failingNoiseMap = makeNoiseMap("CONTRIBUTIONS", true);
+        assertThrows(RuntimeException.class, () -> failingNoiseMap.evaluate(connection, null));
+        assertTrue(connection.getAutoCommit());
+        assertLevelsEquals(before, readLevels(noiseMap.getReceiverLevelsTableName()));
+        assertTrue(noiseMap.evaluate(connection, null) > 0);
+        IncrementalPointNoiseMap reference = makeNoiseMap("REFERENCE", false);
+        reference.evaluate(connection, null);
+        assertLevelsEquals(readLevels(reference.getReceiverLevelsTableName()),
+                readLevels(noiseMap.getReceiverLevelsTableName()));
+    }
+
+    /**
+     * A failed first evaluation must not leave a contribution table, the next evaluation computes all receivers
+     */
+    @Test
+    public void testRollbackFirstEvaluation() throws SQLException {
+        IncrementalPointNoiseMap failingNoiseMap = makeNoiseMap("CONTRIBUTIONS", true);
+        assertThrows(RuntimeException.class, () -> failingNoiseMap.evaluate(connection, null));
+        IncrementalPointNoiseMap noiseMap = makeNoiseMap("CONTRIBUTIONS", false);
+        noiseMap.evaluate(connection, null);
+        IncrementalPointNoiseMap reference = makeNoiseMap("REFERENCE", false);
+        reference.evaluate(connection, null);
+        assertLevelsEquals(readLevels(reference.getReceiverLevelsTableName()),
+                readLevels(noiseMap.getReceiverLevelsTableName()));
+    }
+
+    /**
+     * Levels of the stored attenuation matrix of each cell and of the source emissions must match the evaluated levels
+     */
+    @Test
+    public void testAttenuationMatrix() throws SQLException, IOException {
+        IncrementalPointNoiseMap noiseMap = makeNoiseMap("CONTRIBUTIONS", false);
+        noiseMap.evaluate(connection, null);
+        Map<Long, double[]> expected = readLevels(noiseMap.getReceiverLevelsTableName());
+        Map<Long, Double> sourcePower = new TreeMap<>();
+        sourcePower.put(1L, ComputeRays.dbaToW(90));
+        sourcePower.put(2L, ComputeRays.dbaToW(80));
+        sourcePower.put(3L, ComputeRays.dbaToW(85));
+        Map<Long, double[]> levels = new TreeMap<>();
+        Set<Long> skipReceivers = new HashSet<>();
+        for (int ij = 0; ij < noiseMap.getGridDim() * noiseMap.getGridDim(); ij++) {
+            File file = temporaryFolder.resolve("cell" + ij + ".matrix").toFile();
+            noiseMap.evaluateAttenuationMatrix(connection, ij / noiseMap.getGridDim(), ij % noiseMap.getGridDim(),
+                    null, skipReceivers).save(file);
+            AttenuationMatrix matrix = AttenuationMatrix.load(file);
+            int bandCount = matrix.getBandCount();
+            double[] power = new double[matrix.getSourceCount() * bandCount];
+            for (int s = 0; s < matrix.getSourceCount(); s++) {
+                for (int idf = 0; idf < bandCount; idf++) {
+                    power[s * bandCount + idf] = sourcePower.get(matrix.getSourcePk(s));
+                }
+            }
+            double[] energy = matrix.multiply(power);
+            for (int r = 0; r < matrix.getReceiverCount(); r++) {
+                if (energy[r * bandCount] > 0) {
+                    double[] level = new double[bandCount];
+                    for (int idf = 0; idf < bandCount; idf++) {
+                        level[idf] = ComputeRays.wToDba(energy[r * bandCount + idf]);
+                    }
+                    levels.put(matrix.getReceiverPk(r), level);
+                }
+            }
+        }
+        assertFalse(levels.isEmpty());
+        assertLevelsEquals(expected, levels);
+    }
+}